@@ -0,0 +1,144 @@
+-- Lo script si può rieseguire: MySQL non ha CREATE INDEX / ADD COLUMN IF NOT EXISTS, quindi indici e
+-- colonne sono creati con un'istruzione preparata solo se assenti da information_schema ('DO 0' altrimenti)
+
+-- Sketch HyperLogLog dei visitatori unici per prodotto e giorno
+CREATE TABLE IF NOT EXISTS product_view_sketches (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    product_id BIGINT NOT NULL,
+    bucket_date DATE NOT NULL,
+    registers BLOB NOT NULL,
+    updated_at DATETIME(6) NOT NULL,
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_product_view_sketches_product_bucket (product_id, bucket_date),
+    KEY idx_product_view_sketches_bucket_date (bucket_date)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Indici per il feed delle modifiche del catalogo (paginazione keyset su updated_at, id)
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE()
+                  AND table_name = 'products' AND index_name = 'idx_products_updated_at_id') = 0,
+    'CREATE INDEX idx_products_updated_at_id ON products (updated_at, id)', 'DO 0');
+PREPARE ddl FROM @ddl;
+EXECUTE ddl;
+DEALLOCATE PREPARE ddl;
+
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE()
+                  AND table_name = 'categories' AND index_name = 'idx_categories_updated_at_id') = 0,
+    'CREATE INDEX idx_categories_updated_at_id ON categories (updated_at, id)', 'DO 0');
+PREPARE ddl FROM @ddl;
+EXECUTE ddl;
+DEALLOCATE PREPARE ddl;
+
+-- Totali del carrello mantenuti incrementalmente (importo in centesimi, pezzi e righe)
+SET @carts_totals_missing = (SELECT COUNT(*) = 0 FROM information_schema.columns WHERE table_schema = DATABASE()
+                                 AND table_name = 'carts' AND column_name = 'subtotal_minor');
+
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE()
+                  AND table_name = 'carts' AND column_name = 'subtotal_minor') = 0,
+    'ALTER TABLE carts ADD COLUMN subtotal_minor BIGINT NOT NULL DEFAULT 0', 'DO 0');
+PREPARE ddl FROM @ddl;
+EXECUTE ddl;
+DEALLOCATE PREPARE ddl;
+
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE()
+                  AND table_name = 'carts' AND column_name = 'item_count') = 0,
+    'ALTER TABLE carts ADD COLUMN item_count INT NOT NULL DEFAULT 0', 'DO 0');
+PREPARE ddl FROM @ddl;
+EXECUTE ddl;
+DEALLOCATE PREPARE ddl;
+
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE()
+                  AND table_name = 'carts' AND column_name = 'line_count') = 0,
+    'ALTER TABLE carts ADD COLUMN line_count INT NOT NULL DEFAULT 0', 'DO 0');
+PREPARE ddl FROM @ddl;
+EXECUTE ddl;
+DEALLOCATE PREPARE ddl;
+
+-- Valori iniziali calcolati dalle righe, solo quando le colonne sono appena state aggiunte
+UPDATE carts c
+    LEFT JOIN (SELECT cart_id,
+                      SUM(ROUND(unit_price * 100) * quantity) AS subtotal_minor,
+                      SUM(quantity) AS item_count,
+                      COUNT(*) AS line_count
+               FROM cart_items
+               GROUP BY cart_id) t ON t.cart_id = c.id
+SET c.subtotal_minor = COALESCE(t.subtotal_minor, 0),
+    c.item_count = COALESCE(t.item_count, 0),
+    c.line_count = COALESCE(t.line_count, 0)
+WHERE @carts_totals_missing = 1;
+
+-- Versione per il lock ottimistico del carrello (le modifiche concorrenti non si sovrascrivono i totali)
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE()
+                  AND table_name = 'carts' AND column_name = 'version') = 0,
+    'ALTER TABLE carts ADD COLUMN version BIGINT NOT NULL DEFAULT 0', 'DO 0');
+PREPARE ddl FROM @ddl;
+EXECUTE ddl;
+DEALLOCATE PREPARE ddl;
+
+-- Checkpoint dei job a blocchi (cursore, esecuzione in corso e lock tra istanze)
+CREATE TABLE IF NOT EXISTS job_checkpoints (
+    job_name VARCHAR(100) NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    cursor_id BIGINT NOT NULL DEFAULT 0,
+    cutoff_at DATETIME(6) NULL,
+    processed_count BIGINT NOT NULL DEFAULT 0,
+    started_at DATETIME(6) NULL,
+    locked_by VARCHAR(150) NULL,
+    locked_until DATETIME(6) NULL,
+    updated_at DATETIME(6) NOT NULL,
+    PRIMARY KEY (job_name)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Scansione keyset dei carrelli aperti per ID (sweep dei carrelli abbandonati)
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE()
+                  AND table_name = 'carts' AND index_name = 'idx_carts_status_id') = 0,
+    'CREATE INDEX idx_carts_status_id ON carts (status, id)', 'DO 0');
+PREPARE ddl FROM @ddl;
+EXECUTE ddl;
+DEALLOCATE PREPARE ddl;
+
+-- Prenotazioni temporanee dello stock all'aggiunta al carrello (drop a quantità limitata)
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE()
+                  AND table_name = 'products' AND column_name = 'hold_on_add') = 0,
+    'ALTER TABLE products ADD COLUMN hold_on_add BIT(1) NOT NULL DEFAULT 0', 'DO 0');
+PREPARE ddl FROM @ddl;
+EXECUTE ddl;
+DEALLOCATE PREPARE ddl;
+
+CREATE TABLE IF NOT EXISTS stock_holds (
+    product_id BIGINT NOT NULL,
+    user_id BIGINT NOT NULL,
+    quantity INT NOT NULL,
+    expires_at DATETIME(6) NOT NULL,
+    PRIMARY KEY (product_id, user_id),
+    KEY idx_stock_holds_user (user_id),
+    KEY idx_stock_holds_expires_at (expires_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Outbox transazionale: eventi di ordini, pagamenti e stock scritti insieme alla modifica di stato
+CREATE TABLE IF NOT EXISTS outbox_events (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    aggregate_type VARCHAR(30) NOT NULL,
+    aggregate_id BIGINT NOT NULL,
+    event_type VARCHAR(50) NOT NULL,
+    payload JSON NOT NULL,
+    created_at DATETIME(6) NOT NULL,
+    published_at DATETIME(6) NULL,
+    next_attempt_at DATETIME(6) NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    last_error VARCHAR(500) NULL,
+    PRIMARY KEY (id),
+    KEY idx_outbox_events_published_id (published_at, id),
+    KEY idx_outbox_events_aggregate (aggregate_type, aggregate_id, published_at, id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Storico dei passaggi di stato degli ordini (solo inserimenti, al posto delle righe aggiunte alle note)
+CREATE TABLE IF NOT EXISTS order_status_events (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    order_id BIGINT NOT NULL,
+    from_status VARCHAR(20) NULL,
+    to_status VARCHAR(20) NOT NULL,
+    note VARCHAR(500) NULL,
+    created_at DATETIME(6) NOT NULL,
+    PRIMARY KEY (id),
+    KEY idx_order_status_events_order (order_id, id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
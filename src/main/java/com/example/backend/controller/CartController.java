@@ -1,7 +1,5 @@
 package com.example.backend.controller;
 
-import java.util.Optional;
-
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -15,12 +13,14 @@ import org.springframework.web.bind.annotation.RestController;
 
 import com.example.backend.dto.AddToCartRequestDto;
 import com.example.backend.dto.ApiResponse;
+import com.example.backend.dto.CartBatchRequestDto;
 import com.example.backend.dto.CartItemResponseDto;
 import com.example.backend.dto.CartResponseDto;
+import com.example.backend.dto.PriceQuoteDto;
+import com.example.backend.dto.PriceQuoteRequestDto;
 import com.example.backend.dto.UpdateCartItemRequestDto;
-import com.example.backend.model.Cart;
-import com.example.backend.model.CartItem;
 import com.example.backend.service.CartService;
+import com.example.backend.service.PriceQuoteService;
 
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
@@ -34,7 +34,9 @@ import lombok.extern.slf4j.Slf4j;
 public class CartController {
     
     private static final String INTERNAL_SERVER_ERROR = "Errore interno del server";
+    private static final int MAX_BATCH_OPERATIONS = 100;
     private final CartService cartService;
+    private final PriceQuoteService priceQuoteService;
     
     /**
      * GET /api/cart/user/{userId}
@@ -45,17 +47,8 @@ public class CartController {
         log.info("Richiesta carrello per utente: {}", userId);
         
         try {
-            Optional<Cart> cartOpt = cartService.getActiveCart(userId);
-            
-            if (cartOpt.isPresent()) {
-                CartResponseDto cartDto = new CartResponseDto(cartOpt.get());
-                return ResponseEntity.ok(ApiResponse.success("Carrello recuperato con successo", cartDto));
-            } else {
-                // Crea carrello vuoto se non esiste
-                Cart newCart = cartService.getOrCreateActiveCart(userId);
-                CartResponseDto cartDto = new CartResponseDto(newCart);
-                return ResponseEntity.ok(ApiResponse.success("Nuovo carrello creato", cartDto));
-            }
+            CartResponseDto cartDto = cartService.getCartView(userId);
+            return ResponseEntity.ok(ApiResponse.success("Carrello recuperato con successo", cartDto));
             
         } catch (Exception e) {
             log.error("Errore durante il recupero del carrello per utente {}: {}", userId, e.getMessage(), e);
@@ -76,13 +69,12 @@ public class CartController {
                 request.getProductId(), userId, request.getQuantity());
         
         try {
-            CartItem cartItem = cartService.addProductToCart(
+            CartItemResponseDto itemDto = cartService.addItem(
                     userId, 
                     request.getProductId(), 
                     request.getQuantity()
             );
             
-            CartItemResponseDto itemDto = new CartItemResponseDto(cartItem);
             return ResponseEntity.ok(ApiResponse.success("Prodotto aggiunto al carrello", itemDto));
             
         } catch (IllegalArgumentException e) {
@@ -112,13 +104,12 @@ public class CartController {
                 request.getProductId(), userId, request.getQuantity());
         
         try {
-            CartItem cartItem = cartService.updateCartItemQuantity(
+            CartItemResponseDto itemDto = cartService.updateItem(
                     userId, 
                     request.getProductId(), 
                     request.getQuantity()
             );
             
-            CartItemResponseDto itemDto = new CartItemResponseDto(cartItem);
             return ResponseEntity.ok(ApiResponse.success("Quantità aggiornata", itemDto));
             
         } catch (IllegalArgumentException e) {
@@ -136,6 +127,78 @@ public class CartController {
         }
     }
     
+    /**
+     * POST /api/cart/user/{userId}/batch
+     * Applica più operazioni in un'unica transazione, tutte o nessuna:
+     * {"operations": [{"type": "ADD"|"UPDATE"|"REMOVE", "productId": 1, "quantity": 2}]}
+     */
+    @PostMapping("/user/{userId}/batch")
+    public ResponseEntity<ApiResponse<CartResponseDto>> applyCartOperations(
+            @PathVariable Long userId,
+            @Valid @RequestBody CartBatchRequestDto request) {
+        log.info("Richiesta di {} operazioni sul carrello utente {}", request.getOperations().size(), userId);
+        
+        try {
+            if (request.getOperations().size() > MAX_BATCH_OPERATIONS) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Si possono inviare al massimo " + MAX_BATCH_OPERATIONS + " operazioni per richiesta"));
+            }
+            
+            CartResponseDto cartDto = cartService.applyOperations(userId, request.getOperations());
+            return ResponseEntity.ok(ApiResponse.success("Carrello aggiornato", cartDto));
+            
+        } catch (IllegalArgumentException e) {
+            log.warn("Richiesta non valida per le operazioni sul carrello: {}", e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(e.getMessage()));
+        } catch (RuntimeException e) {
+            log.error("Errore durante le operazioni sul carrello: {}", e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(e.getMessage()));
+        } catch (Exception e) {
+            log.error("Errore interno durante le operazioni sul carrello: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error(INTERNAL_SERVER_ERROR));
+        }
+    }
+    
+    /**
+     * POST /api/cart/user/{userId}/quote
+     * Preventivo senza modificare il carrello: {"lines": [{"productId": 1, "quantity": 2}],
+     * "couponCode": "...", "shippingMethod": "STANDARD"|"EXPRESS"}; senza righe usa il carrello attuale.
+     * Sconto, spedizione, IVA e totale sono stime: il checkout addebita {@code chargeableAmount}
+     */
+    @PostMapping("/user/{userId}/quote")
+    public ResponseEntity<ApiResponse<PriceQuoteDto>> quoteCart(
+            @PathVariable Long userId,
+            @Valid @RequestBody(required = false) PriceQuoteRequestDto request) {
+        log.debug("Richiesta preventivo per il carrello utente {}", userId);
+        
+        try {
+            PriceQuoteRequestDto quoteRequest = request != null ? request : new PriceQuoteRequestDto();
+            if (quoteRequest.getLines() != null && quoteRequest.getLines().size() > MAX_BATCH_OPERATIONS) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Si possono inviare al massimo " + MAX_BATCH_OPERATIONS + " righe per richiesta"));
+            }
+            
+            PriceQuoteDto quote = priceQuoteService.quote(userId, quoteRequest);
+            return ResponseEntity.ok(ApiResponse.success("Preventivo calcolato", quote));
+            
+        } catch (IllegalArgumentException e) {
+            log.warn("Richiesta di preventivo non valida: {}", e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(e.getMessage()));
+        } catch (RuntimeException e) {
+            log.warn("Impossibile calcolare il preventivo per utente {}: {}", userId, e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(e.getMessage()));
+        } catch (Exception e) {
+            log.error("Errore interno durante il calcolo del preventivo: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error(INTERNAL_SERVER_ERROR));
+        }
+    }
+    
     /**
      * DELETE /api/cart/user/{userId}/remove/{productId}
      * Rimuove un prodotto dal carrello
@@ -147,7 +210,7 @@ public class CartController {
         log.info("Rimozione prodotto {} dal carrello utente {}", productId, userId);
         
         try {
-            cartService.removeProductFromCart(userId, productId);
+            cartService.removeItem(userId, productId);
             return ResponseEntity.ok(ApiResponse.success("Prodotto rimosso dal carrello", null));
             
         } catch (RuntimeException e) {
@@ -170,7 +233,7 @@ public class CartController {
         log.info("Svuotamento carrello per utente: {}", userId);
         
         try {
-            cartService.clearCart(userId);
+            cartService.clearItems(userId);
             return ResponseEntity.ok(ApiResponse.success("Carrello svuotato", null));
             
         } catch (Exception e) {
@@ -189,7 +252,7 @@ public class CartController {
         log.info("Richiesta conteggio item carrello per utente: {}", userId);
         
         try {
-            int itemCount = cartService.getCartItemCount(userId);
+            int itemCount = cartService.getItemCount(userId);
             return ResponseEntity.ok(ApiResponse.success("Conteggio item recuperato", itemCount));
             
         } catch (Exception e) {
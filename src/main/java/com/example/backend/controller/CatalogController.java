@@ -0,0 +1,147 @@
+package com.example.backend.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.backend.dto.ApiResponse;
+import com.example.backend.dto.CatalogChangesDto;
+import com.example.backend.dto.ImportJobDto;
+import com.example.backend.service.CatalogChangeService;
+import com.example.backend.service.CatalogExportService;
+import com.example.backend.service.ProductImportService;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+@RestController
+@RequestMapping("/api/catalog")
+@RequiredArgsConstructor
+@Slf4j
+@CrossOrigin(origins = "*")
+public class CatalogController {
+    
+    private static final String INTERNAL_SERVER_ERROR = "Errore interno del server";
+    private static final int MAX_CHANGES_LIMIT = 1000;
+    
+    private final CatalogChangeService catalogChangeService;
+    private final CatalogExportService catalogExportService;
+    private final ProductImportService productImportService;
+    
+    /**
+     * GET /api/catalog/changes?cursor=...&limit=500
+     * Modifiche a prodotti e categorie successive al cursore (senza cursore: dall'inizio).
+     * Il client salva nextCursor e ripete la richiesta finché hasMore è true.
+     */
+    @GetMapping("/changes")
+    public ResponseEntity<ApiResponse<CatalogChangesDto>> getChanges(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false, defaultValue = "500") Integer limit) {
+        log.info("Richiesta modifiche catalogo (limit: {})", limit);
+        
+        try {
+            if (limit < 1 || limit > MAX_CHANGES_LIMIT) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Il parametro 'limit' deve essere compreso tra 1 e " + MAX_CHANGES_LIMIT));
+            }
+            
+            CatalogChangesDto changes = catalogChangeService.getChangesSince(cursor, limit);
+            return ResponseEntity.ok(ApiResponse.success("Modifiche del catalogo recuperate con successo", changes));
+            
+        } catch (IllegalArgumentException e) {
+            log.warn("Cursore del feed modifiche non valido: {}", cursor);
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("Cursore non valido"));
+        } catch (Exception e) {
+            log.error("Errore durante il recupero delle modifiche del catalogo: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error(INTERNAL_SERVER_ERROR));
+        }
+    }
+    
+    /**
+     * GET /api/catalog/export?format=ndjson|csv
+     * Export in streaming dell'intero catalogo attivo per i feed esterni
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportCatalog(
+            @RequestParam(value = "format", required = false, defaultValue = "ndjson") String format) {
+        log.info("Richiesta export catalogo in formato {}", format);
+        
+        CatalogExportService.Format exportFormat;
+        try {
+            exportFormat = CatalogExportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("Formato di export non valido: {}", format);
+            return ResponseEntity.badRequest().build();
+        }
+        
+        MediaType contentType = exportFormat == CatalogExportService.Format.CSV
+                ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                : MediaType.APPLICATION_NDJSON;
+        String fileName = "catalog." + exportFormat.name().toLowerCase(Locale.ROOT);
+        
+        // Il corpo viene scritto dopo il return, direttamente sullo stream della risposta
+        StreamingResponseBody body = output -> catalogExportService.export(exportFormat, output);
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
+                .body(body);
+    }
+    
+    /**
+     * POST /api/catalog/import?format=csv|ndjson (multipart, campo "file")
+     * Avvia l'import massivo di prodotti in background e restituisce il job
+     */
+    @PostMapping("/import")
+    public ResponseEntity<ApiResponse<ImportJobDto>> importProducts(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "format", required = false, defaultValue = "csv") String format) {
+        log.info("Richiesta import prodotti: {} ({} byte, formato {})", file.getOriginalFilename(), file.getSize(), format);
+        
+        try {
+            if (file.isEmpty()) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Il file da importare è vuoto"));
+            }
+            
+            ProductImportService.Format importFormat = ProductImportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+            ImportJobDto job = productImportService.startImport(importFormat, file.getInputStream());
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(ApiResponse.success("Import avviato", job));
+            
+        } catch (IllegalArgumentException e) {
+            log.warn("Formato di import non valido: {}", format);
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("Formato non valido: " + format + " (valori ammessi: csv, ndjson)"));
+        } catch (Exception e) {
+            log.error("Errore durante l'avvio dell'import prodotti: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error(INTERNAL_SERVER_ERROR));
+        }
+    }
+    
+    /**
+     * GET /api/catalog/import/{jobId}
+     * Avanzamento di un import: righe lette, importate, scartate e primi scarti
+     */
+    @GetMapping("/import/{jobId}")
+    public ResponseEntity<ApiResponse<ImportJobDto>> getImportJob(@PathVariable String jobId) {
+        return productImportService.getJob(jobId)
+                .map(job -> ResponseEntity.ok(ApiResponse.success("Stato import recuperato", job)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.backend.controller;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,15 +18,21 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import com.example.backend.dto.ApiResponse;
 import com.example.backend.dto.CategoryRequestDto;
 import com.example.backend.dto.CategoryResponseDto;
 import com.example.backend.dto.ProductResponseDto;
+import com.example.backend.dto.UniqueViewersDto;
 import com.example.backend.model.Category;
 import com.example.backend.model.Product;
 import com.example.backend.repository.CategoryRepository;
 import com.example.backend.repository.ProductRepository;
+import com.example.backend.service.CatalogVersionService;
+import com.example.backend.service.ProductViewService;
+import com.example.backend.service.RelatedProductsService;
+import com.example.backend.util.EntityTags;
 
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
@@ -41,16 +48,23 @@ public class CategoryController {
     private static final String INTERNAL_SERVER_ERROR = "Errore interno del server";
     private final CategoryRepository categoryRepository;
     private final ProductRepository productRepository;
+    private final ProductViewService productViewService;
+    private final RelatedProductsService relatedProductsService;
+    private final CatalogVersionService catalogVersionService;
     
     /**
      * GET /api/categories
      * Ottiene tutte le categorie
      */
     @GetMapping
-    public ResponseEntity<ApiResponse<List<CategoryResponseDto>>> getAllCategories() {
+    public ResponseEntity<ApiResponse<List<CategoryResponseDto>>> getAllCategories(WebRequest webRequest) {
         log.info("Richiesta tutte le categorie");
         
         try {
+            if (webRequest.checkNotModified(EntityTags.weak("categories", catalogVersionService.currentVersion()))) {
+                return null;
+            }
+            
             List<Category> categories = categoryRepository.findByActiveTrue();
             List<CategoryResponseDto> categoryDtos = categories.stream()
                     .map(CategoryResponseDto::new)
@@ -70,10 +84,19 @@ public class CategoryController {
      * Ottiene una categoria per ID
      */
     @GetMapping("/{id}")
-    public ResponseEntity<ApiResponse<CategoryResponseDto>> getCategoryById(@PathVariable Long id) {
+    public ResponseEntity<ApiResponse<CategoryResponseDto>> getCategoryById(@PathVariable Long id, WebRequest webRequest) {
         log.info("Richiesta categoria con ID: {}", id);
         
         try {
+            // Controllo condizionale sul solo updated_at, prima di caricare l'entity
+            Optional<LocalDateTime> updatedAt = categoryRepository.findUpdatedAtByIdAndActiveTrue(id);
+            if (updatedAt.isPresent()) {
+                long lastModified = EntityTags.epochMillis(updatedAt.get());
+                if (webRequest.checkNotModified(EntityTags.weak("category", id, EntityTags.epochMicros(updatedAt.get())), lastModified)) {
+                    return null;
+                }
+            }
+            
             Optional<Category> categoryOpt = categoryRepository.findByIdAndActiveTrue(id);
             
             if (categoryOpt.isPresent()) {
@@ -145,6 +168,7 @@ public class CategoryController {
             category.setActive(true);
             
             Category savedCategory = categoryRepository.save(category);
+            catalogVersionService.bumpAfterCommit();
             CategoryResponseDto categoryDto = new CategoryResponseDto(savedCategory);
             
             return ResponseEntity.ok(ApiResponse.success("Categoria creata con successo", categoryDto));
@@ -186,6 +210,7 @@ public class CategoryController {
             category.setDescription(request.getDescription());
             
             Category savedCategory = categoryRepository.save(category);
+            catalogVersionService.bumpAfterCommit();
             CategoryResponseDto categoryDto = new CategoryResponseDto(savedCategory);
             
             return ResponseEntity.ok(ApiResponse.success("Categoria aggiornata con successo", categoryDto));
@@ -224,6 +249,8 @@ public class CategoryController {
             // Disattiva la categoria invece di eliminarla fisicamente
             category.setActive(false);
             categoryRepository.save(category);
+            relatedProductsService.refreshCategory(id);
+            catalogVersionService.bumpAfterCommit();
             
             return ResponseEntity.ok(ApiResponse.success("Categoria eliminata con successo", null));
             
@@ -291,6 +318,37 @@ public class CategoryController {
         }
     }
     
+    /**
+     * GET /api/categories/{id}/unique-viewers?days=30
+     * Stima dei visitatori unici dei prodotti della categoria
+     */
+    @GetMapping("/{id}/unique-viewers")
+    public ResponseEntity<ApiResponse<UniqueViewersDto>> getCategoryUniqueViewers(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "30") int days) {
+        log.info("Richiesta visitatori unici per categoria {} (days: {})", id, days);
+        
+        try {
+            if (days < 1 || days > 365) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Il parametro 'days' deve essere compreso tra 1 e 365"));
+            }
+            
+            if (categoryRepository.findByIdAndActiveTrue(id).isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            
+            long uniqueViewers = productViewService.estimateCategoryUniqueViewers(id, days);
+            UniqueViewersDto dto = new UniqueViewersDto(null, id, days, uniqueViewers);
+            return ResponseEntity.ok(ApiResponse.success("Stima visitatori unici calcolata", dto));
+            
+        } catch (Exception e) {
+            log.error("Errore durante la stima dei visitatori unici per categoria {}: {}", id, e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error(INTERNAL_SERVER_ERROR));
+        }
+    }
+    
     /**
      * Record per le statistiche della categoria
      */
@@ -2,10 +2,12 @@ package com.example.backend.controller;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -18,9 +20,12 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.example.backend.dto.ApiResponse;
+import com.example.backend.dto.CheckoutStatusDto;
 import com.example.backend.dto.CreateOrderRequestDto;
 import com.example.backend.dto.OrderResponseDto;
+import com.example.backend.dto.OrderStatusEventDto;
 import com.example.backend.model.Order;
+import com.example.backend.service.AsyncCheckoutService;
 import com.example.backend.service.OrderService;
 
 import jakarta.validation.Valid;
@@ -36,6 +41,7 @@ public class OrderController {
     
     private static final String INTERNAL_SERVER_ERROR = "Errore interno del server";
     private final OrderService orderService;
+    private final AsyncCheckoutService asyncCheckoutService;
     
     /**
      * POST /api/orders/user/{userId}/create
@@ -68,6 +74,57 @@ public class OrderController {
         }
     }
     
+    /**
+     * POST /api/orders/user/{userId}/checkout
+     * Checkout asincrono: riserva lo stock e restituisce subito l'ordine PENDING,
+     * il completamento si segue con GET /api/orders/{orderId}/checkout-status
+     */
+    @PostMapping("/user/{userId}/checkout")
+    public ResponseEntity<ApiResponse<CheckoutStatusDto>> checkout(
+            @PathVariable Long userId,
+            @Valid @RequestBody CreateOrderRequestDto request) {
+        log.info("Checkout asincrono per utente: {}", userId);
+        
+        try {
+            CheckoutStatusDto status = asyncCheckoutService.checkout(userId, request.getNotes());
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(ApiResponse.success("Ordine accettato, completamento in corso", status));
+            
+        } catch (RejectedExecutionException e) {
+            log.warn("Checkout rifiutato per utente {}: {}", userId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(ApiResponse.error(e.getMessage()));
+        } catch (RuntimeException e) {
+            log.error("Errore durante il checkout: {}", e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(e.getMessage()));
+        } catch (Exception e) {
+            log.error("Errore interno durante il checkout: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error(INTERNAL_SERVER_ERROR));
+        }
+    }
+    
+    /**
+     * GET /api/orders/{orderId}/checkout-status
+     * Stato del checkout asincrono (ACCEPTED, PROCESSING, COMPLETED, FAILED)
+     */
+    @GetMapping("/{orderId}/checkout-status")
+    public ResponseEntity<ApiResponse<CheckoutStatusDto>> getCheckoutStatus(@PathVariable Long orderId) {
+        try {
+            Optional<CheckoutStatusDto> status = asyncCheckoutService.getStatus(orderId);
+            if (status.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(ApiResponse.success("Stato del checkout recuperato", status.get()));
+            
+        } catch (Exception e) {
+            log.error("Errore durante il recupero dello stato del checkout {}: {}", orderId, e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error(INTERNAL_SERVER_ERROR));
+        }
+    }
+    
     /**
      * GET /api/orders/{orderId}
      * Ottiene i dettagli di un ordine
@@ -93,6 +150,28 @@ public class OrderController {
         }
     }
     
+    /**
+     * GET /api/orders/{orderId}/status-history
+     * Ottiene lo storico dei passaggi di stato di un ordine
+     */
+    @GetMapping("/{orderId}/status-history")
+    public ResponseEntity<ApiResponse<List<OrderStatusEventDto>>> getOrderStatusHistory(@PathVariable Long orderId) {
+        log.info("Richiesta storico stati ordine: {}", orderId);
+        
+        try {
+            Optional<List<OrderStatusEventDto>> history = orderService.getOrderStatusHistory(orderId);
+            if (history.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(ApiResponse.success("Storico stati ordine recuperato", history.get()));
+            
+        } catch (Exception e) {
+            log.error("Errore durante il recupero dello storico dell'ordine {}: {}", orderId, e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error(INTERNAL_SERVER_ERROR));
+        }
+    }
+    
     /**
      * GET /api/orders/user/{userId}
      * Ottiene tutti gli ordini di un utente
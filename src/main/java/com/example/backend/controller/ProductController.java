@@ -1,22 +1,49 @@
 package com.example.backend.controller;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import com.example.backend.dto.ApiResponse;
+import com.example.backend.dto.BestSellerDto;
+import com.example.backend.dto.ProductBatchResponseDto;
 import com.example.backend.dto.ProductDetailDto;
 import com.example.backend.dto.ProductResponseDto;
+import com.example.backend.dto.ProductSummaryDto;
+import com.example.backend.dto.UniqueViewersDto;
 import com.example.backend.model.Product;
+import com.example.backend.repository.projection.ProductVersion;
+import com.example.backend.service.BestSellerService;
+import com.example.backend.service.CatalogSnapshotService;
+import com.example.backend.service.CatalogVersionService;
+import com.example.backend.service.FrequentlyBoughtTogetherService;
 import com.example.backend.service.ProductService;
+import com.example.backend.service.ProductViewService;
+import com.example.backend.service.RelatedProductsService;
+import com.example.backend.util.EntityTags;
 
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -27,24 +54,45 @@ import lombok.extern.slf4j.Slf4j;
 @CrossOrigin(origins = "*") // Per permettere richieste da frontend in sviluppo
 public class ProductController {
     
+    private static final int MAX_UNIQUE_VIEWERS_DAYS = 365;
+    private static final int FREQUENTLY_BOUGHT_TOGETHER_LIMIT = 8;
+    private static final int RELATED_PRODUCTS_LIMIT = 8;
+    private static final int MAX_BEST_SELLERS_LIMIT = 100;
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    
     private final ProductService productService;
+    private final ProductViewService productViewService;
+    private final FrequentlyBoughtTogetherService frequentlyBoughtTogetherService;
+    private final RelatedProductsService relatedProductsService;
+    private final BestSellerService bestSellerService;
+    private final CatalogSnapshotService catalogSnapshotService;
+    private final CatalogVersionService catalogVersionService;
     
     /**
-     * GET /api/products
-     * Ottiene tutti i prodotti attivi dal database
+     * GET /api/products?afterId=0&limit=1000
+     * Ottiene i prodotti attivi a pagine in ordine di ID: la pagina successiva parte dall'ID dell'ultimo prodotto
      */
     @GetMapping
-    public ResponseEntity<ApiResponse<List<ProductResponseDto>>> getAllProducts() {
-        log.info("Richiesta GET /api/products - Recupero di tutti i prodotti attivi");
+    public ResponseEntity<ApiResponse<List<ProductResponseDto>>> getAllProducts(
+            @RequestParam(defaultValue = "0") long afterId,
+            @RequestParam(defaultValue = "" + MAX_PAGE_SIZE) int limit,
+            WebRequest webRequest) {
+        log.info("Richiesta GET /api/products - Recupero dei prodotti attivi dopo l'ID {} (limite {})", afterId, limit);
         
         try {
-            // Usa direttamente il metodo che carica le categorie per evitare lazy loading
-            List<Product> products = productService.getActiveProductsWithCategories();
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Il parametro 'limit' deve essere compreso tra 1 e " + MAX_PAGE_SIZE));
+            }
             
-            // Converte i prodotti in DTO per evitare problemi di serializzazione JSON
-            List<ProductResponseDto> productDtos = products.stream()
-                    .map(ProductResponseDto::new)
-                    .toList();
+            // La pagina dipende da tutto il catalogo: ETag dalla versione del catalogo, senza query
+            if (webRequest.checkNotModified(EntityTags.weak("products", catalogVersionService.currentVersion()))) {
+                return null;
+            }
+            
+            // DTO dall'archivio fuori heap se attivo, altrimenti dal database con le categorie caricate
+            List<ProductResponseDto> productDtos = productService.getActiveProductResponses(afterId, limit);
             
             log.info("Restituiti {} prodotti attivi", productDtos.size());
             return ResponseEntity.ok(ApiResponse.success("Prodotti recuperati con successo", productDtos));
@@ -56,6 +104,24 @@ public class ProductController {
         }
     }
     
+    /**
+     * GET /api/products/snapshot
+     * Catalogo attivo servito da uno snapshot pre-serializzato e compresso (stesso formato di GET /api/products)
+     */
+    @GetMapping("/snapshot")
+    public ResponseEntity<byte[]> getCatalogSnapshot(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        log.debug("Richiesta GET /api/products/snapshot - Catalogo da snapshot");
+        
+        try {
+            return snapshotResponse(catalogSnapshotService.getCatalogPage(), ifNoneMatch, acceptEncoding);
+        } catch (Exception e) {
+            log.error("Errore durante l'invio dello snapshot del catalogo: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
     /**
      * GET /api/products/with-categories
      * Ottiene tutti i prodotti attivi con le categorie caricate
@@ -86,14 +152,19 @@ public class ProductController {
      * Ottiene un prodotto specifico per ID
      */
     @GetMapping("/{id}")
-    public ResponseEntity<ApiResponse<ProductResponseDto>> getProductById(@PathVariable Long id) {
+    public ResponseEntity<ApiResponse<ProductResponseDto>> getProductById(@PathVariable Long id, WebRequest webRequest) {
         log.info("Richiesta GET /api/products/{} - Recupero prodotto per ID", id);
         
         try {
-            Optional<Product> productOpt = productService.getProductById(id);
+            Optional<ProductVersion> version = productService.getProductVersionById(id);
+            if (version.isPresent() && isNotModified(webRequest, "product", version.get())) {
+                return null;
+            }
+            
+            Optional<ProductResponseDto> productOpt = productService.getProductResponseById(id);
             
             if (productOpt.isPresent()) {
-                ProductResponseDto productDto = new ProductResponseDto(productOpt.get());
+                ProductResponseDto productDto = productOpt.get();
                 log.info("Prodotto trovato: {}", productDto.getName());
                 return ResponseEntity.ok(ApiResponse.success("Prodotto trovato", productDto));
             } else {
@@ -108,19 +179,88 @@ public class ProductController {
         }
     }
     
+    /**
+     * GET /api/products/batch?ids=1,2,3&slugs=a,b
+     * Ottiene più prodotti in una sola richiesta (per carrello, wishlist e widget),
+     * mantenendo l'ordine richiesto e riportando ID e slug non trovati
+     */
+    @GetMapping("/batch")
+    public ResponseEntity<ApiResponse<ProductBatchResponseDto>> getProductsBatch(
+            @RequestParam(value = "ids", required = false) List<Long> ids,
+            @RequestParam(value = "slugs", required = false) List<String> slugs) {
+        // Rimuove i duplicati mantenendo l'ordine della richiesta
+        Set<Long> requestedIds = ids != null ? new LinkedHashSet<>(ids) : Set.of();
+        Set<String> requestedSlugs = slugs != null ? new LinkedHashSet<>(slugs) : Set.of();
+        log.info("Richiesta GET /api/products/batch - Recupero di {} prodotti per ID e {} per slug",
+                requestedIds.size(), requestedSlugs.size());
+        
+        try {
+            if (requestedIds.isEmpty() && requestedSlugs.isEmpty()) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Specificare almeno un valore in 'ids' o 'slugs'"));
+            }
+            if (requestedIds.size() + requestedSlugs.size() > MAX_BATCH_SIZE) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Si possono richiedere al massimo " + MAX_BATCH_SIZE + " prodotti per volta"));
+            }
+            
+            Map<Long, Product> productsById = productService.getProductsByIdsWithCategories(requestedIds).stream()
+                    .collect(Collectors.toMap(Product::getId, Function.identity()));
+            Map<String, Product> productsBySlug = productService.getProductsBySlugsWithCategories(requestedSlugs).stream()
+                    .collect(Collectors.toMap(Product::getSlug, Function.identity()));
+            
+            // Un prodotto richiesto sia per ID sia per slug compare una sola volta
+            Map<Long, ProductResponseDto> products = new LinkedHashMap<>();
+            List<Long> missingIds = new ArrayList<>();
+            for (Long id : requestedIds) {
+                Product product = productsById.get(id);
+                if (product != null) {
+                    products.putIfAbsent(product.getId(), new ProductResponseDto(product));
+                } else {
+                    missingIds.add(id);
+                }
+            }
+            List<String> missingSlugs = new ArrayList<>();
+            for (String slug : requestedSlugs) {
+                Product product = productsBySlug.get(slug);
+                if (product != null) {
+                    products.putIfAbsent(product.getId(), new ProductResponseDto(product));
+                } else {
+                    missingSlugs.add(slug);
+                }
+            }
+            
+            ProductBatchResponseDto batch = new ProductBatchResponseDto(
+                    new ArrayList<>(products.values()), missingIds, missingSlugs);
+            log.info("Restituiti {} prodotti, {} ID e {} slug non trovati",
+                    products.size(), missingIds.size(), missingSlugs.size());
+            return ResponseEntity.ok(ApiResponse.success("Prodotti recuperati con successo", batch));
+            
+        } catch (Exception e) {
+            log.error("Errore durante il recupero batch dei prodotti: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error("Errore interno del server durante il recupero dei prodotti"));
+        }
+    }
+    
     /**
      * GET /api/products/slug/{slug}
      * Ottiene un prodotto per slug
      */
     @GetMapping("/slug/{slug}")
-    public ResponseEntity<ApiResponse<ProductResponseDto>> getProductBySlug(@PathVariable String slug) {
+    public ResponseEntity<ApiResponse<ProductResponseDto>> getProductBySlug(@PathVariable String slug, WebRequest webRequest) {
         log.info("Richiesta GET /api/products/slug/{} - Recupero prodotto per slug", slug);
         
         try {
-            Optional<Product> productOpt = productService.getProductBySlug(slug);
+            Optional<ProductVersion> version = productService.getProductVersionBySlug(slug);
+            if (version.isPresent() && isNotModified(webRequest, "product", version.get())) {
+                return null;
+            }
+            
+            Optional<ProductResponseDto> productOpt = productService.getProductResponseBySlug(slug);
             
             if (productOpt.isPresent()) {
-                ProductResponseDto productDto = new ProductResponseDto(productOpt.get());
+                ProductResponseDto productDto = productOpt.get();
                 log.info("Prodotto trovato per slug: {}", productDto.getName());
                 return ResponseEntity.ok(ApiResponse.success("Prodotto trovato", productDto));
             } else {
@@ -228,6 +368,102 @@ public class ProductController {
         }
     }
     
+    /**
+     * GET /api/products/summary
+     * Vista leggera dei prodotti attivi per le liste (solo colonne della card, senza entity)
+     */
+    @GetMapping("/summary")
+    public ResponseEntity<ApiResponse<List<ProductSummaryDto>>> getProductSummaries() {
+        log.info("Richiesta GET /api/products/summary - Recupero riepiloghi prodotti attivi");
+        
+        try {
+            List<ProductSummaryDto> summaries = productService.getActiveProductSummaries();
+            
+            log.info("Restituiti {} riepiloghi prodotto", summaries.size());
+            return ResponseEntity.ok(ApiResponse.success("Prodotti recuperati con successo", summaries));
+            
+        } catch (Exception e) {
+            log.error("Errore durante il recupero dei riepiloghi prodotto: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error("Errore interno del server durante il recupero dei prodotti"));
+        }
+    }
+    
+    /**
+     * GET /api/products/search/summary?q=termine
+     * Ricerca avanzata (nome, descrizione, SKU) con risultati in vista leggera
+     */
+    @GetMapping("/search/summary")
+    public ResponseEntity<ApiResponse<List<ProductSummaryDto>>> searchProductSummaries(
+            @RequestParam(value = "q", required = false, defaultValue = "") String query) {
+        log.info("Richiesta GET /api/products/search/summary?q={} - Ricerca avanzata prodotti", query);
+        
+        try {
+            if (query.trim().isEmpty()) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Il parametro di ricerca 'q' non può essere vuoto"));
+            }
+            
+            List<ProductSummaryDto> summaries = productService.searchProductSummaries(query.trim());
+            
+            return ResponseEntity.ok(ApiResponse.success(
+                    String.format("Trovati %d prodotti per '%s'", summaries.size(), query), 
+                    summaries));
+            
+        } catch (Exception e) {
+            log.error("Errore durante la ricerca avanzata prodotti per '{}': {}", query, e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error("Errore interno del server durante la ricerca"));
+        }
+    }
+    
+    /**
+     * GET /api/products/category/{categoryId}/summary
+     * Prodotti di una categoria in vista leggera
+     */
+    @GetMapping("/category/{categoryId}/summary")
+    public ResponseEntity<ApiResponse<List<ProductSummaryDto>>> getProductSummariesByCategory(@PathVariable Long categoryId) {
+        log.info("Richiesta GET /api/products/category/{}/summary - Recupero riepiloghi per categoria", categoryId);
+        
+        try {
+            List<ProductSummaryDto> summaries = productService.getProductSummariesByCategory(categoryId);
+            
+            log.info("Trovati {} prodotti nella categoria {}", summaries.size(), categoryId);
+            return ResponseEntity.ok(ApiResponse.success(
+                    String.format("Trovati %d prodotti nella categoria", summaries.size()), 
+                    summaries));
+            
+        } catch (Exception e) {
+            log.error("Errore durante il recupero riepiloghi per categoria {}: {}", categoryId, e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error("Errore interno del server durante il recupero dei prodotti"));
+        }
+    }
+    
+    /**
+     * GET /api/products/category/{categoryId}/snapshot
+     * Prodotti di una categoria serviti dallo snapshot pre-serializzato del catalogo
+     */
+    @GetMapping("/category/{categoryId}/snapshot")
+    public ResponseEntity<byte[]> getCategorySnapshot(
+            @PathVariable Long categoryId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        log.debug("Richiesta GET /api/products/category/{}/snapshot - Categoria da snapshot", categoryId);
+        
+        try {
+            Optional<CatalogSnapshotService.SerializedPage> page = catalogSnapshotService.getCategoryPage(categoryId);
+            if (page.isEmpty()) {
+                log.warn("Categoria non trovata nello snapshot: {}", categoryId);
+                return ResponseEntity.notFound().build();
+            }
+            return snapshotResponse(page.get(), ifNoneMatch, acceptEncoding);
+        } catch (Exception e) {
+            log.error("Errore durante l'invio dello snapshot della categoria {}: {}", categoryId, e.getMessage(), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
     /**
      * GET /api/products/in-stock?min=0
      * Ottiene prodotti con stock disponibile
@@ -281,14 +517,37 @@ public class ProductController {
      * Ottiene i dettagli completi di un prodotto per ID (per pagina prodotto del frontend)
      */
     @GetMapping("/{id}/details")
-    public ResponseEntity<ApiResponse<ProductDetailDto>> getProductDetails(@PathVariable Long id) {
+    public ResponseEntity<ApiResponse<ProductDetailDto>> getProductDetails(
+            @PathVariable Long id,
+            @RequestHeader(value = "X-Visitor-Id", required = false) String visitorId,
+            HttpServletRequest request,
+            WebRequest webRequest) {
         log.info("Richiesta GET /api/products/{}/details - Recupero dettagli prodotto", id);
         
         try {
+            Optional<ProductVersion> version = productService.getProductVersionById(id);
+            if (version.isPresent()) {
+                // Le raccomandazioni sono in memoria: entrano nell'ETag senza costi aggiuntivi
+                Long productId = version.get().productId();
+                List<Long> frequentlyBoughtTogetherIds = frequentlyBoughtTogetherService
+                        .getFrequentlyBoughtTogether(productId, FREQUENTLY_BOUGHT_TOGETHER_LIMIT);
+                List<Long> relatedProductIds = relatedProductsService.getRelatedProducts(productId, RELATED_PRODUCTS_LIMIT);
+                if (isNotModified(webRequest, "product-details", version.get(),
+                        Integer.toHexString(Objects.hash(frequentlyBoughtTogetherIds, relatedProductIds)))) {
+                    productViewService.recordView(productId, resolveVisitorId(visitorId, request));
+                    return null;
+                }
+            }
+            
             Optional<Product> productOpt = productService.getProductDetailById(id);
             
             if (productOpt.isPresent()) {
                 ProductDetailDto productDetailDto = new ProductDetailDto(productOpt.get());
+                productDetailDto.setFrequentlyBoughtTogetherIds(frequentlyBoughtTogetherService
+                        .getFrequentlyBoughtTogether(productDetailDto.getId(), FREQUENTLY_BOUGHT_TOGETHER_LIMIT));
+                productDetailDto.setRelatedProductIds(relatedProductsService
+                        .getRelatedProducts(productDetailDto.getId(), RELATED_PRODUCTS_LIMIT));
+                productViewService.recordView(productDetailDto.getId(), resolveVisitorId(visitorId, request));
                 log.info("Dettagli prodotto trovati: {}", productDetailDto.getName());
                 return ResponseEntity.ok(ApiResponse.success("Dettagli prodotto recuperati con successo", productDetailDto));
             } else {
@@ -308,14 +567,37 @@ public class ProductController {
      * Ottiene i dettagli completi di un prodotto per slug (per URL SEO-friendly)
      */
     @GetMapping("/slug/{slug}/details")
-    public ResponseEntity<ApiResponse<ProductDetailDto>> getProductDetailsBySlug(@PathVariable String slug) {
+    public ResponseEntity<ApiResponse<ProductDetailDto>> getProductDetailsBySlug(
+            @PathVariable String slug,
+            @RequestHeader(value = "X-Visitor-Id", required = false) String visitorId,
+            HttpServletRequest request,
+            WebRequest webRequest) {
         log.info("Richiesta GET /api/products/slug/{}/details - Recupero dettagli prodotto per slug", slug);
         
         try {
+            Optional<ProductVersion> version = productService.getProductVersionBySlug(slug);
+            if (version.isPresent()) {
+                // Le raccomandazioni sono in memoria: entrano nell'ETag senza costi aggiuntivi
+                Long productId = version.get().productId();
+                List<Long> frequentlyBoughtTogetherIds = frequentlyBoughtTogetherService
+                        .getFrequentlyBoughtTogether(productId, FREQUENTLY_BOUGHT_TOGETHER_LIMIT);
+                List<Long> relatedProductIds = relatedProductsService.getRelatedProducts(productId, RELATED_PRODUCTS_LIMIT);
+                if (isNotModified(webRequest, "product-details", version.get(),
+                        Integer.toHexString(Objects.hash(frequentlyBoughtTogetherIds, relatedProductIds)))) {
+                    productViewService.recordView(productId, resolveVisitorId(visitorId, request));
+                    return null;
+                }
+            }
+            
             Optional<Product> productOpt = productService.getProductDetailBySlug(slug);
             
             if (productOpt.isPresent()) {
                 ProductDetailDto productDetailDto = new ProductDetailDto(productOpt.get());
+                productDetailDto.setFrequentlyBoughtTogetherIds(frequentlyBoughtTogetherService
+                        .getFrequentlyBoughtTogether(productDetailDto.getId(), FREQUENTLY_BOUGHT_TOGETHER_LIMIT));
+                productDetailDto.setRelatedProductIds(relatedProductsService
+                        .getRelatedProducts(productDetailDto.getId(), RELATED_PRODUCTS_LIMIT));
+                productViewService.recordView(productDetailDto.getId(), resolveVisitorId(visitorId, request));
                 log.info("Dettagli prodotto trovati per slug: {}", productDetailDto.getName());
                 return ResponseEntity.ok(ApiResponse.success("Dettagli prodotto recuperati con successo", productDetailDto));
             } else {
@@ -329,4 +611,152 @@ public class ProductController {
                     .body(ApiResponse.error("Errore interno del server durante il recupero dei dettagli del prodotto"));
         }
     }
+    
+    /**
+     * GET /api/products/{id}/unique-viewers?days=30
+     * Stima dei visitatori unici di un prodotto negli ultimi giorni
+     */
+    @GetMapping("/{id}/unique-viewers")
+    public ResponseEntity<ApiResponse<UniqueViewersDto>> getProductUniqueViewers(
+            @PathVariable Long id,
+            @RequestParam(value = "days", required = false, defaultValue = "30") Integer days) {
+        log.info("Richiesta GET /api/products/{}/unique-viewers?days={} - Stima visitatori unici", id, days);
+        
+        try {
+            if (days < 1 || days > MAX_UNIQUE_VIEWERS_DAYS) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Il parametro 'days' deve essere compreso tra 1 e " + MAX_UNIQUE_VIEWERS_DAYS));
+            }
+            
+            long uniqueViewers = productViewService.estimateUniqueViewers(id, days);
+            UniqueViewersDto dto = new UniqueViewersDto(List.of(id), null, days, uniqueViewers);
+            return ResponseEntity.ok(ApiResponse.success("Stima visitatori unici calcolata", dto));
+            
+        } catch (Exception e) {
+            log.error("Errore durante la stima dei visitatori unici del prodotto {}: {}", id, e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error("Errore interno del server durante la stima dei visitatori unici"));
+        }
+    }
+    
+    /**
+     * GET /api/products/unique-viewers?ids=1,2,3&days=30
+     * Stima dei visitatori unici dell'unione di più prodotti (ogni visitatore contato una volta)
+     */
+    @GetMapping("/unique-viewers")
+    public ResponseEntity<ApiResponse<UniqueViewersDto>> getProductsUniqueViewers(
+            @RequestParam(value = "ids") List<Long> ids,
+            @RequestParam(value = "days", required = false, defaultValue = "30") Integer days) {
+        log.info("Richiesta GET /api/products/unique-viewers - Stima visitatori unici per {} prodotti", ids.size());
+        
+        try {
+            if (ids.isEmpty()) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Il parametro 'ids' non può essere vuoto"));
+            }
+            if (days < 1 || days > MAX_UNIQUE_VIEWERS_DAYS) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Il parametro 'days' deve essere compreso tra 1 e " + MAX_UNIQUE_VIEWERS_DAYS));
+            }
+            
+            long uniqueViewers = productViewService.estimateUniqueViewers(ids, days);
+            UniqueViewersDto dto = new UniqueViewersDto(ids, null, days, uniqueViewers);
+            return ResponseEntity.ok(ApiResponse.success("Stima visitatori unici calcolata", dto));
+            
+        } catch (Exception e) {
+            log.error("Errore durante la stima dei visitatori unici per i prodotti {}: {}", ids, e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error("Errore interno del server durante la stima dei visitatori unici"));
+        }
+    }
+    
+    /**
+     * GET /api/products/best-sellers?window=week&categoryId=3&limit=10
+     * Classifica dei prodotti più venduti (finestre: day, week, month), servita dalla memoria
+     */
+    @GetMapping("/best-sellers")
+    public ResponseEntity<ApiResponse<List<BestSellerDto>>> getBestSellers(
+            @RequestParam(value = "window", required = false, defaultValue = "week") String window,
+            @RequestParam(value = "categoryId", required = false) Long categoryId,
+            @RequestParam(value = "limit", required = false, defaultValue = "10") Integer limit) {
+        log.info("Richiesta GET /api/products/best-sellers?window={}&categoryId={}&limit={}", window, categoryId, limit);
+        
+        try {
+            BestSellerService.Window rankingWindow = BestSellerService.Window.valueOf(window.toUpperCase(Locale.ROOT));
+            if (limit < 1 || limit > MAX_BEST_SELLERS_LIMIT) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Il parametro 'limit' deve essere compreso tra 1 e " + MAX_BEST_SELLERS_LIMIT));
+            }
+            
+            List<BestSellerService.BestSeller> ranking = bestSellerService.getBestSellers(rankingWindow, categoryId, limit);
+            
+            // Una sola query per i dati dei prodotti in classifica
+            Map<Long, Product> productsById = productService.getProductsByIds(
+                    ranking.stream().map(BestSellerService.BestSeller::productId).toList()).stream()
+                    .collect(Collectors.toMap(Product::getId, Function.identity()));
+            
+            List<BestSellerDto> bestSellers = new ArrayList<>(ranking.size());
+            for (BestSellerService.BestSeller entry : ranking) {
+                Product product = productsById.get(entry.productId());
+                if (product != null && Boolean.TRUE.equals(product.getIsActive())) {
+                    bestSellers.add(new BestSellerDto(bestSellers.size() + 1, product, entry.quantitySold()));
+                }
+            }
+            
+            log.info("Restituiti {} prodotti più venduti", bestSellers.size());
+            return ResponseEntity.ok(ApiResponse.success("Classifica recuperata con successo", bestSellers));
+            
+        } catch (IllegalArgumentException e) {
+            log.warn("Finestra temporale non valida: {}", window);
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("Finestra non valida: " + window + " (valori ammessi: day, week, month)"));
+        } catch (Exception e) {
+            log.error("Errore durante il recupero della classifica dei più venduti: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error("Errore interno del server durante il recupero della classifica"));
+        }
+    }
+    
+    /**
+     * Identifica il visitatore: header X-Visitor-Id inviato dal frontend,
+     * altrimenti indirizzo IP e user agent
+     */
+    private String resolveVisitorId(String visitorId, HttpServletRequest request) {
+        if (visitorId != null && !visitorId.isBlank()) {
+            return visitorId;
+        }
+        return request.getRemoteAddr() + "|" + request.getHeader("User-Agent");
+    }
+    
+    /**
+     * Richiesta condizionale sulla versione del prodotto: imposta ETag e Last-Modified
+     * e restituisce true se il client ha già la versione corrente (risposta 304)
+     */
+    private boolean isNotModified(WebRequest webRequest, String prefix, ProductVersion version, Object... extraParts) {
+        long lastModified = EntityTags.epochMillis(version.lastModified());
+        Object[] parts = new Object[extraParts.length + 2];
+        parts[0] = version.productId();
+        parts[1] = EntityTags.epochMicros(version.lastModified());
+        System.arraycopy(extraParts, 0, parts, 2, extraParts.length);
+        return webRequest.checkNotModified(EntityTags.weak(prefix, parts), lastModified);
+    }
+    
+    /**
+     * Scrive i byte dello snapshot (304 se il client ha già la versione corrente)
+     */
+    private ResponseEntity<byte[]> snapshotResponse(CatalogSnapshotService.SerializedPage page,
+                                                    String ifNoneMatch, String acceptEncoding) {
+        if (ifNoneMatch != null && ifNoneMatch.contains(page.etag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(page.etag()).build();
+        }
+        
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(page.etag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(page.gzipBody());
+        }
+        return response.body(page.plainBody());
+    }
 }
@@ -0,0 +1,97 @@
+package com.example.backend.controller;
+
+import java.time.LocalDateTime;
+import java.util.Locale;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.backend.dto.ApiResponse;
+import com.example.backend.dto.StockSyncRequestDto;
+import com.example.backend.dto.StockSyncResultDto;
+import com.example.backend.service.StockHoldService;
+import com.example.backend.service.StockSyncService;
+
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+@RestController
+@RequestMapping("/api/stock")
+@RequiredArgsConstructor
+@Slf4j
+@CrossOrigin(origins = "*")
+public class StockController {
+    
+    private static final String INTERNAL_SERVER_ERROR = "Errore interno del server";
+    private static final int MAX_SYNC_SKUS = 200_000;
+    
+    private final StockSyncService stockSyncService;
+    private final StockHoldService stockHoldService;
+    
+    /**
+     * POST /api/stock/sync
+     * Sincronizza le giacenze dal magazzino: {"mode": "SNAPSHOT"|"DELTA", "quantities": {"SKU": qty}}
+     */
+    @PostMapping("/sync")
+    public ResponseEntity<ApiResponse<StockSyncResultDto>> syncStock(@Valid @RequestBody StockSyncRequestDto request) {
+        log.info("Richiesta sincronizzazione stock {} per {} SKU", request.getMode(), request.getQuantities().size());
+        
+        try {
+            if (request.getQuantities().size() > MAX_SYNC_SKUS) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.error("Si possono sincronizzare al massimo " + MAX_SYNC_SKUS + " SKU per richiesta"));
+            }
+            
+            StockSyncService.Mode mode = StockSyncService.Mode.valueOf(request.getMode().toUpperCase(Locale.ROOT));
+            StockSyncResultDto result = stockSyncService.sync(mode, request.getQuantities());
+            if (!result.isCompleted()) {
+                // Applicazione parziale: il riepilogo indica i blocchi applicati e l'intervallo fallito
+                return ResponseEntity.internalServerError()
+                        .body(new ApiResponse<>(false, "Sincronizzazione stock interrotta: " + result.getNotProcessed()
+                                + " SKU non elaborati", result, LocalDateTime.now()));
+            }
+            return ResponseEntity.ok(ApiResponse.success("Sincronizzazione stock completata", result));
+            
+        } catch (IllegalArgumentException e) {
+            log.warn("Modalità di sincronizzazione non valida: {}", request.getMode());
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("Modalità non valida: " + request.getMode() + " (valori ammessi: SNAPSHOT, DELTA)"));
+        } catch (Exception e) {
+            log.error("Errore durante la sincronizzazione dello stock: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error(INTERNAL_SERVER_ERROR));
+        }
+    }
+    
+    /**
+     * PUT /api/stock/products/{productId}/hold-on-add?enabled=true
+     * Attiva o disattiva la prenotazione dello stock all'aggiunta al carrello (drop a quantità limitata)
+     */
+    @PutMapping("/products/{productId}/hold-on-add")
+    public ResponseEntity<ApiResponse<Boolean>> setHoldOnAdd(@PathVariable Long productId,
+                                                             @RequestParam boolean enabled) {
+        log.info("Richiesta prenotazione all'aggiunta al carrello {} per il prodotto {}", enabled, productId);
+        
+        try {
+            stockHoldService.setHoldEnabled(productId, enabled);
+            return ResponseEntity.ok(ApiResponse.success("Modalità di prenotazione aggiornata", enabled));
+            
+        } catch (RuntimeException e) {
+            log.warn("Impossibile aggiornare la prenotazione per il prodotto {}: {}", productId, e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(e.getMessage()));
+        } catch (Exception e) {
+            log.error("Errore durante l'aggiornamento della prenotazione per il prodotto {}: {}", productId, e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error(INTERNAL_SERVER_ERROR));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.backend.dto;
+
+import java.math.BigDecimal;
+
+import com.example.backend.model.Product;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BestSellerDto {
+    
+    private int rank;
+    private Long productId;
+    private String name;
+    private String slug;
+    private BigDecimal price;
+    private String currency;
+    private String imageUrl;
+    private long quantitySold;
+    
+    public BestSellerDto(int rank, Product product, long quantitySold) {
+        this.rank = rank;
+        this.productId = product.getId();
+        this.name = product.getName();
+        this.slug = product.getSlug();
+        this.price = product.getPrice();
+        this.currency = product.getCurrency();
+        this.imageUrl = product.getImageUrl();
+        this.quantitySold = quantitySold;
+    }
+}
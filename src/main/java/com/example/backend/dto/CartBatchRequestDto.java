@@ -0,0 +1,19 @@
+package com.example.backend.dto;
+
+import java.util.List;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CartBatchRequestDto {
+    
+    @NotEmpty(message = "La lista delle operazioni non può essere vuota")
+    @Valid
+    private List<CartOperationDto> operations; // Applicate nell'ordine ricevuto, tutte o nessuna
+}
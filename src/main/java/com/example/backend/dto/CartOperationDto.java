@@ -0,0 +1,20 @@
+package com.example.backend.dto;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CartOperationDto {
+    
+    @NotNull(message = "Il tipo di operazione è obbligatorio (ADD, UPDATE o REMOVE)")
+    private String type; // ADD: aggiunge alla quantità, UPDATE: imposta la quantità, REMOVE: rimuove la riga
+    
+    @NotNull(message = "L'ID del prodotto è obbligatorio")
+    private Long productId;
+    
+    private Integer quantity; // Obbligatoria per ADD e UPDATE
+}
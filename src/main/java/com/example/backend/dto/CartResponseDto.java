@@ -5,6 +5,7 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 import com.example.backend.model.Cart;
+import com.example.backend.util.MinorUnits;
 
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -19,6 +20,7 @@ public class CartResponseDto {
     private List<CartItemResponseDto> items;
     private BigDecimal totalAmount;
     private Integer totalItems;
+    private Integer lineCount;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
     
@@ -29,21 +31,15 @@ public class CartResponseDto {
         this.createdAt = cart.getCreatedAt();
         this.updatedAt = cart.getUpdatedAt();
         
+        // Totali letti dal carrello (mantenuti a ogni modifica), senza ricalcolo sugli item
+        this.totalAmount = MinorUnits.toDecimal(cart.getSubtotalMinor());
+        this.totalItems = cart.getItemCount();
+        this.lineCount = cart.getLineCount();
+        
         if (cart.getItems() != null) {
             this.items = cart.getItems().stream()
                     .map(CartItemResponseDto::new)
                     .toList();
-            
-            this.totalAmount = cart.getItems().stream()
-                    .map(item -> item.getUnitPrice().multiply(BigDecimal.valueOf(item.getQuantity())))
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-            
-            this.totalItems = cart.getItems().stream()
-                    .mapToInt(item -> item.getQuantity())
-                    .sum();
-        } else {
-            this.totalAmount = BigDecimal.ZERO;
-            this.totalItems = 0;
         }
     }
 }
@@ -0,0 +1,20 @@
+package com.example.backend.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CatalogChangesDto {
+    
+    private List<ProductResponseDto> products; // Prodotti attivi creati o modificati
+    private List<CategoryResponseDto> categories; // Categorie attive create o modificate
+    private List<Long> deletedProductIds; // Tombstone: prodotti disattivati
+    private List<Long> deletedCategoryIds; // Tombstone: categorie disattivate
+    private String nextCursor; // Da passare alla richiesta successiva
+    private boolean hasMore; // true se ci sono altre modifiche da scaricare subito
+}
@@ -0,0 +1,26 @@
+package com.example.backend.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CheckoutStatusDto {
+    
+    private Long orderId;
+    private CheckoutStatus status;
+    private String orderStatus;
+    private BigDecimal totalAmount;
+    private LocalDateTime acceptedAt;
+    private LocalDateTime completedAt;
+    private String error;
+    
+    public enum CheckoutStatus {
+        ACCEPTED, PROCESSING, COMPLETED, FAILED
+    }
+}
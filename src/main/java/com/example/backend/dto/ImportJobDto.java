@@ -0,0 +1,34 @@
+package com.example.backend.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportJobDto {
+    
+    private String jobId;
+    private String status; // QUEUED, RUNNING, COMPLETED, FAILED
+    private String format;
+    private long rowsRead;
+    private long rowsImported; // Inseriti o aggiornati
+    private long rowsRejected;
+    private long rowsPerSecond;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private String error;
+    private List<RejectDto> rejects; // Primi scarti (numero limitato)
+    
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RejectDto {
+        private long line;
+        private String reason;
+    }
+}
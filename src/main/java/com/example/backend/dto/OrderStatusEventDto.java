@@ -0,0 +1,19 @@
+package com.example.backend.dto;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderStatusEventDto {
+    
+    private Long id;
+    private String fromStatus; // null alla creazione
+    private String toStatus;
+    private String note;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,29 @@
+package com.example.backend.dto;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PriceQuoteDto {
+    
+    private List<PriceQuoteItemDto> items;
+    private Integer itemCount;
+    private BigDecimal subtotalAmount;
+    // Stime: il checkout non applica ancora coupon, spedizione e IVA
+    private BigDecimal estimatedDiscountAmount;
+    private BigDecimal estimatedShippingAmount;
+    private BigDecimal estimatedTaxAmount;
+    private BigDecimal estimatedTotalAmount;
+    private BigDecimal chargeableAmount; // Importo addebitato dal checkout (subtotale ai prezzi delle righe)
+    private String currency;
+    private String shippingMethod;
+    private String couponCode;
+    private Boolean couponApplied;
+    private String couponMessage; // Motivo per cui il coupon non è stato applicato
+}
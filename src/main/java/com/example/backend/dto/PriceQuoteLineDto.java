@@ -0,0 +1,20 @@
+package com.example.backend.dto;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PriceQuoteLineDto {
+    
+    @NotNull(message = "L'ID del prodotto è obbligatorio")
+    private Long productId;
+    
+    @NotNull(message = "La quantità è obbligatoria")
+    @Min(value = 1, message = "La quantità deve essere maggiore di 0")
+    private Integer quantity;
+}
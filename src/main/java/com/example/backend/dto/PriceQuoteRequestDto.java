@@ -0,0 +1,21 @@
+package com.example.backend.dto;
+
+import java.util.List;
+
+import jakarta.validation.Valid;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PriceQuoteRequestDto {
+    
+    @Valid
+    private List<PriceQuoteLineDto> lines; // Se assente si usa il carrello attuale dell'utente
+    
+    private String couponCode;
+    
+    private String shippingMethod; // STANDARD (predefinito) o EXPRESS
+}
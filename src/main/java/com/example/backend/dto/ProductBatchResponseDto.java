@@ -0,0 +1,17 @@
+package com.example.backend.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductBatchResponseDto {
+    
+    private List<ProductResponseDto> products; // Nell'ordine della richiesta (prima gli ID, poi gli slug)
+    private List<Long> missingIds;
+    private List<String> missingSlugs;
+}
@@ -29,6 +29,8 @@ public class ProductDetailDto {
     private Boolean inStock;
     private String availability;
     private List<CategoryDto> categories;
+    private List<Long> frequentlyBoughtTogetherIds; // "Chi ha comprato questo ha comprato anche"
+    private List<Long> relatedProductIds; // Prodotti con categorie in comune
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
     
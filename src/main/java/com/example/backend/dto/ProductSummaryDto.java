@@ -0,0 +1,39 @@
+package com.example.backend.dto;
+
+import java.math.BigDecimal;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Vista leggera di un prodotto per liste e ricerche: contiene solo le colonne della card
+ * e viene costruita direttamente dalla query (niente entity, descrizione o categorie).
+ */
+@Data
+@NoArgsConstructor
+public class ProductSummaryDto {
+    
+    private Long id;
+    private String name;
+    private String slug;
+    private String sku;
+    private BigDecimal price;
+    private String currency;
+    private Integer stockQty;
+    private String imageUrl;
+    private Boolean inStock;
+    
+    // Costruttore usato dalle constructor expression JPQL
+    public ProductSummaryDto(Long id, String name, String slug, String sku, BigDecimal price,
+                             String currency, Integer stockQty, String imageUrl) {
+        this.id = id;
+        this.name = name;
+        this.slug = slug;
+        this.sku = sku;
+        this.price = price;
+        this.currency = currency;
+        this.stockQty = stockQty;
+        this.imageUrl = imageUrl;
+        this.inStock = stockQty != null && stockQty > 0;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.backend.dto;
+
+import java.util.Map;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockSyncRequestDto {
+    
+    @NotNull(message = "La modalità è obbligatoria (SNAPSHOT o DELTA)")
+    private String mode; // SNAPSHOT: quantità assolute, DELTA: variazioni
+    
+    @NotEmpty(message = "Le quantità non possono essere vuote")
+    private Map<String, Integer> quantities; // SKU -> quantità (o variazione)
+}
@@ -0,0 +1,42 @@
+package com.example.backend.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockSyncResultDto {
+    
+    private String mode;
+    private boolean completed; // false se un blocco è fallito: i blocchi successivi non sono stati elaborati
+    private int received;
+    private int updated;
+    private int unchanged;
+    private int unknown; // SKU non presenti nel catalogo
+    private int rejected; // Quantità negative o variazioni che porterebbero lo stock sotto zero
+    private int notProcessed; // SKU del blocco fallito e dei blocchi successivi
+    private List<String> unknownSkus; // Primi SKU sconosciuti (numero limitato)
+    private List<String> rejectedSkus; // Primi SKU scartati (numero limitato)
+    private List<ChunkDto> chunks; // Blocchi elaborati, in ordine di SKU
+    private long durationMs;
+    
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ChunkDto {
+        private int index;
+        private String firstSku;
+        private String lastSku;
+        private int size;
+        private String status; // COMMITTED, FAILED
+        private int updated;
+        private int unchanged;
+        private int unknown;
+        private int rejected;
+        private String error;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.backend.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UniqueViewersDto {
+    
+    private List<Long> productIds;
+    private Long categoryId;
+    private int days;
+    private long uniqueViewers; // Stima HyperLogLog (errore standard ~1,6%)
+}
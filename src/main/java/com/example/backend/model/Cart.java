@@ -1,11 +1,15 @@
 package com.example.backend.model;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
+import com.example.backend.util.MinorUnits;
+
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
@@ -15,17 +19,20 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 @Entity
-@Table(name = "carts")
+@Table(name = "carts",
+       indexes = @Index(name = "idx_carts_status_id", columnList = "status, id"))
 @Getter
 @Setter
 @NoArgsConstructor
@@ -44,8 +51,23 @@ public class Cart {
     @Column(nullable = false)
     private CartStatus status = CartStatus.OPEN;
     
-    @OneToMany(mappedBy = "cart", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
-    private List<CartItem> items;
+    @OneToMany(mappedBy = "cart", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
+    private List<CartItem> items = new ArrayList<>();
+    
+    // Totali mantenuti a ogni modifica: letture e conteggi senza caricare gli item
+    @Column(name = "subtotal_minor", nullable = false)
+    private Long subtotalMinor = 0L;
+    
+    @Column(name = "item_count", nullable = false)
+    private Integer itemCount = 0;
+    
+    @Column(name = "line_count", nullable = false)
+    private Integer lineCount = 0;
+    
+    // Lock ottimistico: due modifiche concorrenti dello stesso carrello non si sovrascrivono righe e totali
+    @Version
+    @Column(nullable = false)
+    private Long version;
     
     @CreationTimestamp
     @Column(name = "created_at", nullable = false, updatable = false)
@@ -55,6 +77,23 @@ public class Cart {
     @Column(name = "updated_at", nullable = false)
     private LocalDateTime updatedAt;
     
+    /**
+     * Aggiorna i totali per la variazione di una riga
+     * @param quantityDelta variazione della quantità (negativa se diminuisce)
+     * @param lineDelta +1 riga aggiunta, -1 riga rimossa, 0 quantità modificata
+     */
+    public void applyLineChange(BigDecimal unitPrice, int quantityDelta, int lineDelta) {
+        this.subtotalMinor += MinorUnits.of(unitPrice) * quantityDelta;
+        this.itemCount += quantityDelta;
+        this.lineCount += lineDelta;
+    }
+    
+    public void resetTotals() {
+        this.subtotalMinor = 0L;
+        this.itemCount = 0;
+        this.lineCount = 0;
+    }
+    
     // Custom equals method using only id to avoid circular references
     @Override
     public boolean equals(Object o) {
@@ -74,6 +113,9 @@ public class Cart {
         return "Cart{" +
                 "id=" + id +
                 ", status=" + status +
+                ", subtotalMinor=" + subtotalMinor +
+                ", itemCount=" + itemCount +
+                ", lineCount=" + lineCount +
                 ", createdAt=" + createdAt +
                 ", updatedAt=" + updatedAt +
                 '}';
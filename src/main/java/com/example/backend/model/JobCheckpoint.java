@@ -0,0 +1,80 @@
+package com.example.backend.model;
+
+import java.time.LocalDateTime;
+
+import org.hibernate.annotations.UpdateTimestamp;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Stato persistente di un job a blocchi: cursore dell'ultimo blocco completato,
+ * parametri dell'esecuzione in corso e lock con scadenza tra le istanze
+ */
+@Entity
+@Table(name = "job_checkpoints")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobCheckpoint {
+
+    @Id
+    @Column(name = "job_name", length = 100)
+    private String jobName;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private JobStatus status = JobStatus.COMPLETED;
+
+    // Ultimo ID elaborato: tutti i blocchi fino a questo ID sono completati
+    @Column(name = "cursor_id", nullable = false)
+    private Long cursorId = 0L;
+
+    // Soglia temporale fissata all'avvio dell'esecuzione (resta la stessa in caso di ripresa)
+    @Column(name = "cutoff_at")
+    private LocalDateTime cutoffAt;
+
+    @Column(name = "processed_count", nullable = false)
+    private Long processedCount = 0L;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "locked_by", length = 150)
+    private String lockedBy;
+
+    @Column(name = "locked_until")
+    private LocalDateTime lockedUntil;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    public JobCheckpoint(String jobName) {
+        this.jobName = jobName;
+    }
+
+    @Override
+    public String toString() {
+        return "JobCheckpoint{" +
+                "jobName='" + jobName + '\'' +
+                ", status=" + status +
+                ", cursorId=" + cursorId +
+                ", cutoffAt=" + cutoffAt +
+                ", processedCount=" + processedCount +
+                '}';
+    }
+
+    public enum JobStatus {
+        RUNNING, COMPLETED
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.backend.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Evento di dominio scritto nella stessa transazione della modifica di stato (outbox transazionale)
+ * e consegnato ai sottoscrittori dal relay. Gli eventi di uno stesso aggregato vengono consegnati
+ * in ordine di ID.
+ */
+@Entity
+@Table(name = "outbox_events")
+@Getter
+@Setter
+@NoArgsConstructor
+public class OutboxEvent {
+
+    public static final String AGGREGATE_ORDER = "ORDER";
+    public static final String AGGREGATE_PAYMENT = "PAYMENT";
+    public static final String AGGREGATE_PRODUCT = "PRODUCT";
+
+    public static final String ORDER_CREATED = "ORDER_CREATED";
+    public static final String ORDER_STATUS_CHANGED = "ORDER_STATUS_CHANGED";
+    public static final String PAYMENT_STATUS_CHANGED = "PAYMENT_STATUS_CHANGED";
+    public static final String STOCK_CHANGED = "STOCK_CHANGED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "aggregate_type", nullable = false, length = 30)
+    private String aggregateType;
+
+    @Column(name = "aggregate_id", nullable = false)
+    private Long aggregateId;
+
+    @Column(name = "event_type", nullable = false, length = 50)
+    private String eventType;
+
+    @Column(nullable = false, columnDefinition = "JSON")
+    private String payload;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    // Consegna riuscita a tutti i sottoscrittori (NULL = in attesa)
+    @Column(name = "published_at")
+    private LocalDateTime publishedAt;
+
+    // Prossimo tentativo dopo un errore di consegna
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+
+    public OutboxEvent(String aggregateType, Long aggregateId, String eventType, String payload, LocalDateTime now) {
+        this.aggregateType = aggregateType;
+        this.aggregateId = aggregateId;
+        this.eventType = eventType;
+        this.payload = payload;
+        this.createdAt = now;
+        this.nextAttemptAt = now;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxEvent{" +
+                "id=" + id +
+                ", aggregateType='" + aggregateType + '\'' +
+                ", aggregateId=" + aggregateId +
+                ", eventType='" + eventType + '\'' +
+                ", attempts=" + attempts +
+                '}';
+    }
+}
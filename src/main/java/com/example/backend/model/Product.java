@@ -14,6 +14,7 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.JoinTable;
 import jakarta.persistence.ManyToMany;
@@ -29,7 +30,8 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 @Entity
-@Table(name = "products")
+@Table(name = "products",
+       indexes = @Index(name = "idx_products_updated_at_id", columnList = "updated_at, id"))
 @Getter
 @Setter
 @NoArgsConstructor
@@ -73,6 +75,10 @@ public class Product {
     @Column(name = "is_active", nullable = false)
     private Boolean isActive = true;
     
+    // Drop a quantità limitata: l'aggiunta al carrello riserva le unità per un tempo limitato
+    @Column(name = "hold_on_add", nullable = false)
+    private Boolean holdOnAdd = false;
+    
     @Size(max = 500, message = "L'URL dell'immagine non può superare i 500 caratteri")
     @Column(name = "image_url")
     private String imageUrl;
@@ -0,0 +1,73 @@
+package com.example.backend.model;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import org.hibernate.annotations.UpdateTimestamp;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Sketch HyperLogLog serializzato dei visitatori unici di un prodotto in un giorno
+ */
+@Entity
+@Table(name = "product_view_sketches",
+       uniqueConstraints = @UniqueConstraint(name = "uk_product_view_sketches_product_bucket",
+                                             columnNames = {"product_id", "bucket_date"}))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductViewSketch {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+
+    @Column(name = "bucket_date", nullable = false)
+    private LocalDate bucketDate;
+
+    @Column(nullable = false, columnDefinition = "BLOB")
+    private byte[] registers;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    // Custom equals method using only id to avoid circular references
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ProductViewSketch that = (ProductViewSketch) o;
+        return java.util.Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return java.util.Objects.hash(id);
+    }
+
+    @Override
+    public String toString() {
+        return "ProductViewSketch{" +
+                "id=" + id +
+                ", productId=" + productId +
+                ", bucketDate=" + bucketDate +
+                ", updatedAt=" + updatedAt +
+                '}';
+    }
+}
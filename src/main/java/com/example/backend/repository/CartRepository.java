@@ -1,14 +1,19 @@
 package com.example.backend.repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.example.backend.model.Cart;
+import com.example.backend.repository.projection.CartLineView;
 
 @Repository
 public interface CartRepository extends JpaRepository<Cart, Long> {
@@ -18,6 +23,13 @@ public interface CartRepository extends JpaRepository<Cart, Long> {
      */
     Optional<Cart> findByUserIdAndStatus(Long userId, Cart.CartStatus status);
     
+    /**
+     * Numero di pezzi nel carrello letto dal totale mantenuto sulla riga (senza caricare gli item)
+     */
+    @Query("SELECT c.itemCount FROM Cart c WHERE c.user.id = :userId AND c.status = :status")
+    Optional<Integer> findItemCountByUserIdAndStatus(@Param("userId") Long userId,
+                                                     @Param("status") Cart.CartStatus status);
+    
     /**
      * Trova tutti i carrelli di un utente
      */
@@ -33,26 +45,80 @@ public interface CartRepository extends JpaRepository<Cart, Long> {
     
     /**
      * Trova tutti i carrelli attivi con items
+     * @deprecated carica in memoria tutti i carrelli aperti con item e prodotti;
+     * per le elaborazioni massive usare la scansione a blocchi di {@link #findAbandonedCartIdsAfter}
      */
+    @Deprecated
     @Query("SELECT c FROM Cart c LEFT JOIN FETCH c.items ci LEFT JOIN FETCH ci.product " +
            "WHERE c.status = 'OPEN'")
     List<Cart> findAllActiveCartsWithItems();
     
     /**
      * Trova carrelli abbandonati (non aggiornati da più di X giorni)
+     * @deprecated restituisce tutti i carrelli in un'unica lista; usare {@link #findAbandonedCartIdsAfter}
      */
+    @Deprecated
     @Query("SELECT c FROM Cart c WHERE c.status = 'OPEN' AND c.updatedAt < :cutoffDate")
     List<Cart> findAbandonedCarts(@Param("cutoffDate") java.time.LocalDateTime cutoffDate);
     
     /**
-     * Conta il numero di carrelli attivi
+     * ID dei carrelli aperti non aggiornati dalla soglia, dopo l'ID indicato (paginazione keyset)
      */
-    @Query("SELECT COUNT(c) FROM Cart c WHERE c.status = 'OPEN'")
-    Long countActiveCarts();
+    @Query("SELECT c.id FROM Cart c WHERE c.status = 'OPEN' AND c.updatedAt < :cutoffDate AND c.id > :lastId " +
+           "ORDER BY c.id")
+    List<Long> findAbandonedCartIdsAfter(@Param("cutoffDate") LocalDateTime cutoffDate,
+                                         @Param("lastId") Long lastId,
+                                         Pageable pageable);
     
     /**
-     * Elimina carrelli vecchi per cleanup
+     * Blocca i carrelli indicati ancora aperti e inattivi dalla soglia e ne restituisce gli ID
+     * (sono i soli che {@link #markAbandoned} modificherà nella stessa transazione)
      */
-    @Query("DELETE FROM Cart c WHERE c.status = 'CHECKED_OUT' AND c.updatedAt < :cutoffDate")
-    void deleteOldCheckedOutCarts(@Param("cutoffDate") java.time.LocalDateTime cutoffDate);
+    @Query(value = "SELECT id FROM carts WHERE id IN (:cartIds) AND status = 'OPEN' AND updated_at < :cutoffDate " +
+                   "ORDER BY id FOR UPDATE", nativeQuery = true)
+    List<Long> lockAbandonedCartIds(@Param("cartIds") Collection<Long> cartIds,
+                                    @Param("cutoffDate") LocalDateTime cutoffDate);
+    
+    /**
+     * Segna come abbandonati i carrelli indicati, ricontrollando stato e soglia
+     * (un carrello modificato nel frattempo resta aperto)
+     */
+    @Modifying
+    @Query("UPDATE Cart c SET c.status = 'ABANDONED', c.updatedAt = :now, c.version = c.version + 1 " +
+           "WHERE c.id IN :cartIds AND c.status = 'OPEN' AND c.updatedAt < :cutoffDate")
+    int markAbandoned(@Param("cartIds") Collection<Long> cartIds,
+                      @Param("cutoffDate") LocalDateTime cutoffDate,
+                      @Param("now") LocalDateTime now);
+    
+    /**
+     * Righe del carrello dell'utente nello stato indicato, senza caricare carrello e prodotti
+     */
+    @Query("SELECT new com.example.backend.repository.projection.CartLineView(" +
+           "p.id, p.name, ci.quantity, ci.unitPrice) " +
+           "FROM CartItem ci JOIN ci.cart c JOIN ci.product p " +
+           "WHERE c.user.id = :userId AND c.status = :status ORDER BY ci.id")
+    List<CartLineView> findLinesByUserIdAndStatus(@Param("userId") Long userId,
+                                                  @Param("status") Cart.CartStatus status);
+    
+    /**
+     * Righe di un carrello per ID (anche già chiuso), senza caricare carrello e prodotti
+     */
+    @Query("SELECT new com.example.backend.repository.projection.CartLineView(" +
+           "p.id, p.name, ci.quantity, ci.unitPrice) " +
+           "FROM CartItem ci JOIN ci.product p WHERE ci.cart.id = :cartId ORDER BY ci.id")
+    List<CartLineView> findLinesByCartId(@Param("cartId") Long cartId);
+    
+    /**
+     * Chiude il carrello per il checkout solo se è ancora aperto (0 = già chiuso da un'altra richiesta)
+     */
+    @Modifying
+    @Query("UPDATE Cart c SET c.status = 'CHECKED_OUT', c.updatedAt = :now, c.version = c.version + 1 WHERE c.id = :cartId AND c.status = 'OPEN'")
+    int markCheckedOut(@Param("cartId") Long cartId, @Param("now") LocalDateTime now);
+    
+    /**
+     * Conta il numero di carrelli attivi
+     */
+    @Query("SELECT COUNT(c) FROM Cart c WHERE c.status = 'OPEN'")
+    Long countActiveCarts();
+
 }
@@ -1,13 +1,17 @@
 package com.example.backend.repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.example.backend.model.Category;
+import com.example.backend.repository.projection.CatalogFingerprint;
 
 @Repository
 public interface CategoryRepository extends JpaRepository<Category, Long> {
@@ -54,4 +58,26 @@ public interface CategoryRepository extends JpaRepository<Category, Long> {
      * Conta le categorie attive
      */
     long countByActiveTrue();
+    
+    /**
+     * Ultimo aggiornamento di una categoria attiva (per le richieste condizionali)
+     */
+    @Query("SELECT c.updatedAt FROM Category c WHERE c.id = :id AND c.active = true")
+    Optional<LocalDateTime> findUpdatedAtByIdAndActiveTrue(@Param("id") Long id);
+    
+    /**
+     * Feed delle modifiche: categorie aggiornate dopo la posizione (updatedAt, id), paginate per keyset
+     */
+    @Query("SELECT c FROM Category c WHERE (c.updatedAt > :updatedAt OR (c.updatedAt = :updatedAt AND c.id > :id)) " +
+           "AND c.updatedAt <= :until ORDER BY c.updatedAt, c.id")
+    List<Category> findChangesAfter(@Param("updatedAt") LocalDateTime updatedAt,
+                                    @Param("id") Long id,
+                                    @Param("until") LocalDateTime until,
+                                    Pageable pageable);
+    
+    /**
+     * Impronta della tabella categorie (numero di righe e ultimo aggiornamento)
+     */
+    @Query("SELECT new com.example.backend.repository.projection.CatalogFingerprint(COUNT(c), MAX(c.updatedAt)) FROM Category c")
+    CatalogFingerprint findCatalogFingerprint();
 }
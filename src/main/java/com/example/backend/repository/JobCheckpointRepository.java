@@ -0,0 +1,41 @@
+package com.example.backend.repository;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.example.backend.model.JobCheckpoint;
+
+@Repository
+public interface JobCheckpointRepository extends JpaRepository<JobCheckpoint, String> {
+
+    // Acquisisce il lock del job se libero, scaduto o già dell'istanza (1 = acquisito)
+    @Modifying
+    @Query("UPDATE JobCheckpoint j SET j.lockedBy = :owner, j.lockedUntil = :lockedUntil " +
+           "WHERE j.jobName = :jobName AND (j.lockedUntil IS NULL OR j.lockedUntil < :now OR j.lockedBy = :owner)")
+    int tryLock(@Param("jobName") String jobName,
+                @Param("owner") String owner,
+                @Param("now") LocalDateTime now,
+                @Param("lockedUntil") LocalDateTime lockedUntil);
+
+    // Avanza il cursore e rinnova il lock (0 = lock perso a favore di un'altra istanza)
+    @Modifying
+    @Query("UPDATE JobCheckpoint j SET j.cursorId = :cursorId, j.processedCount = j.processedCount + :processed, " +
+           "j.lockedUntil = :lockedUntil, j.updatedAt = :now WHERE j.jobName = :jobName AND j.lockedBy = :owner")
+    int advance(@Param("jobName") String jobName,
+                @Param("owner") String owner,
+                @Param("cursorId") Long cursorId,
+                @Param("processed") long processed,
+                @Param("now") LocalDateTime now,
+                @Param("lockedUntil") LocalDateTime lockedUntil);
+
+    // Rilascia il lock dell'istanza
+    @Modifying
+    @Query("UPDATE JobCheckpoint j SET j.lockedBy = NULL, j.lockedUntil = NULL " +
+           "WHERE j.jobName = :jobName AND j.lockedBy = :owner")
+    int unlock(@Param("jobName") String jobName, @Param("owner") String owner);
+}
@@ -0,0 +1,55 @@
+package com.example.backend.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.example.backend.model.OrderItem;
+import com.example.backend.repository.projection.OrderLineView;
+
+import jakarta.persistence.QueryHint;
+
+@Repository
+public interface OrderItemRepository extends JpaRepository<OrderItem, Long> {
+    
+    // Scorre tutte le righe degli ordini validi raggruppate per ordine, con cursore lato server
+    // (da consumare dentro una transazione e chiudere dopo l'uso)
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    @Query("SELECT new com.example.backend.repository.projection.OrderLineView(" +
+           "o.id, oi.product.id, oi.quantity, o.createdAt, o.status) " +
+           "FROM OrderItem oi JOIN oi.order o " +
+           "WHERE o.status NOT IN ('CANCELLED', 'FAILED') " +
+           "ORDER BY o.id")
+    Stream<OrderLineView> streamValidOrderLines();
+    
+    // Scorre le righe degli ordini validi creati a partire da una data
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    @Query("SELECT new com.example.backend.repository.projection.OrderLineView(" +
+           "o.id, oi.product.id, oi.quantity, o.createdAt, o.status) " +
+           "FROM OrderItem oi JOIN oi.order o " +
+           "WHERE o.status NOT IN ('CANCELLED', 'FAILED') AND o.createdAt >= :fromDate")
+    Stream<OrderLineView> streamValidOrderLinesSince(@Param("fromDate") LocalDateTime fromDate);
+    
+    // Ordini tra quelli indicati che hanno righe valide (stesso filtro di streamValidOrderLines):
+    // letta nella transazione della ricostruzione, indica quali ordini erano già nello snapshot
+    @Query("SELECT DISTINCT o.id FROM OrderItem oi JOIN oi.order o " +
+           "WHERE o.id IN :orderIds AND o.status NOT IN ('CANCELLED', 'FAILED')")
+    List<Long> findValidOrderIdsWithLines(@Param("orderIds") Collection<Long> orderIds);
+    
+    // Ordini tra quelli indicati che hanno righe, in qualunque stato
+    @Query("SELECT DISTINCT oi.order.id FROM OrderItem oi WHERE oi.order.id IN :orderIds")
+    List<Long> findOrderIdsWithLines(@Param("orderIds") Collection<Long> orderIds);
+    
+    // Righe di un ordine come proiezione (ripristino dello stock e classifiche senza caricare entità)
+    @Query("SELECT new com.example.backend.repository.projection.OrderLineView(" +
+           "o.id, oi.product.id, oi.quantity, o.createdAt, o.status) " +
+           "FROM OrderItem oi JOIN oi.order o WHERE o.id = :orderId")
+    List<OrderLineView> findLinesByOrderId(@Param("orderId") Long orderId);
+}
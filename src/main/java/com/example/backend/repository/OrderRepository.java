@@ -1,12 +1,15 @@
 package com.example.backend.repository;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -49,6 +52,31 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
     @Query("SELECT SUM(o.totalAmount) FROM Order o WHERE o.user.id = :userId AND o.status != 'CANCELLED'")
     BigDecimal sumTotalAmountByUserId(@Param("userId") Long userId);
     
+    // Stato attuale con lock sulla riga fino alla fine della transazione (passaggi di stato)
+    @Query(value = "SELECT status FROM orders WHERE id = :orderId FOR UPDATE", nativeQuery = true)
+    Optional<String> lockStatusById(@Param("orderId") Long orderId);
+    
+    // Passaggio di stato condizionale (0 = ordine inesistente, stato non ammesso o, con requireItems,
+    // ordine asincrono ancora senza righe); il numero di tracking viene impostato solo se indicato
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Order o SET o.status = :to, o.trackingNumber = COALESCE(:trackingNumber, o.trackingNumber), " +
+           "o.updatedAt = :now WHERE o.id = :orderId AND o.status IN :from " +
+           "AND (:requireItems = false OR EXISTS (SELECT 1 FROM OrderItem oi WHERE oi.order.id = o.id))")
+    int transition(@Param("orderId") Long orderId,
+                   @Param("from") Collection<Order.OrderStatus> from,
+                   @Param("to") Order.OrderStatus to,
+                   @Param("trackingNumber") String trackingNumber,
+                   @Param("requireItems") boolean requireItems,
+                   @Param("now") LocalDateTime now);
+    
+    // Carrello d'origine di un ordine (impostato dal checkout asincrono)
+    @Query("SELECT o.cart.id FROM Order o WHERE o.id = :orderId")
+    Optional<Long> findCartIdById(@Param("orderId") Long orderId);
+    
+    // Solo lo stato, per spiegare un passaggio rifiutato
+    @Query("SELECT o.status FROM Order o WHERE o.id = :orderId")
+    Optional<Order.OrderStatus> findStatusById(@Param("orderId") Long orderId);
+    
     // Trova ordini recenti
     @Query("SELECT o FROM Order o WHERE o.createdAt >= :fromDate ORDER BY o.createdAt DESC")
     List<Order> findRecentOrders(@Param("fromDate") java.time.LocalDateTime fromDate);
@@ -0,0 +1,48 @@
+package com.example.backend.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.example.backend.model.OutboxEvent;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // Solo il primo evento in attesa di ogni aggregato, saltando le righe bloccate da altre istanze:
+    // gli eventi successivi dello stesso aggregato restano fermi finché il precedente non è consegnato
+    @Query(value = "SELECT e.* FROM outbox_events e " +
+                   "WHERE e.published_at IS NULL AND e.next_attempt_at <= :now " +
+                   "AND NOT EXISTS (SELECT 1 FROM outbox_events p WHERE p.aggregate_type = e.aggregate_type " +
+                   "AND p.aggregate_id = e.aggregate_id AND p.published_at IS NULL AND p.id < e.id) " +
+                   "ORDER BY e.id LIMIT :limit FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    List<OutboxEvent> lockNextBatch(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.publishedAt = :now, e.lastError = NULL WHERE e.id IN :ids")
+    int markPublished(@Param("ids") Collection<Long> ids, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.nextAttemptAt = :nextAttemptAt, e.lastError = :error WHERE e.id = :id")
+    int markFailed(@Param("id") Long id,
+                   @Param("nextAttemptAt") LocalDateTime nextAttemptAt,
+                   @Param("error") String error);
+
+    long countByPublishedAtIsNull();
+
+    @Query("SELECT MIN(e.createdAt) FROM OutboxEvent e WHERE e.publishedAt IS NULL")
+    LocalDateTime findOldestPendingCreatedAt();
+
+    // Elimina a blocchi gli eventi consegnati prima della soglia
+    @Modifying
+    @Query(value = "DELETE FROM outbox_events WHERE published_at < :cutoff ORDER BY published_at LIMIT :limit",
+           nativeQuery = true)
+    int deletePublishedBefore(@Param("cutoff") LocalDateTime cutoff, @Param("limit") int limit);
+}
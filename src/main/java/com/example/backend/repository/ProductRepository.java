@@ -1,14 +1,28 @@
 package com.example.backend.repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import com.example.backend.dto.ProductSummaryDto;
 import com.example.backend.model.Product;
+import com.example.backend.repository.projection.CatalogChange;
+import com.example.backend.repository.projection.CatalogFingerprint;
+import com.example.backend.repository.projection.ProductCategoryLink;
+import com.example.backend.repository.projection.ProductExportRow;
+import com.example.backend.repository.projection.ProductVersion;
+
+import jakarta.persistence.QueryHint;
 
 @Repository
 public interface ProductRepository extends JpaRepository<Product, Long> {
@@ -44,6 +58,51 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     @Query("SELECT p FROM Product p JOIN p.categories c WHERE c.id = :categoryId AND p.isActive = true")
     List<Product> findByCategoryId(@Param("categoryId") Long categoryId);
     
+    // Query per ottenere solo gli ID dei prodotti attivi di una categoria
+    @Query("SELECT p.id FROM Product p JOIN p.categories c WHERE c.id = :categoryId AND p.isActive = true")
+    List<Long> findActiveProductIdsByCategoryId(@Param("categoryId") Long categoryId);
+    
+    // ID dei prodotti con prenotazione dello stock all'aggiunta al carrello
+    @Query("SELECT p.id FROM Product p WHERE p.holdOnAdd = true")
+    List<Long> findHoldOnAddProductIds();
+    
+    // Attiva o disattiva la prenotazione dello stock all'aggiunta al carrello
+    @Modifying
+    @Query("UPDATE Product p SET p.holdOnAdd = :enabled WHERE p.id = :productId")
+    int updateHoldOnAdd(@Param("productId") Long productId, @Param("enabled") boolean enabled);
+    
+    // Restituisce allo stock le quantità di un ordine in un solo UPDATE (updated_at alimenta il change feed)
+    @Modifying
+    @Query(value = "UPDATE products p JOIN (SELECT product_id, SUM(quantity) AS qty FROM order_items " +
+                   "WHERE order_id = :orderId GROUP BY product_id) oi ON oi.product_id = p.id " +
+                   "SET p.stock_qty = p.stock_qty + oi.qty, p.updated_at = :now",
+           nativeQuery = true)
+    int restoreStockForOrder(@Param("orderId") Long orderId, @Param("now") LocalDateTime now);
+    
+    // Restituisce allo stock le quantità di un carrello (ordine asincrono cancellato prima di creare le righe)
+    @Modifying
+    @Query(value = "UPDATE products p JOIN (SELECT product_id, SUM(quantity) AS qty FROM cart_items " +
+                   "WHERE cart_id = :cartId GROUP BY product_id) ci ON ci.product_id = p.id " +
+                   "SET p.stock_qty = p.stock_qty + ci.qty, p.updated_at = :now",
+           nativeQuery = true)
+    int restoreStockForCart(@Param("cartId") Long cartId, @Param("now") LocalDateTime now);
+    
+    // Query per ottenere tutte le associazioni prodotto-categoria senza caricare le entità
+    @Query("SELECT new com.example.backend.repository.projection.ProductCategoryLink(p.id, c.id) " +
+           "FROM Product p JOIN p.categories c")
+    List<ProductCategoryLink> findAllProductCategoryLinks();
+    
+    // Associazioni prodotto-categoria limitate a prodotti e categorie attivi
+    @Query("SELECT new com.example.backend.repository.projection.ProductCategoryLink(p.id, c.id) " +
+           "FROM Product p JOIN p.categories c WHERE p.isActive = true AND c.active = true")
+    List<ProductCategoryLink> findActiveProductCategoryLinks();
+    
+    // Associazioni attive di un insieme di prodotti
+    @Query("SELECT new com.example.backend.repository.projection.ProductCategoryLink(p.id, c.id) " +
+           "FROM Product p JOIN p.categories c " +
+           "WHERE p.id IN :productIds AND p.isActive = true AND c.active = true")
+    List<ProductCategoryLink> findActiveProductCategoryLinksByProductIds(@Param("productIds") Collection<Long> productIds);
+    
     // Query per contare prodotti attivi
     @Query("SELECT COUNT(p) FROM Product p WHERE p.isActive = true")
     Long countActiveProducts();
@@ -63,6 +122,77 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
            "WHERE p.slug = :slug AND p.isActive = true")
     Optional<Product> findBySlugWithCategories(@Param("slug") String slug);
     
+    // Query per più prodotti per ID con categorie caricate (una sola query per il multi-get)
+    @Query("SELECT DISTINCT p FROM Product p " +
+           "LEFT JOIN FETCH p.categories " +
+           "WHERE p.id IN :productIds")
+    List<Product> findAllByIdInWithCategories(@Param("productIds") Collection<Long> productIds);
+    
+    // Query per più prodotti per slug con categorie caricate
+    @Query("SELECT DISTINCT p FROM Product p " +
+           "LEFT JOIN FETCH p.categories " +
+           "WHERE p.slug IN :slugs")
+    List<Product> findAllBySlugInWithCategories(@Param("slugs") Collection<String> slugs);
+    
+    // Proiezioni per le liste: selezionano solo le colonne della card, senza entity gestite
+    @Query("SELECT new com.example.backend.dto.ProductSummaryDto(" +
+           "p.id, p.name, p.slug, p.sku, p.price, p.currency, p.stockQty, p.imageUrl) " +
+           "FROM Product p WHERE p.isActive = true ORDER BY p.id")
+    @QueryHints(@QueryHint(name = "org.hibernate.readOnly", value = "true"))
+    List<ProductSummaryDto> findActiveSummaries();
+    
+    @Query("SELECT new com.example.backend.dto.ProductSummaryDto(" +
+           "p.id, p.name, p.slug, p.sku, p.price, p.currency, p.stockQty, p.imageUrl) " +
+           "FROM Product p JOIN p.categories c WHERE c.id = :categoryId AND p.isActive = true ORDER BY p.id")
+    @QueryHints(@QueryHint(name = "org.hibernate.readOnly", value = "true"))
+    List<ProductSummaryDto> findActiveSummariesByCategoryId(@Param("categoryId") Long categoryId);
+    
+    @Query("SELECT new com.example.backend.dto.ProductSummaryDto(" +
+           "p.id, p.name, p.slug, p.sku, p.price, p.currency, p.stockQty, p.imageUrl) " +
+           "FROM Product p WHERE " +
+           "(LOWER(p.name) LIKE LOWER(CONCAT('%', :searchTerm, '%')) OR " +
+           "LOWER(p.description) LIKE LOWER(CONCAT('%', :searchTerm, '%')) OR " +
+           "LOWER(p.sku) LIKE LOWER(CONCAT('%', :searchTerm, '%'))) AND " +
+           "p.isActive = true ORDER BY p.id")
+    @QueryHints(@QueryHint(name = "org.hibernate.readOnly", value = "true"))
+    List<ProductSummaryDto> searchSummaries(@Param("searchTerm") String searchTerm);
+    
+    // Impronta della tabella prodotti per rilevare modifiche al catalogo
+    @Query("SELECT new com.example.backend.repository.projection.CatalogFingerprint(COUNT(p), MAX(p.updatedAt)) FROM Product p")
+    CatalogFingerprint findCatalogFingerprint();
+    
+    // Versione del prodotto (e delle sue categorie) per le richieste condizionali, senza caricare l'entity
+    @Query("SELECT new com.example.backend.repository.projection.ProductVersion(p.id, p.updatedAt, MAX(c.updatedAt)) " +
+           "FROM Product p LEFT JOIN p.categories c WHERE p.id = :productId AND p.isActive = true GROUP BY p.id, p.updatedAt")
+    Optional<ProductVersion> findVersionById(@Param("productId") Long productId);
+    
+    @Query("SELECT new com.example.backend.repository.projection.ProductVersion(p.id, p.updatedAt, MAX(c.updatedAt)) " +
+           "FROM Product p LEFT JOIN p.categories c WHERE p.slug = :slug AND p.isActive = true GROUP BY p.id, p.updatedAt")
+    Optional<ProductVersion> findVersionBySlug(@Param("slug") String slug);
+    
+    // Feed delle modifiche: prodotti aggiornati dopo la posizione (updatedAt, id), paginati per keyset
+    @Query("SELECT new com.example.backend.repository.projection.CatalogChange(p.id, p.updatedAt, p.isActive) " +
+           "FROM Product p WHERE (p.updatedAt > :updatedAt OR (p.updatedAt = :updatedAt AND p.id > :id)) " +
+           "AND p.updatedAt <= :until ORDER BY p.updatedAt, p.id")
+    List<CatalogChange> findChangesAfter(@Param("updatedAt") LocalDateTime updatedAt,
+                                         @Param("id") Long id,
+                                         @Param("until") LocalDateTime until,
+                                         Pageable pageable);
+    
+    // Scorre i prodotti attivi per l'export con cursore lato server, con i nomi delle categorie attive
+    // aggregati per riga (GROUP_CONCAT su MySQL); da consumare dentro una transazione e chiudere dopo l'uso
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    @Query("SELECT new com.example.backend.repository.projection.ProductExportRow(" +
+           "p.id, p.sku, p.slug, p.name, p.description, p.price, p.currency, p.stockQty, p.imageUrl, p.createdAt, p.updatedAt, " +
+           "LISTAGG(c.name, '" + ProductExportRow.CATEGORY_SEPARATOR + "') WITHIN GROUP (ORDER BY c.name)) " +
+           "FROM Product p LEFT JOIN p.categories c ON c.active = true " +
+           "WHERE p.isActive = true GROUP BY p.id ORDER BY p.id")
+    Stream<ProductExportRow> streamActiveProductsForExport();
+    
+    // ID dei prodotti attivi successivi a quello indicato, per la paginazione per keyset
+    @Query("SELECT p.id FROM Product p WHERE p.isActive = true AND p.id > :afterId ORDER BY p.id")
+    List<Long> findActiveIdsAfter(@Param("afterId") Long afterId, Pageable pageable);
+    
     // Query per prodotti per categoria con paginazione (metodo Spring Data)
     @Query("SELECT p FROM Product p JOIN p.categories c WHERE c.id = :categoryId AND p.isActive = true")
     org.springframework.data.domain.Page<Product> findByCategoryIdAndActiveTrue(@Param("categoryId") Long categoryId, org.springframework.data.domain.Pageable pageable);
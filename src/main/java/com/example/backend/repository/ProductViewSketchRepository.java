@@ -0,0 +1,25 @@
+package com.example.backend.repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.example.backend.model.ProductViewSketch;
+
+@Repository
+public interface ProductViewSketchRepository extends JpaRepository<ProductViewSketch, Long> {
+
+    // Sketch persistiti di un insieme di prodotti a partire da una data (usato dalle stime)
+    List<ProductViewSketch> findByProductIdInAndBucketDateGreaterThanEqual(Collection<Long> productIds, LocalDate fromDate);
+
+    // Elimina gli sketch oltre il periodo di retention
+    @Modifying
+    @Query("DELETE FROM ProductViewSketch s WHERE s.bucketDate < :cutoffDate")
+    int deleteOlderThan(@Param("cutoffDate") LocalDate cutoffDate);
+}
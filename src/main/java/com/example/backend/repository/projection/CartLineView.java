@@ -0,0 +1,13 @@
+package com.example.backend.repository.projection;
+
+import java.math.BigDecimal;
+
+/**
+ * Riga del carrello con il prezzo unitario fissato all'aggiunta, letta senza caricare entità
+ */
+public record CartLineView(
+        Long productId,
+        String productName,
+        Integer quantity,
+        BigDecimal unitPrice
+) {}
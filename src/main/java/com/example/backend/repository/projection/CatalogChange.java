@@ -0,0 +1,8 @@
+package com.example.backend.repository.projection;
+
+import java.time.LocalDateTime;
+
+/**
+ * Riga modificata del catalogo letta dal feed delle modifiche (posizione keyset e stato)
+ */
+public record CatalogChange(Long id, LocalDateTime updatedAt, Boolean active) {}
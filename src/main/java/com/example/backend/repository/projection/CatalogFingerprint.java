@@ -0,0 +1,8 @@
+package com.example.backend.repository.projection;
+
+import java.time.LocalDateTime;
+
+/**
+ * Impronta economica di una tabella del catalogo (numero di righe e ultimo aggiornamento)
+ */
+public record CatalogFingerprint(Long rowCount, LocalDateTime lastUpdatedAt) {}
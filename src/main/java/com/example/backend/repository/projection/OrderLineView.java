@@ -0,0 +1,16 @@
+package com.example.backend.repository.projection;
+
+import java.time.LocalDateTime;
+
+import com.example.backend.model.Order;
+
+/**
+ * Proiezione leggera di una riga d'ordine (senza caricare entità) per i job che scorrono lo storico
+ */
+public record OrderLineView(
+        Long orderId,
+        Long productId,
+        Integer quantity,
+        LocalDateTime orderCreatedAt,
+        Order.OrderStatus orderStatus
+) {}
@@ -0,0 +1,6 @@
+package com.example.backend.repository.projection;
+
+/**
+ * Coppia prodotto-categoria letta direttamente dalla tabella di join
+ */
+public record ProductCategoryLink(Long productId, Long categoryId) {}
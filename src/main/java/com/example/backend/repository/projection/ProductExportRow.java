@@ -0,0 +1,37 @@
+package com.example.backend.repository.projection;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Riga dell'export del catalogo letta in streaming (senza entity nel persistence context).
+ * I nomi delle categorie attive arrivano già aggregati dalla query, separati da {@link #CATEGORY_SEPARATOR}.
+ */
+public record ProductExportRow(
+        Long id,
+        String sku,
+        String slug,
+        String name,
+        String description,
+        BigDecimal price,
+        String currency,
+        Integer stockQty,
+        String imageUrl,
+        LocalDateTime createdAt,
+        LocalDateTime updatedAt,
+        String categoryNames
+) {
+
+    // Carattere di controllo (unit separator) che non compare nei nomi delle categorie
+    public static final String CATEGORY_SEPARATOR = "\u001F";
+
+    /**
+     * Nomi delle categorie attive del prodotto, in ordine alfabetico
+     */
+    public List<String> categories() {
+        return categoryNames == null || categoryNames.isEmpty()
+                ? List.of()
+                : List.of(categoryNames.split(CATEGORY_SEPARATOR));
+    }
+}
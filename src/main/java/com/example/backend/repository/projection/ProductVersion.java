@@ -0,0 +1,17 @@
+package com.example.backend.repository.projection;
+
+import java.time.LocalDateTime;
+
+/**
+ * Versione di un prodotto per le richieste condizionali: ultimo aggiornamento
+ * del prodotto e delle sue categorie, letti senza caricare le entity
+ */
+public record ProductVersion(Long productId, LocalDateTime updatedAt, LocalDateTime categoriesUpdatedAt) {
+
+    public LocalDateTime lastModified() {
+        if (categoriesUpdatedAt == null || updatedAt.isAfter(categoriesUpdatedAt)) {
+            return updatedAt;
+        }
+        return categoriesUpdatedAt;
+    }
+}
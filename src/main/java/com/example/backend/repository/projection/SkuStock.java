@@ -0,0 +1,6 @@
+package com.example.backend.repository.projection;
+
+/**
+ * Giacenza corrente di un prodotto identificato per SKU
+ */
+public record SkuStock(Long productId, String sku, Integer stockQty) {}
@@ -0,0 +1,168 @@
+package com.example.backend.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.model.JobCheckpoint;
+import com.example.backend.model.JobCheckpoint.JobStatus;
+import com.example.backend.repository.CartRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chiusura dei carrelli abbandonati a blocchi: gli ID vengono letti in ordine con paginazione keyset,
+ * ogni blocco viene aggiornato in una transazione breve su un pool di worker e il cursore salvato
+ * nel checkpoint avanza solo quando tutti i blocchi precedenti sono completati.
+ * Un'esecuzione interrotta riprende dall'ultimo cursore salvato con la stessa soglia.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AbandonedCartSweepService {
+
+    static final String JOB_NAME = "abandoned-cart-sweep";
+
+    private final CartRepository cartRepository;
+    private final CartCacheService cartCacheService;
+    private final JobCheckpointService jobCheckpointService;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${cart.abandoned.after-hours:72}")
+    private long afterHours;
+
+    @Value("${cart.abandoned.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${cart.abandoned.worker-threads:4}")
+    private int workerThreads;
+
+    @Scheduled(cron = "${cart.abandoned.sweep-cron:0 20 * * * *}")
+    public void scheduledSweep() {
+        try {
+            sweep();
+        } catch (Exception e) {
+            log.error("Errore durante la chiusura dei carrelli abbandonati: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Esegue (o riprende) la chiusura dei carrelli abbandonati.
+     * Restituisce il numero di carrelli chiusi da questa esecuzione.
+     */
+    public long sweep() {
+        Optional<JobCheckpoint> acquired = jobCheckpointService.tryAcquire(JOB_NAME);
+        if (acquired.isEmpty()) {
+            log.info("Chiusura dei carrelli abbandonati già in corso su un'altra istanza");
+            return 0;
+        }
+        try {
+            JobCheckpoint checkpoint = acquired.get();
+            if (checkpoint.getStatus() == JobStatus.RUNNING) {
+                log.info("Ripresa della chiusura dei carrelli abbandonati dal carrello {} (soglia {}, già chiusi {})",
+                        checkpoint.getCursorId(), checkpoint.getCutoffAt(), checkpoint.getProcessedCount());
+            } else {
+                checkpoint = jobCheckpointService.startRun(JOB_NAME, LocalDateTime.now().minusHours(afterHours));
+            }
+
+            long start = System.currentTimeMillis();
+            long abandoned = run(checkpoint.getCutoffAt(), checkpoint.getCursorId());
+            jobCheckpointService.complete(JOB_NAME);
+            log.info("Chiusura dei carrelli abbandonati completata: {} carrelli chiusi in {} ms",
+                    abandoned, System.currentTimeMillis() - start);
+            return abandoned;
+        } finally {
+            jobCheckpointService.release(JOB_NAME);
+        }
+    }
+
+    private long run(LocalDateTime cutoff, long cursor) {
+        int workers = Math.max(1, workerThreads);
+        AtomicInteger workerIndex = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "abandoned-cart-sweep-" + workerIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Blocchi in ordine di ID: al massimo workers * 2 in volo
+        Deque<Chunk> inFlight = new ArrayDeque<>();
+        long abandoned = 0;
+        try {
+            while (true) {
+                List<Long> ids = cartRepository.findAbandonedCartIdsAfter(cutoff, cursor, PageRequest.of(0, chunkSize));
+                if (ids.isEmpty()) {
+                    break;
+                }
+                cursor = ids.get(ids.size() - 1);
+                inFlight.add(new Chunk(cursor, pool.submit(() -> processChunk(ids, cutoff))));
+                while (inFlight.size() >= workers * 2) {
+                    abandoned += completeOldest(inFlight);
+                }
+                if (ids.size() < chunkSize) {
+                    break;
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                abandoned += completeOldest(inFlight);
+            }
+            return abandoned;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Il cursore avanza solo sul blocco più vecchio: in caso di crash nessun blocco viene saltato
+    private int completeOldest(Deque<Chunk> inFlight) {
+        Chunk chunk = inFlight.poll();
+        int closed;
+        try {
+            closed = chunk.result().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Chiusura dei carrelli abbandonati interrotta", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Errore nel blocco fino al carrello " + chunk.lastId() + ": "
+                    + e.getCause().getMessage(), e.getCause());
+        }
+        jobCheckpointService.advance(JOB_NAME, chunk.lastId(), closed);
+        return closed;
+    }
+
+    private int processChunk(List<Long> cartIds, LocalDateTime cutoff) {
+        // Le modifiche ancora in cache aggiornano updated_at: quei carrelli non risultano più abbandonati
+        cartCacheService.flushCarts(cartIds);
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        List<Long> closed = template.execute(status -> {
+            List<Long> candidates = cartRepository.lockAbandonedCartIds(cartIds, cutoff);
+            // Un carrello modificato in cache dopo il flush (o non salvato) resta aperto
+            Set<Long> dirty = cartCacheService.dirtyCartIds(candidates);
+            List<Long> toClose = candidates.stream().filter(id -> !dirty.contains(id)).toList();
+            if (!toClose.isEmpty()) {
+                cartRepository.markAbandoned(toClose, cutoff, LocalDateTime.now());
+            }
+            return toClose;
+        });
+        // Dalla cache escono solo i carrelli chiusi davvero
+        cartCacheService.evictCarts(closed);
+        return closed.size();
+    }
+
+    private record Chunk(long lastId, Future<Integer> result) {}
+}
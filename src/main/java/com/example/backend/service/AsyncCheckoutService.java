@@ -0,0 +1,463 @@
+package com.example.backend.service;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.dto.CheckoutStatusDto;
+import com.example.backend.dto.CheckoutStatusDto.CheckoutStatus;
+import com.example.backend.model.Cart;
+import com.example.backend.model.Order;
+import com.example.backend.model.Product;
+import com.example.backend.repository.CartRepository;
+import com.example.backend.repository.OrderRepository;
+import com.example.backend.repository.ProductRepository;
+import com.example.backend.repository.UserRepository;
+import com.example.backend.repository.projection.CartLineView;
+import com.example.backend.util.MinorUnits;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Checkout asincrono: la richiesta chiude il carrello, ne legge le righe con lock, riserva lo stock con un solo
+ * UPDATE condizionale e inserisce l'ordine PENDING in una transazione breve, poi restituisce l'ID dell'ordine.
+ * Le righe d'ordine (un INSERT ... SELECT dal carrello) e gli aggiornamenti delle statistiche sono
+ * completati da un pool limitato (virtual thread se disponibili); lo stato si legge con {@link #getStatus}.
+ * Se la pipeline fallisce l'ordine passa a FAILED, lo stock viene restituito e il carrello riaperto;
+ * gli ordini rimasti a metà (ad esempio per un riavvio) vengono ripresi periodicamente.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AsyncCheckoutService {
+
+    private static final String RESERVE_STOCK_SQL_PREFIX =
+            "UPDATE products p JOIN (";
+    // Per ogni riga serve la quantità richiesta più quella prenotata da altri carrelli
+    private static final String RESERVE_STOCK_SQL_SUFFIX =
+            ") r ON r.id = p.id SET p.stock_qty = p.stock_qty - r.qty, p.updated_at = ? " +
+            "WHERE p.is_active = 1 AND p.stock_qty >= r.qty + r.held";
+    private static final String RESTORE_STOCK_SQL =
+            "UPDATE products p JOIN cart_items ci ON ci.product_id = p.id " +
+            "SET p.stock_qty = p.stock_qty + ci.quantity, p.updated_at = ? WHERE ci.cart_id = ?";
+    private static final String LOCK_ORDER_SQL =
+            "SELECT cart_id FROM orders WHERE id = ? AND status = 'PENDING' FOR UPDATE";
+    private static final String COUNT_ORDER_ITEMS_SQL =
+            "SELECT COUNT(*) FROM order_items WHERE order_id = ?";
+    private static final String INSERT_ORDER_ITEMS_SQL =
+            "INSERT INTO order_items (order_id, product_id, product_name, sku, quantity, unit_price, total_price, " +
+            "created_at, updated_at) " +
+            "SELECT ?, p.id, p.name, p.sku, ci.quantity, ci.unit_price, ci.unit_price * ci.quantity, ?, ? " +
+            "FROM cart_items ci JOIN products p ON p.id = ci.product_id WHERE ci.cart_id = ? ORDER BY ci.id";
+    private static final String ORDER_LINES_SQL =
+            "SELECT product_id, quantity FROM order_items WHERE order_id = ?";
+    private static final String ORDER_OWNER_SQL =
+            "SELECT cart_id, user_id FROM orders WHERE id = ?";
+    private static final String CART_LINES_SQL =
+            "SELECT product_id, quantity FROM cart_items WHERE cart_id = ?";
+    // Lettura con lock (non dallo snapshot) delle righe del carrello appena chiuso: sono le stesse che
+    // INSERT_ORDER_ITEMS_SQL copierà, perché le scritture sui carrelli richiedono lo stato OPEN
+    private static final String LOCK_CART_LINES_SQL =
+            "SELECT ci.product_id, p.name, ci.quantity, ci.unit_price FROM cart_items ci " +
+            "JOIN products p ON p.id = ci.product_id WHERE ci.cart_id = ? ORDER BY ci.id FOR SHARE OF ci";
+    // Il carrello viene riaperto solo se l'utente non ne ha già aperto un altro
+    private static final String REOPEN_CART_SQL =
+            "UPDATE carts SET status = 'OPEN', updated_at = ?, version = version + 1 WHERE id = ? AND status = 'CHECKED_OUT' " +
+            "AND NOT EXISTS (SELECT 1 FROM (SELECT id FROM carts WHERE user_id = ? AND status = 'OPEN') open_carts)";
+    private static final String STALLED_ORDERS_SQL =
+            "SELECT o.id, o.user_id, o.total_amount, o.created_at FROM orders o " +
+            "WHERE o.status = 'PENDING' AND o.cart_id IS NOT NULL AND o.created_at < ? " +
+            "AND NOT EXISTS (SELECT 1 FROM order_items oi WHERE oi.order_id = o.id) ORDER BY o.id LIMIT ?";
+    private static final String ORDER_STATUS_SQL =
+            "SELECT o.status, o.total_amount, o.created_at, o.updated_at, " +
+            "EXISTS (SELECT 1 FROM order_items oi WHERE oi.order_id = o.id) AS has_items " +
+            "FROM orders o WHERE o.id = ?";
+
+    private final CartRepository cartRepository;
+    private final OrderRepository orderRepository;
+    private final ProductRepository productRepository;
+    private final UserRepository userRepository;
+    private final CartService cartService;
+    private final CartCacheService cartCacheService;
+    private final StockHoldService stockHoldService;
+    private final FrequentlyBoughtTogetherService frequentlyBoughtTogetherService;
+    private final BestSellerService bestSellerService;
+    private final OutboxService outboxService;
+    private final OrderStateMachine orderStateMachine;
+    private final OrderStatusHistoryService orderStatusHistoryService;
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    // Pipeline in esecuzione contemporaneamente (limita anche le connessioni usate)
+    @Value("${checkout.async.max-concurrency:16}")
+    private int maxConcurrency;
+
+    // Checkout accettati in attesa di un worker, oltre i quali le richieste vengono rifiutate
+    @Value("${checkout.async.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${checkout.async.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${checkout.async.retry-backoff-ms:200}")
+    private long retryBackoffMs;
+
+    @Value("${checkout.async.stalled-after-ms:120000}")
+    private long stalledAfterMs;
+
+    private final Map<Long, CheckoutJob> jobs = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+    private Semaphore admissions;
+    private Semaphore workers;
+
+    @PostConstruct
+    public void startExecutor() {
+        admissions = new Semaphore(maxConcurrency + queueCapacity);
+        workers = new Semaphore(maxConcurrency);
+        executor = createExecutor();
+    }
+
+    @PreDestroy
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Accetta il checkout del carrello dell'utente: riserva lo stock e crea l'ordine PENDING,
+     * il completamento prosegue in background
+     * @throws RejectedExecutionException se ci sono troppi checkout in attesa
+     * @throws RuntimeException se il carrello è vuoto o lo stock non basta
+     */
+    public CheckoutStatusDto checkout(Long userId, String notes) {
+        if (!admissions.tryAcquire()) {
+            throw new RejectedExecutionException("Troppi checkout in corso, riprovare tra poco");
+        }
+        boolean submitted = false;
+        try {
+            // I job conclusi restano consultabili per un'ora
+            LocalDateTime expiry = LocalDateTime.now().minusHours(1);
+            jobs.values().removeIf(job -> job.completedAt != null && job.completedAt.isBefore(expiry));
+
+            cartService.flushCachedCart(userId);
+            CheckoutJob job = inTransaction(() -> accept(userId, notes));
+            cartCacheService.evict(userId);
+
+            jobs.put(job.orderId, job);
+            executor.execute(() -> runPipeline(job));
+            submitted = true;
+
+            log.info("Checkout accettato per utente {}: ordine {} ({})", userId, job.orderId, job.totalAmount);
+            return job.toDto();
+        } finally {
+            if (!submitted) {
+                admissions.release();
+            }
+        }
+    }
+
+    /**
+     * Stato del checkout di un ordine (dalla memoria se recente, altrimenti ricavato dall'ordine)
+     */
+    public Optional<CheckoutStatusDto> getStatus(Long orderId) {
+        CheckoutJob job = jobs.get(orderId);
+        if (job != null) {
+            return Optional.of(job.toDto());
+        }
+        return jdbcTemplate.query(ORDER_STATUS_SQL, (rs, rowNum) -> {
+            String orderStatus = rs.getString("status");
+            boolean hasItems = rs.getBoolean("has_items");
+            CheckoutStatus status = Order.OrderStatus.FAILED.name().equals(orderStatus) ? CheckoutStatus.FAILED
+                    : hasItems ? CheckoutStatus.COMPLETED : CheckoutStatus.PROCESSING;
+            return new CheckoutStatusDto(orderId, status, orderStatus, rs.getBigDecimal("total_amount"),
+                    rs.getTimestamp("created_at").toLocalDateTime(),
+                    status == CheckoutStatus.PROCESSING ? null : rs.getTimestamp("updated_at").toLocalDateTime(), null);
+        }, orderId).stream().findFirst();
+    }
+
+    /**
+     * Riprende gli ordini accettati ma mai completati (worker interrotto o istanza riavviata)
+     */
+    @Scheduled(fixedDelayString = "${checkout.async.recovery-interval-ms:60000}")
+    public void recoverStalled() {
+        try {
+            Timestamp before = Timestamp.valueOf(LocalDateTime.now().minus(Duration.ofMillis(stalledAfterMs)));
+            List<CheckoutJob> stalled = jdbcTemplate.query(STALLED_ORDERS_SQL, (rs, rowNum) -> new CheckoutJob(
+                    rs.getLong("id"), rs.getLong("user_id"), rs.getBigDecimal("total_amount"),
+                    rs.getTimestamp("created_at").toLocalDateTime()), before, maxConcurrency);
+
+            for (CheckoutJob job : stalled) {
+                CheckoutJob running = jobs.get(job.orderId);
+                if (running != null && running.completedAt == null) {
+                    continue;
+                }
+                if (!admissions.tryAcquire()) {
+                    break;
+                }
+                log.warn("Ripresa del checkout dell'ordine {} rimasto in sospeso", job.orderId);
+                jobs.put(job.orderId, job);
+                try {
+                    executor.execute(() -> runPipeline(job));
+                } catch (RejectedExecutionException e) {
+                    admissions.release();
+                    throw e;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Errore durante la ripresa dei checkout in sospeso: {}", e.getMessage(), e);
+        }
+    }
+
+    private CheckoutJob accept(Long userId, String notes) {
+        Cart cart = cartRepository.findByUserIdAndStatus(userId, Cart.CartStatus.OPEN)
+                .orElseThrow(() -> new RuntimeException("Carrello vuoto, impossibile creare ordine"));
+
+        // Prima si chiude il carrello: da qui nessuna scrittura può cambiarne le righe
+        LocalDateTime now = LocalDateTime.now();
+        if (cartRepository.markCheckedOut(cart.getId(), now) == 0) {
+            throw new RuntimeException("Checkout già in corso per questo carrello");
+        }
+        List<CartLineView> lines = jdbcTemplate.query(LOCK_CART_LINES_SQL, (rs, rowNum) -> new CartLineView(
+                rs.getLong("product_id"), rs.getString("name"), rs.getInt("quantity"), rs.getBigDecimal("unit_price")),
+                cart.getId());
+        if (lines.isEmpty()) {
+            throw new RuntimeException("Carrello vuoto, impossibile creare ordine");
+        }
+
+        reserveStock(userId, lines, now);
+
+        long subtotal = 0;
+        for (CartLineView line : lines) {
+            subtotal += MinorUnits.of(line.unitPrice()) * line.quantity();
+        }
+        BigDecimal totalAmount = MinorUnits.toDecimal(subtotal);
+
+        Order order = new Order();
+        order.setUser(userRepository.getReferenceById(userId));
+        order.setCart(cart);
+        order.setStatus(Order.OrderStatus.PENDING);
+        order.setSubtotalAmount(totalAmount);
+        order.setTotalAmount(totalAmount); // Per ora stesso valore del subtotale, come nel checkout sincrono
+        order.setNotes(notes);
+        Order savedOrder = orderRepository.save(order);
+
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        Map<Long, Integer> stockDeltas = new LinkedHashMap<>();
+        for (CartLineView line : lines) {
+            quantities.merge(line.productId(), line.quantity(), Integer::sum);
+            stockDeltas.merge(line.productId(), -line.quantity(), Integer::sum);
+        }
+        outboxService.recordOrderCreated(savedOrder.getId(), userId, totalAmount, quantities);
+        outboxService.recordStockChanges(stockDeltas, "ORDER", savedOrder.getId());
+        orderStatusHistoryService.record(savedOrder.getId(), null, Order.OrderStatus.PENDING, "Checkout accettato");
+
+        stockHoldService.releaseAllAfterCommit(userId);
+        return new CheckoutJob(savedOrder.getId(), userId, totalAmount, now);
+    }
+
+    // Un solo UPDATE condizionale per tutte le righe: o scala tutto o la transazione viene annullata
+    private void reserveStock(Long userId, List<CartLineView> lines, LocalDateTime now) {
+        StringBuilder sql = new StringBuilder(RESERVE_STOCK_SQL_PREFIX);
+        List<Object> args = new ArrayList<>(lines.size() * 3 + 1);
+        for (int i = 0; i < lines.size(); i++) {
+            CartLineView line = lines.get(i);
+            sql.append(i == 0 ? "SELECT ? AS id, ? AS qty, ? AS held" : " UNION ALL SELECT ?, ?, ?");
+            args.add(line.productId());
+            args.add(line.quantity());
+            args.add(stockHoldService.heldByOthers(line.productId(), userId));
+        }
+        sql.append(RESERVE_STOCK_SQL_SUFFIX);
+        args.add(Timestamp.valueOf(now));
+
+        int reserved = jdbcTemplate.update(sql.toString(), args.toArray());
+        if (reserved != lines.size()) {
+            throw new RuntimeException(describeShortage(userId, lines));
+        }
+    }
+
+    private String describeShortage(Long userId, List<CartLineView> lines) {
+        Map<Long, Product> products = new LinkedHashMap<>();
+        productRepository.findAllById(lines.stream().map(CartLineView::productId).toList())
+                .forEach(product -> products.put(product.getId(), product));
+        for (CartLineView line : lines) {
+            Product product = products.get(line.productId());
+            if (product == null || !Boolean.TRUE.equals(product.getIsActive())) {
+                return "Prodotto non disponibile: " + line.productName();
+            }
+            if (stockHoldService.availableFor(product.getId(), userId, product.getStockQty()) < line.quantity()) {
+                return "Stock insufficiente per il prodotto: " + product.getName();
+            }
+        }
+        return "Stock insufficiente per uno o più prodotti del carrello";
+    }
+
+    private void runPipeline(CheckoutJob job) {
+        try {
+            workers.acquire();
+            try {
+                job.status = CheckoutStatus.PROCESSING;
+                Map<Long, Integer> quantities = createOrderItemsWithRetry(job.orderId);
+                // Statistiche dopo il commit delle righe (ricostruite comunque dai job notturni)
+                frequentlyBoughtTogetherService.recordOrderAfterCommit(job.orderId, quantities.keySet());
+                bestSellerService.recordSaleAfterCommit(job.orderId, job.acceptedAt, quantities);
+                job.finish(CheckoutStatus.COMPLETED, null);
+                log.info("Checkout dell'ordine {} completato: {} prodotti", job.orderId, quantities.size());
+            } finally {
+                workers.release();
+            }
+        } catch (InterruptedException e) {
+            // Arresto in corso: l'ordine resta PENDING e verrà ripreso
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Errore durante il completamento del checkout dell'ordine {}: {}", job.orderId, e.getMessage(), e);
+            failOrder(job, e.getMessage());
+        } finally {
+            admissions.release();
+        }
+    }
+
+    private Map<Long, Integer> createOrderItemsWithRetry(Long orderId) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return inTransaction(() -> createOrderItems(orderId));
+            } catch (IllegalStateException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                log.warn("Tentativo {} di completamento dell'ordine {} fallito: {}", attempt, orderId, e.getMessage());
+                Thread.sleep(retryBackoffMs * attempt);
+            }
+        }
+    }
+
+    // Idempotente: con l'ordine bloccato, le righe vengono inserite solo se non esistono già
+    private Map<Long, Integer> createOrderItems(Long orderId) {
+        List<Long> cartIds = jdbcTemplate.queryForList(LOCK_ORDER_SQL, Long.class, orderId);
+        if (cartIds.isEmpty() || cartIds.get(0) == null) {
+            throw new IllegalStateException("Ordine " + orderId + " non più in attesa o senza carrello");
+        }
+        Long existing = jdbcTemplate.queryForObject(COUNT_ORDER_ITEMS_SQL, Long.class, orderId);
+        if (existing == null || existing == 0) {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            jdbcTemplate.update(INSERT_ORDER_ITEMS_SQL, orderId, now, now, cartIds.get(0));
+        }
+
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        jdbcTemplate.query(ORDER_LINES_SQL, rs -> {
+            quantities.merge(rs.getLong("product_id"), rs.getInt("quantity"), Integer::sum);
+        }, orderId);
+        if (quantities.isEmpty()) {
+            throw new IllegalStateException("Righe del carrello non trovate per l'ordine " + orderId);
+        }
+        return quantities;
+    }
+
+    // Compensazione: eseguita una sola volta grazie al passaggio condizionale PENDING -> FAILED
+    private void failOrder(CheckoutJob job, String error) {
+        try {
+            inTransaction(() -> {
+                Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+                if (!orderStateMachine.tryTransition(job.orderId, EnumSet.of(Order.OrderStatus.PENDING),
+                        Order.OrderStatus.FAILED, null, error)) {
+                    return null;
+                }
+                jdbcTemplate.query(ORDER_OWNER_SQL, rs -> {
+                    long cartId = rs.getLong("cart_id");
+                    if (!rs.wasNull()) {
+                        jdbcTemplate.update(RESTORE_STOCK_SQL, now, cartId);
+                        jdbcTemplate.update(REOPEN_CART_SQL, now, cartId, rs.getLong("user_id"));
+                        Map<Long, Integer> restored = new LinkedHashMap<>();
+                        jdbcTemplate.query(CART_LINES_SQL, lineRs -> {
+                            restored.merge(lineRs.getLong("product_id"), lineRs.getInt("quantity"), Integer::sum);
+                        }, cartId);
+                        outboxService.recordStockChanges(restored, "CHECKOUT_FAILED", job.orderId);
+                    }
+                }, job.orderId);
+                return null;
+            });
+            cartCacheService.evict(job.userId);
+        } catch (Exception e) {
+            log.error("Errore durante l'annullamento dell'ordine {}: {}", job.orderId, e.getMessage(), e);
+        }
+        job.finish(CheckoutStatus.FAILED, error);
+    }
+
+    private ExecutorService createExecutor() {
+        try {
+            // Virtual thread da Java 21: la concorrenza resta limitata dai permessi dei worker
+            ExecutorService virtualThreads = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            log.info("Checkout asincrono su virtual thread (massimo {} in parallelo)", maxConcurrency);
+            return virtualThreads;
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger workerIndex = new AtomicInteger();
+            log.info("Virtual thread non disponibili: checkout asincrono su {} thread", maxConcurrency);
+            return Executors.newFixedThreadPool(maxConcurrency, runnable -> {
+                Thread thread = new Thread(runnable, "checkout-worker-" + workerIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private <T> T inTransaction(Supplier<T> action) {
+        return new TransactionTemplate(transactionManager).execute(status -> action.get());
+    }
+
+    /**
+     * Stato in memoria di un checkout accettato
+     */
+    private static final class CheckoutJob {
+        private final Long orderId;
+        private final Long userId;
+        private final BigDecimal totalAmount;
+        private final LocalDateTime acceptedAt;
+        private volatile CheckoutStatus status = CheckoutStatus.ACCEPTED;
+        private volatile LocalDateTime completedAt;
+        private volatile String error;
+
+        private CheckoutJob(Long orderId, Long userId, BigDecimal totalAmount, LocalDateTime acceptedAt) {
+            this.orderId = orderId;
+            this.userId = userId;
+            this.totalAmount = totalAmount;
+            this.acceptedAt = acceptedAt;
+        }
+
+        private void finish(CheckoutStatus finalStatus, String failure) {
+            error = failure;
+            status = finalStatus;
+            completedAt = LocalDateTime.now();
+        }
+
+        private CheckoutStatusDto toDto() {
+            String orderStatus = status == CheckoutStatus.FAILED ? Order.OrderStatus.FAILED.name() : Order.OrderStatus.PENDING.name();
+            return new CheckoutStatusDto(orderId, status, orderStatus, totalAmount, acceptedAt, completedAt, error);
+        }
+    }
+}
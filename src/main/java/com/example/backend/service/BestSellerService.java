@@ -0,0 +1,332 @@
+package com.example.backend.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.repository.OrderItemRepository;
+import com.example.backend.repository.ProductRepository;
+import com.example.backend.repository.projection.OrderLineView;
+import com.example.backend.repository.projection.ProductCategoryLink;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Classifiche dei prodotti più venduti (globali e per categoria) su finestre mobili.
+ * Le quantità vendute sono tenute in contatori giornalieri aggiornati alla creazione
+ * e alla cancellazione degli ordini; la classifica si calcola in memoria sommando i giorni della finestra.
+ * <p>
+ * Le variazioni registrate durante una ricostruzione vengono riapplicate confrontandole con lo snapshot
+ * letto dalla ricostruzione: una vendita solo se l'ordine non c'era ancora, uno storno solo se l'ordine
+ * era contato come valido (o la sua vendita è stata riapplicata).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BestSellerService {
+
+    private final OrderItemRepository orderItemRepository;
+    private final ProductRepository productRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final TaskScheduler taskScheduler;
+
+    private volatile Map<LocalDate, Map<Long, LongAdder>> soldByDay = new ConcurrentHashMap<>();
+    private volatile Map<Long, long[]> categoriesByProduct = Map.of();
+
+    private final Map<RankingKey, CachedRanking> rankingCache = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final Queue<SaleDelta> deltasDuringRebuild = new ConcurrentLinkedQueue<>();
+    // Serializza la registrazione delle variazioni con la sostituzione dei contatori a fine ricostruzione
+    private final Object countersLock = new Object();
+
+    @Value("${leaderboards.ranking-cache-ttl-ms:30000}")
+    private long rankingCacheTtlMs;
+
+    /**
+     * Finestre temporali delle classifiche (giorni inclusi, oggi compreso)
+     */
+    public enum Window {
+        DAY(1), WEEK(7), MONTH(30);
+
+        private final int days;
+
+        Window(int days) {
+            this.days = days;
+        }
+
+        public int getDays() {
+            return days;
+        }
+    }
+
+    /**
+     * Voce della classifica
+     */
+    public record BestSeller(Long productId, long quantitySold) {}
+
+    /**
+     * Restituisce i prodotti più venduti nella finestra, opzionalmente filtrati per categoria
+     */
+    public List<BestSeller> getBestSellers(Window window, Long categoryId, int limit) {
+        RankingKey key = new RankingKey(window, categoryId);
+        CachedRanking cached = rankingCache.get(key);
+        long now = System.currentTimeMillis();
+
+        if (cached == null || now - cached.computedAt() > rankingCacheTtlMs || cached.computedLimit() < limit) {
+            int computedLimit = Math.max(limit, 50);
+            cached = new CachedRanking(computeRanking(window, categoryId, computedLimit), computedLimit, now);
+            rankingCache.put(key, cached);
+        }
+
+        List<BestSeller> ranking = cached.ranking();
+        return ranking.subList(0, Math.min(limit, ranking.size()));
+    }
+
+    /**
+     * Registra le quantità vendute di un ordine dopo il commit della transazione corrente
+     */
+    public void recordSaleAfterCommit(Long orderId, LocalDateTime orderCreatedAt, Map<Long, Integer> quantitiesByProduct) {
+        applyAfterCommit(orderId, orderCreatedAt, quantitiesByProduct, 1);
+    }
+
+    /**
+     * Storna le quantità di un ordine cancellato dopo il commit della transazione corrente
+     */
+    public void recordCancellationAfterCommit(Long orderId, LocalDateTime orderCreatedAt, Map<Long, Integer> quantitiesByProduct) {
+        applyAfterCommit(orderId, orderCreatedAt, quantitiesByProduct, -1);
+    }
+
+    /**
+     * Ricostruisce i contatori dallo storico degli ordini dell'ultimo mese
+     */
+    public void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            log.warn("Ricostruzione classifiche già in corso, richiesta ignorata");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            refreshProductCategories();
+
+            LocalDate oldestDay = oldestRetainedDay();
+            Map<LocalDate, Map<Long, LongAdder>> rebuilt = new ConcurrentHashMap<>();
+            TransactionTemplate template = new TransactionTemplate(transactionManager);
+            template.setReadOnly(true);
+            // Lo snapshot letto dallo stream resta lo stesso per la verifica delle variazioni in attesa
+            template.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+
+            long lines = template.execute(status -> {
+                long count = 0;
+                try (Stream<OrderLineView> stream = orderItemRepository.streamValidOrderLinesSince(oldestDay.atStartOfDay())) {
+                    for (OrderLineView line : (Iterable<OrderLineView>) stream::iterator) {
+                        add(rebuilt, line.orderCreatedAt().toLocalDate(), line.productId(), line.quantity());
+                        count++;
+                    }
+                }
+                publish(rebuilt);
+                return count;
+            });
+            rankingCache.clear();
+
+            log.info("Classifiche best seller ricostruite da {} righe d'ordine in {} ms",
+                    lines, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Errore durante la ricostruzione delle classifiche: {}", e.getMessage(), e);
+        } finally {
+            deltasDuringRebuild.clear();
+            rebuilding.set(false);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        // Ricostruzione sullo scheduler per non ritardare l'avvio
+        taskScheduler.schedule(this::rebuild, Instant.now());
+    }
+
+    /**
+     * Riapplica ai nuovi contatori le variazioni registrate durante la ricostruzione che lo snapshot
+     * non rifletteva ancora, poi li pubblica (dentro la transazione della ricostruzione)
+     */
+    private void publish(Map<LocalDate, Map<Long, LongAdder>> rebuilt) {
+        synchronized (countersLock) {
+            List<SaleDelta> pending = new ArrayList<>(deltasDuringRebuild);
+            deltasDuringRebuild.clear();
+            if (!pending.isEmpty()) {
+                List<Long> orderIds = pending.stream().map(SaleDelta::orderId).distinct().toList();
+                Set<Long> withLines = new HashSet<>(orderItemRepository.findOrderIdsWithLines(orderIds));
+                Set<Long> counted = new HashSet<>(orderItemRepository.findValidOrderIdsWithLines(orderIds));
+                Set<Long> replayedSales = new HashSet<>();
+                for (SaleDelta delta : pending) {
+                    boolean replay;
+                    if (delta.sign() > 0) {
+                        // Vendita: lo snapshot non conteneva ancora le righe dell'ordine
+                        replay = !withLines.contains(delta.orderId());
+                        if (replay) {
+                            replayedSales.add(delta.orderId());
+                        }
+                    } else {
+                        // Storno: l'ordine era contato nello snapshot oppure la sua vendita è stata riapplicata
+                        replay = counted.contains(delta.orderId()) || replayedSales.contains(delta.orderId());
+                    }
+                    if (replay) {
+                        delta.quantities().forEach((productId, quantity) ->
+                                add(rebuilt, delta.day(), productId, (long) delta.sign() * quantity));
+                    }
+                }
+            }
+            // Le variazioni registrate da qui in poi vanno già sui nuovi contatori
+            soldByDay = rebuilt;
+        }
+    }
+
+    /**
+     * Ricarica la mappa prodotto → categorie usata dalle classifiche per categoria
+     */
+    @Scheduled(fixedDelayString = "${leaderboards.categories-refresh-ms:600000}",
+               initialDelayString = "${leaderboards.categories-refresh-ms:600000}")
+    public void refreshProductCategories() {
+        Map<Long, List<Long>> grouped = new HashMap<>();
+        for (ProductCategoryLink link : productRepository.findAllProductCategoryLinks()) {
+            grouped.computeIfAbsent(link.productId(), id -> new ArrayList<>()).add(link.categoryId());
+        }
+
+        Map<Long, long[]> refreshed = new HashMap<>(grouped.size() * 2);
+        grouped.forEach((productId, categoryIds) ->
+                refreshed.put(productId, categoryIds.stream().mapToLong(Long::longValue).toArray()));
+        categoriesByProduct = refreshed;
+        log.debug("Mappa categorie per classifiche aggiornata: {} prodotti", refreshed.size());
+    }
+
+    /**
+     * Elimina i contatori dei giorni fuori dalla finestra più ampia
+     */
+    @Scheduled(cron = "${leaderboards.prune-cron:0 5 0 * * *}")
+    public void pruneExpiredDays() {
+        LocalDate oldestDay = oldestRetainedDay();
+        soldByDay.keySet().removeIf(day -> day.isBefore(oldestDay));
+        rankingCache.clear();
+    }
+
+    private List<BestSeller> computeRanking(Window window, Long categoryId, int limit) {
+        LocalDate today = LocalDate.now();
+        Map<Long, long[]> productCategories = categoriesByProduct;
+        Map<Long, Long> totals = new HashMap<>();
+
+        for (int i = 0; i < window.getDays(); i++) {
+            Map<Long, LongAdder> day = soldByDay.get(today.minusDays(i));
+            if (day == null) {
+                continue;
+            }
+            day.forEach((productId, quantity) -> {
+                if (categoryId == null || belongsTo(productCategories.get(productId), categoryId)) {
+                    totals.merge(productId, quantity.sum(), Long::sum);
+                }
+            });
+        }
+
+        // Top-N con un min-heap di dimensione limit
+        Comparator<BestSeller> order = Comparator.comparingLong(BestSeller::quantitySold)
+                .thenComparing(BestSeller::productId, Comparator.reverseOrder());
+        PriorityQueue<BestSeller> heap = new PriorityQueue<>(limit + 1, order);
+        totals.forEach((productId, quantity) -> {
+            if (quantity > 0) {
+                heap.offer(new BestSeller(productId, quantity));
+                if (heap.size() > limit) {
+                    heap.poll();
+                }
+            }
+        });
+
+        List<BestSeller> ranking = new ArrayList<>(heap);
+        ranking.sort(order.reversed());
+        return ranking;
+    }
+
+    private void applyAfterCommit(Long orderId, LocalDateTime orderCreatedAt, Map<Long, Integer> quantitiesByProduct, int sign) {
+        LocalDate day = (orderCreatedAt != null ? orderCreatedAt : LocalDateTime.now()).toLocalDate();
+        if (day.isBefore(oldestRetainedDay()) || quantitiesByProduct.isEmpty()) {
+            return;
+        }
+
+        SaleDelta change = new SaleDelta(orderId, day, Map.copyOf(quantitiesByProduct), sign);
+        Runnable apply = () -> {
+            synchronized (countersLock) {
+                if (rebuilding.get()) {
+                    deltasDuringRebuild.add(change);
+                }
+                Map<LocalDate, Map<Long, LongAdder>> target = soldByDay;
+                change.quantities().forEach((productId, quantity) -> add(target, day, productId, (long) sign * quantity));
+            }
+        };
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    private static void add(Map<LocalDate, Map<Long, LongAdder>> target, LocalDate day, Long productId, long quantity) {
+        target.computeIfAbsent(day, d -> new ConcurrentHashMap<>())
+                .computeIfAbsent(productId, id -> new LongAdder())
+                .add(quantity);
+    }
+
+    private static boolean belongsTo(long[] categoryIds, long categoryId) {
+        if (categoryIds == null) {
+            return false;
+        }
+        for (long id : categoryIds) {
+            if (id == categoryId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static LocalDate oldestRetainedDay() {
+        return LocalDate.now().minusDays(Window.MONTH.getDays() - 1L);
+    }
+
+    private record RankingKey(Window window, Long categoryId) {}
+
+    private record CachedRanking(List<BestSeller> ranking, int computedLimit, long computedAt) {}
+
+    // Variazione di un ordine: sign 1 per la vendita, -1 per lo storno
+    private record SaleDelta(Long orderId, LocalDate day, Map<Long, Integer> quantities, int sign) {}
+}
@@ -0,0 +1,724 @@
+package com.example.backend.service;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.dto.CartItemResponseDto;
+import com.example.backend.dto.CartResponseDto;
+import com.example.backend.dto.ProductResponseDto;
+import com.example.backend.model.Cart;
+import com.example.backend.model.CartItem;
+import com.example.backend.model.User;
+import com.example.backend.repository.CartRepository;
+import com.example.backend.repository.UserRepository;
+import com.example.backend.repository.projection.CartLineView;
+import com.example.backend.util.MinorUnits;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cache in memoria dei carrelli aperti con scrittura differita.
+ * Ogni utente ha un aggregato con gli item indicizzati per prodotto: letture e modifiche sono
+ * servite dalla memoria (l'utente rilegge sempre le proprie modifiche), mentre i carrelli modificati
+ * sono salvati in background a blocchi, con batch JDBC che accorpano tutte le modifiche
+ * intervenute tra due flush. In caso di crash si perdono al massimo le modifiche
+ * dell'ultimo intervallo ({@code cart.cache.flush-interval-ms}).
+ * Con più istanze richiede che le richieste di un utente arrivino sempre alla stessa istanza.
+ * Disattivata di default ({@code cart.cache.enabled}).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CartCacheService {
+
+    private static final String TOUCH_CART_SQL =
+            "UPDATE carts SET subtotal_minor = ?, item_count = ?, line_count = ?, updated_at = ?, version = version + 1 " +
+            "WHERE id = ? AND status = 'OPEN'";
+    // Le righe cambiano solo se il carrello è ancora aperto: un flush in ritardo non tocca un carrello già ordinato
+    private static final String UPDATE_ITEM_SQL =
+            "UPDATE cart_items ci JOIN carts c ON c.id = ci.cart_id " +
+            "SET ci.quantity = ?, ci.unit_price = ?, ci.updated_at = ? WHERE ci.id = ? AND c.status = 'OPEN'";
+    private static final String INSERT_ITEM_SQL =
+            "INSERT INTO cart_items (cart_id, product_id, quantity, unit_price, created_at, updated_at) " +
+            "SELECT c.id, ?, ?, ?, ?, ? FROM carts c WHERE c.id = ? AND c.status = 'OPEN'";
+    private static final String DELETE_ITEM_SQL =
+            "DELETE ci FROM cart_items ci JOIN carts c ON c.id = ci.cart_id WHERE ci.id = ? AND c.status = 'OPEN'";
+    // Il flush scrive solo i carrelli ancora aperti, bloccati fino al commit
+    private static final String LOCK_OPEN_CARTS_SQL =
+            "SELECT id FROM carts WHERE id IN (:cartIds) AND status = 'OPEN' FOR UPDATE";
+    private static final String SELECT_ITEM_IDS_SQL =
+            "SELECT id, cart_id, product_id FROM cart_items WHERE cart_id IN (:cartIds)";
+
+    private final CartRepository cartRepository;
+    private final UserRepository userRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${cart.cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${cart.cache.flush-batch-size:200}")
+    private int flushBatchSize;
+
+    @Value("${cart.cache.idle-ttl-ms:1800000}")
+    private long idleTtlMs;
+
+    private final Map<Long, CachedCart> carts = new ConcurrentHashMap<>();
+    private final Set<Long> dirtyUsers = ConcurrentHashMap.newKeySet();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Legge il carrello aperto dell'utente (caricandolo o creandolo alla prima richiesta)
+     */
+    public <T> T read(Long userId, Function<CachedCart, T> reader) {
+        while (true) {
+            CachedCart cart = getOrLoad(userId);
+            synchronized (cart) {
+                if (!cart.evicted) {
+                    cart.lastAccess = System.currentTimeMillis();
+                    return reader.apply(cart);
+                }
+            }
+        }
+    }
+
+    /**
+     * Legge il carrello dell'utente solo se è già in cache (senza caricarlo dal database)
+     */
+    public <T> Optional<T> peek(Long userId, Function<CachedCart, T> reader) {
+        CachedCart cart = carts.get(userId);
+        if (cart == null) {
+            return Optional.empty();
+        }
+        synchronized (cart) {
+            return cart.evicted ? Optional.empty() : Optional.ofNullable(reader.apply(cart));
+        }
+    }
+
+    /**
+     * Modifica il carrello sotto il suo lock e lo accoda per il salvataggio differito.
+     * Se la modifica lancia un'eccezione il carrello non viene segnato come modificato.
+     */
+    public <T> T mutate(Long userId, Function<CachedCart, T> mutation) {
+        while (true) {
+            CachedCart cart = getOrLoad(userId);
+            synchronized (cart) {
+                if (cart.evicted) {
+                    continue;
+                }
+                T result = mutation.apply(cart);
+                cart.lastAccess = System.currentTimeMillis();
+                cart.updatedAt = LocalDateTime.now();
+                dirtyUsers.add(userId);
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Salva subito le modifiche in sospeso del carrello dell'utente (ad esempio prima del checkout).
+     * Attende anche un flush periodico già in corso per lo stesso utente, così al ritorno
+     * tutte le modifiche fatte finora sono committate.
+     * @throws RuntimeException se il salvataggio non riesce o se il carrello è stato chiuso da un'altra operazione
+     */
+    public void flush(Long userId) {
+        if (!enabled) {
+            return;
+        }
+        dirtyUsers.remove(userId);
+        FlushResult result = flushUsers(List.of(userId));
+        if (!result.written()) {
+            throw new RuntimeException("Impossibile salvare le modifiche del carrello, riprovare tra poco");
+        }
+        if (result.closedUserIds().contains(userId)) {
+            throw new RuntimeException("Il carrello è stato chiuso da un'altra operazione: le ultime modifiche non sono state salvate");
+        }
+    }
+
+    /**
+     * Rimuove il carrello dalla cache dopo il commit della transazione corrente
+     * (se non c'è una transazione attiva lo rimuove subito)
+     */
+    public void evictAfterCommit(Long userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(userId);
+                }
+            });
+        } else {
+            evict(userId);
+        }
+    }
+
+    /**
+     * Rimuove il carrello dalla cache scartando le modifiche non salvate (carrello chiuso)
+     */
+    public void evict(Long userId) {
+        CachedCart cart = carts.get(userId);
+        if (cart != null) {
+            evict(cart);
+        }
+    }
+
+    private void evict(CachedCart cart) {
+        synchronized (cart) {
+            cart.evicted = true;
+            carts.remove(cart.userId, cart);
+            dirtyUsers.remove(cart.userId);
+        }
+    }
+
+    /**
+     * Rimuove dalla cache i carrelli indicati per ID (chiusi da un job sul database)
+     */
+    public void evictCarts(Collection<Long> cartIds) {
+        if (!enabled || carts.isEmpty()) {
+            return;
+        }
+        Set<Long> ids = Set.copyOf(cartIds);
+        for (CachedCart cart : carts.values()) {
+            if (ids.contains(cart.cartId)) {
+                evict(cart.userId);
+            }
+        }
+    }
+
+    /**
+     * Salva subito le modifiche in sospeso dei carrelli indicati per ID (prima che un job sul database
+     * li valuti): il salvataggio aggiorna updated_at, quindi un carrello usato di recente non risulta inattivo
+     */
+    public void flushCarts(Collection<Long> cartIds) {
+        if (!enabled || carts.isEmpty()) {
+            return;
+        }
+        Set<Long> ids = Set.copyOf(cartIds);
+        List<Long> userIds = new ArrayList<>();
+        for (CachedCart cart : carts.values()) {
+            if (ids.contains(cart.cartId) && dirtyUsers.remove(cart.userId)) {
+                userIds.add(cart.userId);
+            }
+        }
+        if (!userIds.isEmpty()) {
+            flushUsers(userIds);
+        }
+    }
+
+    /**
+     * ID dei carrelli indicati che hanno modifiche in cache non ancora salvate
+     */
+    public Set<Long> dirtyCartIds(Collection<Long> cartIds) {
+        if (!enabled || carts.isEmpty()) {
+            return Set.of();
+        }
+        Set<Long> ids = Set.copyOf(cartIds);
+        Set<Long> dirty = new HashSet<>();
+        for (CachedCart cart : carts.values()) {
+            if (ids.contains(cart.cartId)) {
+                synchronized (cart) {
+                    if (!cart.evicted && (dirtyUsers.contains(cart.userId) || cart.hasPendingWrites())) {
+                        dirty.add(cart.cartId);
+                    }
+                }
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Salvataggio differito dei carrelli modificati, a blocchi di {@code cart.cache.flush-batch-size}
+     */
+    @Scheduled(fixedDelayString = "${cart.cache.flush-interval-ms:500}")
+    public void flushDirty() {
+        if (!enabled || dirtyUsers.isEmpty()) {
+            return;
+        }
+        List<Long> batch = new ArrayList<>(flushBatchSize);
+        for (Long userId : dirtyUsers) {
+            if (dirtyUsers.remove(userId)) {
+                batch.add(userId);
+            }
+            if (batch.size() == flushBatchSize) {
+                flushUsers(batch);
+                batch = new ArrayList<>(flushBatchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            flushUsers(batch);
+        }
+    }
+
+    /**
+     * Rimuove dalla cache i carrelli già salvati e inattivi da più di {@code cart.cache.idle-ttl-ms}
+     */
+    @Scheduled(fixedDelayString = "${cart.cache.evict-interval-ms:60000}")
+    public void evictIdle() {
+        if (!enabled) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - idleTtlMs;
+        int evicted = 0;
+        for (Map.Entry<Long, CachedCart> entry : carts.entrySet()) {
+            CachedCart cart = entry.getValue();
+            synchronized (cart) {
+                if (cart.lastAccess < cutoff && !dirtyUsers.contains(entry.getKey()) && !cart.hasPendingWrites()) {
+                    cart.evicted = true;
+                    carts.remove(entry.getKey(), cart);
+                    evicted++;
+                }
+            }
+        }
+        if (evicted > 0) {
+            log.info("Cache carrelli: rimossi {} carrelli inattivi, {} in memoria", evicted, carts.size());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Allo spegnimento ordinato nessuna modifica resta solo in memoria
+        flushDirty();
+    }
+
+    private CachedCart getOrLoad(Long userId) {
+        CachedCart cart = carts.get(userId);
+        if (cart != null) {
+            return cart;
+        }
+        CachedCart loaded = loadCart(userId);
+        CachedCart existing = carts.putIfAbsent(userId, loaded);
+        return existing != null ? existing : loaded;
+    }
+
+    private CachedCart loadCart(Long userId) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        return template.execute(status -> {
+            Cart cart = cartRepository.findByUserIdAndStatusWithItems(userId, Cart.CartStatus.OPEN)
+                    .orElseGet(() -> {
+                        User user = userRepository.findById(userId)
+                                .orElseThrow(() -> new RuntimeException("Utente non trovato: " + userId));
+                        Cart newCart = new Cart();
+                        newCart.setUser(user);
+                        newCart.setStatus(Cart.CartStatus.OPEN);
+                        Cart savedCart = cartRepository.saveAndFlush(newCart);
+                        log.info("Nuovo carrello creato per utente: {} con ID: {}", userId, savedCart.getId());
+                        return savedCart;
+                    });
+            return new CachedCart(userId, cart);
+        });
+    }
+
+    /**
+     * Scrive in un'unica transazione le modifiche accumulate dei carrelli indicati.
+     * I flush sono serializzati, così un item nuovo riceve il suo ID prima del flush successivo
+     * e un flush esplicito attende quello periodico in corso.
+     * I carrelli chiusi nel frattempo sul database (sweep, checkout su un'altra istanza) non vengono
+     * scritti: sono rimossi dalla cache, così l'accesso successivo ricarica il carrello aperto reale.
+     * @return esito della scrittura (se non è riuscita le modifiche restano in sospeso) e utenti con il carrello chiuso
+     */
+    private synchronized FlushResult flushUsers(Collection<Long> userIds) {
+        List<PendingWrite> writes = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            CachedCart cart = carts.get(userId);
+            if (cart != null) {
+                synchronized (cart) {
+                    if (!cart.evicted && cart.hasPendingWrites()) {
+                        writes.add(cart.drain());
+                    }
+                }
+            }
+        }
+        if (writes.isEmpty()) {
+            return new FlushResult(true, Set.of());
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            TransactionTemplate template = new TransactionTemplate(transactionManager);
+            // Può essere chiamato dentro la transazione del checkout: le modifiche vanno committate subito
+            template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            BatchResult batch = template.execute(status -> writeBatch(writes));
+
+            Set<Long> closedUserIds = new HashSet<>();
+            for (PendingWrite write : writes) {
+                if (batch.closedCartIds().contains(write.cart().cartId)) {
+                    evict(write.cart());
+                    closedUserIds.add(write.cart().userId);
+                    continue;
+                }
+                Map<Long, Long> ids = batch.insertedIds().get(write.cart().cartId);
+                if (ids != null) {
+                    synchronized (write.cart()) {
+                        write.cart().assignIds(ids);
+                        if (write.cart().hasPendingWrites() && !write.cart().evicted) {
+                            dirtyUsers.add(write.cart().userId);
+                        }
+                    }
+                }
+            }
+            if (!closedUserIds.isEmpty()) {
+                log.warn("Cache carrelli: {} carrelli chiusi sul database, modifiche in memoria scartate", closedUserIds.size());
+            }
+            log.debug("Cache carrelli: salvati {} carrelli in {} ms", writes.size() - closedUserIds.size(),
+                    System.currentTimeMillis() - start);
+            return new FlushResult(true, closedUserIds);
+        } catch (Exception e) {
+            log.error("Errore durante il salvataggio differito di {} carrelli: {}", writes.size(), e.getMessage(), e);
+            for (PendingWrite write : writes) {
+                synchronized (write.cart()) {
+                    write.cart().restore(write);
+                    if (!write.cart().evicted) {
+                        dirtyUsers.add(write.cart().userId);
+                    }
+                }
+            }
+            return new FlushResult(false, Set.of());
+        }
+    }
+
+    /**
+     * @return per carrello, gli ID assegnati agli item inseriti (product_id -> id), e i carrelli non più aperti
+     */
+    private BatchResult writeBatch(List<PendingWrite> allWrites) {
+        Set<Long> openCartIds = new HashSet<>(namedParameterJdbcTemplate.queryForList(LOCK_OPEN_CARTS_SQL,
+                new MapSqlParameterSource("cartIds", allWrites.stream().map(write -> write.cart().cartId).toList()),
+                Long.class));
+        List<PendingWrite> writes = new ArrayList<>(allWrites.size());
+        Set<Long> closedCartIds = new HashSet<>();
+        for (PendingWrite write : allWrites) {
+            if (openCartIds.contains(write.cart().cartId)) {
+                writes.add(write);
+            } else {
+                closedCartIds.add(write.cart().cartId);
+            }
+        }
+        if (writes.isEmpty()) {
+            return new BatchResult(Map.of(), closedCartIds);
+        }
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Long> deletes = new ArrayList<>();
+        List<ItemWrite> updates = new ArrayList<>();
+        List<ItemWrite> inserts = new ArrayList<>();
+        for (PendingWrite write : writes) {
+            deletes.addAll(write.removedItemIds());
+            for (ItemWrite item : write.items()) {
+                (item.itemId() != null ? updates : inserts).add(item);
+            }
+        }
+
+        jdbcTemplate.batchUpdate(TOUCH_CART_SQL, writes, writes.size(),
+                (statement, write) -> {
+                    statement.setLong(1, write.subtotalMinor());
+                    statement.setInt(2, write.itemCount());
+                    statement.setInt(3, write.lineCount());
+                    statement.setTimestamp(4, now);
+                    statement.setLong(5, write.cart().cartId);
+                });
+        if (!deletes.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_ITEM_SQL, deletes, deletes.size(),
+                    (statement, itemId) -> statement.setLong(1, itemId));
+        }
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE_ITEM_SQL, updates, updates.size(),
+                    (statement, item) -> {
+                        statement.setInt(1, item.quantity());
+                        statement.setBigDecimal(2, item.unitPrice());
+                        statement.setTimestamp(3, now);
+                        statement.setLong(4, item.itemId());
+                    });
+        }
+        if (inserts.isEmpty()) {
+            return new BatchResult(Map.of(), closedCartIds);
+        }
+        jdbcTemplate.batchUpdate(INSERT_ITEM_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement statement, int i) throws SQLException {
+                ItemWrite item = inserts.get(i);
+                statement.setLong(1, item.productId());
+                statement.setInt(2, item.quantity());
+                statement.setBigDecimal(3, item.unitPrice());
+                statement.setTimestamp(4, now);
+                statement.setTimestamp(5, now);
+                statement.setLong(6, item.cartId());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return inserts.size();
+            }
+        });
+
+        // Gli ID generati si rileggono con una sola query (con i batch riscritti il driver non li restituisce per riga)
+        List<Long> cartIds = inserts.stream().map(ItemWrite::cartId).distinct().toList();
+        Map<Long, Map<Long, Long>> ids = new HashMap<>();
+        namedParameterJdbcTemplate.query(SELECT_ITEM_IDS_SQL, new MapSqlParameterSource("cartIds", cartIds), rs -> {
+            ids.computeIfAbsent(rs.getLong("cart_id"), id -> new HashMap<>())
+                    .put(rs.getLong("product_id"), rs.getLong("id"));
+        });
+        return new BatchResult(ids, closedCartIds);
+    }
+
+    /**
+     * Modifiche di un carrello prelevate per un flush
+     */
+    private record PendingWrite(CachedCart cart, List<ItemWrite> items, List<Long> removedItemIds,
+                                long subtotalMinor, int itemCount, int lineCount) {}
+
+    private record BatchResult(Map<Long, Map<Long, Long>> insertedIds, Set<Long> closedCartIds) {}
+
+    private record FlushResult(boolean written, Set<Long> closedUserIds) {}
+
+    private record ItemWrite(Long cartId, Long itemId, Long productId, int quantity, BigDecimal unitPrice) {}
+
+    /**
+     * Aggregato del carrello in memoria; si accede sempre tenendo il suo lock
+     */
+    public static final class CachedCart {
+        private final Long userId;
+        private final Long cartId;
+        private final String status;
+        private final LocalDateTime createdAt;
+        private LocalDateTime updatedAt;
+        private final Map<Long, CachedItem> items = new LinkedHashMap<>();
+        private final List<Long> removedItemIds = new ArrayList<>();
+        private long subtotalMinor;
+        private int itemCount;
+        private int lineCount;
+        private long lastAccess = System.currentTimeMillis();
+        private boolean evicted;
+
+        private CachedCart(Long userId, Cart cart) {
+            this.userId = userId;
+            this.cartId = cart.getId();
+            this.status = cart.getStatus().toString();
+            this.createdAt = cart.getCreatedAt();
+            this.updatedAt = cart.getUpdatedAt();
+            this.subtotalMinor = cart.getSubtotalMinor();
+            this.itemCount = cart.getItemCount();
+            this.lineCount = cart.getLineCount();
+            if (cart.getItems() != null) {
+                for (CartItem item : cart.getItems()) {
+                    items.put(item.getProduct().getId(), new CachedItem(item));
+                }
+            }
+        }
+
+        public CachedItem getItem(Long productId) {
+            return items.get(productId);
+        }
+
+        /**
+         * Imposta la quantità del prodotto; per un item già presente il prezzo unitario resta quello di inserimento
+         */
+        public CachedItem putItem(ProductResponseDto product, int quantity) {
+            CachedItem item = items.get(product.getId());
+            if (item == null) {
+                item = new CachedItem(product);
+                items.put(product.getId(), item);
+                lineCount++;
+            }
+            // Totali aggiornati per differenza, senza scorrere le righe
+            subtotalMinor += item.unitPriceMinor * (quantity - item.quantity);
+            itemCount += quantity - item.quantity;
+            item.quantity = quantity;
+            item.availableStock = product.getStockQty();
+            item.updatedAt = LocalDateTime.now();
+            item.dirty = true;
+            return item;
+        }
+
+        public boolean removeItem(Long productId) {
+            CachedItem item = items.remove(productId);
+            if (item == null) {
+                return false;
+            }
+            if (item.itemId != null) {
+                removedItemIds.add(item.itemId);
+            }
+            subtotalMinor -= item.unitPriceMinor * item.quantity;
+            itemCount -= item.quantity;
+            lineCount--;
+            return true;
+        }
+
+        public void clear() {
+            for (Long productId : List.copyOf(items.keySet())) {
+                removeItem(productId);
+            }
+        }
+
+        /**
+         * Quantità correnti per prodotto, nell'ordine di inserimento
+         */
+        public Map<Long, Integer> getQuantities() {
+            Map<Long, Integer> quantities = new LinkedHashMap<>();
+            items.forEach((productId, item) -> quantities.put(productId, item.quantity));
+            return quantities;
+        }
+
+        public List<CartLineView> getLines() {
+            List<CartLineView> lines = new ArrayList<>(items.size());
+            for (CachedItem item : items.values()) {
+                lines.add(new CartLineView(item.productId, item.productName, item.quantity, item.unitPrice));
+            }
+            return lines;
+        }
+
+        public int getItemCount() {
+            return itemCount;
+        }
+
+        public CartResponseDto toDto() {
+            CartResponseDto dto = new CartResponseDto();
+            dto.setId(cartId);
+            dto.setUserId(userId);
+            dto.setStatus(status);
+            dto.setItems(items.values().stream().map(CachedItem::toDto).toList());
+            dto.setTotalAmount(MinorUnits.toDecimal(subtotalMinor));
+            dto.setTotalItems(itemCount);
+            dto.setLineCount(lineCount);
+            dto.setCreatedAt(createdAt);
+            dto.setUpdatedAt(updatedAt);
+            return dto;
+        }
+
+        private boolean hasPendingWrites() {
+            return !removedItemIds.isEmpty() || items.values().stream().anyMatch(item -> item.dirty);
+        }
+
+        private PendingWrite drain() {
+            List<ItemWrite> writes = new ArrayList<>();
+            for (CachedItem item : items.values()) {
+                if (item.dirty) {
+                    writes.add(new ItemWrite(cartId, item.itemId, item.productId, item.quantity, item.unitPrice));
+                    item.dirty = false;
+                }
+            }
+            PendingWrite write = new PendingWrite(this, writes, List.copyOf(removedItemIds),
+                    subtotalMinor, itemCount, lineCount);
+            removedItemIds.clear();
+            return write;
+        }
+
+        private void restore(PendingWrite write) {
+            removedItemIds.addAll(write.removedItemIds());
+            for (ItemWrite itemWrite : write.items()) {
+                CachedItem item = items.get(itemWrite.productId());
+                if (item != null) {
+                    item.dirty = true;
+                }
+            }
+        }
+
+        private void assignIds(Map<Long, Long> idsByProduct) {
+            for (Map.Entry<Long, Long> entry : idsByProduct.entrySet()) {
+                CachedItem item = items.get(entry.getKey());
+                if (item == null) {
+                    // Rimosso mentre l'inserimento era in corso: la riga va cancellata
+                    if (!removedItemIds.contains(entry.getValue())) {
+                        removedItemIds.add(entry.getValue());
+                    }
+                } else if (item.itemId == null) {
+                    item.itemId = entry.getValue();
+                }
+            }
+        }
+    }
+
+    /**
+     * Item del carrello in memoria con i dati del prodotto mostrati nella pagina del carrello
+     */
+    public static final class CachedItem {
+        private Long itemId;
+        private final Long productId;
+        private final String productName;
+        private final String productSku;
+        private final String productImageUrl;
+        private final BigDecimal unitPrice;
+        private final long unitPriceMinor;
+        private int quantity;
+        private Integer availableStock;
+        private final LocalDateTime createdAt;
+        private LocalDateTime updatedAt;
+        private boolean dirty;
+
+        private CachedItem(CartItem item) {
+            this.itemId = item.getId();
+            this.productId = item.getProduct().getId();
+            this.productName = item.getProduct().getName();
+            this.productSku = item.getProduct().getSku();
+            this.productImageUrl = item.getProduct().getImageUrl();
+            this.unitPrice = item.getUnitPrice();
+            this.unitPriceMinor = MinorUnits.of(unitPrice);
+            this.quantity = item.getQuantity();
+            this.availableStock = item.getProduct().getStockQty();
+            this.createdAt = item.getCreatedAt();
+            this.updatedAt = item.getUpdatedAt();
+        }
+
+        private CachedItem(ProductResponseDto product) {
+            this.productId = product.getId();
+            this.productName = product.getName();
+            this.productSku = product.getSku();
+            this.productImageUrl = product.getImageUrl();
+            this.unitPrice = product.getPrice();
+            this.unitPriceMinor = MinorUnits.of(unitPrice);
+            this.createdAt = LocalDateTime.now();
+            this.updatedAt = createdAt;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public CartItemResponseDto toDto() {
+            CartItemResponseDto dto = new CartItemResponseDto();
+            dto.setId(itemId);
+            dto.setProductId(productId);
+            dto.setProductName(productName);
+            dto.setProductSku(productSku);
+            dto.setProductImageUrl(productImageUrl);
+            dto.setQuantity(quantity);
+            dto.setUnitPrice(unitPrice);
+            dto.setTotalPrice(MinorUnits.toDecimal(unitPriceMinor * quantity));
+            dto.setAvailableStock(availableStock);
+            dto.setCreatedAt(createdAt);
+            dto.setUpdatedAt(updatedAt);
+            return dto;
+        }
+    }
+}
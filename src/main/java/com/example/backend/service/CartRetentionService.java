@@ -0,0 +1,197 @@
+package com.example.backend.service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.model.JobCheckpoint;
+import com.example.backend.model.JobCheckpoint.JobStatus;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Eliminazione dei carrelli CHECKED_OUT più vecchi della retention, con i relativi item.
+ * Si procede per intervalli di ID (paginazione keyset) con una transazione breve per blocco
+ * e un budget di righe al secondo, così da non tenere lock a lungo né saturare la replica.
+ * Con {@code cart.retention.dry-run=true} le righe vengono solo contate.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CartRetentionService {
+
+    static final String JOB_NAME = "cart-retention-purge";
+
+    private static final String NEXT_RANGE_SQL =
+            "SELECT id FROM carts WHERE status = 'CHECKED_OUT' AND updated_at < ? AND id > ? " +
+            "ORDER BY id LIMIT ?";
+    private static final String COUNT_ITEMS_SQL =
+            "SELECT COUNT(*) FROM cart_items ci JOIN carts c ON c.id = ci.cart_id " +
+            "WHERE c.id > ? AND c.id <= ? AND c.status = 'CHECKED_OUT' AND c.updated_at < ?";
+    // Gli ordini conservano le proprie righe: il riferimento al carrello d'origine viene solo scollegato
+    private static final String DETACH_ORDERS_SQL =
+            "UPDATE orders o JOIN carts c ON c.id = o.cart_id SET o.cart_id = NULL " +
+            "WHERE c.id > ? AND c.id <= ? AND c.status = 'CHECKED_OUT' AND c.updated_at < ?";
+    private static final String DELETE_ITEMS_SQL =
+            "DELETE ci FROM cart_items ci JOIN carts c ON c.id = ci.cart_id " +
+            "WHERE c.id > ? AND c.id <= ? AND c.status = 'CHECKED_OUT' AND c.updated_at < ?";
+    private static final String DELETE_CARTS_SQL =
+            "DELETE FROM carts WHERE id > ? AND id <= ? AND status = 'CHECKED_OUT' AND updated_at < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final JobCheckpointService jobCheckpointService;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${cart.retention.days:90}")
+    private int retentionDays;
+
+    @Value("${cart.retention.batch-size:500}")
+    private int batchSize;
+
+    // Righe (carrelli + item) eliminate al secondo; 0 = nessun limite
+    @Value("${cart.retention.max-rows-per-second:2000}")
+    private int maxRowsPerSecond;
+
+    @Value("${cart.retention.dry-run:true}")
+    private boolean dryRun;
+
+    private final AtomicLong lastPurgedId = new AtomicLong();
+    private Timer batchTimer;
+
+    /**
+     * Risultato di un'esecuzione: blocchi, carrelli e item eliminati (o da eliminare in dry-run)
+     */
+    public record PurgeResult(long batches, long carts, long items, boolean dryRun) {}
+
+    @PostConstruct
+    public void registerMeters() {
+        batchTimer = Timer.builder("cart.retention.batch.duration")
+                .description("Durata dei blocchi di eliminazione dei carrelli")
+                .register(meterRegistry);
+        meterRegistry.gauge("cart.retention.last.id", lastPurgedId);
+    }
+
+    @Scheduled(cron = "${cart.retention.purge-cron:0 30 4 * * *}")
+    public void scheduledPurge() {
+        try {
+            purge();
+        } catch (Exception e) {
+            log.error("Errore durante l'eliminazione dei carrelli scaduti: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Elimina i carrelli CHECKED_OUT non aggiornati da più di {@code cart.retention.days} giorni
+     */
+    public PurgeResult purge() {
+        // Il dry-run ha un checkpoint separato: il suo cursore non deve far saltare carrelli all'eliminazione
+        String jobName = dryRun ? JOB_NAME + "-dry-run" : JOB_NAME;
+        Optional<JobCheckpoint> acquired = jobCheckpointService.tryAcquire(jobName);
+        if (acquired.isEmpty()) {
+            log.info("Eliminazione dei carrelli scaduti già in corso su un'altra istanza");
+            return new PurgeResult(0, 0, 0, dryRun);
+        }
+        try {
+            JobCheckpoint checkpoint = acquired.get();
+            // Un'esecuzione interrotta riprende dall'ultimo blocco completato con la stessa soglia
+            if (checkpoint.getStatus() != JobStatus.RUNNING) {
+                checkpoint = jobCheckpointService.startRun(jobName, LocalDateTime.now().minusDays(retentionDays));
+            }
+            PurgeResult result = purgeFrom(jobName, checkpoint.getCutoffAt(), checkpoint.getCursorId());
+            jobCheckpointService.complete(jobName);
+            return result;
+        } finally {
+            jobCheckpointService.release(jobName);
+        }
+    }
+
+    private PurgeResult purgeFrom(String jobName, LocalDateTime cutoff, long fromCursor) {
+        String mode = dryRun ? "dry-run" : "delete";
+        Counter cartCounter = meterRegistry.counter("cart.retention.carts", "mode", mode);
+        Counter itemCounter = meterRegistry.counter("cart.retention.items", "mode", mode);
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+
+        long start = System.currentTimeMillis();
+        long batches = 0;
+        long carts = 0;
+        long items = 0;
+        long lastId = fromCursor;
+
+        while (true) {
+            List<Long> ids = jdbcTemplate.queryForList(NEXT_RANGE_SQL, Long.class, cutoff, lastId, batchSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+            long fromId = lastId;
+            long toId = ids.get(ids.size() - 1);
+            long batchStart = System.nanoTime();
+
+            long[] deleted;
+            if (dryRun) {
+                Long itemCount = jdbcTemplate.queryForObject(COUNT_ITEMS_SQL, Long.class, fromId, toId, cutoff);
+                deleted = new long[] {ids.size(), itemCount != null ? itemCount : 0};
+            } else {
+                deleted = template.execute(status -> {
+                    jdbcTemplate.update(DETACH_ORDERS_SQL, fromId, toId, cutoff);
+                    int itemRows = jdbcTemplate.update(DELETE_ITEMS_SQL, fromId, toId, cutoff);
+                    int cartRows = jdbcTemplate.update(DELETE_CARTS_SQL, fromId, toId, cutoff);
+                    return new long[] {cartRows, itemRows};
+                });
+            }
+            long batchNanos = System.nanoTime() - batchStart;
+            batchTimer.record(batchNanos, TimeUnit.NANOSECONDS);
+
+            batches++;
+            carts += deleted[0];
+            items += deleted[1];
+            cartCounter.increment(deleted[0]);
+            itemCounter.increment(deleted[1]);
+            lastId = toId;
+            lastPurgedId.set(toId);
+            // Salva il cursore e rinnova il lock (interrompe se un'altra istanza lo ha preso)
+            jobCheckpointService.advance(jobName, toId, deleted[0]);
+
+            if (ids.size() < batchSize) {
+                break;
+            }
+            throttle(deleted[0] + deleted[1], batchNanos);
+        }
+
+        log.info("Eliminazione dei carrelli scaduti{}: {} carrelli e {} item in {} blocchi ({} ms, soglia {})",
+                dryRun ? " (dry-run)" : "", carts, items, batches, System.currentTimeMillis() - start, cutoff);
+        return new PurgeResult(batches, carts, items, dryRun);
+    }
+
+    // Attende quanto serve perché il blocco rientri nel budget di righe al secondo
+    private void throttle(long rows, long elapsedNanos) {
+        if (maxRowsPerSecond <= 0 || rows == 0) {
+            return;
+        }
+        long budgetNanos = rows * 1_000_000_000L / maxRowsPerSecond;
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(budgetNanos - elapsedNanos);
+        if (waitMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Eliminazione dei carrelli scaduti interrotta", e);
+        }
+    }
+}
@@ -1,11 +1,29 @@
 package com.example.backend.service;
 
 import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import com.example.backend.dto.CartItemResponseDto;
+import com.example.backend.dto.CartOperationDto;
+import com.example.backend.dto.CartResponseDto;
+import com.example.backend.dto.ProductResponseDto;
 import com.example.backend.model.Cart;
 import com.example.backend.model.CartItem;
 import com.example.backend.model.Product;
@@ -13,6 +31,7 @@ import com.example.backend.model.User;
 import com.example.backend.repository.CartRepository;
 import com.example.backend.repository.ProductRepository;
 import com.example.backend.repository.UserRepository;
+import com.example.backend.util.MinorUnits;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -23,9 +42,235 @@ import lombok.extern.slf4j.Slf4j;
 @Transactional
 public class CartService {
     
+    private static final int MAX_CONFLICT_ATTEMPTS = 3;
+    
     private final CartRepository cartRepository;
     private final ProductRepository productRepository;
     private final UserRepository userRepository;
+    private final CartCacheService cartCacheService;
+    private final StockHoldService stockHoldService;
+    private final ProductService productService;
+    private final PlatformTransactionManager transactionManager;
+    
+    /**
+     * Carrello attivo dell'utente come DTO (lo crea se non esiste).
+     * Con la cache attiva è servito dalla memoria, senza transazione.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public CartResponseDto getCartView(Long userId) {
+        stockHoldService.refresh(userId);
+        if (cartCacheService.isEnabled()) {
+            return cartCacheService.read(userId, CartCacheService.CachedCart::toDto);
+        }
+        return inTransaction(() -> new CartResponseDto(getActiveCart(userId)
+                .orElseGet(() -> getOrCreateActiveCart(userId))));
+    }
+    
+    /**
+     * Aggiunge un prodotto al carrello e restituisce l'item come DTO
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public CartItemResponseDto addItem(Long userId, Long productId, Integer quantity) {
+        stockHoldService.refresh(userId);
+        if (!cartCacheService.isEnabled()) {
+            return inTransaction(() -> new CartItemResponseDto(addProductToCart(userId, productId, quantity)));
+        }
+        log.info("Aggiunta prodotto {} al carrello utente {} con quantità {}", productId, userId, quantity);
+        
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("La quantità deve essere maggiore di 0");
+        }
+        
+        ProductResponseDto product = productService.getProductResponseById(productId)
+                .orElseThrow(() -> new RuntimeException("Prodotto non trovato: " + productId));
+        
+        if (!Boolean.TRUE.equals(product.getIsActive())) {
+            throw new RuntimeException("Prodotto non disponibile: " + productId);
+        }
+        
+        return cartCacheService.mutate(userId, cart -> {
+            CartCacheService.CachedItem existing = cart.getItem(productId);
+            int newQuantity = existing != null ? existing.getQuantity() + quantity : quantity;
+            reserveStock(userId, productId, product.getStockQty(), newQuantity);
+            return cart.putItem(product, newQuantity).toDto();
+        });
+    }
+    
+    /**
+     * Aggiorna la quantità di un prodotto nel carrello e restituisce l'item come DTO
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public CartItemResponseDto updateItem(Long userId, Long productId, Integer newQuantity) {
+        stockHoldService.refresh(userId);
+        if (!cartCacheService.isEnabled()) {
+            return inTransaction(() -> new CartItemResponseDto(updateCartItemQuantity(userId, productId, newQuantity)));
+        }
+        log.info("Aggiornamento quantità prodotto {} nel carrello utente {} a {}", productId, userId, newQuantity);
+        
+        if (newQuantity <= 0) {
+            throw new IllegalArgumentException("La quantità deve essere maggiore di 0");
+        }
+        
+        ProductResponseDto product = productService.getProductResponseById(productId)
+                .orElseThrow(() -> new RuntimeException("Prodotto non trovato nel carrello: " + productId));
+        
+        return cartCacheService.mutate(userId, cart -> {
+            if (cart.getItem(productId) == null) {
+                throw new RuntimeException("Prodotto non trovato nel carrello: " + productId);
+            }
+            reserveStock(userId, productId, product.getStockQty(), newQuantity);
+            return cart.putItem(product, newQuantity).toDto();
+        });
+    }
+    
+    /**
+     * Rimuove un prodotto dal carrello (dalla cache se attiva)
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void removeItem(Long userId, Long productId) {
+        if (!cartCacheService.isEnabled()) {
+            inTransaction(() -> {
+                removeProductFromCart(userId, productId);
+                return null;
+            });
+            return;
+        }
+        log.info("Rimozione prodotto {} dal carrello utente {}", productId, userId);
+        
+        cartCacheService.mutate(userId, cart -> {
+            if (!cart.removeItem(productId)) {
+                throw new RuntimeException("Prodotto non trovato nel carrello: " + productId);
+            }
+            stockHoldService.release(productId, userId);
+            return null;
+        });
+    }
+    
+    /**
+     * Svuota il carrello (dalla cache se attiva)
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void clearItems(Long userId) {
+        if (!cartCacheService.isEnabled()) {
+            inTransaction(() -> {
+                clearCart(userId);
+                return null;
+            });
+            return;
+        }
+        log.info("Svuotamento carrello per utente: {}", userId);
+        
+        cartCacheService.mutate(userId, cart -> {
+            cart.clear();
+            stockHoldService.releaseAll(userId);
+            return null;
+        });
+    }
+    
+    /**
+     * Numero totale di item nel carrello (dalla cache se attiva)
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public int getItemCount(Long userId) {
+        if (cartCacheService.isEnabled()) {
+            return cartCacheService.read(userId, CartCacheService.CachedCart::getItemCount);
+        }
+        return inTransaction(() -> getCartItemCount(userId));
+    }
+    
+    /**
+     * Applica in ordine una lista di operazioni sul carrello, tutte o nessuna:
+     * un solo caricamento del carrello, una sola query IN sui prodotti e un solo salvataggio
+     * @throws IllegalArgumentException se un'operazione non è valida
+     * @throws RuntimeException se un prodotto non è disponibile o lo stock è insufficiente
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public CartResponseDto applyOperations(Long userId, List<CartOperationDto> operations) {
+        stockHoldService.refresh(userId);
+        log.info("Applicazione di {} operazioni al carrello utente {}", operations.size(), userId);
+        
+        // Solo ADD e UPDATE richiedono i dati del prodotto
+        Set<Long> productIds = operations.stream()
+                .filter(operation -> parseOperationType(operation) != CartOperationType.REMOVE)
+                .map(CartOperationDto::getProductId)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        
+        if (cartCacheService.isEnabled()) {
+            Map<Long, ProductResponseDto> products = productService.getProductsByIdsWithCategories(productIds).stream()
+                    .collect(Collectors.toMap(Product::getId, ProductResponseDto::new));
+            
+            return cartCacheService.mutate(userId, cart -> {
+                Map<Long, Integer> current = cart.getQuantities();
+                Map<Long, Integer> result = applyToQuantities(userId, current, operations, products,
+                        ProductResponseDto::getIsActive, ProductResponseDto::getStockQty);
+                holdChanges(userId, current, result, products, ProductResponseDto::getStockQty);
+                current.keySet().stream()
+                        .filter(productId -> !result.containsKey(productId))
+                        .forEach(cart::removeItem);
+                result.forEach((productId, quantity) -> {
+                    if (!quantity.equals(current.get(productId))) {
+                        cart.putItem(products.get(productId), quantity);
+                    }
+                });
+                return cart.toDto();
+            });
+        }
+        
+        return inTransaction(() -> {
+            Cart cart = cartRepository.findByUserIdAndStatusWithItems(userId, Cart.CartStatus.OPEN)
+                    .orElseGet(() -> getOrCreateActiveCart(userId));
+            Map<Long, Product> products = productIds.isEmpty() ? Map.of()
+                    : productRepository.findAllById(productIds).stream()
+                            .collect(Collectors.toMap(Product::getId, Function.identity()));
+            
+            Map<Long, CartItem> itemsByProduct = new LinkedHashMap<>();
+            for (CartItem item : cart.getItems()) {
+                itemsByProduct.put(item.getProduct().getId(), item);
+            }
+            Map<Long, Integer> current = new LinkedHashMap<>();
+            itemsByProduct.forEach((productId, item) -> current.put(productId, item.getQuantity()));
+            
+            Map<Long, Integer> result = applyToQuantities(userId, current, operations, products,
+                    Product::getIsActive, Product::getStockQty);
+            holdChanges(userId, current, result, products, Product::getStockQty);
+            
+            // Le righe rimosse sono cancellate al flush (orphanRemoval)
+            itemsByProduct.forEach((productId, item) -> {
+                if (!result.containsKey(productId)) {
+                    cart.getItems().remove(item);
+                    cart.applyLineChange(item.getUnitPrice(), -item.getQuantity(), -1);
+                }
+            });
+            result.forEach((productId, quantity) -> {
+                CartItem item = itemsByProduct.get(productId);
+                if (item == null) {
+                    Product product = products.get(productId);
+                    item = new CartItem();
+                    item.setCart(cart);
+                    item.setProduct(product);
+                    item.setUnitPrice(product.getPrice());
+                    item.setQuantity(quantity);
+                    cart.getItems().add(item);
+                    cart.applyLineChange(item.getUnitPrice(), quantity, 1);
+                } else if (!quantity.equals(item.getQuantity())) {
+                    cart.applyLineChange(item.getUnitPrice(), quantity - item.getQuantity(), 0);
+                    item.setQuantity(quantity);
+                }
+            });
+            
+            Cart savedCart = cartRepository.save(cart);
+            log.info("Carrello utente {} aggiornato con {} operazioni", userId, operations.size());
+            return new CartResponseDto(savedCart);
+        });
+    }
+    
+    /**
+     * Salva subito le modifiche del carrello ancora in cache (prima di leggerlo dal database per il checkout)
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void flushCachedCart(Long userId) {
+        cartCacheService.flush(userId);
+    }
     
     /**
      * Ottiene il carrello attivo dell'utente, lo crea se non esiste
@@ -88,15 +333,14 @@ public class CartService {
             // Aggiorna quantità esistente
             cartItem = existingItem.get();
             int newQuantity = cartItem.getQuantity() + quantity;
-            
-            if (product.getStockQty() < newQuantity) {
-                throw new RuntimeException("Stock insufficiente per il prodotto: " + productId);
-            }
+            reserveStock(userId, productId, product.getStockQty(), newQuantity);
             
             cartItem.setQuantity(newQuantity);
+            cart.applyLineChange(cartItem.getUnitPrice(), quantity, 0);
             log.info("Quantità aggiornata per prodotto {} nel carrello: {}", productId, newQuantity);
         } else {
             // Crea nuovo item
+            reserveStock(userId, productId, product.getStockQty(), quantity);
             cartItem = new CartItem();
             cartItem.setCart(cart);
             cartItem.setProduct(product);
@@ -104,6 +348,7 @@ public class CartService {
             cartItem.setUnitPrice(product.getPrice());
             
             cart.getItems().add(cartItem);
+            cart.applyLineChange(cartItem.getUnitPrice(), quantity, 1);
             log.info("Nuovo item aggiunto al carrello per prodotto: {}", productId);
         }
         
@@ -129,10 +374,9 @@ public class CartService {
                 .orElseThrow(() -> new RuntimeException("Prodotto non trovato nel carrello: " + productId));
         
         Product product = cartItem.getProduct();
-        if (product.getStockQty() < newQuantity) {
-            throw new RuntimeException("Stock insufficiente per il prodotto: " + productId);
-        }
+        reserveStock(userId, productId, product.getStockQty(), newQuantity);
         
+        cart.applyLineChange(cartItem.getUnitPrice(), newQuantity - cartItem.getQuantity(), 0);
         cartItem.setQuantity(newQuantity);
         cartRepository.save(cart);
         
@@ -148,13 +392,15 @@ public class CartService {
         
         Cart cart = getOrCreateActiveCart(userId);
         
-        boolean removed = cart.getItems().removeIf(item -> item.getProduct().getId().equals(productId));
-        
-        if (!removed) {
-            throw new RuntimeException("Prodotto non trovato nel carrello: " + productId);
-        }
+        CartItem cartItem = cart.getItems().stream()
+                .filter(item -> item.getProduct().getId().equals(productId))
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("Prodotto non trovato nel carrello: " + productId));
         
+        cart.getItems().remove(cartItem);
+        cart.applyLineChange(cartItem.getUnitPrice(), -cartItem.getQuantity(), -1);
         cartRepository.save(cart);
+        stockHoldService.release(productId, userId);
         log.info("Prodotto {} rimosso dal carrello utente {}", productId, userId);
     }
     
@@ -166,18 +412,18 @@ public class CartService {
         
         Cart cart = getOrCreateActiveCart(userId);
         cart.getItems().clear();
+        cart.resetTotals();
         cartRepository.save(cart);
+        stockHoldService.releaseAll(userId);
         
         log.info("Carrello svuotato per utente: {}", userId);
     }
     
     /**
-     * Calcola il totale del carrello
+     * Totale del carrello (mantenuto a ogni modifica, senza scorrere gli item)
      */
     public BigDecimal calculateCartTotal(Cart cart) {
-        return cart.getItems().stream()
-                .map(CartItem::getTotalPrice)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return MinorUnits.toDecimal(cart.getSubtotalMinor());
     }
     
     /**
@@ -190,17 +436,11 @@ public class CartService {
     }
     
     /**
-     * Conta il numero totale di item nel carrello
+     * Conta il numero totale di item nel carrello (dal totale sulla riga del carrello)
      */
     @Transactional(readOnly = true)
     public int getCartItemCount(Long userId) {
-        Optional<Cart> cart = getActiveCart(userId);
-        if (cart.isPresent()) {
-            return cart.get().getItems().stream()
-                    .mapToInt(CartItem::getQuantity)
-                    .sum();
-        }
-        return 0;
+        return cartRepository.findItemCountByUserIdAndStatus(userId, Cart.CartStatus.OPEN).orElse(0);
     }
     
     /**
@@ -214,8 +454,116 @@ public class CartService {
             Cart cart = cartOpt.get();
             cart.setStatus(Cart.CartStatus.CHECKED_OUT);
             cartRepository.save(cart);
+            // Dopo il commit: prima una richiesta concorrente ricaricherebbe il carrello ancora OPEN
+            cartCacheService.evictAfterCommit(userId);
             
             log.info("Carrello {} marcato come checked out", cart.getId());
         }
     }
+    
+    /**
+     * Applica le operazioni a una copia delle quantità, con le stesse regole delle singole operazioni
+     */
+    private <P> Map<Long, Integer> applyToQuantities(Long userId, Map<Long, Integer> current, List<CartOperationDto> operations,
+                                                      Map<Long, P> products, Function<P, Boolean> isActive,
+                                                      Function<P, Integer> stockQty) {
+        Map<Long, Integer> quantities = new LinkedHashMap<>(current);
+        for (CartOperationDto operation : operations) {
+            Long productId = operation.getProductId();
+            CartOperationType type = parseOperationType(operation);
+            
+            if (type == CartOperationType.REMOVE) {
+                if (quantities.remove(productId) == null) {
+                    throw new RuntimeException("Prodotto non trovato nel carrello: " + productId);
+                }
+                continue;
+            }
+            
+            Integer quantity = operation.getQuantity();
+            if (quantity == null || quantity <= 0) {
+                throw new IllegalArgumentException("La quantità deve essere maggiore di 0");
+            }
+            if (type == CartOperationType.UPDATE && !quantities.containsKey(productId)) {
+                throw new RuntimeException("Prodotto non trovato nel carrello: " + productId);
+            }
+            
+            P product = products.get(productId);
+            if (product == null) {
+                throw new RuntimeException("Prodotto non trovato: " + productId);
+            }
+            if (!Boolean.TRUE.equals(isActive.apply(product))) {
+                throw new RuntimeException("Prodotto non disponibile: " + productId);
+            }
+            
+            int newQuantity = type == CartOperationType.ADD ? quantities.getOrDefault(productId, 0) + quantity : quantity;
+            if (stockHoldService.availableFor(productId, userId, stockQty.apply(product)) < newQuantity) {
+                throw new RuntimeException("Stock insufficiente per il prodotto: " + productId);
+            }
+            quantities.put(productId, newQuantity);
+        }
+        return quantities;
+    }
+    
+    /**
+     * Verifica lo stock per la nuova quantità; per i prodotti con prenotazione riserva le unità
+     * considerando quelle già riservate dagli altri carrelli
+     */
+    private void reserveStock(Long userId, Long productId, int stockQty, int newQuantity) {
+        if (stockHoldService.isHoldEnabled(productId)) {
+            stockHoldService.hold(productId, userId, newQuantity, stockQty);
+        } else if (stockQty < newQuantity) {
+            throw new RuntimeException("Stock insufficiente per il prodotto: " + productId);
+        }
+    }
+    
+    /**
+     * Allinea le prenotazioni alle quantità risultanti da un batch (i prodotti rimossi vanno a zero)
+     */
+    private <P> void holdChanges(Long userId, Map<Long, Integer> current, Map<Long, Integer> result,
+                                 Map<Long, P> products, Function<P, Integer> stockQty) {
+        Map<Long, Integer> changed = new LinkedHashMap<>();
+        Map<Long, Integer> stock = new LinkedHashMap<>();
+        current.keySet().stream()
+                .filter(productId -> !result.containsKey(productId))
+                .forEach(productId -> changed.put(productId, 0));
+        result.forEach((productId, quantity) -> {
+            if (!quantity.equals(current.get(productId))) {
+                changed.put(productId, quantity);
+                stock.put(productId, stockQty.apply(products.get(productId)));
+            }
+        });
+        stockHoldService.holdAll(userId, changed, stock);
+    }
+    
+    private static CartOperationType parseOperationType(CartOperationDto operation) {
+        try {
+            return CartOperationType.valueOf(operation.getType().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Operazione non valida: " + operation.getType()
+                    + " (valori ammessi: ADD, UPDATE, REMOVE)");
+        }
+    }
+    
+    // Una modifica concorrente dello stesso carrello fa fallire il commit (lock ottimistico):
+    // fuori da una transazione esterna l'operazione viene ripetuta sullo stato aggiornato
+    private <T> T inTransaction(Supplier<T> action) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return template.execute(status -> action.get());
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return template.execute(status -> action.get());
+            } catch (OptimisticLockingFailureException e) {
+                if (attempt >= MAX_CONFLICT_ATTEMPTS) {
+                    throw e;
+                }
+                log.debug("Carrello modificato da un'altra richiesta, nuovo tentativo ({})", attempt);
+            }
+        }
+    }
+    
+    private enum CartOperationType {
+        ADD, UPDATE, REMOVE
+    }
 }
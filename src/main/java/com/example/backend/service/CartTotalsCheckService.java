@@ -0,0 +1,129 @@
+package com.example.backend.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Verifica di coerenza dei totali mantenuti sui carrelli aperti: li ricalcola dagli item
+ * a blocchi (paginazione keyset sull'ID del carrello) e segnala le differenze.
+ * Con {@code cart.totals.repair=true} i totali divergenti vengono anche corretti.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CartTotalsCheckService {
+
+    private static final int MAX_REPORTED_CARTS = 20;
+
+    private static final String RECOMPUTE_SQL =
+            "SELECT c.id, c.version, c.subtotal_minor, c.item_count, c.line_count, " +
+            "COALESCE(SUM(ROUND(ci.unit_price * 100) * ci.quantity), 0) AS actual_subtotal, " +
+            "COALESCE(SUM(ci.quantity), 0) AS actual_items, COUNT(ci.id) AS actual_lines " +
+            "FROM carts c LEFT JOIN cart_items ci ON ci.cart_id = c.id " +
+            "WHERE c.status = 'OPEN' AND c.id > ? " +
+            "GROUP BY c.id, c.version, c.subtotal_minor, c.item_count, c.line_count " +
+            "ORDER BY c.id LIMIT ?";
+
+    // La condizione sulla versione letta evita di sovrascrivere un carrello modificato nel frattempo
+    private static final String REPAIR_SQL =
+            "UPDATE carts SET subtotal_minor = ?, item_count = ?, line_count = ?, version = version + 1 " +
+            "WHERE id = ? AND version = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${cart.totals.check-batch-size:1000}")
+    private int batchSize;
+
+    @Value("${cart.totals.repair:false}")
+    private boolean repair;
+
+    /**
+     * Risultato di una verifica: carrelli controllati, divergenti e corretti
+     */
+    public record CheckResult(long checked, long drifted, long repaired, List<Long> driftedCartIds) {}
+
+    @Scheduled(cron = "${cart.totals.check-cron:0 45 3 * * *}")
+    public void scheduledCheck() {
+        try {
+            checkAll();
+        } catch (Exception e) {
+            log.error("Errore durante la verifica dei totali dei carrelli: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Ricalcola i totali di tutti i carrelli aperti e riporta quelli divergenti
+     */
+    public CheckResult checkAll() {
+        long start = System.currentTimeMillis();
+        long checked = 0;
+        long drifted = 0;
+        long repaired = 0;
+        List<Long> reported = new ArrayList<>();
+        long lastId = 0;
+
+        while (true) {
+            List<Drift> drifts = new ArrayList<>();
+            List<Long> ids = jdbcTemplate.query(RECOMPUTE_SQL, (rs, rowNum) -> {
+                long cartId = rs.getLong("id");
+                Totals stored = new Totals(rs.getLong("subtotal_minor"), rs.getInt("item_count"), rs.getInt("line_count"));
+                Totals actual = new Totals(rs.getLong("actual_subtotal"), rs.getInt("actual_items"), rs.getInt("actual_lines"));
+                if (!stored.equals(actual)) {
+                    drifts.add(new Drift(cartId, rs.getLong("version"), stored, actual));
+                }
+                return cartId;
+            }, lastId, batchSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+            checked += ids.size();
+            lastId = ids.get(ids.size() - 1);
+
+            drifted += drifts.size();
+            for (Drift drift : drifts) {
+                if (reported.size() < MAX_REPORTED_CARTS) {
+                    reported.add(drift.cartId());
+                }
+            }
+            if (repair && !drifts.isEmpty()) {
+                repaired += repairBatch(drifts);
+            }
+            if (ids.size() < batchSize) {
+                break;
+            }
+        }
+
+        if (drifted > 0) {
+            log.warn("Totali dei carrelli divergenti: {} su {} controllati ({} corretti), ad esempio {}",
+                    drifted, checked, repaired, reported);
+        } else {
+            log.info("Totali dei carrelli coerenti: {} carrelli controllati in {} ms",
+                    checked, System.currentTimeMillis() - start);
+        }
+        return new CheckResult(checked, drifted, repaired, reported);
+    }
+
+    // Un UPDATE per carrello: i carrelli divergenti sono pochi e si contano solo le righe davvero modificate
+    // (con rewriteBatchedStatements un batch restituisce SUCCESS_NO_INFO anche per gli UPDATE senza effetto)
+    private int repairBatch(List<Drift> drifts) {
+        int repaired = 0;
+        for (Drift drift : drifts) {
+            repaired += jdbcTemplate.update(REPAIR_SQL,
+                    drift.actual().subtotalMinor(), drift.actual().itemCount(), drift.actual().lineCount(),
+                    drift.cartId(), drift.version());
+        }
+        return repaired;
+    }
+
+    private record Totals(long subtotalMinor, int itemCount, int lineCount) {}
+
+    private record Drift(long cartId, long version, Totals stored, Totals actual) {}
+}
@@ -0,0 +1,152 @@
+package com.example.backend.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.backend.dto.CatalogChangesDto;
+import com.example.backend.dto.CategoryResponseDto;
+import com.example.backend.dto.ProductResponseDto;
+import com.example.backend.model.Category;
+import com.example.backend.model.Product;
+import com.example.backend.repository.CategoryRepository;
+import com.example.backend.repository.ProductRepository;
+import com.example.backend.repository.projection.CatalogChange;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Feed incrementale delle modifiche del catalogo per la sincronizzazione dei client.
+ * Prodotti e categorie sono letti in ordine (updated_at, id) a partire da un cursore opaco,
+ * con paginazione keyset sull'indice (updated_at, id); le righe disattivate diventano tombstone.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+@Transactional(readOnly = true)
+public class CatalogChangeService {
+
+    private static final LocalDateTime BEGINNING = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final ProductRepository productRepository;
+    private final CategoryRepository categoryRepository;
+
+    // Le righe più recenti di questo margine non sono ancora restituite: una transazione
+    // ancora aperta potrebbe committare una riga con updated_at precedente al cursore.
+    // Il margine copre solo il tempo tra l'assegnazione di updated_at e il commit: chi scrive
+    // products in transazioni lunghe (sincronizzazione stock, import) deve riassegnare updated_at
+    // con un'ultima istruzione subito prima del commit, altrimenti le sue righe possono essere saltate
+    @Value("${catalog.changes.safety-lag-ms:2000}")
+    private long safetyLagMs;
+
+    /**
+     * Restituisce le modifiche successive al cursore (null = dall'inizio)
+     * @throws IllegalArgumentException se il cursore non è valido
+     */
+    public CatalogChangesDto getChangesSince(String cursor, int limit) {
+        Cursor from = Cursor.decode(cursor);
+        LocalDateTime until = LocalDateTime.now().minusNanos(safetyLagMs * 1_000_000L);
+        PageRequest page = PageRequest.of(0, limit);
+
+        // Prodotti: prima le posizioni (query sull'indice), poi le entity attive con le categorie
+        List<CatalogChange> productChanges = productRepository.findChangesAfter(
+                from.productUpdatedAt(), from.productId(), until, page);
+        List<Long> activeIds = new ArrayList<>();
+        List<Long> deletedProductIds = new ArrayList<>();
+        for (CatalogChange change : productChanges) {
+            (Boolean.TRUE.equals(change.active()) ? activeIds : deletedProductIds).add(change.id());
+        }
+        Map<Long, Product> productsById = activeIds.isEmpty() ? Map.of()
+                : productRepository.findAllByIdInWithCategories(activeIds).stream()
+                        .collect(Collectors.toMap(Product::getId, Function.identity()));
+        List<ProductResponseDto> products = new ArrayList<>(activeIds.size());
+        for (Long id : activeIds) {
+            Product product = productsById.get(id);
+            if (product != null) {
+                products.add(new ProductResponseDto(product));
+            }
+        }
+
+        List<Category> categoryChanges = categoryRepository.findChangesAfter(
+                from.categoryUpdatedAt(), from.categoryId(), until, page);
+        List<CategoryResponseDto> categories = new ArrayList<>();
+        List<Long> deletedCategoryIds = new ArrayList<>();
+        for (Category category : categoryChanges) {
+            if (category.isActive()) {
+                categories.add(new CategoryResponseDto(category));
+            } else {
+                deletedCategoryIds.add(category.getId());
+            }
+        }
+
+        Cursor next = from;
+        if (!productChanges.isEmpty()) {
+            CatalogChange last = productChanges.get(productChanges.size() - 1);
+            next = next.withProduct(last.updatedAt(), last.id());
+        }
+        if (!categoryChanges.isEmpty()) {
+            Category last = categoryChanges.get(categoryChanges.size() - 1);
+            next = next.withCategory(last.getUpdatedAt(), last.getId());
+        }
+        boolean hasMore = productChanges.size() == limit || categoryChanges.size() == limit;
+
+        log.info("Feed modifiche catalogo: {} prodotti, {} categorie, {} tombstone",
+                products.size(), categories.size(), deletedProductIds.size() + deletedCategoryIds.size());
+        return new CatalogChangesDto(products, categories, deletedProductIds, deletedCategoryIds, next.encode(), hasMore);
+    }
+
+    /**
+     * Cursore che restituisce le modifiche successive all'istante indicato (per chi riparte da uno snapshot)
+     */
+    public String cursorAt(LocalDateTime since) {
+        return new Cursor(since, 0L, since, 0L).encode();
+    }
+
+    /**
+     * Posizione del client nei due flussi (prodotti e categorie), serializzata in Base64 URL-safe
+     */
+    private record Cursor(LocalDateTime productUpdatedAt, Long productId,
+                          LocalDateTime categoryUpdatedAt, Long categoryId) {
+
+        static Cursor decode(String cursor) {
+            if (cursor == null || cursor.isBlank()) {
+                return new Cursor(BEGINNING, 0L, BEGINNING, 0L);
+            }
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|");
+                if (parts.length != 4) {
+                    throw new IllegalArgumentException("Cursore non valido");
+                }
+                return new Cursor(LocalDateTime.parse(parts[0]), Long.parseLong(parts[1]),
+                        LocalDateTime.parse(parts[2]), Long.parseLong(parts[3]));
+            } catch (DateTimeParseException | NumberFormatException e) {
+                throw new IllegalArgumentException("Cursore non valido", e);
+            }
+        }
+
+        String encode() {
+            String raw = productUpdatedAt + "|" + productId + "|" + categoryUpdatedAt + "|" + categoryId;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Cursor withProduct(LocalDateTime updatedAt, Long id) {
+            return new Cursor(updatedAt, id, categoryUpdatedAt, categoryId);
+        }
+
+        Cursor withCategory(LocalDateTime updatedAt, Long id) {
+            return new Cursor(productUpdatedAt, productId, updatedAt, id);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.backend.service;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.repository.ProductRepository;
+import com.example.backend.repository.projection.ProductExportRow;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Export del catalogo attivo per i feed (marketplace, comparatori di prezzo) in NDJSON o CSV.
+ * I prodotti sono letti con un cursore lato server e scritti riga per riga sullo stream
+ * di output, con flush periodici: la memoria usata non dipende dalla dimensione del catalogo
+ * (i nomi delle categorie arrivano già aggregati in ogni riga del cursore).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CatalogExportService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String CSV_HEADER =
+            "id,sku,slug,name,description,price,currency,stock_qty,in_stock,image_url,categories,updated_at";
+
+    private final ProductRepository productRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final ObjectMapper objectMapper;
+
+    @Value("${catalog.export.flush-every-rows:500}")
+    private int flushEveryRows;
+
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    /**
+     * Scrive l'intero catalogo attivo sullo stream nel formato richiesto
+     * @return numero di prodotti esportati
+     */
+    public long export(Format format, OutputStream output) {
+        long start = System.currentTimeMillis();
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setReadOnly(true);
+
+        long exported = template.execute(status -> {
+            try (Stream<ProductExportRow> rows = productRepository.streamActiveProductsForExport()) {
+                return format == Format.CSV
+                        ? writeCsv(rows, output)
+                        : writeNdjson(rows, output);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        log.info("Export catalogo {} completato: {} prodotti in {} ms",
+                format, exported, System.currentTimeMillis() - start);
+        return exported;
+    }
+
+    private long writeNdjson(Stream<ProductExportRow> rows, OutputStream output) throws IOException {
+        OutputStream buffered = new BufferedOutputStream(output, BUFFER_SIZE);
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(buffered);
+        generator.setRootValueSeparator(null);
+
+        long count = 0;
+        for (ProductExportRow row : (Iterable<ProductExportRow>) rows::iterator) {
+            generator.writeStartObject();
+            generator.writeNumberField("id", row.id());
+            generator.writeStringField("sku", row.sku());
+            generator.writeStringField("slug", row.slug());
+            generator.writeStringField("name", row.name());
+            generator.writeStringField("description", row.description());
+            generator.writeNumberField("price", row.price());
+            generator.writeStringField("currency", row.currency());
+            generator.writeNumberField("stockQty", row.stockQty());
+            generator.writeBooleanField("inStock", row.stockQty() != null && row.stockQty() > 0);
+            generator.writeStringField("imageUrl", row.imageUrl());
+            generator.writeArrayFieldStart("categories");
+            for (String category : row.categories()) {
+                generator.writeString(category);
+            }
+            generator.writeEndArray();
+            generator.writeStringField("updatedAt", row.updatedAt() != null ? row.updatedAt().toString() : null);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+
+            if (++count % flushEveryRows == 0) {
+                generator.flush();
+            }
+        }
+        generator.flush();
+        return count;
+    }
+
+    private long writeCsv(Stream<ProductExportRow> rows, OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write(CSV_HEADER);
+        writer.write('\n');
+
+        long count = 0;
+        for (ProductExportRow row : (Iterable<ProductExportRow>) rows::iterator) {
+            writer.write(String.valueOf(row.id()));
+            writeCsvField(writer, row.sku());
+            writeCsvField(writer, row.slug());
+            writeCsvField(writer, row.name());
+            writeCsvField(writer, row.description());
+            writeCsvField(writer, row.price() != null ? row.price().toPlainString() : null);
+            writeCsvField(writer, row.currency());
+            writeCsvField(writer, row.stockQty() != null ? row.stockQty().toString() : null);
+            writeCsvField(writer, String.valueOf(row.stockQty() != null && row.stockQty() > 0));
+            writeCsvField(writer, row.imageUrl());
+            writeCsvField(writer, String.join("|", row.categories()));
+            writeCsvField(writer, row.updatedAt() != null ? row.updatedAt().toString() : null);
+            writer.write('\n');
+
+            if (++count % flushEveryRows == 0) {
+                writer.flush();
+            }
+        }
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Scrive un campo CSV preceduto dal separatore, tra virgolette se necessario (RFC 4180)
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        writer.write(',');
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
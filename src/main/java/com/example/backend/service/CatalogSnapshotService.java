@@ -0,0 +1,168 @@
+package com.example.backend.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import com.example.backend.dto.ApiResponse;
+import com.example.backend.dto.ProductResponseDto;
+import com.example.backend.model.Category;
+import com.example.backend.model.Product;
+import com.example.backend.repository.CategoryRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Snapshot pre-serializzato del catalogo attivo: la lista completa (e, su richiesta, quella
+ * di ogni categoria) viene serializzata una sola volta in JSON compresso gzip. Quando la versione
+ * del catalogo cambia, un nuovo snapshot viene costruito in background e sostituito atomicamente;
+ * le richieste scrivono direttamente i byte, senza query né serializzazione.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CatalogSnapshotService {
+
+    private static final String CATALOG_MESSAGE = "Prodotti recuperati con successo";
+
+    private final ProductService productService;
+    private final CatalogVersionService catalogVersionService;
+    private final CategoryRepository categoryRepository;
+    private final ObjectMapper objectMapper;
+
+    private volatile Snapshot current;
+
+    /**
+     * Corpo serializzato e compresso con il relativo ETag
+     */
+    public record SerializedPage(byte[] gzipBody, String etag) {
+
+        /**
+         * Corpo decompresso per i client che non accettano gzip
+         */
+        public byte[] plainBody() {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipBody))) {
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new RuntimeException("Errore nella decompressione dello snapshot del catalogo", e);
+            }
+        }
+    }
+
+    /**
+     * Restituisce lo snapshot dell'intero catalogo attivo
+     */
+    public SerializedPage getCatalogPage() {
+        return getSnapshot().catalogPage();
+    }
+
+    /**
+     * Restituisce lo snapshot dei prodotti attivi di una categoria (serializzato alla prima richiesta);
+     * vuoto se la categoria non è attiva e non ha prodotti attivi, così la cache resta limitata
+     * alle categorie note allo snapshot
+     */
+    public Optional<SerializedPage> getCategoryPage(Long categoryId) {
+        Snapshot snapshot = getSnapshot();
+        List<ProductResponseDto> products = snapshot.productsByCategory().get(categoryId);
+        if (products == null) {
+            return Optional.empty();
+        }
+        return Optional.of(snapshot.categoryPages().computeIfAbsent(categoryId, id ->
+                serialize(products, "category-" + id)));
+    }
+
+    /**
+     * Ricostruisce lo snapshot se la versione del catalogo è cambiata (la prima esecuzione
+     * avviene subito dopo l'avvio)
+     */
+    @Scheduled(fixedDelayString = "${catalog.snapshot.refresh-interval-ms:1000}")
+    public void refreshIfStale() {
+        Snapshot snapshot = current;
+        if (snapshot != null && snapshot.version() == catalogVersionService.currentVersion()) {
+            return;
+        }
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("Errore durante la ricostruzione dello snapshot del catalogo: {}", e.getMessage(), e);
+        }
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot snapshot = current;
+        if (snapshot == null) {
+            // Prima richiesta prima che il job abbia costruito lo snapshot
+            snapshot = rebuild();
+        }
+        return snapshot;
+    }
+
+    private synchronized Snapshot rebuild() {
+        // La versione va letta prima della query: una modifica concorrente provoca un'altra ricostruzione
+        long version = catalogVersionService.currentVersion();
+        Snapshot existing = current;
+        if (existing != null && existing.version() == version) {
+            return existing;
+        }
+
+        long start = System.currentTimeMillis();
+        List<Product> products = productService.getActiveProductsWithCategories();
+
+        List<ProductResponseDto> catalog = new ArrayList<>(products.size());
+        Map<Long, List<ProductResponseDto>> productsByCategory = new HashMap<>();
+        for (Product product : products) {
+            ProductResponseDto dto = new ProductResponseDto(product);
+            catalog.add(dto);
+            for (Category category : product.getCategories()) {
+                productsByCategory.computeIfAbsent(category.getId(), id -> new ArrayList<>()).add(dto);
+            }
+        }
+        // Le categorie attive senza prodotti attivi hanno uno snapshot vuoto, le altre non sono servite
+        for (Category category : categoryRepository.findByActiveTrue()) {
+            productsByCategory.putIfAbsent(category.getId(), List.of());
+        }
+
+        SerializedPage catalogPage = serialize(catalog, "catalog");
+        Snapshot snapshot = new Snapshot(version, catalogPage, productsByCategory, new ConcurrentHashMap<>());
+        current = snapshot;
+
+        log.info("Snapshot catalogo v{} costruito: {} prodotti, {} byte compressi in {} ms",
+                version, catalog.size(), catalogPage.gzipBody().length, System.currentTimeMillis() - start);
+        return snapshot;
+    }
+
+    private SerializedPage serialize(List<ProductResponseDto> products, String tag) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(ApiResponse.success(CATALOG_MESSAGE, products));
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(json.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                gzip.write(json);
+            }
+            // ETag forte calcolato sul corpo serializzato
+            String etag = "\"" + tag + "-" + DigestUtils.md5DigestAsHex(json) + "\"";
+            return new SerializedPage(buffer.toByteArray(), etag);
+        } catch (IOException e) {
+            throw new RuntimeException("Errore nella serializzazione dello snapshot del catalogo", e);
+        }
+    }
+
+    private record Snapshot(long version,
+                            SerializedPage catalogPage,
+                            Map<Long, List<ProductResponseDto>> productsByCategory,
+                            Map<Long, SerializedPage> categoryPages) {}
+}
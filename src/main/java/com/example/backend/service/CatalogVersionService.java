@@ -0,0 +1,89 @@
+package com.example.backend.service;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.backend.repository.CategoryRepository;
+import com.example.backend.repository.ProductRepository;
+import com.example.backend.repository.projection.CatalogFingerprint;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Versione del catalogo: un contatore che cresce a ogni modifica di prodotti o categorie.
+ * Le modifiche fatte dall'applicazione incrementano la versione dopo il commit; quelle fatte
+ * fuori dall'applicazione (script, altre istanze) sono rilevate confrontando periodicamente
+ * l'impronta delle tabelle (numero di righe e ultimo updated_at).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CatalogVersionService {
+
+    private final ProductRepository productRepository;
+    private final CategoryRepository categoryRepository;
+
+    // Parte dall'istante di avvio così le versioni non si ripetono dopo un riavvio
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+
+    private volatile CatalogFingerprint lastProductFingerprint;
+    private volatile CatalogFingerprint lastCategoryFingerprint;
+
+    /**
+     * Versione corrente del catalogo
+     */
+    public long currentVersion() {
+        return version.get();
+    }
+
+    /**
+     * Incrementa la versione dopo il commit della transazione corrente
+     * (se non c'è una transazione attiva la incrementa subito)
+     */
+    public void bumpAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bump();
+                }
+            });
+        } else {
+            bump();
+        }
+    }
+
+    /**
+     * Controlla se le tabelle del catalogo sono cambiate dall'ultimo controllo
+     */
+    @Scheduled(fixedDelayString = "${catalog.version.poll-interval-ms:5000}")
+    public void pollFingerprint() {
+        try {
+            CatalogFingerprint products = productRepository.findCatalogFingerprint();
+            CatalogFingerprint categories = categoryRepository.findCatalogFingerprint();
+
+            boolean changed = lastProductFingerprint != null
+                    && (!Objects.equals(products, lastProductFingerprint) || !Objects.equals(categories, lastCategoryFingerprint));
+            lastProductFingerprint = products;
+            lastCategoryFingerprint = categories;
+
+            if (changed) {
+                log.debug("Modifica del catalogo rilevata dall'impronta delle tabelle");
+                bump();
+            }
+        } catch (Exception e) {
+            log.warn("Impossibile leggere l'impronta del catalogo: {}", e.getMessage());
+        }
+    }
+
+    private void bump() {
+        long newVersion = version.incrementAndGet();
+        log.debug("Versione catalogo aggiornata a {}", newVersion);
+    }
+}
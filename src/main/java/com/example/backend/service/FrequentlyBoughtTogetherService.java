@@ -0,0 +1,296 @@
+package com.example.backend.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.repository.OrderItemRepository;
+import com.example.backend.repository.projection.OrderLineView;
+import com.example.backend.util.LongIntHashMap;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Raccomandazioni "spesso comprati insieme" basate sulla co-occorrenza dei prodotti negli ordini.
+ * Per ogni prodotto mantiene in memoria i conteggi sparsi dei prodotti acquistati nello stesso ordine
+ * e la lista dei top-K vicini; la lettura è un semplice lookup in memoria.
+ * <p>
+ * Gli ordini registrati durante una ricostruzione vengono riapplicati al nuovo indice solo se
+ * non erano già nello snapshot letto dalla ricostruzione, così non vengono contati due volte.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FrequentlyBoughtTogetherService {
+
+    private final OrderItemRepository orderItemRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final TaskScheduler taskScheduler;
+
+    private volatile Map<Long, ProductNeighbors> neighborsByProduct = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final Queue<PendingOrder> ordersDuringRebuild = new ConcurrentLinkedQueue<>();
+    // Serializza la registrazione degli ordini con la sostituzione dell'indice a fine ricostruzione
+    private final Object indexLock = new Object();
+
+    @Value("${recommendations.fbt.top-k:10}")
+    private int topK;
+
+    @Value("${recommendations.fbt.max-neighbors:256}")
+    private int maxNeighbors;
+
+    @Value("${recommendations.fbt.max-products-per-order:50}")
+    private int maxProductsPerOrder;
+
+    /**
+     * Restituisce gli ID dei prodotti acquistati più spesso insieme al prodotto indicato
+     */
+    public List<Long> getFrequentlyBoughtTogether(Long productId, int limit) {
+        ProductNeighbors neighbors = neighborsByProduct.get(productId);
+        if (neighbors == null) {
+            return List.of();
+        }
+        long[] top = neighbors.top;
+        int size = Math.min(limit, top.length);
+        List<Long> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(top[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Registra un ordine dopo il commit della transazione corrente
+     * (se non c'è una transazione attiva lo registra subito)
+     */
+    public void recordOrderAfterCommit(Long orderId, Collection<Long> productIds) {
+        long[] ids = productIds.stream().mapToLong(Long::longValue).distinct().toArray();
+        if (ids.length < 2) {
+            return;
+        }
+        PendingOrder order = new PendingOrder(orderId, ids);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    recordOrder(order);
+                }
+            });
+        } else {
+            recordOrder(order);
+        }
+    }
+
+    /**
+     * Ricostruisce l'indice da zero scorrendo lo storico degli ordini
+     */
+    @Scheduled(cron = "${recommendations.fbt.rebuild-cron:0 0 4 * * *}")
+    public void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            log.warn("Ricostruzione co-occorrenze già in corso, richiesta ignorata");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            Map<Long, ProductNeighbors> rebuilt = new ConcurrentHashMap<>();
+            TransactionTemplate template = new TransactionTemplate(transactionManager);
+            template.setReadOnly(true);
+            // Lo snapshot letto dallo stream resta lo stesso per la verifica degli ordini in attesa
+            template.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+
+            long orders = template.execute(status -> {
+                long count;
+                try (Stream<OrderLineView> lines = orderItemRepository.streamValidOrderLines()) {
+                    OrderAccumulator accumulator = new OrderAccumulator(rebuilt);
+                    lines.forEach(accumulator::accept);
+                    accumulator.finish();
+                    count = accumulator.orderCount;
+                }
+                publish(rebuilt);
+                return count;
+            });
+
+            log.info("Indice co-occorrenze ricostruito: {} ordini, {} prodotti in {} ms",
+                    orders, rebuilt.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Errore durante la ricostruzione dell'indice co-occorrenze: {}", e.getMessage(), e);
+        } finally {
+            ordersDuringRebuild.clear();
+            rebuilding.set(false);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        // Ricostruzione sullo scheduler per non ritardare l'avvio
+        taskScheduler.schedule(this::rebuild, Instant.now());
+    }
+
+    private void recordOrder(PendingOrder order) {
+        synchronized (indexLock) {
+            if (rebuilding.get()) {
+                ordersDuringRebuild.add(order);
+            }
+            applyOrder(neighborsByProduct, order.productIds());
+        }
+    }
+
+    /**
+     * Riapplica al nuovo indice gli ordini registrati durante la ricostruzione che lo snapshot
+     * non conteneva ancora, poi lo pubblica (dentro la transazione della ricostruzione)
+     */
+    private void publish(Map<Long, ProductNeighbors> rebuilt) {
+        synchronized (indexLock) {
+            List<PendingOrder> pending = new ArrayList<>(ordersDuringRebuild);
+            ordersDuringRebuild.clear();
+            if (!pending.isEmpty()) {
+                Set<Long> inSnapshot = new HashSet<>(orderItemRepository.findValidOrderIdsWithLines(
+                        pending.stream().map(PendingOrder::orderId).toList()));
+                for (PendingOrder order : pending) {
+                    if (!inSnapshot.contains(order.orderId())) {
+                        applyOrder(rebuilt, order.productIds());
+                    }
+                }
+            }
+            // Gli ordini registrati da qui in poi vanno già sul nuovo indice
+            neighborsByProduct = rebuilt;
+        }
+    }
+
+    private void applyOrder(Map<Long, ProductNeighbors> index, long[] productIds) {
+        // Gli ordini molto grandi generano coppie quadratiche e poco segnale: si limita il numero di prodotti
+        int count = Math.min(productIds.length, maxProductsPerOrder);
+        for (int i = 0; i < count; i++) {
+            ProductNeighbors neighbors = index.computeIfAbsent(productIds[i], id -> new ProductNeighbors());
+            neighbors.increment(productIds, i, count, maxNeighbors, topK);
+        }
+    }
+
+    private record PendingOrder(Long orderId, long[] productIds) {}
+
+    /**
+     * Raggruppa le righe consecutive dello stesso ordine (lo stream è ordinato per ID ordine)
+     */
+    private final class OrderAccumulator {
+        private final Map<Long, ProductNeighbors> index;
+        private final LongIntHashMap currentProducts = new LongIntHashMap();
+        private Long currentOrderId;
+        private long orderCount;
+
+        private OrderAccumulator(Map<Long, ProductNeighbors> index) {
+            this.index = index;
+        }
+
+        void accept(OrderLineView line) {
+            if (!line.orderId().equals(currentOrderId)) {
+                finish();
+                currentOrderId = line.orderId();
+            }
+            currentProducts.put(line.productId(), 1);
+        }
+
+        void finish() {
+            if (currentProducts.size() >= 2) {
+                long[] ids = new long[currentProducts.size()];
+                int[] position = {0};
+                currentProducts.forEach((productId, ignored) -> ids[position[0]++] = productId);
+                applyOrder(index, ids);
+            }
+            if (currentOrderId != null) {
+                orderCount++;
+            }
+            currentProducts.clear();
+        }
+    }
+
+    /**
+     * Conteggi di co-occorrenza di un prodotto e lista ordinata dei migliori vicini
+     */
+    private static final class ProductNeighbors {
+        private final LongIntHashMap counts = new LongIntHashMap();
+        private volatile long[] top = new long[0];
+
+        synchronized void increment(long[] orderProducts, int self, int count, int maxNeighbors, int topK) {
+            for (int j = 0; j < count; j++) {
+                if (j != self) {
+                    counts.addTo(orderProducts[j], 1);
+                }
+            }
+            if (counts.size() > maxNeighbors) {
+                prune(maxNeighbors / 2);
+            }
+            top = computeTop(topK);
+        }
+
+        /**
+         * Mantiene solo i vicini con i conteggi più alti per limitare la memoria per prodotto
+         */
+        private void prune(int keep) {
+            long[] keepIds = computeTop(keep);
+            int[] keepCounts = new int[keepIds.length];
+            for (int i = 0; i < keepIds.length; i++) {
+                keepCounts[i] = counts.get(keepIds[i], 0);
+            }
+            counts.clear();
+            for (int i = 0; i < keepIds.length; i++) {
+                counts.put(keepIds[i], keepCounts[i]);
+            }
+        }
+
+        private long[] computeTop(int k) {
+            int size = Math.min(k, counts.size());
+            long[] ids = new long[size];
+            int[] scores = new int[size];
+            int[] filled = {0};
+
+            // Selezione top-K con insertion sort su un array di dimensione K
+            counts.forEach((productId, score) -> {
+                int n = filled[0];
+                if (n == size && (size == 0 || !isBetter(score, productId, scores[n - 1], ids[n - 1]))) {
+                    return;
+                }
+                int pos = n == size ? n - 1 : n;
+                while (pos > 0 && isBetter(score, productId, scores[pos - 1], ids[pos - 1])) {
+                    ids[pos] = ids[pos - 1];
+                    scores[pos] = scores[pos - 1];
+                    pos--;
+                }
+                ids[pos] = productId;
+                scores[pos] = score;
+                if (n < size) {
+                    filled[0]++;
+                }
+            });
+            return ids;
+        }
+
+        private static boolean isBetter(int score, long id, int otherScore, long otherId) {
+            return score > otherScore || (score == otherScore && id < otherId);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.backend.service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.model.JobCheckpoint;
+import com.example.backend.model.JobCheckpoint.JobStatus;
+import com.example.backend.repository.JobCheckpointRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Gestione dei checkpoint dei job a blocchi: lock con scadenza tra le istanze,
+ * avvio e ripresa delle esecuzioni e avanzamento del cursore.
+ * Ogni operazione è una transazione breve e indipendente da quella del chiamante.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobCheckpointService {
+
+    private final JobCheckpointRepository jobCheckpointRepository;
+    private final PlatformTransactionManager transactionManager;
+
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName() + "-"
+            + UUID.randomUUID().toString().substring(0, 8);
+
+    @Value("${jobs.lock-lease-ms:300000}")
+    private long leaseMs;
+
+    /**
+     * Acquisisce il lock del job, creando il checkpoint se non esiste.
+     * Restituisce vuoto se il job è in esecuzione su un'altra istanza.
+     */
+    public Optional<JobCheckpoint> tryAcquire(String jobName) {
+        ensureExists(jobName);
+        return inTransaction(() -> {
+            LocalDateTime now = LocalDateTime.now();
+            if (jobCheckpointRepository.tryLock(jobName, owner, now, now.plus(Duration.ofMillis(leaseMs))) == 0) {
+                return Optional.<JobCheckpoint>empty();
+            }
+            return jobCheckpointRepository.findById(jobName);
+        });
+    }
+
+    /**
+     * Avvia una nuova esecuzione dall'inizio con la soglia indicata
+     */
+    public JobCheckpoint startRun(String jobName, LocalDateTime cutoffAt) {
+        return inTransaction(() -> {
+            JobCheckpoint checkpoint = jobCheckpointRepository.findById(jobName)
+                    .orElseThrow(() -> new RuntimeException("Checkpoint non trovato per il job: " + jobName));
+            checkpoint.setStatus(JobStatus.RUNNING);
+            checkpoint.setCursorId(0L);
+            checkpoint.setProcessedCount(0L);
+            checkpoint.setCutoffAt(cutoffAt);
+            checkpoint.setStartedAt(LocalDateTime.now());
+            return jobCheckpointRepository.save(checkpoint);
+        });
+    }
+
+    /**
+     * Registra il completamento dei blocchi fino a {@code cursorId} e rinnova il lock.
+     * Se il lock è scaduto ed è stato preso da un'altra istanza l'esecuzione va interrotta.
+     */
+    public void advance(String jobName, long cursorId, long processed) {
+        int updated = inTransaction(() -> {
+            LocalDateTime now = LocalDateTime.now();
+            return jobCheckpointRepository.advance(jobName, owner, cursorId, processed, now,
+                    now.plus(Duration.ofMillis(leaseMs)));
+        });
+        if (updated == 0) {
+            throw new IllegalStateException("Lock del job " + jobName + " perso: esecuzione interrotta");
+        }
+    }
+
+    /**
+     * Segna l'esecuzione come completata: la successiva ripartirà dall'inizio
+     */
+    public void complete(String jobName) {
+        inTransaction(() -> {
+            jobCheckpointRepository.findById(jobName)
+                    .filter(checkpoint -> owner.equals(checkpoint.getLockedBy()))
+                    .ifPresent(checkpoint -> {
+                        checkpoint.setStatus(JobStatus.COMPLETED);
+                        jobCheckpointRepository.save(checkpoint);
+                    });
+            return null;
+        });
+    }
+
+    /**
+     * Rilascia il lock; un'esecuzione non completata resta RUNNING e verrà ripresa dal cursore
+     */
+    public void release(String jobName) {
+        try {
+            inTransaction(() -> jobCheckpointRepository.unlock(jobName, owner));
+        } catch (Exception e) {
+            log.warn("Impossibile rilasciare il lock del job {}: {}", jobName, e.getMessage());
+        }
+    }
+
+    private void ensureExists(String jobName) {
+        if (jobCheckpointRepository.existsById(jobName)) {
+            return;
+        }
+        try {
+            inTransaction(() -> jobCheckpointRepository.saveAndFlush(new JobCheckpoint(jobName)));
+        } catch (DataIntegrityViolationException e) {
+            // Creato nel frattempo da un'altra istanza
+            log.debug("Checkpoint del job {} già creato da un'altra istanza", jobName);
+        }
+    }
+
+    private <T> T inTransaction(Supplier<T> action) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return template.execute(status -> action.get());
+    }
+}
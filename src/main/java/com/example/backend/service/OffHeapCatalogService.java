@@ -0,0 +1,396 @@
+package com.example.backend.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.dto.CatalogChangesDto;
+import com.example.backend.dto.ProductResponseDto;
+import com.example.backend.repository.ProductRepository;
+import com.example.backend.repository.projection.ProductExportRow;
+import com.example.backend.util.OffHeapProductStore;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Copia fuori heap del catalogo attivo per i deployment con milioni di SKU.
+ * I prodotti sono letti in streaming, con i nomi delle categorie già aggregati dalla query, e scritti
+ * in ordine di ID in un {@link OffHeapProductStore}: l'heap contiene solo gli indici primitivi, quindi
+ * il GC non deve scandire milioni di entity e stringhe. L'elenco dei prodotti è servito a pagine.
+ * Le modifiche successive alla costruzione arrivano dal feed delle modifiche del catalogo e sono
+ * applicate a una piccola sovrapposizione nell'heap; quando questa cresce troppo (o cambia una
+ * categoria) l'archivio viene ricostruito e sostituito atomicamente.
+ * Se è configurato un file di snapshot, ogni archivio ricostruito viene scritto su disco e all'avvio
+ * il file viene mappato in memoria: il nodo risponde subito e recupera solo le modifiche successive.
+ * Disattivato di default ({@code catalog.offheap.enabled}).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OffHeapCatalogService {
+
+    private static final int SNAPSHOT_MAGIC = 0x43415453;
+    private static final int SNAPSHOT_FORMAT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_SIZE = 16;
+    private static final int CHANGES_PAGE_SIZE = 1000;
+
+    private final ProductRepository productRepository;
+    private final CatalogVersionService catalogVersionService;
+    private final CatalogChangeService catalogChangeService;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${catalog.offheap.enabled:false}")
+    private boolean enabled;
+
+    @Value("${catalog.offheap.snapshot-path:}")
+    private String snapshotPath;
+
+    @Value("${catalog.offheap.max-overlay-size:100000}")
+    private int maxOverlaySize;
+
+    @Value("${catalog.changes.safety-lag-ms:2000}")
+    private long safetyLagMs;
+
+    @Value("${catalog.offheap.refresh-interval-ms:5000}")
+    private long refreshIntervalMs;
+
+    private volatile LoadedStore current;
+
+    /**
+     * Indica se l'archivio è attivo e caricato
+     */
+    public boolean isReady() {
+        return enabled && current != null;
+    }
+
+    /**
+     * Prodotto attivo per ID (vuoto se l'archivio non è pronto o il prodotto non è presente)
+     */
+    public Optional<ProductResponseDto> findById(Long id) {
+        LoadedStore loaded = enabled ? current : null;
+        if (loaded == null || id == null || loaded.removed().contains(id)) {
+            return Optional.empty();
+        }
+        ProductResponseDto updated = loaded.updated().get(id);
+        if (updated != null) {
+            return Optional.of(updated);
+        }
+        int index = loaded.store().indexOfId(id);
+        return index >= 0 ? Optional.of(toDto(loaded.store(), index)) : Optional.empty();
+    }
+
+    /**
+     * Prodotto attivo per slug (vuoto se l'archivio non è pronto o il prodotto non è presente)
+     */
+    public Optional<ProductResponseDto> findBySlug(String slug) {
+        LoadedStore loaded = enabled ? current : null;
+        if (loaded == null || slug == null) {
+            return Optional.empty();
+        }
+        Long updatedId = loaded.updatedSlugs().get(slug);
+        ProductResponseDto updated = updatedId != null ? loaded.updated().get(updatedId) : null;
+        if (updated != null && slug.equals(updated.getSlug())) {
+            return Optional.of(updated);
+        }
+        int index = loaded.store().indexOfSlug(slug);
+        if (index < 0 || loaded.isOverridden(loaded.store().id(index))) {
+            return Optional.empty();
+        }
+        return Optional.of(toDto(loaded.store(), index));
+    }
+
+    /**
+     * Pagina di prodotti attivi con ID maggiore di {@code afterId}, in ordine di ID (vuoto se l'archivio non è pronto).
+     * I record dell'archivio e le modifiche del feed sono fusi in ordine, senza copiare l'intero catalogo.
+     */
+    public Optional<List<ProductResponseDto>> findActivePage(long afterId, int limit) {
+        LoadedStore loaded = enabled ? current : null;
+        if (loaded == null) {
+            return Optional.empty();
+        }
+        OffHeapProductStore store = loaded.store();
+        Iterator<ProductResponseDto> updates = loaded.updated().tailMap(afterId, false).values().iterator();
+        ProductResponseDto nextUpdate = updates.hasNext() ? updates.next() : null;
+        int index = store.firstIndexAfter(afterId);
+
+        List<ProductResponseDto> products = new ArrayList<>(limit);
+        while (products.size() < limit) {
+            long storeId = index < store.size() ? store.id(index) : Long.MAX_VALUE;
+            if (nextUpdate != null && nextUpdate.getId() <= storeId) {
+                // La modifica del feed sostituisce il record con lo stesso ID
+                if (nextUpdate.getId() == storeId) {
+                    index++;
+                }
+                products.add(nextUpdate);
+                nextUpdate = updates.hasNext() ? updates.next() : null;
+            } else if (index < store.size()) {
+                if (!loaded.isOverridden(storeId)) {
+                    products.add(toDto(store, index));
+                }
+                index++;
+            } else {
+                break;
+            }
+        }
+        return Optional.of(products);
+    }
+
+    /**
+     * Allinea l'archivio quando la versione del catalogo cambia. La prima esecuzione avviene subito
+     * dopo l'avvio: se esiste uno snapshot su disco viene mappato, altrimenti l'archivio è costruito dal database.
+     */
+    @Scheduled(fixedDelayString = "${catalog.offheap.refresh-interval-ms:5000}")
+    public synchronized void refreshIfStale() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            LoadedStore loaded = current;
+            if (loaded == null) {
+                loaded = loadSnapshot().orElseGet(this::rebuild);
+                current = loaded;
+            }
+
+            long version = catalogVersionService.currentVersion();
+            if (version != loaded.version()) {
+                // Le righe più recenti del margine di sicurezza arrivano con i controlli successivi
+                loaded.retryUntil = System.currentTimeMillis() + safetyLagMs + refreshIntervalMs;
+                loaded.version = version;
+            } else if (System.currentTimeMillis() > loaded.retryUntil) {
+                return;
+            }
+
+            if (!catchUp(loaded) || loaded.updated().size() + loaded.removed().size() > maxOverlaySize) {
+                LoadedStore rebuilt = rebuild();
+                current = rebuilt;
+                catchUp(rebuilt);
+            }
+        } catch (Exception e) {
+            log.error("Errore durante l'aggiornamento del catalogo fuori heap: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Incorpora periodicamente le modifiche accumulate in un nuovo archivio (e nello snapshot su disco)
+     */
+    @Scheduled(fixedDelayString = "${catalog.offheap.compaction-interval-ms:900000}",
+               initialDelayString = "${catalog.offheap.compaction-interval-ms:900000}")
+    public synchronized void compact() {
+        LoadedStore loaded = enabled ? current : null;
+        if (loaded == null || (loaded.updated().isEmpty() && loaded.removed().isEmpty())) {
+            return;
+        }
+        try {
+            LoadedStore rebuilt = rebuild();
+            rebuilt.version = loaded.version();
+            current = rebuilt;
+            catchUp(rebuilt);
+        } catch (Exception e) {
+            log.error("Errore durante la compattazione del catalogo fuori heap: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Applica le modifiche del feed successive al cursore dell'archivio
+     * @return false se è cambiata una categoria e l'archivio va ricostruito
+     */
+    private boolean catchUp(LoadedStore loaded) {
+        int applied = 0;
+        boolean categoriesChanged = false;
+        CatalogChangesDto changes;
+        do {
+            changes = catalogChangeService.getChangesSince(loaded.cursor, CHANGES_PAGE_SIZE);
+            // I nomi delle categorie sono copiati nei record: serve una ricostruzione completa
+            categoriesChanged |= !changes.getCategories().isEmpty() || !changes.getDeletedCategoryIds().isEmpty();
+            for (ProductResponseDto product : changes.getProducts()) {
+                loaded.updated().put(product.getId(), product);
+                loaded.updatedSlugs().put(product.getSlug(), product.getId());
+                loaded.removed().remove(product.getId());
+            }
+            for (Long id : changes.getDeletedProductIds()) {
+                loaded.updated().remove(id);
+                loaded.removed().add(id);
+            }
+            applied += changes.getProducts().size() + changes.getDeletedProductIds().size();
+            loaded.cursor = changes.getNextCursor();
+        } while (changes.isHasMore());
+
+        if (applied > 0) {
+            log.info("Catalogo fuori heap: applicate {} modifiche dal feed", applied);
+        }
+        return !categoriesChanged;
+    }
+
+    private LoadedStore rebuild() {
+        // La versione e l'istante vanno letti prima della query: le modifiche concorrenti arrivano dal feed
+        long version = catalogVersionService.currentVersion();
+        LocalDateTime since = LocalDateTime.now().minusNanos(safetyLagMs * 1_000_000L);
+        long start = System.currentTimeMillis();
+        Long expected = productRepository.countActiveProducts();
+
+        OffHeapProductStore.Builder builder = OffHeapProductStore.builder(expected != null ? expected.intValue() : 0);
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setReadOnly(true);
+        template.executeWithoutResult(status -> {
+            try (Stream<ProductExportRow> rows = productRepository.streamActiveProductsForExport()) {
+                rows.forEach(row -> builder.add(row.id(), row.name(), row.slug(), row.sku(), row.description(),
+                        row.price(), row.currency(), row.stockQty() != null ? row.stockQty() : 0, true,
+                        row.imageUrl(), row.createdAt(), row.updatedAt(), row.categories()));
+            }
+        });
+
+        OffHeapProductStore store = builder.build();
+        log.info("Catalogo fuori heap v{} costruito: {} prodotti, {} MB fuori heap in {} ms",
+                version, store.size(), store.offHeapBytes() / (1024 * 1024), System.currentTimeMillis() - start);
+        writeSnapshot(store, since);
+        return new LoadedStore(store, version, catalogChangeService.cursorAt(since));
+    }
+
+    /**
+     * Scrive lo snapshot su un file temporaneo e lo sostituisce atomicamente a quello precedente
+     */
+    private void writeSnapshot(OffHeapProductStore store, LocalDateTime since) {
+        if (snapshotPath.isBlank()) {
+            return;
+        }
+        Path target = Path.of(snapshotPath);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+                header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_FORMAT_VERSION)
+                        .putLong(since.toInstant(ZoneOffset.UTC).toEpochMilli()).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                store.writeTo(channel);
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Snapshot del catalogo fuori heap scritto in {} ({} byte)", target, Files.size(target));
+        } catch (IOException e) {
+            log.error("Errore nella scrittura dello snapshot del catalogo fuori heap {}: {}", target, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Mappa lo snapshot su disco, se presente e valido
+     */
+    private Optional<LoadedStore> loadSnapshot() {
+        if (snapshotPath.isBlank() || !Files.isRegularFile(Path.of(snapshotPath))) {
+            return Optional.empty();
+        }
+        long start = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(Path.of(snapshotPath), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < SNAPSHOT_HEADER_SIZE || header.getInt() != SNAPSHOT_MAGIC
+                    || header.getInt() != SNAPSHOT_FORMAT_VERSION) {
+                log.warn("Snapshot del catalogo fuori heap {} con formato non riconosciuto: ignorato", snapshotPath);
+                return Optional.empty();
+            }
+            LocalDateTime since = LocalDateTime.ofInstant(Instant.ofEpochMilli(header.getLong()), ZoneOffset.UTC);
+
+            // Il mapping resta valido anche dopo la chiusura del canale
+            OffHeapProductStore store = OffHeapProductStore.map(channel, SNAPSHOT_HEADER_SIZE);
+            log.info("Snapshot del catalogo fuori heap mappato da {}: {} prodotti al {} in {} ms",
+                    snapshotPath, store.size(), since, System.currentTimeMillis() - start);
+            return Optional.of(new LoadedStore(store, 0L, catalogChangeService.cursorAt(since)));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Snapshot del catalogo fuori heap {} non utilizzabile: {}", snapshotPath, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static ProductResponseDto toDto(OffHeapProductStore store, int index) {
+        return new ProductResponseDto(
+                store.id(index),
+                store.name(index),
+                store.slug(index),
+                store.sku(index),
+                store.description(index),
+                store.price(index),
+                store.currency(index),
+                store.stockQty(index),
+                store.isActive(index),
+                store.imageUrl(index),
+                new LinkedHashSet<>(store.categoryNames(index)),
+                store.createdAt(index),
+                store.updatedAt(index));
+    }
+
+    /**
+     * Archivio immutabile più le modifiche ricevute dal feed dopo la sua costruzione
+     */
+    private static final class LoadedStore {
+        private final OffHeapProductStore store;
+        // Ordinata per ID, per fondere le modifiche con i record nelle pagine
+        private final NavigableMap<Long, ProductResponseDto> updated = new ConcurrentSkipListMap<>();
+        private final Map<String, Long> updatedSlugs = new ConcurrentHashMap<>();
+        private final Set<Long> removed = ConcurrentHashMap.newKeySet();
+        // Stato del job (letto e scritto solo dal thread dello scheduler)
+        private long version;
+        private long retryUntil;
+        private String cursor;
+
+        LoadedStore(OffHeapProductStore store, long version, String cursor) {
+            this.store = store;
+            this.version = version;
+            this.cursor = cursor;
+        }
+
+        OffHeapProductStore store() {
+            return store;
+        }
+
+        NavigableMap<Long, ProductResponseDto> updated() {
+            return updated;
+        }
+
+        Map<String, Long> updatedSlugs() {
+            return updatedSlugs;
+        }
+
+        Set<Long> removed() {
+            return removed;
+        }
+
+        long version() {
+            return version;
+        }
+
+        boolean isOverridden(long id) {
+            return updated.containsKey(id) || removed.contains(id);
+        }
+    }
+}
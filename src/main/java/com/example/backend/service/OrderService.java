@@ -1,24 +1,34 @@
 package com.example.backend.service;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.example.backend.dto.OrderStatusEventDto;
 import com.example.backend.model.Cart;
 import com.example.backend.model.CartItem;
 import com.example.backend.model.Order;
 import com.example.backend.model.OrderItem;
 import com.example.backend.model.Product;
 import com.example.backend.model.User;
+import com.example.backend.repository.CartRepository;
+import com.example.backend.repository.OrderItemRepository;
 import com.example.backend.repository.OrderRepository;
 import com.example.backend.repository.ProductRepository;
 import com.example.backend.repository.UserRepository;
+import com.example.backend.repository.projection.CartLineView;
+import com.example.backend.repository.projection.OrderLineView;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -33,6 +43,14 @@ public class OrderService {
     private final UserRepository userRepository;
     private final ProductRepository productRepository;
     private final CartService cartService;
+    private final StockHoldService stockHoldService;
+    private final FrequentlyBoughtTogetherService frequentlyBoughtTogetherService;
+    private final BestSellerService bestSellerService;
+    private final OutboxService outboxService;
+    private final OrderStateMachine orderStateMachine;
+    private final OrderStatusHistoryService orderStatusHistoryService;
+    private final OrderItemRepository orderItemRepository;
+    private final CartRepository cartRepository;
     
     /**
      * Crea un nuovo ordine dal carrello dell'utente
@@ -40,6 +58,9 @@ public class OrderService {
     public Order createOrderFromCart(Long userId, Long shippingAddressId, String notes) {
         log.info("Creazione ordine dal carrello per utente: {}", userId);
         
+        // Prima di ogni lettura: lo snapshot della transazione deve includere le modifiche ancora in cache
+        cartService.flushCachedCart(userId);
+        
         // Verifica utente
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("Utente non trovato: " + userId));
@@ -59,8 +80,8 @@ public class OrderService {
         for (CartItem cartItem : cart.getItems()) {
             Product product = cartItem.getProduct();
             
-            // Verifica stock disponibile
-            if (product.getStockQty() < cartItem.getQuantity()) {
+            // Verifica stock disponibile (al netto delle unità prenotate da altri carrelli)
+            if (stockHoldService.availableFor(product.getId(), userId, product.getStockQty()) < cartItem.getQuantity()) {
                 throw new RuntimeException("Stock insufficiente per il prodotto: " + product.getName());
             }
             
@@ -110,8 +131,20 @@ public class OrderService {
                     product.getStockQty());
         }
         
+        // Eventi per i sottoscrittori dell'outbox, nella stessa transazione dell'ordine
+        Map<Long, Integer> quantities = quantitiesByProduct(orderItems);
+        outboxService.recordOrderCreated(savedOrder.getId(), userId, totalAmount, quantities);
+        outboxService.recordStockChanges(negate(quantities), "ORDER", savedOrder.getId());
+        orderStatusHistoryService.record(savedOrder.getId(), null, Order.OrderStatus.PENDING, "Ordine creato");
+        
         // Marca carrello come checked out
         cartService.markCartAsCheckedOut(userId);
+        stockHoldService.releaseAllAfterCommit(userId);
+        
+        // Aggiorna le co-occorrenze per le raccomandazioni dopo il commit
+        frequentlyBoughtTogetherService.recordOrderAfterCommit(savedOrder.getId(),
+                orderItems.stream().map(item -> item.getProduct().getId()).toList());
+        bestSellerService.recordSaleAfterCommit(savedOrder.getId(), savedOrder.getCreatedAt(), quantities);
         
         log.info("Ordine {} creato con successo per utente {}", savedOrder.getId(), userId);
         return orderRepository.save(savedOrder);
@@ -163,31 +196,16 @@ public class OrderService {
     }
     
     /**
-     * Aggiorna lo stato di un ordine
+     * Aggiorna lo stato di un ordine (da uno qualsiasi degli stati che ammettono il passaggio)
      */
     public Order updateOrderStatus(Long orderId, Order.OrderStatus newStatus, String statusNote) {
         log.info("Aggiornamento stato ordine {} a: {}", orderId, newStatus);
         
-        Order order = orderRepository.findById(orderId)
-                .orElseThrow(() -> new RuntimeException("Ordine non trovato: " + orderId));
-        
-        Order.OrderStatus oldStatus = order.getStatus();
-        order.setStatus(newStatus);
-        
-        if (statusNote != null && !statusNote.trim().isEmpty()) {
-            String currentNotes = order.getNotes() != null ? order.getNotes() : "";
-            order.setNotes(currentNotes + "\n[" + java.time.LocalDateTime.now() + "] " + statusNote);
-        }
-        
-        // Se ordine viene cancellato, ripristina stock
-        if (newStatus == Order.OrderStatus.CANCELLED && oldStatus != Order.OrderStatus.CANCELLED) {
-            restoreStockForOrder(order);
+        Set<Order.OrderStatus> sources = orderStateMachine.allowedSources(newStatus);
+        if (sources.isEmpty()) {
+            throw new RuntimeException("Impossibile portare un ordine allo stato: " + newStatus);
         }
-        
-        Order savedOrder = orderRepository.save(order);
-        log.info("Stato ordine {} aggiornato da {} a {}", orderId, oldStatus, newStatus);
-        
-        return savedOrder;
+        return applyTransition(orderId, sources, newStatus, null, "portare a " + newStatus + " un", statusNote);
     }
     
     /**
@@ -195,15 +213,8 @@ public class OrderService {
      */
     public Order cancelOrder(Long orderId, String reason) {
         log.info("Cancellazione ordine: {}", orderId);
-        
-        Order order = orderRepository.findById(orderId)
-                .orElseThrow(() -> new RuntimeException("Ordine non trovato: " + orderId));
-        
-        if (order.getStatus() != Order.OrderStatus.PENDING) {
-            throw new RuntimeException("Impossibile cancellare ordine in stato: " + order.getStatus());
-        }
-        
-        return updateOrderStatus(orderId, Order.OrderStatus.CANCELLED, "Ordine cancellato: " + reason);
+        return applyTransition(orderId, EnumSet.of(Order.OrderStatus.PENDING), Order.OrderStatus.CANCELLED, null,
+                "cancellare", "Ordine cancellato: " + reason);
     }
     
     /**
@@ -211,15 +222,8 @@ public class OrderService {
      */
     public Order confirmOrder(Long orderId) {
         log.info("Conferma ordine: {}", orderId);
-        
-        Order order = orderRepository.findById(orderId)
-                .orElseThrow(() -> new RuntimeException("Ordine non trovato: " + orderId));
-        
-        if (order.getStatus() != Order.OrderStatus.PENDING) {
-            throw new RuntimeException("Impossibile confermare ordine in stato: " + order.getStatus());
-        }
-        
-        return updateOrderStatus(orderId, Order.OrderStatus.CONFIRMED, "Ordine confermato");
+        return applyTransition(orderId, EnumSet.of(Order.OrderStatus.PENDING), Order.OrderStatus.CONFIRMED, null,
+                "confermare", "Ordine confermato");
     }
     
     /**
@@ -227,16 +231,8 @@ public class OrderService {
      */
     public Order shipOrder(Long orderId, String trackingNumber) {
         log.info("Spedizione ordine: {} con tracking: {}", orderId, trackingNumber);
-        
-        Order order = orderRepository.findById(orderId)
-                .orElseThrow(() -> new RuntimeException("Ordine non trovato: " + orderId));
-        
-        if (order.getStatus() != Order.OrderStatus.CONFIRMED) {
-            throw new RuntimeException("Impossibile spedire ordine in stato: " + order.getStatus());
-        }
-        
-        order.setTrackingNumber(trackingNumber);
-        return updateOrderStatus(orderId, Order.OrderStatus.SHIPPED, "Ordine spedito - Tracking: " + trackingNumber);
+        return applyTransition(orderId, EnumSet.of(Order.OrderStatus.CONFIRMED), Order.OrderStatus.SHIPPED, trackingNumber,
+                "spedire", "Ordine spedito - Tracking: " + trackingNumber);
     }
     
     /**
@@ -244,35 +240,102 @@ public class OrderService {
      */
     public Order deliverOrder(Long orderId) {
         log.info("Consegna ordine: {}", orderId);
+        return applyTransition(orderId, EnumSet.of(Order.OrderStatus.SHIPPED), Order.OrderStatus.DELIVERED, null,
+                "consegnare", "Ordine consegnato");
+    }
+    
+    /**
+     * Ottiene lo storico dei passaggi di stato di un ordine (vuoto se l'ordine non esiste)
+     */
+    @Transactional(readOnly = true)
+    public Optional<List<OrderStatusEventDto>> getOrderStatusHistory(Long orderId) {
+        log.info("Ricerca storico stati per ordine: {}", orderId);
+        return orderStatusHistoryService.getHistory(orderId);
+    }
+    
+    /**
+     * Esegue il passaggio di stato con un UPDATE condizionale (la nota va nello storico)
+     * e legge l'ordine solo per la risposta
+     */
+    private Order applyTransition(Long orderId, Set<Order.OrderStatus> from, Order.OrderStatus to,
+                                  String trackingNumber, String action, String statusNote) {
+        orderStateMachine.transition(orderId, from, to, trackingNumber, statusNote, action);
+        
+        // Il passaggio a CANCELLED avviene una sola volta: lo stock viene ripristinato una sola volta
+        if (to == Order.OrderStatus.CANCELLED) {
+            restoreStockForOrder(orderId);
+        }
         
-        Order order = orderRepository.findById(orderId)
+        return orderRepository.findByIdWithItems(orderId)
                 .orElseThrow(() -> new RuntimeException("Ordine non trovato: " + orderId));
+    }
+    
+    /**
+     * Ripristina lo stock per un ordine cancellato
+     */
+    private void restoreStockForOrder(Long orderId) {
+        log.info("Ripristino stock per ordine cancellato: {}", orderId);
+        
+        List<OrderLineView> lines = orderItemRepository.findLinesByOrderId(orderId);
+        if (lines.isEmpty()) {
+            restoreStockFromCart(orderId);
+            return;
+        }
+        productRepository.restoreStockForOrder(orderId, LocalDateTime.now());
         
-        if (order.getStatus() != Order.OrderStatus.SHIPPED) {
-            throw new RuntimeException("Impossibile consegnare ordine in stato: " + order.getStatus());
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        for (OrderLineView line : lines) {
+            quantities.merge(line.productId(), line.quantity(), Integer::sum);
         }
+        log.info("Stock ripristinato per ordine {}: {}", orderId, quantities);
+        outboxService.recordStockChanges(quantities, "ORDER_CANCELLED", orderId);
         
-        return updateOrderStatus(orderId, Order.OrderStatus.DELIVERED, "Ordine consegnato");
+        // Storna le quantità dalle classifiche dei più venduti
+        bestSellerService.recordCancellationAfterCommit(orderId, lines.get(0).orderCreatedAt(), quantities);
     }
     
     /**
-     * Ripristina lo stock per un ordine cancellato
+     * Ordine del checkout asincrono cancellato prima che la pipeline creasse le righe:
+     * lo stock era già riservato all'accettazione, quindi si restituiscono le quantità del carrello
+     * (la pipeline troverà l'ordine non più PENDING e non creerà le righe)
      */
-    private void restoreStockForOrder(Order order) {
-        log.info("Ripristino stock per ordine cancellato: {}", order.getId());
+    private void restoreStockFromCart(Long orderId) {
+        Long cartId = orderRepository.findCartIdById(orderId).orElse(null);
+        if (cartId == null) {
+            return;
+        }
+        List<CartLineView> lines = cartRepository.findLinesByCartId(cartId);
+        if (lines.isEmpty()) {
+            return;
+        }
+        productRepository.restoreStockForCart(cartId, LocalDateTime.now());
         
-        if (order.getItems() != null) {
-            for (OrderItem orderItem : order.getItems()) {
-                Product product = orderItem.getProduct();
-                product.setStockQty(product.getStockQty() + orderItem.getQuantity());
-                productRepository.save(product);
-                
-                log.info("Stock ripristinato per prodotto {}: +{} = {}", 
-                        product.getName(), 
-                        orderItem.getQuantity(), 
-                        product.getStockQty());
-            }
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        for (CartLineView line : lines) {
+            quantities.merge(line.productId(), line.quantity(), Integer::sum);
+        }
+        log.info("Stock ripristinato dal carrello {} per ordine {}: {}", cartId, orderId, quantities);
+        outboxService.recordStockChanges(quantities, "ORDER_CANCELLED", orderId);
+    }
+    
+    /**
+     * Somma le quantità delle righe d'ordine per prodotto
+     */
+    private Map<Long, Integer> quantitiesByProduct(List<OrderItem> orderItems) {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        for (OrderItem orderItem : orderItems) {
+            quantities.merge(orderItem.getProduct().getId(), orderItem.getQuantity(), Integer::sum);
         }
+        return quantities;
+    }
+    
+    /**
+     * Quantità con segno invertito (scarico dello stock)
+     */
+    private Map<Long, Integer> negate(Map<Long, Integer> quantities) {
+        Map<Long, Integer> negated = new LinkedHashMap<>();
+        quantities.forEach((productId, quantity) -> negated.put(productId, -quantity));
+        return negated;
     }
     
     /**
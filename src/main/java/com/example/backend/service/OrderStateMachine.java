@@ -0,0 +1,128 @@
+package com.example.backend.service;
+
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.backend.model.Order.OrderStatus;
+import com.example.backend.repository.OrderRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Passaggi di stato degli ordini: il passaggio è un UPDATE condizionale sullo stato di partenza
+ * ({@code WHERE id = ? AND status IN (...)}) e il numero di righe modificate dice se è stato applicato,
+ * quindi due richieste concorrenti non possono applicare entrambe un passaggio dallo stesso stato.
+ * Lo stato attuale si legge ({@code SELECT status ... FOR UPDATE}) solo per spiegare un rifiuto
+ * o, prima dell'UPDATE, quando gli stati di partenza ammessi sono più d'uno e serve quello reale
+ * per l'outbox e lo storico.
+ * Un ordine del checkout asincrono ancora senza righe può solo essere cancellato o fallire.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OrderStateMachine {
+
+    // Stati di partenza ammessi per ogni stato di arrivo (PENDING è solo iniziale)
+    private static final Map<OrderStatus, EnumSet<OrderStatus>> SOURCES = new EnumMap<>(OrderStatus.class);
+
+    // Stati raggiungibili anche prima che il checkout asincrono abbia creato le righe
+    private static final Set<OrderStatus> ALLOWED_WITHOUT_ITEMS = EnumSet.of(OrderStatus.CANCELLED, OrderStatus.FAILED);
+
+    static {
+        SOURCES.put(OrderStatus.PENDING, EnumSet.noneOf(OrderStatus.class));
+        SOURCES.put(OrderStatus.CONFIRMED, EnumSet.of(OrderStatus.PENDING, OrderStatus.PAID));
+        SOURCES.put(OrderStatus.PAID, EnumSet.of(OrderStatus.PENDING, OrderStatus.CONFIRMED));
+        SOURCES.put(OrderStatus.CANCELLED, EnumSet.of(OrderStatus.PENDING, OrderStatus.CONFIRMED, OrderStatus.PAID));
+        SOURCES.put(OrderStatus.FAILED, EnumSet.of(OrderStatus.PENDING));
+        SOURCES.put(OrderStatus.SHIPPED, EnumSet.of(OrderStatus.CONFIRMED, OrderStatus.PAID));
+        SOURCES.put(OrderStatus.DELIVERED, EnumSet.of(OrderStatus.SHIPPED));
+        SOURCES.put(OrderStatus.COMPLETED, EnumSet.of(OrderStatus.DELIVERED));
+        SOURCES.put(OrderStatus.REFUNDED, EnumSet.of(OrderStatus.PAID, OrderStatus.SHIPPED,
+                OrderStatus.DELIVERED, OrderStatus.COMPLETED));
+    }
+
+    private final OrderRepository orderRepository;
+    private final OutboxService outboxService;
+    private final OrderStatusHistoryService orderStatusHistoryService;
+
+    /**
+     * Stati da cui è ammesso il passaggio allo stato indicato
+     */
+    public Set<OrderStatus> allowedSources(OrderStatus target) {
+        return EnumSet.copyOf(SOURCES.get(target));
+    }
+
+    /**
+     * Tenta il passaggio di stato e lo registra nello storico con la nota indicata;
+     * restituisce false se l'ordine non esiste, non è in uno degli stati indicati
+     * o è un ordine asincrono ancora in elaborazione
+     * @throws IllegalArgumentException se uno degli stati di partenza non ammette il passaggio
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean tryTransition(Long orderId, Set<OrderStatus> from, OrderStatus to, String trackingNumber, String note) {
+        return attempt(orderId, from, to, trackingNumber, note).applied();
+    }
+
+    /**
+     * Esegue il passaggio di stato o lo rifiuta con il motivo ({@code action} descrive l'operazione)
+     * @throws RuntimeException se l'ordine non esiste, non è in uno degli stati indicati o è ancora in elaborazione
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void transition(Long orderId, Set<OrderStatus> from, OrderStatus to, String trackingNumber,
+                           String note, String action) {
+        Attempt result = attempt(orderId, from, to, trackingNumber, note);
+        if (result.applied()) {
+            return;
+        }
+        if (result.current() == null) {
+            throw new RuntimeException("Ordine non trovato: " + orderId);
+        }
+        if (from.contains(result.current())) {
+            throw new RuntimeException("Impossibile " + action + " ordine: checkout ancora in elaborazione");
+        }
+        throw new RuntimeException("Impossibile " + action + " ordine in stato: " + result.current());
+    }
+
+    private Attempt attempt(Long orderId, Set<OrderStatus> from, OrderStatus to, String trackingNumber, String note) {
+        if (from.isEmpty() || !SOURCES.get(to).containsAll(from)) {
+            throw new IllegalArgumentException("Passaggio di stato non ammesso: " + from + " -> " + to);
+        }
+        OrderStatus current;
+        if (from.size() == 1) {
+            // Un solo stato di partenza: se l'UPDATE condizionale modifica la riga, lo stato di partenza è quello
+            current = from.iterator().next();
+        } else {
+            // Più stati di partenza: serve quello reale per outbox e storico, letto con il lock sulla riga
+            Optional<OrderStatus> locked = lockedStatus(orderId);
+            if (locked.isEmpty() || !from.contains(locked.get())) {
+                return new Attempt(false, locked.orElse(null));
+            }
+            current = locked.get();
+        }
+        boolean requireItems = !ALLOWED_WITHOUT_ITEMS.contains(to);
+        if (orderRepository.transition(orderId, EnumSet.of(current), to, trackingNumber, requireItems,
+                LocalDateTime.now()) == 0) {
+            // Lo stato si legge solo per spiegare il rifiuto
+            return new Attempt(false, lockedStatus(orderId).orElse(null));
+        }
+        outboxService.recordOrderStatusChanged(orderId, current, to);
+        orderStatusHistoryService.record(orderId, current, to, note);
+        log.info("Ordine {} passato da {} a {}", orderId, current, to);
+        return new Attempt(true, current);
+    }
+
+    private Optional<OrderStatus> lockedStatus(Long orderId) {
+        return orderRepository.lockStatusById(orderId).map(OrderStatus::valueOf);
+    }
+
+    private record Attempt(boolean applied, OrderStatus current) {}
+}
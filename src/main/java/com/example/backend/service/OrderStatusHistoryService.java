@@ -0,0 +1,134 @@
+package com.example.backend.service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.backend.dto.OrderStatusEventDto;
+import com.example.backend.model.Order;
+import com.example.backend.repository.OrderRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Storico dei passaggi di stato degli ordini nella tabella {@code order_status_events}.
+ * Gli eventi di una transazione vengono accumulati e inseriti con un solo batch prima del commit,
+ * così la riga dell'ordine resta a dimensione fissa e il passaggio aggiorna solo lo stato.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OrderStatusHistoryService {
+
+    private static final int MAX_NOTE_LENGTH = 500;
+
+    private static final String INSERT_EVENT_SQL =
+            "INSERT INTO order_status_events (order_id, from_status, to_status, note, created_at) VALUES (?, ?, ?, ?, ?)";
+    private static final String HISTORY_SQL =
+            "SELECT id, from_status, to_status, note, created_at FROM order_status_events WHERE order_id = ? ORDER BY id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final OrderRepository orderRepository;
+
+    /**
+     * Registra un passaggio di stato nella transazione corrente ({@code from} nullo alla creazione)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(Long orderId, Order.OrderStatus from, Order.OrderStatus to, String note) {
+        currentBuffer().events.add(new PendingEvent(orderId, from != null ? from.name() : null, to.name(),
+                truncate(note), Timestamp.valueOf(LocalDateTime.now())));
+    }
+
+    /**
+     * Storico di un ordine in ordine cronologico (vuoto se l'ordine non esiste)
+     */
+    @Transactional(readOnly = true)
+    public Optional<List<OrderStatusEventDto>> getHistory(Long orderId) {
+        if (!orderRepository.existsById(orderId)) {
+            return Optional.empty();
+        }
+        return Optional.of(jdbcTemplate.query(HISTORY_SQL, (rs, rowNum) -> new OrderStatusEventDto(
+                rs.getLong("id"),
+                rs.getString("from_status"),
+                rs.getString("to_status"),
+                rs.getString("note"),
+                rs.getTimestamp("created_at").toLocalDateTime()), orderId));
+    }
+
+    // Un buffer per transazione, registrato tra le sincronizzazioni (quelle delle transazioni sospese non sono visibili)
+    private HistoryBuffer currentBuffer() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof HistoryBuffer buffer) {
+                return buffer;
+            }
+        }
+        HistoryBuffer buffer = new HistoryBuffer();
+        TransactionSynchronizationManager.registerSynchronization(buffer);
+        return buffer;
+    }
+
+    private void insertBatch(List<PendingEvent> events) {
+        jdbcTemplate.batchUpdate(INSERT_EVENT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement statement, int i) throws SQLException {
+                PendingEvent event = events.get(i);
+                statement.setLong(1, event.orderId());
+                if (event.fromStatus() != null) {
+                    statement.setString(2, event.fromStatus());
+                } else {
+                    statement.setNull(2, Types.VARCHAR);
+                }
+                statement.setString(3, event.toStatus());
+                if (event.note() != null) {
+                    statement.setString(4, event.note());
+                } else {
+                    statement.setNull(4, Types.VARCHAR);
+                }
+                statement.setTimestamp(5, event.createdAt());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return events.size();
+            }
+        });
+        log.debug("Registrati {} passaggi di stato degli ordini", events.size());
+    }
+
+    private static String truncate(String note) {
+        if (note == null || note.isBlank()) {
+            return null;
+        }
+        String trimmed = note.trim();
+        return trimmed.length() > MAX_NOTE_LENGTH ? trimmed.substring(0, MAX_NOTE_LENGTH) : trimmed;
+    }
+
+    private record PendingEvent(Long orderId, String fromStatus, String toStatus, String note, Timestamp createdAt) {}
+
+    // Inserisce gli eventi accumulati prima del commit, ancora dentro la transazione della modifica di stato
+    private final class HistoryBuffer implements TransactionSynchronization {
+
+        private final List<PendingEvent> events = new ArrayList<>();
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            if (!events.isEmpty()) {
+                insertBatch(events);
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.backend.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.model.OutboxEvent;
+import com.example.backend.repository.OutboxEventRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Relay dell'outbox: preleva a blocchi il primo evento in attesa di ogni aggregato
+ * ({@code FOR UPDATE SKIP LOCKED}, così più istanze non si contendono le stesse righe),
+ * lo assegna con un lease e lo consegna ai sottoscrittori fuori dalla transazione.
+ * Un evento è segnato come consegnato solo dopo che tutti i sottoscrittori lo hanno gestito;
+ * in caso di errore o di crash viene ripetuto (almeno una volta) e blocca i successivi
+ * dello stesso aggregato, che restano così in ordine.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxRelayService {
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final List<OutboxSubscriber> subscribers;
+    private final PlatformTransactionManager transactionManager;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${outbox.relay.enabled:true}")
+    private boolean enabled;
+
+    @Value("${outbox.relay.batch-size:100}")
+    private int batchSize;
+
+    @Value("${outbox.relay.max-batches-per-run:50}")
+    private int maxBatchesPerRun;
+
+    // Tempo concesso ai sottoscrittori prima che l'evento torni disponibile per un'altra istanza
+    @Value("${outbox.relay.lease-ms:60000}")
+    private long leaseMs;
+
+    @Value("${outbox.relay.retry-backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    @Value("${outbox.relay.max-backoff-ms:300000}")
+    private long maxBackoffMs;
+
+    @Value("${outbox.retention-hours:72}")
+    private long retentionHours;
+
+    @Value("${outbox.cleanup-batch-size:1000}")
+    private int cleanupBatchSize;
+
+    private final AtomicLong pendingEvents = new AtomicLong();
+    private final AtomicLong lagMillis = new AtomicLong();
+    private Counter publishedCounter;
+    private Counter failedCounter;
+    private Timer deliveryTimer;
+
+    @PostConstruct
+    public void registerMeters() {
+        meterRegistry.gauge("outbox.events.pending", pendingEvents);
+        // Età dell'evento in attesa più vecchio
+        meterRegistry.gauge("outbox.lag.ms", lagMillis);
+        publishedCounter = meterRegistry.counter("outbox.events.published");
+        failedCounter = meterRegistry.counter("outbox.events.failed");
+        deliveryTimer = Timer.builder("outbox.delivery.latency")
+                .description("Tempo tra la scrittura di un evento e la sua consegna")
+                .register(meterRegistry);
+        log.info("Relay dell'outbox con {} sottoscrittori", subscribers.size());
+    }
+
+    @Scheduled(fixedDelayString = "${outbox.relay.interval-ms:500}")
+    public void scheduledRelay() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            relay();
+        } catch (Exception e) {
+            log.error("Errore durante la consegna degli eventi dell'outbox: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Consegna gli eventi disponibili fino a {@code outbox.relay.max-batches-per-run} blocchi.
+     * Restituisce il numero di eventi consegnati.
+     */
+    public int relay() {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        int delivered = 0;
+        try {
+            for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+                List<OutboxEvent> claimed = template.execute(status -> claimBatch());
+                if (claimed == null || claimed.isEmpty()) {
+                    break;
+                }
+                delivered += dispatch(claimed, template);
+            }
+        } finally {
+            refreshLag();
+        }
+        return delivered;
+    }
+
+    // Transazione breve: le righe restano bloccate solo il tempo di assegnare il lease
+    private List<OutboxEvent> claimBatch() {
+        LocalDateTime now = LocalDateTime.now();
+        List<OutboxEvent> events = outboxEventRepository.lockNextBatch(now, batchSize);
+        LocalDateTime leaseUntil = now.plus(Duration.ofMillis(leaseMs));
+        for (OutboxEvent event : events) {
+            event.setAttempts(event.getAttempts() + 1);
+            event.setNextAttemptAt(leaseUntil);
+        }
+        return events;
+    }
+
+    // Nel blocco c'è al massimo un evento per aggregato: gli errori non alterano l'ordine degli altri
+    private int dispatch(List<OutboxEvent> events, TransactionTemplate template) {
+        List<Long> delivered = new ArrayList<>(events.size());
+        List<LocalDateTime> createdAt = new ArrayList<>(events.size());
+        List<OutboxEvent> failed = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        for (OutboxEvent event : events) {
+            try {
+                for (OutboxSubscriber subscriber : subscribers) {
+                    if (subscriber.accepts(event)) {
+                        subscriber.handle(event);
+                    }
+                }
+                delivered.add(event.getId());
+                createdAt.add(event.getCreatedAt());
+            } catch (Exception e) {
+                log.warn("Consegna dell'evento {} fallita (tentativo {}): {}", event, event.getAttempts(), e.getMessage());
+                failed.add(event);
+                errors.add(e.getMessage());
+            }
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        template.executeWithoutResult(status -> {
+            if (!delivered.isEmpty()) {
+                outboxEventRepository.markPublished(delivered, now);
+            }
+            for (int i = 0; i < failed.size(); i++) {
+                OutboxEvent event = failed.get(i);
+                outboxEventRepository.markFailed(event.getId(), now.plus(backoff(event.getAttempts())),
+                        truncate(errors.get(i)));
+            }
+        });
+
+        for (LocalDateTime created : createdAt) {
+            deliveryTimer.record(Duration.between(created, now));
+        }
+        publishedCounter.increment(delivered.size());
+        failedCounter.increment(failed.size());
+        return delivered.size();
+    }
+
+    // Backoff esponenziale con tetto massimo
+    private Duration backoff(int attempts) {
+        long delay = retryBackoffMs << Math.min(Math.max(attempts - 1, 0), 20);
+        return Duration.ofMillis(Math.min(delay, maxBackoffMs));
+    }
+
+    private void refreshLag() {
+        pendingEvents.set(outboxEventRepository.countByPublishedAtIsNull());
+        LocalDateTime oldest = outboxEventRepository.findOldestPendingCreatedAt();
+        lagMillis.set(oldest != null ? Math.max(0, Duration.between(oldest, LocalDateTime.now()).toMillis()) : 0);
+    }
+
+    @Scheduled(cron = "${outbox.cleanup-cron:0 15 3 * * *}")
+    public void scheduledCleanup() {
+        try {
+            cleanup();
+        } catch (Exception e) {
+            log.error("Errore durante la pulizia dell'outbox: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Elimina a blocchi gli eventi consegnati da più di {@code outbox.retention-hours} ore
+     */
+    public long cleanup() {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(retentionHours);
+        long deleted = 0;
+        while (true) {
+            Integer rows = template.execute(status -> outboxEventRepository.deletePublishedBefore(cutoff, cleanupBatchSize));
+            if (rows == null || rows == 0) {
+                break;
+            }
+            deleted += rows;
+            if (rows < cleanupBatchSize) {
+                break;
+            }
+        }
+        log.info("Pulizia dell'outbox: {} eventi consegnati eliminati (soglia {})", deleted, cutoff);
+        return deleted;
+    }
+
+    private static String truncate(String message) {
+        if (message == null) {
+            return null;
+        }
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+}
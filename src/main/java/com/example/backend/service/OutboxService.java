@@ -0,0 +1,106 @@
+package com.example.backend.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.backend.model.Order;
+import com.example.backend.model.OutboxEvent;
+import com.example.backend.model.Payment;
+import com.example.backend.repository.OutboxEventRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Scrittura degli eventi di dominio nell'outbox. Richiede una transazione attiva: l'evento
+ * viene salvato (o annullato) insieme alla modifica di stato che lo genera, senza chiamate
+ * sincrone ai sistemi esterni; la consegna è a carico di {@link OutboxRelayService}.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxService {
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Registra un evento per l'aggregato indicato nella transazione corrente
+     * @throws org.springframework.transaction.IllegalTransactionStateException se non c'è una transazione attiva
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public OutboxEvent record(String aggregateType, Long aggregateId, String eventType, Map<String, Object> payload) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Impossibile serializzare l'evento " + eventType + ": " + e.getMessage(), e);
+        }
+        OutboxEvent event = outboxEventRepository.save(
+                new OutboxEvent(aggregateType, aggregateId, eventType, json, LocalDateTime.now()));
+        log.debug("Evento {} registrato per {} {}", eventType, aggregateType, aggregateId);
+        return event;
+    }
+
+    /**
+     * Registra la creazione di un ordine con le quantità per prodotto
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordOrderCreated(Long orderId, Long userId, BigDecimal totalAmount, Map<Long, Integer> quantities) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("orderId", orderId);
+        payload.put("userId", userId);
+        payload.put("status", Order.OrderStatus.PENDING.name());
+        payload.put("totalAmount", totalAmount);
+        payload.put("quantities", quantities);
+        record(OutboxEvent.AGGREGATE_ORDER, orderId, OutboxEvent.ORDER_CREATED, payload);
+    }
+
+    /**
+     * Registra un cambio di stato di un ordine
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordOrderStatusChanged(Long orderId, Order.OrderStatus from, Order.OrderStatus to) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("orderId", orderId);
+        payload.put("from", from != null ? from.name() : null);
+        payload.put("to", to.name());
+        record(OutboxEvent.AGGREGATE_ORDER, orderId, OutboxEvent.ORDER_STATUS_CHANGED, payload);
+    }
+
+    /**
+     * Registra un cambio di stato di un pagamento ({@code from} nullo alla creazione)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordPaymentStatusChanged(Long paymentId, Long orderId, Payment.PaymentStatus from, Payment.PaymentStatus to) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("paymentId", paymentId);
+        payload.put("orderId", orderId);
+        payload.put("from", from != null ? from.name() : null);
+        payload.put("to", to.name());
+        record(OutboxEvent.AGGREGATE_PAYMENT, paymentId, OutboxEvent.PAYMENT_STATUS_CHANGED, payload);
+    }
+
+    /**
+     * Registra una variazione di stock per ogni prodotto (delta positivo = carico, negativo = scarico)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordStockChanges(Map<Long, Integer> deltas, String reason, Long orderId) {
+        deltas.forEach((productId, delta) -> {
+            Map<String, Object> payload = new LinkedHashMap<>();
+            payload.put("productId", productId);
+            payload.put("delta", delta);
+            payload.put("reason", reason);
+            payload.put("orderId", orderId);
+            record(OutboxEvent.AGGREGATE_PRODUCT, productId, OutboxEvent.STOCK_CHANGED, payload);
+        });
+    }
+}
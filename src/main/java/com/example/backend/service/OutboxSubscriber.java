@@ -0,0 +1,23 @@
+package com.example.backend.service;
+
+import com.example.backend.model.OutboxEvent;
+
+/**
+ * Destinatario in-process degli eventi dell'outbox (indicizzazione, cache, analytics, email).
+ * La consegna è almeno una volta: un'eccezione fa ripetere l'evento a tutti i sottoscrittori,
+ * quindi la gestione deve essere idempotente (es. usando l'ID dell'evento).
+ */
+public interface OutboxSubscriber {
+
+    /**
+     * Indica se il sottoscrittore è interessato all'evento
+     */
+    default boolean accepts(OutboxEvent event) {
+        return true;
+    }
+
+    /**
+     * Gestisce l'evento; viene chiamato nella transazione del relay, quindi deve essere breve
+     */
+    void handle(OutboxEvent event);
+}
@@ -0,0 +1,219 @@
+package com.example.backend.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.backend.dto.PriceQuoteDto;
+import com.example.backend.dto.PriceQuoteItemDto;
+import com.example.backend.dto.PriceQuoteLineDto;
+import com.example.backend.dto.PriceQuoteRequestDto;
+import com.example.backend.dto.ProductResponseDto;
+import com.example.backend.model.Cart;
+import com.example.backend.repository.CartRepository;
+import com.example.backend.repository.projection.CartLineView;
+import com.example.backend.util.MinorUnits;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Preventivo del carrello (subtotale, sconto, spedizione, IVA e totale) senza scritture:
+ * le righe arrivano dalla richiesta (prezzi dal catalogo, un solo multi-get) oppure dal carrello
+ * attuale (prezzi fissati all'aggiunta, come al checkout). Aliquota, spedizioni e coupon sono
+ * tabelle caricate una volta dalla configurazione e i calcoli sono in centesimi.
+ * <p>
+ * Il checkout addebita ancora il solo subtotale: sconto, spedizione, IVA e totale sono restituiti
+ * come stime e l'importo addebitato è esposto a parte ({@code chargeableAmount}).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PriceQuoteService {
+
+    private static final String DEFAULT_CURRENCY = "EUR";
+
+    private final ProductService productService;
+    private final CartCacheService cartCacheService;
+    private final CartRepository cartRepository;
+
+    @Value("${pricing.tax-rate-percent:22}")
+    private BigDecimal taxRatePercent;
+
+    @Value("${pricing.shipping.standard:5.90}")
+    private BigDecimal standardShipping;
+
+    @Value("${pricing.shipping.express:12.90}")
+    private BigDecimal expressShipping;
+
+    // Spedizione standard gratuita dal subtotale scontato indicato (0 = mai)
+    @Value("${pricing.shipping.free-threshold:50.00}")
+    private BigDecimal freeShippingThreshold;
+
+    // Formato: CODICE:TIPO:VALORE[:SUBTOTALE_MINIMO], separati da virgola (TIPO = PERCENT, AMOUNT, FREE_SHIPPING)
+    @Value("${pricing.coupons:}")
+    private String couponTable;
+
+    private long taxRateBasisPoints;
+    private long freeShippingThresholdMinor;
+    private Map<ShippingMethod, Long> shippingRates;
+    private Map<String, Coupon> coupons;
+
+    /**
+     * Tipo di sconto di un coupon
+     */
+    public enum CouponType {
+        PERCENT, AMOUNT, FREE_SHIPPING
+    }
+
+    /**
+     * Metodo di spedizione con la relativa tariffa
+     */
+    public enum ShippingMethod {
+        STANDARD, EXPRESS
+    }
+
+    @PostConstruct
+    public void loadTables() {
+        // Percentuale con due decimali = punti base (22 -> 2200)
+        taxRateBasisPoints = MinorUnits.of(taxRatePercent);
+        freeShippingThresholdMinor = MinorUnits.of(freeShippingThreshold);
+        shippingRates = Map.of(
+                ShippingMethod.STANDARD, MinorUnits.of(standardShipping),
+                ShippingMethod.EXPRESS, MinorUnits.of(expressShipping));
+
+        Map<String, Coupon> table = new LinkedHashMap<>();
+        for (String entry : couponTable.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.trim().split(":");
+            if (parts.length < 3) {
+                throw new IllegalArgumentException("Coupon non valido nella configurazione: " + entry);
+            }
+            CouponType type = CouponType.valueOf(parts[1].trim().toUpperCase(Locale.ROOT));
+            BigDecimal value = new BigDecimal(parts[2].trim());
+            long minSubtotal = parts.length > 3 ? MinorUnits.of(new BigDecimal(parts[3].trim())) : 0;
+            // PERCENT in punti base (10 -> 1000), AMOUNT in centesimi
+            table.put(parts[0].trim().toUpperCase(Locale.ROOT), new Coupon(type, MinorUnits.of(value), minSubtotal));
+        }
+        coupons = Map.copyOf(table);
+        log.info("Tabelle dei prezzi caricate: IVA {}%, {} coupon", taxRatePercent, coupons.size());
+    }
+
+    /**
+     * Calcola il preventivo per le righe indicate o, se assenti, per il carrello attuale dell'utente
+     * @throws IllegalArgumentException se il metodo di spedizione non è valido
+     * @throws RuntimeException se un prodotto non esiste o non è disponibile
+     */
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public PriceQuoteDto quote(Long userId, PriceQuoteRequestDto request) {
+        ShippingMethod shippingMethod = parseShippingMethod(request.getShippingMethod());
+        List<CartLineView> lines = request.getLines() != null && !request.getLines().isEmpty()
+                ? linesFromCatalog(request.getLines())
+                : currentCartLines(userId);
+
+        List<PriceQuoteItemDto> items = new ArrayList<>(lines.size());
+        long subtotal = 0;
+        int itemCount = 0;
+        for (CartLineView line : lines) {
+            long lineTotal = MinorUnits.of(line.unitPrice()) * line.quantity();
+            subtotal += lineTotal;
+            itemCount += line.quantity();
+            items.add(new PriceQuoteItemDto(line.productId(), line.productName(), line.quantity(),
+                    line.unitPrice(), MinorUnits.toDecimal(lineTotal)));
+        }
+
+        String couponCode = request.getCouponCode() != null && !request.getCouponCode().isBlank()
+                ? request.getCouponCode().trim().toUpperCase(Locale.ROOT) : null;
+        Coupon coupon = couponCode != null ? coupons.get(couponCode) : null;
+        String couponMessage = null;
+        if (couponCode != null && coupon == null) {
+            couponMessage = "Coupon non valido: " + request.getCouponCode();
+        } else if (coupon != null && subtotal < coupon.minSubtotalMinor()) {
+            couponMessage = "Il coupon richiede un subtotale di almeno " + MinorUnits.toDecimal(coupon.minSubtotalMinor());
+            coupon = null;
+        }
+
+        long discount = 0;
+        if (coupon != null && coupon.type() == CouponType.PERCENT) {
+            discount = (subtotal * coupon.value() + 5_000) / 10_000;
+        } else if (coupon != null && coupon.type() == CouponType.AMOUNT) {
+            discount = Math.min(coupon.value(), subtotal);
+        }
+        long discounted = subtotal - discount;
+
+        long shipping = 0;
+        boolean freeShipping = (coupon != null && coupon.type() == CouponType.FREE_SHIPPING)
+                || (shippingMethod == ShippingMethod.STANDARD && freeShippingThresholdMinor > 0
+                        && discounted >= freeShippingThresholdMinor);
+        if (!lines.isEmpty() && !freeShipping) {
+            shipping = shippingRates.get(shippingMethod);
+        }
+
+        // IVA su merce scontata e spedizione, arrotondata al centesimo
+        long tax = ((discounted + shipping) * taxRateBasisPoints + 5_000) / 10_000;
+        long total = discounted + shipping + tax;
+
+        return new PriceQuoteDto(items, itemCount,
+                MinorUnits.toDecimal(subtotal), MinorUnits.toDecimal(discount), MinorUnits.toDecimal(shipping),
+                MinorUnits.toDecimal(tax), MinorUnits.toDecimal(total), MinorUnits.toDecimal(subtotal), DEFAULT_CURRENCY,
+                shippingMethod.name(), couponCode, coupon != null, couponMessage);
+    }
+
+    // Prezzi correnti del catalogo con un solo multi-get (archivio fuori heap, poi database)
+    private List<CartLineView> linesFromCatalog(List<PriceQuoteLineDto> requested) {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        for (PriceQuoteLineDto line : requested) {
+            quantities.merge(line.getProductId(), line.getQuantity(), Integer::sum);
+        }
+        Map<Long, ProductResponseDto> products = productService.getProductResponsesByIds(quantities.keySet());
+
+        List<CartLineView> lines = new ArrayList<>(quantities.size());
+        quantities.forEach((productId, quantity) -> {
+            ProductResponseDto product = products.get(productId);
+            if (product == null) {
+                throw new RuntimeException("Prodotto non trovato: " + productId);
+            }
+            if (!Boolean.TRUE.equals(product.getIsActive())) {
+                throw new RuntimeException("Prodotto non disponibile: " + productId);
+            }
+            lines.add(new CartLineView(productId, product.getName(), quantity, product.getPrice()));
+        });
+        return lines;
+    }
+
+    // Carrello in cache se presente, altrimenti una sola query di sola lettura (nessun carrello creato)
+    private List<CartLineView> currentCartLines(Long userId) {
+        if (cartCacheService.isEnabled()) {
+            List<CartLineView> cached = cartCacheService.peek(userId, CartCacheService.CachedCart::getLines).orElse(null);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return cartRepository.findLinesByUserIdAndStatus(userId, Cart.CartStatus.OPEN);
+    }
+
+    private static ShippingMethod parseShippingMethod(String value) {
+        if (value == null || value.isBlank()) {
+            return ShippingMethod.STANDARD;
+        }
+        try {
+            return ShippingMethod.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Metodo di spedizione non valido: " + value
+                    + " (valori ammessi: STANDARD, EXPRESS)");
+        }
+    }
+
+    private record Coupon(CouponType type, long value, long minSubtotalMinor) {}
+}
@@ -0,0 +1,677 @@
+package com.example.backend.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.dto.ImportJobDto;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Import massivo di prodotti da CSV o NDJSON.
+ * Il file viene diviso in blocchi a fine riga, letti con letture posizionali e analizzati in parallelo;
+ * le righe valide sono deduplicate per slug e SKU e scritte con batch JDBC
+ * INSERT ... ON DUPLICATE KEY UPDATE (senza entity, senza flush per riga); nella stessa transazione
+ * ogni variazione di giacenza viene registrata nell'outbox.
+ * Il prodotto esistente è individuato dallo SKU: le righe il cui slug appartiene a un prodotto
+ * con un altro SKU vengono scartate, così l'upsert non aggiorna mai il prodotto sbagliato.
+ * Il CSV deve avere una riga di intestazione e non può contenere a capo dentro i campi.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductImportService {
+
+    // Colonne riconosciute (nomi normalizzati: minuscolo, senza '_' e '-')
+    private static final String[] COLUMNS = {
+            "name", "slug", "sku", "description", "price", "currency", "stockqty", "isactive", "imageurl"
+    };
+    private static final int NAME = 0, SLUG = 1, SKU = 2, DESCRIPTION = 3, PRICE = 4,
+            CURRENCY = 5, STOCK_QTY = 6, IS_ACTIVE = 7, IMAGE_URL = 8;
+
+    private static final BigDecimal MIN_PRICE = new BigDecimal("0.01");
+    private static final BigDecimal MAX_PRICE = new BigDecimal("99999999.99");
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO products (name, slug, sku, description, price, currency, stock_qty, is_active, image_url, " +
+            "created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE name = VALUES(name), slug = VALUES(slug), description = VALUES(description), price = VALUES(price), " +
+            "currency = VALUES(currency), stock_qty = VALUES(stock_qty), is_active = VALUES(is_active), " +
+            "image_url = VALUES(image_url), updated_at = VALUES(updated_at)";
+
+    private static final String SKUS_BY_SLUG_SQL =
+            "SELECT slug, sku FROM products WHERE slug IN (:slugs)";
+
+    private static final String LOCK_STOCK_BY_SKU_SQL =
+            "SELECT sku, stock_qty FROM products WHERE sku IN (:skus) FOR UPDATE";
+
+    private static final String IDS_BY_SKU_SQL =
+            "SELECT id, sku FROM products WHERE sku IN (:skus)";
+
+    private static final String TOUCH_UPDATED_AT_SQL =
+            "UPDATE products SET updated_at = :now WHERE id IN (:ids)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final CatalogVersionService catalogVersionService;
+    private final OutboxService outboxService;
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+
+    private ExecutorService jobExecutor;
+    private ExecutorService parserPool;
+    private int parserThreadCount;
+
+    @Value("${catalog.import.batch-size:2000}")
+    private int batchSize;
+
+    @Value("${catalog.import.chunk-size-bytes:4194304}")
+    private int chunkSizeBytes;
+
+    @Value("${catalog.import.parser-threads:0}")
+    private int parserThreads;
+
+    @Value("${catalog.import.max-reported-rejects:1000}")
+    private int maxReportedRejects;
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    @PostConstruct
+    public void startExecutors() {
+        parserThreadCount = parserThreads > 0 ? parserThreads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger parserIndex = new AtomicInteger();
+        parserPool = Executors.newFixedThreadPool(parserThreadCount, runnable -> {
+            Thread thread = new Thread(runnable, "product-import-parser-" + parserIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Un import alla volta: gli altri restano in coda
+        jobExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "product-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stopExecutors() {
+        jobExecutor.shutdownNow();
+        parserPool.shutdownNow();
+    }
+
+    /**
+     * Salva il contenuto su un file temporaneo e accoda l'import
+     * @return stato iniziale del job
+     */
+    public ImportJobDto startImport(Format format, InputStream content) throws IOException {
+        Path file = Files.createTempFile("product-import-", "." + format.name().toLowerCase(Locale.ROOT));
+        Files.copy(content, file, StandardCopyOption.REPLACE_EXISTING);
+
+        // I job conclusi restano consultabili per un giorno
+        LocalDateTime expiry = LocalDateTime.now().minusDays(1);
+        jobs.values().removeIf(existing -> existing.finishedAt != null && existing.finishedAt.isBefore(expiry));
+
+        ImportJob job = new ImportJob(UUID.randomUUID().toString(), format);
+        jobs.put(job.id, job);
+        jobExecutor.submit(() -> runImport(job, file));
+
+        log.info("Import prodotti {} accodato: job {} ({} byte)", format, job.id, Files.size(file));
+        return job.toDto();
+    }
+
+    /**
+     * Stato e avanzamento di un job di import
+     */
+    public Optional<ImportJobDto> getJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId)).map(ImportJob::toDto);
+    }
+
+    private void runImport(ImportJob job, Path file) {
+        job.status = "RUNNING";
+        job.startedAt = LocalDateTime.now();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            process(job, channel);
+            job.status = "COMPLETED";
+            log.info("Import {} completato: {} righe lette, {} importate, {} scartate in {} ms",
+                    job.id, job.rowsRead.get(), job.rowsImported.get(), job.rowsRejected.get(), job.elapsedMillis());
+        } catch (Exception e) {
+            job.status = "FAILED";
+            job.error = e.getMessage();
+            log.error("Errore durante l'import {}: {}", job.id, e.getMessage(), e);
+        } finally {
+            job.finishedAt = LocalDateTime.now();
+            if (job.rowsImported.get() > 0) {
+                catalogVersionService.bumpAfterCommit();
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Impossibile eliminare il file temporaneo {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private void process(ImportJob job, FileChannel channel) throws Exception {
+        long size = channel.size();
+        long position = 0;
+        int[] columnMapping = null;
+
+        if (job.format == Format.CSV) {
+            // L'intestazione definisce l'ordine delle colonne
+            long headerEnd = findLineEnd(channel, 0, size);
+            String header = readString(channel, 0, headerEnd);
+            columnMapping = mapCsvHeader(header);
+            position = headerEnd;
+        }
+
+        Set<String> seenSlugs = new HashSet<>();
+        Set<String> seenSkus = new HashSet<>();
+        List<ImportRow> batch = new ArrayList<>(batchSize);
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+
+        // Finestra di blocchi in analisi: il parsing procede in parallelo alla scrittura
+        // ma non si accumulano in memoria più di parserThreads * 2 blocchi
+        Queue<Future<ChunkResult>> inFlight = new ArrayDeque<>();
+        int window = Math.max(2, parserThreadCount * 2);
+        long lineBase = job.format == Format.CSV ? 1 : 0;
+        final int[] mapping = columnMapping;
+
+        while (position < size || !inFlight.isEmpty()) {
+            while (position < size && inFlight.size() < window) {
+                long end = findLineEnd(channel, Math.min(position + chunkSizeBytes, size), size);
+                long start = position;
+                inFlight.add(parserPool.submit(() -> parseChunk(channel, start, end, job.format, mapping)));
+                position = end;
+            }
+
+            ChunkResult chunk = awaitChunk(inFlight.poll());
+            for (ImportRow row : chunk.rows()) {
+                job.rowsRead.incrementAndGet();
+                long line = lineBase + row.line();
+                if (!seenSlugs.add(row.slug())) {
+                    job.reject(line, "Slug duplicato nel file: " + row.slug(), maxReportedRejects);
+                } else if (!seenSkus.add(row.sku())) {
+                    job.reject(line, "SKU duplicato nel file: " + row.sku(), maxReportedRejects);
+                } else {
+                    batch.add(row.withLine(line));
+                    if (batch.size() >= batchSize) {
+                        writeBatch(job, template, batch);
+                        batch.clear();
+                    }
+                }
+            }
+            for (Reject reject : chunk.rejects()) {
+                job.rowsRead.incrementAndGet();
+                job.reject(lineBase + reject.line(), reject.reason(), maxReportedRejects);
+            }
+            lineBase += chunk.lineCount();
+        }
+
+        if (!batch.isEmpty()) {
+            writeBatch(job, template, batch);
+        }
+    }
+
+    private ChunkResult parseChunk(FileChannel channel, long start, long end, Format format, int[] columnMapping)
+            throws IOException {
+        // Lettura su un buffer nell'heap: nessuna mappatura da rilasciare e memoria restituita al GC col blocco
+        String text = readString(channel, start, end);
+
+        List<ImportRow> rows = new ArrayList<>();
+        List<Reject> rejects = new ArrayList<>();
+        int lineCount = 0;
+        int lineStart = 0;
+        int length = text.length();
+
+        while (lineStart < length) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = length;
+            }
+            lineCount++;
+            int contentEnd = lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            if (contentEnd > lineStart) {
+                String line = text.substring(lineStart, contentEnd);
+                try {
+                    String[] values = format == Format.CSV ? parseCsvLine(line, columnMapping) : parseJsonLine(line);
+                    rows.add(validate(values, lineCount));
+                } catch (IllegalArgumentException e) {
+                    rejects.add(new Reject(lineCount, e.getMessage()));
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return new ChunkResult(rows, rejects, lineCount);
+    }
+
+    private String[] parseCsvLine(String line, int[] columnMapping) {
+        String[] values = new String[COLUMNS.length];
+        StringBuilder field = new StringBuilder();
+        int column = 0;
+        boolean quoted = false;
+
+        for (int i = 0; i <= line.length(); i++) {
+            char c = i < line.length() ? line.charAt(i) : ',';
+            if (quoted) {
+                if (i == line.length()) {
+                    throw new IllegalArgumentException("Virgolette non chiuse");
+                }
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                if (column < columnMapping.length && columnMapping[column] >= 0) {
+                    values[columnMapping[column]] = field.toString();
+                }
+                field.setLength(0);
+                column++;
+            } else {
+                field.append(c);
+            }
+        }
+        return values;
+    }
+
+    private String[] parseJsonLine(String line) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(line);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("JSON non valido");
+        }
+        if (node == null || !node.isObject()) {
+            throw new IllegalArgumentException("Ogni riga deve contenere un oggetto JSON");
+        }
+
+        String[] values = new String[COLUMNS.length];
+        for (Map.Entry<String, JsonNode> field : node.properties()) {
+            int index = columnIndex(field.getKey());
+            if (index >= 0 && !field.getValue().isNull()) {
+                values[index] = field.getValue().asText();
+            }
+        }
+        return values;
+    }
+
+    private ImportRow validate(String[] values, long line) {
+        String name = required(values[NAME], "name", 200);
+        String slug = required(values[SLUG], "slug", 220).toLowerCase(Locale.ROOT);
+        String sku = required(values[SKU], "sku", 100);
+        String description = blankToNull(values[DESCRIPTION]);
+
+        BigDecimal price;
+        try {
+            price = new BigDecimal(required(values[PRICE], "price", 20)).setScale(2, RoundingMode.HALF_UP);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Prezzo non valido: " + values[PRICE]);
+        }
+        if (price.compareTo(MIN_PRICE) < 0 || price.compareTo(MAX_PRICE) > 0) {
+            throw new IllegalArgumentException("Prezzo fuori intervallo: " + price);
+        }
+
+        String currency = blankToNull(values[CURRENCY]);
+        currency = currency == null ? "EUR" : currency.toUpperCase(Locale.ROOT);
+        if (currency.length() != 3) {
+            throw new IllegalArgumentException("Valuta non valida: " + currency);
+        }
+
+        int stockQty = 0;
+        if (blankToNull(values[STOCK_QTY]) != null) {
+            try {
+                stockQty = Integer.parseInt(values[STOCK_QTY].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Quantità non valida: " + values[STOCK_QTY]);
+            }
+            if (stockQty < 0) {
+                throw new IllegalArgumentException("La quantità non può essere negativa");
+            }
+        }
+
+        boolean active = true;
+        String activeValue = blankToNull(values[IS_ACTIVE]);
+        if (activeValue != null) {
+            active = switch (activeValue.toLowerCase(Locale.ROOT)) {
+                case "true", "1", "yes", "si", "sì" -> true;
+                case "false", "0", "no" -> false;
+                default -> throw new IllegalArgumentException("Valore is_active non valido: " + activeValue);
+            };
+        }
+
+        String imageUrl = blankToNull(values[IMAGE_URL]);
+        if (imageUrl != null && imageUrl.length() > 500) {
+            throw new IllegalArgumentException("L'URL dell'immagine non può superare i 500 caratteri");
+        }
+
+        return new ImportRow(line, name, slug, sku, description, price, currency, stockQty, active, imageUrl);
+    }
+
+    private void writeBatch(ImportJob job, TransactionTemplate template, List<ImportRow> rows) {
+        List<ImportRow> batch = rejectSlugConflicts(job, rows);
+        if (batch.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        try {
+            template.executeWithoutResult(status -> upsertAndRecord(batch, now));
+            job.rowsImported.addAndGet(batch.size());
+        } catch (DataAccessException e) {
+            // Il batch è stato annullato: si riprova riga per riga per isolare le righe in errore
+            log.warn("Batch di import fallito ({}), riprovo riga per riga", e.getMostSpecificCause().getMessage());
+            for (ImportRow row : batch) {
+                try {
+                    template.executeWithoutResult(status -> upsertAndRecord(List.of(row), now));
+                    job.rowsImported.incrementAndGet();
+                } catch (DataAccessException rowError) {
+                    job.reject(row.line(), rowError.getMostSpecificCause().getMessage(), maxReportedRejects);
+                }
+            }
+        }
+    }
+
+    /**
+     * Scrive le righe e registra nell'outbox la variazione di giacenza di ogni prodotto, nella transazione
+     * del chiamante: le giacenze precedenti sono lette con FOR UPDATE così la differenza resta esatta
+     * anche con ordini o sincronizzazioni concorrenti; i prodotti nuovi partono da zero
+     */
+    private void upsertAndRecord(List<ImportRow> rows, Timestamp now) {
+        List<String> skus = rows.stream().map(ImportRow::sku).toList();
+        Map<String, Integer> previousQty = new HashMap<>();
+        namedParameterJdbcTemplate.query(LOCK_STOCK_BY_SKU_SQL, Map.of("skus", skus),
+                rs -> {
+                    previousQty.put(rs.getString("sku").toLowerCase(Locale.ROOT), rs.getInt("stock_qty"));
+                });
+
+        jdbcTemplate.batchUpdate(UPSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement statement, int i) throws SQLException {
+                bind(statement, rows.get(i), now);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        });
+
+        Map<String, Long> idBySku = new HashMap<>();
+        namedParameterJdbcTemplate.query(IDS_BY_SKU_SQL, Map.of("skus", skus),
+                rs -> {
+                    idBySku.put(rs.getString("sku").toLowerCase(Locale.ROOT), rs.getLong("id"));
+                });
+
+        Map<Long, Integer> deltas = new LinkedHashMap<>();
+        for (ImportRow row : rows) {
+            String key = row.sku().toLowerCase(Locale.ROOT);
+            Long productId = idBySku.get(key);
+            int delta = row.stockQty() - previousQty.getOrDefault(key, 0);
+            if (productId != null && delta != 0) {
+                deltas.put(productId, delta);
+            }
+        }
+        outboxService.recordStockChanges(deltas, "IMPORT", null);
+
+        // Ultima istruzione della transazione: updated_at coincide con il commit, così il margine
+        // di sicurezza del feed delle modifiche deve coprire solo questa istruzione e non l'intero batch
+        if (!idBySku.isEmpty()) {
+            namedParameterJdbcTemplate.update(TOUCH_UPDATED_AT_SQL, new MapSqlParameterSource()
+                    .addValue("now", Timestamp.valueOf(LocalDateTime.now()))
+                    .addValue("ids", idBySku.values()));
+        }
+    }
+
+    /**
+     * Scarta le righe il cui slug appartiene già a un prodotto con un altro SKU: l'upsert troverebbe
+     * quel prodotto tramite lo slug e lo aggiornerebbe al posto di quello indicato dallo SKU
+     */
+    private List<ImportRow> rejectSlugConflicts(ImportJob job, List<ImportRow> rows) {
+        Map<String, String> skuBySlug = new HashMap<>();
+        namedParameterJdbcTemplate.query(SKUS_BY_SLUG_SQL,
+                Map.of("slugs", rows.stream().map(ImportRow::slug).toList()),
+                rs -> {
+                    skuBySlug.put(rs.getString("slug").toLowerCase(Locale.ROOT), rs.getString("sku"));
+                });
+
+        List<ImportRow> accepted = new ArrayList<>(rows.size());
+        for (ImportRow row : rows) {
+            String existingSku = skuBySlug.get(row.slug());
+            if (existingSku != null && !existingSku.equalsIgnoreCase(row.sku())) {
+                job.reject(row.line(), "Slug " + row.slug() + " già usato dal prodotto con SKU " + existingSku,
+                        maxReportedRejects);
+            } else {
+                accepted.add(row);
+            }
+        }
+        return accepted;
+    }
+
+    private static void bind(PreparedStatement statement, ImportRow row, Timestamp now) throws SQLException {
+        statement.setString(1, row.name());
+        statement.setString(2, row.slug());
+        statement.setString(3, row.sku());
+        if (row.description() != null) {
+            statement.setString(4, row.description());
+        } else {
+            statement.setNull(4, Types.LONGVARCHAR);
+        }
+        statement.setBigDecimal(5, row.price());
+        statement.setString(6, row.currency());
+        statement.setInt(7, row.stockQty());
+        statement.setBoolean(8, row.active());
+        if (row.imageUrl() != null) {
+            statement.setString(9, row.imageUrl());
+        } else {
+            statement.setNull(9, Types.VARCHAR);
+        }
+        statement.setTimestamp(10, now);
+        statement.setTimestamp(11, now);
+    }
+
+    private static int[] mapCsvHeader(String header) {
+        String[] names = header.replace("\r", "").replace("\uFEFF", "").split(",", -1);
+        int[] mapping = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            mapping[i] = columnIndex(names[i].replace("\"", ""));
+        }
+        for (int requiredColumn : new int[] {NAME, SLUG, SKU, PRICE}) {
+            if (Arrays.stream(mapping).noneMatch(index -> index == requiredColumn)) {
+                throw new IllegalArgumentException("Colonna obbligatoria mancante nell'intestazione: " + COLUMNS[requiredColumn]);
+            }
+        }
+        return mapping;
+    }
+
+    private static int columnIndex(String name) {
+        String normalized = name.trim().toLowerCase(Locale.ROOT).replace("_", "").replace("-", "");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(normalized)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Posizione subito dopo il primo '\n' a partire da from (o la fine del file)
+     */
+    private static long findLineEnd(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = from;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static String readString(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        // La lettura posizionale può restituire meno byte di quelli richiesti
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    private static String required(String value, String column, int maxLength) {
+        String trimmed = blankToNull(value);
+        if (trimmed == null) {
+            throw new IllegalArgumentException("Campo obbligatorio mancante: " + column);
+        }
+        if (trimmed.length() > maxLength) {
+            throw new IllegalArgumentException("Il campo " + column + " non può superare i " + maxLength + " caratteri");
+        }
+        return trimmed;
+    }
+
+    private static String blankToNull(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    private static ChunkResult awaitChunk(Future<ChunkResult> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private record ImportRow(long line, String name, String slug, String sku, String description, BigDecimal price,
+                             String currency, int stockQty, boolean active, String imageUrl) {
+
+        ImportRow withLine(long absoluteLine) {
+            return new ImportRow(absoluteLine, name, slug, sku, description, price, currency, stockQty, active, imageUrl);
+        }
+    }
+
+    private record Reject(long line, String reason) {}
+
+    private record ChunkResult(List<ImportRow> rows, List<Reject> rejects, int lineCount) {}
+
+    /**
+     * Stato di un job, aggiornato dal thread di import e letto dalle richieste di avanzamento
+     */
+    private static final class ImportJob {
+        private final String id;
+        private final Format format;
+        private final AtomicLong rowsRead = new AtomicLong();
+        private final AtomicLong rowsImported = new AtomicLong();
+        private final AtomicLong rowsRejected = new AtomicLong();
+        private final List<ImportJobDto.RejectDto> rejects = new ArrayList<>();
+        private volatile String status = "QUEUED";
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile String error;
+
+        private ImportJob(String id, Format format) {
+            this.id = id;
+            this.format = format;
+        }
+
+        void reject(long line, String reason, int maxReported) {
+            rowsRejected.incrementAndGet();
+            synchronized (rejects) {
+                if (rejects.size() < maxReported) {
+                    rejects.add(new ImportJobDto.RejectDto(line, reason));
+                }
+            }
+        }
+
+        long elapsedMillis() {
+            if (startedAt == null) {
+                return 0;
+            }
+            LocalDateTime end = finishedAt != null ? finishedAt : LocalDateTime.now();
+            return Duration.between(startedAt, end).toMillis();
+        }
+
+        ImportJobDto toDto() {
+            long elapsed = elapsedMillis();
+            long rowsPerSecond = elapsed > 0 ? rowsRead.get() * 1000 / elapsed : 0;
+            List<ImportJobDto.RejectDto> rejectsCopy;
+            synchronized (rejects) {
+                rejectsCopy = List.copyOf(rejects);
+            }
+            return new ImportJobDto(id, status, format.name(), rowsRead.get(), rowsImported.get(), rowsRejected.get(),
+                    rowsPerSecond, startedAt, finishedAt, error, rejectsCopy);
+        }
+    }
+}
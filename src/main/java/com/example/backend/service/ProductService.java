@@ -1,13 +1,23 @@
 package com.example.backend.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.example.backend.dto.ProductResponseDto;
+import com.example.backend.dto.ProductSummaryDto;
 import com.example.backend.model.Product;
 import com.example.backend.repository.ProductRepository;
+import com.example.backend.repository.projection.ProductVersion;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -19,6 +29,7 @@ import lombok.extern.slf4j.Slf4j;
 public class ProductService {
     
     private final ProductRepository productRepository;
+    private final OffHeapCatalogService offHeapCatalogService;
     
     /**
      * Ottiene tutti i prodotti dal database
@@ -53,6 +64,82 @@ public class ProductService {
         return products;
     }
     
+    /**
+     * Pagina di prodotti attivi come DTO in ordine di ID, dall'archivio fuori heap se attivo (senza transazione),
+     * altrimenti dal database con le categorie caricate
+     * @param afterId ID dell'ultimo prodotto della pagina precedente (0 per la prima pagina)
+     * @param limit Numero massimo di prodotti
+     * @return Lista di prodotti attivi con categorie
+     */
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public List<ProductResponseDto> getActiveProductResponses(long afterId, int limit) {
+        Optional<List<ProductResponseDto>> cached = offHeapCatalogService.findActivePage(afterId, limit);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        List<Long> ids = productRepository.findActiveIdsAfter(afterId, PageRequest.of(0, limit));
+        return getProductsByIdsWithCategories(ids).stream()
+                .sorted(Comparator.comparing(Product::getId))
+                .map(ProductResponseDto::new)
+                .toList();
+    }
+    
+    /**
+     * Prodotto come DTO per ID, dall'archivio fuori heap se presente; i prodotti non attivi
+     * (assenti dall'archivio) sono letti dal database con le categorie già caricate
+     * @param id ID del prodotto
+     * @return Optional contenente il prodotto se trovato
+     */
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public Optional<ProductResponseDto> getProductResponseById(Long id) {
+        Optional<ProductResponseDto> cached = offHeapCatalogService.findById(id);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        return getProductsByIdsWithCategories(List.of(id)).stream()
+                .findFirst()
+                .map(ProductResponseDto::new);
+    }
+    
+    /**
+     * Prodotti come DTO per ID: prima dall'archivio fuori heap, poi i mancanti con un'unica query
+     * @param ids ID dei prodotti
+     * @return Prodotti trovati indicizzati per ID
+     */
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public Map<Long, ProductResponseDto> getProductResponsesByIds(Collection<Long> ids) {
+        Map<Long, ProductResponseDto> products = new LinkedHashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : ids) {
+            Optional<ProductResponseDto> cached = offHeapCatalogService.findById(id);
+            if (cached.isPresent()) {
+                products.put(id, cached.get());
+            } else {
+                missing.add(id);
+            }
+        }
+        for (Product product : getProductsByIdsWithCategories(missing)) {
+            products.put(product.getId(), new ProductResponseDto(product));
+        }
+        return products;
+    }
+    
+    /**
+     * Prodotto come DTO per slug, dall'archivio fuori heap se presente, altrimenti dal database
+     * @param slug Slug del prodotto
+     * @return Optional contenente il prodotto se trovato
+     */
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public Optional<ProductResponseDto> getProductResponseBySlug(String slug) {
+        Optional<ProductResponseDto> cached = offHeapCatalogService.findBySlug(slug);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        return getProductsBySlugsWithCategories(List.of(slug)).stream()
+                .findFirst()
+                .map(ProductResponseDto::new);
+    }
+    
     /**
      * Trova un prodotto per ID
      * @param id ID del prodotto
@@ -69,6 +156,60 @@ public class ProductService {
         return product;
     }
     
+    /**
+     * Legge la versione di un prodotto senza caricarlo (per ETag e Last-Modified)
+     * @param id ID del prodotto
+     * @return Optional con la versione se il prodotto esiste
+     */
+    public Optional<ProductVersion> getProductVersionById(Long id) {
+        return productRepository.findVersionById(id);
+    }
+    
+    /**
+     * Legge la versione di un prodotto per slug senza caricarlo
+     * @param slug Slug del prodotto
+     * @return Optional con la versione se il prodotto esiste
+     */
+    public Optional<ProductVersion> getProductVersionBySlug(String slug) {
+        return productRepository.findVersionBySlug(slug);
+    }
+    
+    /**
+     * Trova più prodotti per ID con una sola query
+     * @param ids ID dei prodotti
+     * @return Lista dei prodotti trovati (in ordine non garantito)
+     */
+    public List<Product> getProductsByIds(Collection<Long> ids) {
+        log.info("Ricerca di {} prodotti per ID", ids.size());
+        return productRepository.findAllById(ids);
+    }
+    
+    /**
+     * Trova più prodotti per ID con le categorie già caricate (una sola query)
+     * @param ids ID dei prodotti
+     * @return Lista dei prodotti trovati (in ordine non garantito)
+     */
+    public List<Product> getProductsByIdsWithCategories(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        log.info("Ricerca batch di {} prodotti per ID", ids.size());
+        return productRepository.findAllByIdInWithCategories(ids);
+    }
+    
+    /**
+     * Trova più prodotti per slug con le categorie già caricate (una sola query)
+     * @param slugs Slug dei prodotti
+     * @return Lista dei prodotti trovati (in ordine non garantito)
+     */
+    public List<Product> getProductsBySlugsWithCategories(Collection<String> slugs) {
+        if (slugs.isEmpty()) {
+            return List.of();
+        }
+        log.info("Ricerca batch di {} prodotti per slug", slugs.size());
+        return productRepository.findAllBySlugInWithCategories(slugs);
+    }
+    
     /**
      * Trova un prodotto per slug
      * @param slug Slug del prodotto
@@ -79,6 +220,37 @@ public class ProductService {
         return productRepository.findBySlug(slug);
     }
     
+    /**
+     * Ottiene la vista leggera dei prodotti attivi (solo colonne della lista)
+     * @return Lista di riepiloghi dei prodotti attivi
+     */
+    public List<ProductSummaryDto> getActiveProductSummaries() {
+        log.info("Recupero riepiloghi dei prodotti attivi");
+        return productRepository.findActiveSummaries();
+    }
+    
+    /**
+     * Ottiene la vista leggera dei prodotti attivi di una categoria
+     * @param categoryId ID della categoria
+     * @return Lista di riepiloghi dei prodotti della categoria
+     */
+    public List<ProductSummaryDto> getProductSummariesByCategory(Long categoryId) {
+        log.info("Recupero riepiloghi dei prodotti della categoria: {}", categoryId);
+        return productRepository.findActiveSummariesByCategoryId(categoryId);
+    }
+    
+    /**
+     * Ricerca avanzata (nome, descrizione, SKU) restituendo la vista leggera
+     * @param searchTerm Termine di ricerca
+     * @return Lista di riepiloghi dei prodotti trovati
+     */
+    public List<ProductSummaryDto> searchProductSummaries(String searchTerm) {
+        log.info("Ricerca riepiloghi prodotti con termine: {}", searchTerm);
+        List<ProductSummaryDto> summaries = productRepository.searchSummaries(searchTerm);
+        log.info("Trovati {} prodotti con termine di ricerca '{}'", summaries.size(), searchTerm);
+        return summaries;
+    }
+    
     /**
      * Trova prodotti per nome (case insensitive)
      * @param name Nome da cercare
@@ -0,0 +1,229 @@
+package com.example.backend.service;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.model.ProductViewSketch;
+import com.example.backend.repository.ProductRepository;
+import com.example.backend.repository.ProductViewSketchRepository;
+import com.example.backend.util.HyperLogLog;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Conteggio approssimato dei visitatori unici per prodotto e categoria.
+ * Le visualizzazioni aggiornano sketch HyperLogLog in memoria (uno per prodotto e giorno),
+ * che vengono uniti periodicamente a quelli persistiti: nessuna scrittura su DB per page view.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductViewService {
+
+    private static final int IN_CLAUSE_CHUNK_SIZE = 1000;
+
+    private static final String ENSURE_SKETCH_SQL =
+            "INSERT INTO product_view_sketches (product_id, bucket_date, registers, updated_at) VALUES (?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE id = id";
+    private static final String LOCK_SKETCHES_SQL =
+            "SELECT id, product_id, registers FROM product_view_sketches " +
+            "WHERE bucket_date = :day AND product_id IN (:productIds) ORDER BY product_id FOR UPDATE";
+    private static final String UPDATE_SKETCH_SQL =
+            "UPDATE product_view_sketches SET registers = ?, updated_at = ? WHERE id = ?";
+
+    private final ProductViewSketchRepository sketchRepository;
+    private final ProductRepository productRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    private final Map<SketchKey, PendingSketch> pendingSketches = new ConcurrentHashMap<>();
+
+    @Value("${analytics.views.retention-days:90}")
+    private int retentionDays;
+
+    /**
+     * Registra la visualizzazione di un prodotto da parte di un visitatore
+     */
+    public void recordView(Long productId, String visitorId) {
+        if (productId == null || visitorId == null || visitorId.isBlank()) {
+            return;
+        }
+
+        SketchKey key = new SketchKey(productId, LocalDate.now());
+        PendingSketch pending = pendingSketches.get(key);
+        if (pending == null) {
+            pending = pendingSketches.computeIfAbsent(key, k -> new PendingSketch());
+        }
+        pending.offer(visitorId);
+    }
+
+    /**
+     * Stima i visitatori unici di un prodotto negli ultimi giorni
+     */
+    @Transactional(readOnly = true)
+    public long estimateUniqueViewers(Long productId, int days) {
+        return estimateUniqueViewers(List.of(productId), days);
+    }
+
+    /**
+     * Stima i visitatori unici dell'unione di più prodotti negli ultimi giorni
+     * (un visitatore che ha visto più prodotti viene contato una sola volta)
+     */
+    @Transactional(readOnly = true)
+    public long estimateUniqueViewers(Collection<Long> productIds, int days) {
+        if (productIds.isEmpty()) {
+            return 0;
+        }
+
+        LocalDate fromDate = LocalDate.now().minusDays(Math.max(days, 1) - 1L);
+        HyperLogLog union = new HyperLogLog();
+
+        Set<Long> idSet = new HashSet<>(productIds);
+        List<Long> ids = new ArrayList<>(idSet);
+        for (int start = 0; start < ids.size(); start += IN_CLAUSE_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(start, Math.min(start + IN_CLAUSE_CHUNK_SIZE, ids.size()));
+            for (ProductViewSketch persisted : sketchRepository.findByProductIdInAndBucketDateGreaterThanEqual(chunk, fromDate)) {
+                union.merge(HyperLogLog.fromBytes(persisted.getRegisters()));
+            }
+        }
+
+        // Aggiunge le visualizzazioni non ancora persistite
+        for (Map.Entry<SketchKey, PendingSketch> entry : pendingSketches.entrySet()) {
+            SketchKey key = entry.getKey();
+            if (!key.bucketDate().isBefore(fromDate) && idSet.contains(key.productId())) {
+                union.merge(entry.getValue().sketch);
+            }
+        }
+
+        long estimate = union.estimate();
+        log.debug("Stima visitatori unici per {} prodotti negli ultimi {} giorni: {}", idSet.size(), days, estimate);
+        return estimate;
+    }
+
+    /**
+     * Stima i visitatori unici dei prodotti attivi di una categoria negli ultimi giorni
+     */
+    @Transactional(readOnly = true)
+    public long estimateCategoryUniqueViewers(Long categoryId, int days) {
+        List<Long> productIds = productRepository.findActiveProductIdsByCategoryId(categoryId);
+        log.debug("Stima visitatori unici per categoria {} ({} prodotti)", categoryId, productIds.size());
+        return estimateUniqueViewers(productIds, days);
+    }
+
+    /**
+     * Unisce gli sketch modificati a quelli persistiti, un giorno per transazione.
+     * Le righe mancanti vengono prima create vuote, poi le righe del giorno sono lette con lock
+     * ({@code FOR UPDATE}, in ordine di prodotto) e riscritte con il merge: due istanze che scrivono
+     * lo stesso sketch si mettono in coda invece di sovrascriversi. Se il giorno fallisce gli sketch
+     * tornano da persistere e vengono ripresi al flush successivo.
+     */
+    @Scheduled(fixedDelayString = "${analytics.views.flush-interval-ms:60000}")
+    public void flushPendingSketches() {
+        Map<LocalDate, Map<Long, PendingSketch>> dirtyByDay = new HashMap<>();
+        pendingSketches.forEach((key, pending) -> {
+            if (pending.dirty.getAndSet(false)) {
+                dirtyByDay.computeIfAbsent(key.bucketDate(), d -> new TreeMap<>()).put(key.productId(), pending);
+            }
+        });
+
+        int flushed = 0;
+        for (Map.Entry<LocalDate, Map<Long, PendingSketch>> dayEntry : dirtyByDay.entrySet()) {
+            try {
+                flushDay(dayEntry.getKey(), dayEntry.getValue());
+                flushed += dayEntry.getValue().size();
+            } catch (Exception e) {
+                // Le visualizzazioni restano in memoria e verranno ripresentate al prossimo flush
+                dayEntry.getValue().values().forEach(pending -> pending.dirty.set(true));
+                log.error("Errore nel salvataggio degli sketch di visitatori unici del {}: {}",
+                        dayEntry.getKey(), e.getMessage(), e);
+            }
+        }
+
+        // Gli sketch dei giorni passati già persistiti non servono più in memoria
+        LocalDate today = LocalDate.now();
+        pendingSketches.entrySet().removeIf(e -> e.getKey().bucketDate().isBefore(today) && !e.getValue().dirty.get());
+
+        if (flushed > 0) {
+            log.info("Persistiti {} sketch di visitatori unici", flushed);
+        }
+    }
+
+    private void flushDay(LocalDate bucketDate, Map<Long, PendingSketch> sketches) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        Date day = Date.valueOf(bucketDate);
+        List<Long> productIds = new ArrayList<>(sketches.keySet());
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+
+        // Righe vuote per gli sketch nuovi (un registro a zero è neutro nel merge), committate subito
+        byte[] empty = new HyperLogLog().toBytes();
+        template.executeWithoutResult(status -> jdbcTemplate.batchUpdate(ENSURE_SKETCH_SQL, productIds,
+                IN_CLAUSE_CHUNK_SIZE, (statement, productId) -> {
+                    statement.setLong(1, productId);
+                    statement.setDate(2, day);
+                    statement.setBytes(3, empty);
+                    statement.setTimestamp(4, now);
+                }));
+
+        template.executeWithoutResult(status -> {
+            List<Object[]> updates = new ArrayList<>(productIds.size());
+            for (int start = 0; start < productIds.size(); start += IN_CLAUSE_CHUNK_SIZE) {
+                List<Long> chunk = productIds.subList(start, Math.min(start + IN_CLAUSE_CHUNK_SIZE, productIds.size()));
+                MapSqlParameterSource params = new MapSqlParameterSource("day", day).addValue("productIds", chunk);
+                namedParameterJdbcTemplate.query(LOCK_SKETCHES_SQL, params, rs -> {
+                    HyperLogLog merged = HyperLogLog.fromBytes(rs.getBytes("registers"));
+                    merged.merge(sketches.get(rs.getLong("product_id")).sketch);
+                    updates.add(new Object[] {merged.toBytes(), now, rs.getLong("id")});
+                });
+            }
+            jdbcTemplate.batchUpdate(UPDATE_SKETCH_SQL, updates);
+        });
+    }
+
+    /**
+     * Elimina gli sketch oltre il periodo di retention
+     */
+    @Scheduled(cron = "${analytics.views.purge-cron:0 30 3 * * *}")
+    @Transactional
+    public void purgeExpiredSketches() {
+        int deleted = sketchRepository.deleteOlderThan(LocalDate.now().minusDays(retentionDays));
+        log.info("Eliminati {} sketch di visitatori unici oltre la retention di {} giorni", deleted, retentionDays);
+    }
+
+    private record SketchKey(Long productId, LocalDate bucketDate) {}
+
+    private static final class PendingSketch {
+        private final HyperLogLog sketch = new HyperLogLog();
+        private final AtomicBoolean dirty = new AtomicBoolean();
+
+        void offer(String visitorId) {
+            // Solo le visualizzazioni che modificano un registro rendono lo sketch da persistere
+            if (sketch.offer(visitorId)) {
+                dirty.set(true);
+            }
+        }
+    }
+}
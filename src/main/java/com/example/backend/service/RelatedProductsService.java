@@ -0,0 +1,352 @@
+package com.example.backend.service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.backend.dto.CatalogChangesDto;
+import com.example.backend.dto.CategoryResponseDto;
+import com.example.backend.dto.ProductResponseDto;
+import com.example.backend.repository.ProductRepository;
+import com.example.backend.repository.projection.ProductCategoryLink;
+import com.example.backend.util.LongIntHashMap;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Indice precalcolato dei prodotti correlati per categorie condivise (similarità di Jaccard
+ * tra gli insiemi di categorie). Le liste sono limitate e lette dalla memoria, quindi si possono
+ * includere nel dettaglio prodotto senza query aggiuntive. Le modifiche a prodotti e categorie
+ * arrivano dal feed delle modifiche del catalogo (import, sincronizzazione dello stock, checkout e
+ * qualsiasi altra scrittura che aggiorna updated_at): i prodotti le cui categorie sono cambiate
+ * marcano i vicini, che vengono ricalcolati in blocco dal job periodico.
+ * Nelle categorie i candidati sono scanditi dal prodotto più recente (ID decrescente), quindi
+ * il limite per categoria privilegia le novità in modo stabile tra ricostruzioni e aggiornamenti.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RelatedProductsService {
+
+    private static final long[] NO_PRODUCTS = new long[0];
+    private static final int CHANGES_PAGE_SIZE = 1000;
+
+    private final ProductRepository productRepository;
+    private final CatalogChangeService catalogChangeService;
+    private final TaskScheduler taskScheduler;
+
+    // Struttura prodotto ↔ categorie (modificata solo sotto lock)
+    private final Map<Long, long[]> categoriesByProduct = new HashMap<>();
+    private final Map<Long, Set<Long>> productsByCategory = new HashMap<>();
+    private final Set<Long> dirtyProducts = new HashSet<>();
+
+    // Liste precalcolate lette senza lock
+    private final Map<Long, long[]> relatedByProduct = new ConcurrentHashMap<>();
+
+    @Value("${recommendations.related.max-related:12}")
+    private int maxRelated;
+
+    @Value("${recommendations.related.max-candidates-per-category:2000}")
+    private int maxCandidatesPerCategory;
+
+    @Value("${catalog.changes.safety-lag-ms:2000}")
+    private long safetyLagMs;
+
+    // Posizione nel feed delle modifiche (null finché l'indice non è stato costruito)
+    private volatile String changesCursor;
+
+    /**
+     * Restituisce gli ID dei prodotti correlati (dal più simile)
+     */
+    public List<Long> getRelatedProducts(Long productId, int limit) {
+        long[] related = relatedByProduct.getOrDefault(productId, NO_PRODUCTS);
+        int size = Math.min(limit, related.length);
+        List<Long> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(related[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Ricostruisce l'intero indice dalla tabella prodotto-categorie
+     */
+    @Scheduled(cron = "${recommendations.related.rebuild-cron:0 15 4 * * *}")
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        try {
+            // L'istante va letto prima della query: le modifiche concorrenti arrivano dal feed
+            LocalDateTime since = LocalDateTime.now().minusNanos(safetyLagMs * 1_000_000L);
+            List<ProductCategoryLink> links = productRepository.findActiveProductCategoryLinks();
+
+            synchronized (this) {
+                categoriesByProduct.clear();
+                productsByCategory.clear();
+                dirtyProducts.clear();
+                applyLinks(groupByProduct(links));
+
+                Map<Long, long[]> computed = new HashMap<>(categoriesByProduct.size() * 2);
+                for (Long productId : categoriesByProduct.keySet()) {
+                    computed.put(productId, computeRelated(productId));
+                }
+                relatedByProduct.keySet().retainAll(computed.keySet());
+                relatedByProduct.putAll(computed);
+                changesCursor = catalogChangeService.cursorAt(since);
+            }
+
+            log.info("Indice prodotti correlati ricostruito: {} prodotti in {} ms",
+                    relatedByProduct.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Errore durante la ricostruzione dei prodotti correlati: {}", e.getMessage(), e);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        // Ricostruzione sullo scheduler per non ritardare l'avvio
+        taskScheduler.schedule(this::rebuild, Instant.now());
+    }
+
+    /**
+     * Applica le modifiche del catalogo successive all'ultima posizione letta dal feed
+     */
+    @Scheduled(fixedDelayString = "${recommendations.related.changes-interval-ms:10000}")
+    public void applyCatalogChanges() {
+        String cursor = changesCursor;
+        if (cursor == null) {
+            return;
+        }
+        try {
+            CatalogChangesDto changes;
+            do {
+                changes = catalogChangeService.getChangesSince(cursor, CHANGES_PAGE_SIZE);
+                Set<Long> productIds = new LinkedHashSet<>(changes.getDeletedProductIds());
+                for (ProductResponseDto product : changes.getProducts()) {
+                    productIds.add(product.getId());
+                }
+                refreshProducts(productIds);
+                for (CategoryResponseDto category : changes.getCategories()) {
+                    refreshCategory(category.getId());
+                }
+                for (Long categoryId : changes.getDeletedCategoryIds()) {
+                    refreshCategory(categoryId);
+                }
+                cursor = changes.getNextCursor();
+                changesCursor = cursor;
+            } while (changes.isHasMore());
+        } catch (Exception e) {
+            log.error("Errore durante l'applicazione delle modifiche ai prodotti correlati: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Ricarica le categorie dei prodotti indicati (creati, modificati o disattivati)
+     * e, per quelli con categorie cambiate, marca da ricalcolare loro e i prodotti
+     * che condividono le categorie vecchie o nuove
+     */
+    public void refreshProducts(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        Map<Long, List<Long>> reloaded = groupByProduct(
+                productRepository.findActiveProductCategoryLinksByProductIds(productIds));
+
+        int changed = 0;
+        synchronized (this) {
+            for (Long productId : productIds) {
+                long[] categories = toSortedIds(reloaded.getOrDefault(productId, List.of()));
+                long[] current = categoriesByProduct.get(productId);
+                // Le modifiche che non toccano le categorie (es. solo stock o prezzo) non cambiano le liste
+                if (current != null ? Arrays.equals(current, categories) : categories.length == 0) {
+                    continue;
+                }
+                markNeighborsDirty(productId);
+                removeProduct(productId);
+                if (categories.length > 0) {
+                    applyLinks(Map.of(productId, reloaded.get(productId)));
+                }
+                markNeighborsDirty(productId);
+                dirtyProducts.add(productId);
+                changed++;
+            }
+        }
+        if (changed > 0) {
+            log.debug("Prodotti correlati da ricalcolare dopo la modifica di {} prodotti", changed);
+        }
+    }
+
+    /**
+     * Ricarica i prodotti di una categoria modificata o disattivata
+     */
+    public void refreshCategory(Long categoryId) {
+        Set<Long> affected = new LinkedHashSet<>(productRepository.findActiveProductIdsByCategoryId(categoryId));
+        synchronized (this) {
+            affected.addAll(productsByCategory.getOrDefault(categoryId, Set.of()));
+        }
+        refreshProducts(affected);
+    }
+
+    /**
+     * Ricalcola le liste dei prodotti marcati dalle modifiche incrementali
+     */
+    @Scheduled(fixedDelayString = "${recommendations.related.refresh-interval-ms:30000}")
+    public synchronized void recomputeDirtyProducts() {
+        if (dirtyProducts.isEmpty()) {
+            return;
+        }
+        for (Long productId : dirtyProducts) {
+            if (categoriesByProduct.containsKey(productId)) {
+                relatedByProduct.put(productId, computeRelated(productId));
+            } else {
+                relatedByProduct.remove(productId);
+            }
+        }
+        log.debug("Ricalcolati i prodotti correlati di {} prodotti", dirtyProducts.size());
+        dirtyProducts.clear();
+    }
+
+    /**
+     * Calcola i prodotti più simili per Jaccard = |A ∩ B| / |A ∪ B| sulle categorie
+     */
+    private long[] computeRelated(Long productId) {
+        long[] categories = categoriesByProduct.get(productId);
+        if (categories == null || categories.length == 0) {
+            return NO_PRODUCTS;
+        }
+
+        // Conta le categorie condivise con ogni candidato
+        LongIntHashMap shared = new LongIntHashMap();
+        for (long categoryId : categories) {
+            int scanned = 0;
+            for (Long candidate : productsByCategory.getOrDefault(categoryId, Set.of())) {
+                if (scanned++ >= maxCandidatesPerCategory) {
+                    break;
+                }
+                if (!candidate.equals(productId)) {
+                    shared.addTo(candidate, 1);
+                }
+            }
+        }
+
+        int size = Math.min(maxRelated, shared.size());
+        long[] ids = new long[size];
+        double[] scores = new double[size];
+        int[] filled = {0};
+
+        // Selezione top-K con insertion sort su un array di dimensione K
+        shared.forEach((candidate, intersection) -> {
+            int union = categories.length + categoriesByProduct.get(candidate).length - intersection;
+            double score = (double) intersection / union;
+            int n = filled[0];
+            if (n == size && (size == 0 || !isBetter(score, candidate, scores[n - 1], ids[n - 1]))) {
+                return;
+            }
+            int pos = n == size ? n - 1 : n;
+            while (pos > 0 && isBetter(score, candidate, scores[pos - 1], ids[pos - 1])) {
+                ids[pos] = ids[pos - 1];
+                scores[pos] = scores[pos - 1];
+                pos--;
+            }
+            ids[pos] = candidate;
+            scores[pos] = score;
+            if (n < size) {
+                filled[0]++;
+            }
+        });
+        return ids;
+    }
+
+    private static boolean isBetter(double score, long id, double otherScore, long otherId) {
+        return score > otherScore || (score == otherScore && id < otherId);
+    }
+
+    private void applyLinks(Map<Long, List<Long>> categoriesById) {
+        categoriesById.forEach((productId, categoryIds) -> {
+            long[] sorted = toSortedIds(categoryIds);
+            categoriesByProduct.put(productId, sorted);
+            for (long categoryId : sorted) {
+                productsByCategory.computeIfAbsent(categoryId, id -> new TreeSet<>(Comparator.reverseOrder()))
+                        .add(productId);
+            }
+        });
+    }
+
+    private void removeProduct(Long productId) {
+        long[] categories = categoriesByProduct.remove(productId);
+        if (categories == null) {
+            return;
+        }
+        for (long categoryId : categories) {
+            Set<Long> members = productsByCategory.get(categoryId);
+            if (members != null) {
+                members.remove(productId);
+                if (members.isEmpty()) {
+                    productsByCategory.remove(categoryId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marca i prodotti le cui liste possono includere il prodotto indicato. Ogni prodotto scandisce
+     * solo i maxCandidatesPerCategory membri più recenti di una categoria: se il prodotto è tra questi
+     * può comparire nella lista di qualsiasi membro (e spostarne i candidati), quindi si marcano tutti;
+     * se è più vecchio nessun membro lo vede e la categoria non va ricalcolata
+     */
+    private void markNeighborsDirty(Long productId) {
+        long[] categories = categoriesByProduct.get(productId);
+        if (categories == null) {
+            return;
+        }
+        for (long categoryId : categories) {
+            Set<Long> members = productsByCategory.getOrDefault(categoryId, Set.of());
+            if (isCandidate(productId, members)) {
+                dirtyProducts.addAll(members);
+            }
+        }
+    }
+
+    private boolean isCandidate(Long productId, Set<Long> members) {
+        int scanned = 0;
+        for (Long member : members) {
+            if (scanned++ >= maxCandidatesPerCategory) {
+                return false;
+            }
+            if (member.equals(productId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long[] toSortedIds(List<Long> ids) {
+        return ids.stream().mapToLong(Long::longValue).distinct().sorted().toArray();
+    }
+
+    private static Map<Long, List<Long>> groupByProduct(List<ProductCategoryLink> links) {
+        Map<Long, List<Long>> grouped = new HashMap<>();
+        for (ProductCategoryLink link : links) {
+            grouped.computeIfAbsent(link.productId(), id -> new ArrayList<>(2)).add(link.categoryId());
+        }
+        return grouped;
+    }
+}
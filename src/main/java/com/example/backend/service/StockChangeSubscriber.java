@@ -0,0 +1,34 @@
+package com.example.backend.service;
+
+import org.springframework.stereotype.Service;
+
+import com.example.backend.model.OutboxEvent;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Invalida le risposte del catalogo in cache (ETag, snapshot) quando cambia una giacenza.
+ * Ordini, checkout e rettifiche non aggiornano la versione del catalogo direttamente:
+ * la ricevono da qui tramite l'evento {@code STOCK_CHANGED}. Incrementare la versione
+ * più volte per lo stesso evento è innocuo, quindi la consegna ripetuta non è un problema.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StockChangeSubscriber implements OutboxSubscriber {
+
+    private final CatalogVersionService catalogVersionService;
+
+    @Override
+    public boolean accepts(OutboxEvent event) {
+        return OutboxEvent.AGGREGATE_PRODUCT.equals(event.getAggregateType())
+                && OutboxEvent.STOCK_CHANGED.equals(event.getEventType());
+    }
+
+    @Override
+    public void handle(OutboxEvent event) {
+        catalogVersionService.bumpAfterCommit();
+        log.debug("Stock del prodotto {} cambiato (evento {}): catalogo invalidato", event.getAggregateId(), event.getId());
+    }
+}
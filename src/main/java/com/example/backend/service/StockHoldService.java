@@ -0,0 +1,421 @@
+package com.example.backend.service;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.repository.ProductRepository;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Prenotazioni temporanee dello stock per i prodotti in modalità "hold on add" (drop a quantità limitata).
+ * Aggiungere un prodotto al carrello riserva le unità per {@code stock.holds.ttl-ms}; la prenotazione
+ * viene rinnovata dall'attività sul carrello e scade da sola se il carrello viene lasciato.
+ * <p>
+ * La verifica avviene su un registro in memoria (una sezione critica per prodotto) e ogni modifica
+ * è scritta sulla tabella {@code stock_holds}; la pulizia periodica riallinea il registro con il
+ * database, così le prenotazioni delle altre istanze vengono considerate entro un intervallo.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StockHoldService {
+
+    private static final String UPSERT_HOLD_SQL =
+            "INSERT INTO stock_holds (product_id, user_id, quantity, expires_at) VALUES (?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE quantity = VALUES(quantity), expires_at = VALUES(expires_at)";
+    private static final String DELETE_HOLD_SQL =
+            "DELETE FROM stock_holds WHERE product_id = ? AND user_id = ?";
+    private static final String DELETE_PRODUCT_HOLDS_SQL =
+            "DELETE FROM stock_holds WHERE product_id = ?";
+    private static final String DELETE_USER_HOLDS_SQL =
+            "DELETE FROM stock_holds WHERE user_id = ?";
+    private static final String TOUCH_USER_HOLDS_SQL =
+            "UPDATE stock_holds SET expires_at = ? WHERE user_id = ? AND expires_at >= ?";
+    private static final String DELETE_EXPIRED_SQL =
+            "DELETE FROM stock_holds WHERE expires_at < ?";
+    private static final String LOAD_HOLDS_SQL =
+            "SELECT product_id, user_id, quantity, expires_at FROM stock_holds WHERE expires_at >= ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ProductRepository productRepository;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${stock.holds.ttl-ms:600000}")
+    private long ttlMs;
+
+    private final Map<Long, ProductHolds> ledger = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> productsByUser = new ConcurrentHashMap<>();
+    private volatile Set<Long> holdProducts = Set.of();
+
+    @PostConstruct
+    public void load() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.error("Impossibile caricare le prenotazioni dello stock: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Indica se il prodotto riserva lo stock all'aggiunta al carrello
+     */
+    public boolean isHoldEnabled(Long productId) {
+        return holdProducts.contains(productId);
+    }
+
+    /**
+     * Attiva o disattiva la prenotazione dello stock per un prodotto.
+     * La disattivazione rilascia le prenotazioni esistenti del prodotto.
+     */
+    public void setHoldEnabled(Long productId, boolean enabled) {
+        int updated = new TransactionTemplate(transactionManager).execute(status -> {
+            int rows = productRepository.updateHoldOnAdd(productId, enabled);
+            if (rows > 0 && !enabled) {
+                jdbcTemplate.update(DELETE_PRODUCT_HOLDS_SQL, productId);
+            }
+            return rows;
+        });
+        if (updated == 0) {
+            throw new RuntimeException("Prodotto non trovato: " + productId);
+        }
+        Set<Long> products = new HashSet<>(holdProducts);
+        if (enabled) {
+            products.add(productId);
+        } else {
+            products.remove(productId);
+            releaseProduct(productId);
+        }
+        holdProducts = Set.copyOf(products);
+        log.info("Prenotazione all'aggiunta al carrello {} per il prodotto {}", enabled ? "attivata" : "disattivata", productId);
+    }
+
+    /**
+     * Unità disponibili per l'utente: stock meno le prenotazioni valide degli altri utenti
+     */
+    public int availableFor(Long productId, Long userId, int stockQty) {
+        ProductHolds holds = ledger.get(productId);
+        if (holds == null) {
+            return stockQty;
+        }
+        synchronized (holds) {
+            holds.removeExpired(System.currentTimeMillis());
+            Hold own = holds.byUser.get(userId);
+            return stockQty - holds.held + (own != null ? own.quantity() : 0);
+        }
+    }
+
+    /**
+     * Unità del prodotto riservate dagli altri utenti (prenotazioni valide)
+     */
+    public int heldByOthers(Long productId, Long userId) {
+        return Math.max(0, -availableFor(productId, userId, 0));
+    }
+
+    /**
+     * Porta la prenotazione dell'utente a {@code quantity} unità (la quantità totale nel carrello).
+     * Non fa nulla per i prodotti senza prenotazione.
+     * @throws RuntimeException se lo stock non prenotato da altri utenti non basta
+     */
+    public void hold(Long productId, Long userId, int quantity, int stockQty) {
+        if (!isHoldEnabled(productId)) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + ttlMs;
+        ProductHolds holds = ledger.computeIfAbsent(productId, id -> new ProductHolds());
+        synchronized (holds) {
+            holds.removeExpired(System.currentTimeMillis());
+            Hold own = holds.byUser.get(userId);
+            int heldByOthers = holds.held - (own != null ? own.quantity() : 0);
+            if (stockQty - heldByOthers < quantity) {
+                throw new RuntimeException("Stock insufficiente per il prodotto: " + productId);
+            }
+            holds.put(userId, new Hold(quantity, expiresAt, expiresAt));
+        }
+        productsByUser.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(productId);
+        jdbcTemplate.update(UPSERT_HOLD_SQL, productId, userId, quantity, new Timestamp(expiresAt));
+    }
+
+    /**
+     * Imposta le prenotazioni di più prodotti, tutte o nessuna.
+     * Le quantità a zero rilasciano la prenotazione.
+     * @throws RuntimeException se lo stock di uno dei prodotti non basta
+     */
+    public void holdAll(Long userId, Map<Long, Integer> quantities, Map<Long, Integer> stockQtys) {
+        Map<Long, Integer> previous = new HashMap<>();
+        try {
+            for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+                Long productId = entry.getKey();
+                if (!isHoldEnabled(productId)) {
+                    continue;
+                }
+                previous.put(productId, heldBy(productId, userId));
+                if (entry.getValue() > 0) {
+                    hold(productId, userId, entry.getValue(), stockQtys.getOrDefault(productId, 0));
+                } else {
+                    release(productId, userId);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Ripristina le prenotazioni già modificate (riducono o restituiscono unità già riservate)
+            previous.forEach((productId, quantity) -> {
+                if (quantity > 0) {
+                    restore(productId, userId, quantity);
+                } else {
+                    release(productId, userId);
+                }
+            });
+            throw e;
+        }
+    }
+
+    /**
+     * Rilascia la prenotazione dell'utente su un prodotto
+     */
+    public void release(Long productId, Long userId) {
+        ProductHolds holds = ledger.get(productId);
+        if (holds == null) {
+            return;
+        }
+        boolean removed;
+        synchronized (holds) {
+            removed = holds.remove(userId);
+        }
+        Set<Long> products = productsByUser.get(userId);
+        if (products != null) {
+            products.remove(productId);
+        }
+        if (removed) {
+            jdbcTemplate.update(DELETE_HOLD_SQL, productId, userId);
+        }
+    }
+
+    /**
+     * Rilascia tutte le prenotazioni dell'utente (carrello svuotato)
+     */
+    public void releaseAll(Long userId) {
+        Set<Long> products = productsByUser.remove(userId);
+        if (products == null || products.isEmpty()) {
+            return;
+        }
+        for (Long productId : products) {
+            ProductHolds holds = ledger.get(productId);
+            if (holds != null) {
+                synchronized (holds) {
+                    holds.remove(userId);
+                }
+            }
+        }
+        jdbcTemplate.update(DELETE_USER_HOLDS_SQL, userId);
+    }
+
+    /**
+     * Rilascia le prenotazioni dell'utente dopo il commit della transazione corrente (checkout):
+     * fino al commit lo stock non è ancora stato scalato sul database
+     */
+    public void releaseAllAfterCommit(Long userId) {
+        if (!productsByUser.containsKey(userId)) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    releaseAll(userId);
+                }
+            });
+        } else {
+            releaseAll(userId);
+        }
+    }
+
+    /**
+     * Rinnova le prenotazioni ancora valide dell'utente (attività sul carrello).
+     * Il database viene aggiornato solo quando è trascorsa più di metà della durata
+     * dalla scadenza scritta l'ultima volta, non da quella già estesa in memoria.
+     */
+    public void refresh(Long userId) {
+        Set<Long> products = productsByUser.get(userId);
+        if (products == null || products.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expiresAt = now + ttlMs;
+        boolean stale = false;
+        for (Long productId : products) {
+            Hold own = holdOf(productId, userId);
+            if (own != null && own.expiresAt() >= now) {
+                stale |= own.persistedExpiresAt() - now < ttlMs / 2;
+            }
+        }
+        for (Long productId : products) {
+            ProductHolds holds = ledger.get(productId);
+            if (holds == null) {
+                continue;
+            }
+            synchronized (holds) {
+                Hold own = holds.byUser.get(userId);
+                if (own != null && own.expiresAt() >= now) {
+                    holds.byUser.put(userId, new Hold(own.quantity(), expiresAt,
+                            stale ? expiresAt : own.persistedExpiresAt()));
+                }
+            }
+        }
+        if (stale) {
+            jdbcTemplate.update(TOUCH_USER_HOLDS_SQL, new Timestamp(expiresAt), userId, new Timestamp(now));
+        }
+    }
+
+    /**
+     * Elimina le prenotazioni scadute e riallinea il registro con il database
+     */
+    @Scheduled(fixedDelayString = "${stock.holds.reap-interval-ms:30000}")
+    public void reap() {
+        try {
+            int expired = jdbcTemplate.update(DELETE_EXPIRED_SQL, new Timestamp(System.currentTimeMillis()));
+            if (expired > 0) {
+                log.debug("Eliminate {} prenotazioni dello stock scadute", expired);
+            }
+            reload();
+        } catch (Exception e) {
+            log.error("Errore durante la pulizia delle prenotazioni dello stock: {}", e.getMessage(), e);
+        }
+    }
+
+    private void reload() {
+        long reloadStart = System.currentTimeMillis();
+        holdProducts = Set.copyOf(productRepository.findHoldOnAddProductIds());
+
+        Map<Long, Map<Long, Hold>> stored = new HashMap<>();
+        jdbcTemplate.query(LOAD_HOLDS_SQL, rs -> {
+            long expiresAt = rs.getTimestamp("expires_at").getTime();
+            stored.computeIfAbsent(rs.getLong("product_id"), id -> new HashMap<>())
+                    .put(rs.getLong("user_id"), new Hold(rs.getInt("quantity"), expiresAt, expiresAt));
+        }, new Timestamp(reloadStart));
+
+        Set<Long> productIds = new HashSet<>(ledger.keySet());
+        productIds.addAll(stored.keySet());
+        for (Long productId : productIds) {
+            Map<Long, Hold> fromDb = stored.getOrDefault(productId, Map.of());
+            ProductHolds holds = ledger.computeIfAbsent(productId, id -> new ProductHolds());
+            synchronized (holds) {
+                // Le prenotazioni locali impostate dopo l'inizio del caricamento potrebbero non essere ancora lette
+                Iterator<Map.Entry<Long, Hold>> iterator = holds.byUser.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Long, Hold> entry = iterator.next();
+                    if (!fromDb.containsKey(entry.getKey()) && entry.getValue().expiresAt() < reloadStart + ttlMs) {
+                        holds.held -= entry.getValue().quantity();
+                        iterator.remove();
+                    }
+                }
+                fromDb.forEach((userId, hold) -> {
+                    Hold local = holds.byUser.get(userId);
+                    if (local == null || local.expiresAt() < hold.expiresAt()) {
+                        holds.put(userId, hold);
+                    } else {
+                        // La scadenza scritta può essere stata rinnovata da un'altra istanza
+                        holds.byUser.put(userId, new Hold(local.quantity(), local.expiresAt(), hold.expiresAt()));
+                    }
+                });
+                holds.byUser.keySet().forEach(userId ->
+                        productsByUser.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(productId));
+            }
+        }
+        productsByUser.values().removeIf(Set::isEmpty);
+    }
+
+    private int heldBy(Long productId, Long userId) {
+        Hold own = holdOf(productId, userId);
+        return own != null ? own.quantity() : 0;
+    }
+
+    private Hold holdOf(Long productId, Long userId) {
+        ProductHolds holds = ledger.get(productId);
+        if (holds == null) {
+            return null;
+        }
+        synchronized (holds) {
+            return holds.byUser.get(userId);
+        }
+    }
+
+    // Toglie il prodotto dal registro (prenotazione disattivata): le righe sono già state eliminate
+    private void releaseProduct(Long productId) {
+        ProductHolds holds = ledger.remove(productId);
+        if (holds == null) {
+            return;
+        }
+        synchronized (holds) {
+            holds.byUser.keySet().forEach(userId -> {
+                Set<Long> products = productsByUser.get(userId);
+                if (products != null) {
+                    products.remove(productId);
+                }
+            });
+        }
+        log.info("Rilasciate le prenotazioni del prodotto {}", productId);
+    }
+
+    // Ripristino senza verifica: la quantità era già riservata prima della modifica annullata
+    private void restore(Long productId, Long userId, int quantity) {
+        long expiresAt = System.currentTimeMillis() + ttlMs;
+        ProductHolds holds = ledger.computeIfAbsent(productId, id -> new ProductHolds());
+        synchronized (holds) {
+            holds.put(userId, new Hold(quantity, expiresAt, expiresAt));
+        }
+        productsByUser.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(productId);
+        jdbcTemplate.update(UPSERT_HOLD_SQL, productId, userId, quantity, new Timestamp(expiresAt));
+    }
+
+    /**
+     * Prenotazioni valide di un prodotto, con il totale delle unità riservate
+     */
+    private static final class ProductHolds {
+        private final Map<Long, Hold> byUser = new HashMap<>();
+        private int held;
+
+        private void put(Long userId, Hold hold) {
+            Hold previous = byUser.put(userId, hold);
+            held += hold.quantity() - (previous != null ? previous.quantity() : 0);
+        }
+
+        private boolean remove(Long userId) {
+            Hold previous = byUser.remove(userId);
+            if (previous == null) {
+                return false;
+            }
+            held -= previous.quantity();
+            return true;
+        }
+
+        private void removeExpired(long now) {
+            Iterator<Hold> iterator = byUser.values().iterator();
+            while (iterator.hasNext()) {
+                Hold hold = iterator.next();
+                if (hold.expiresAt() < now) {
+                    held -= hold.quantity();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    // persistedExpiresAt è la scadenza scritta su stock_holds, expiresAt quella rinnovata in memoria
+    private record Hold(int quantity, long expiresAt, long persistedExpiresAt) {}
+}
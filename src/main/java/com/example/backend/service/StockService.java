@@ -1,6 +1,7 @@
 package com.example.backend.service;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.stereotype.Service;
@@ -19,6 +20,7 @@ import lombok.extern.slf4j.Slf4j;
 public class StockService {
     
     private final ProductRepository productRepository;
+    private final OutboxService outboxService;
     
     /**
      * Verifica se c'è abbastanza stock per un prodotto
@@ -62,6 +64,7 @@ public class StockService {
         int newStock = product.getStockQty() - quantity;
         product.setStockQty(newStock);
         productRepository.save(product);
+        outboxService.recordStockChanges(Map.of(productId, -quantity), "REDUCE", null);
         
         log.info("Stock ridotto per prodotto {}: da {} a {} (riduzione: {})", 
                 productId, product.getStockQty() + quantity, newStock, quantity);
@@ -84,6 +87,7 @@ public class StockService {
         int newStock = product.getStockQty() + quantity;
         product.setStockQty(newStock);
         productRepository.save(product);
+        outboxService.recordStockChanges(Map.of(productId, quantity), "INCREASE", null);
         
         log.info("Stock aumentato per prodotto {}: da {} a {} (aumento: {})", 
                 productId, product.getStockQty() - quantity, newStock, quantity);
@@ -104,6 +108,9 @@ public class StockService {
         int oldStock = product.getStockQty();
         product.setStockQty(newStock);
         productRepository.save(product);
+        if (newStock != oldStock) {
+            outboxService.recordStockChanges(Map.of(productId, newStock - oldStock), "ADJUSTMENT", null);
+        }
         
         log.info("Stock aggiornato per prodotto {}: da {} a {}", 
                 productId, oldStock, newStock);
@@ -140,25 +147,4 @@ public class StockService {
         
         return productOpt.get().getStockQty() <= 0;
     }
-    
-    /**
-     * Riserva temporaneamente stock per un ordine (per evitare overselling)
-     * Nota: In un'implementazione reale, questo richiederebbe una tabella 
-     * separata per le prenotazioni di stock
-     */
-    public boolean reserveStock(Long productId, int quantity) {
-        // Per ora, usiamo semplicemente la verifica di disponibilità
-        // In futuro, si potrebbe implementare un sistema di prenotazioni
-        return isStockAvailable(productId, quantity);
-    }
-    
-    /**
-     * Rilascia la prenotazione di stock
-     */
-    public void releaseStockReservation(Long productId, int quantity) {
-        // Per ora, non facciamo nulla
-        // In futuro, si implementerebbe il rilascio delle prenotazioni
-        log.debug("Rilascio prenotazione stock per prodotto {}: quantità {}", 
-                productId, quantity);
-    }
 }
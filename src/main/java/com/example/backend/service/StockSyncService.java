@@ -0,0 +1,237 @@
+package com.example.backend.service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backend.dto.StockSyncResultDto;
+import com.example.backend.repository.projection.SkuStock;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sincronizzazione massiva delle giacenze dal magazzino.
+ * Gli SKU sono elaborati in blocchi ordinati: per ogni blocco una query IN legge e blocca le giacenze
+ * correnti, si calcolano solo le differenze e si applicano con un unico batch JDBC; ogni riga modificata
+ * registra la sua variazione nell'outbox ({@code STOCK_CHANGED}) nella stessa transazione.
+ * Ogni blocco ha la sua transazione: se un blocco fallisce l'elaborazione si ferma e il risultato
+ * riporta i blocchi già applicati e l'intervallo di SKU del blocco fallito.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StockSyncService {
+
+    private static final int MAX_REPORTED_SKUS = 100;
+
+    // SNAPSHOT: il valore del magazzino è autoritativo (la condizione evita scritture inutili)
+    private static final String SET_STOCK_SQL =
+            "UPDATE products SET stock_qty = ?, updated_at = ? WHERE id = ? AND stock_qty <> ?";
+
+    // DELTA: variazione atomica, mai sotto zero anche con ordini concorrenti
+    private static final String ADD_STOCK_SQL =
+            "UPDATE products SET stock_qty = stock_qty + ?, updated_at = ? WHERE id = ? AND stock_qty + ? >= 0";
+
+    // Ultima istruzione del blocco: updated_at coincide con il commit (feed delle modifiche)
+    private static final String TOUCH_UPDATED_AT_SQL =
+            "UPDATE products SET updated_at = :now WHERE id IN (:ids)";
+
+    // Le righe restano bloccate fino al commit del blocco: le decisioni prese sui valori letti sono definitive
+    private static final String LOCK_STOCK_SQL =
+            "SELECT id, sku, stock_qty FROM products WHERE sku IN (:skus) ORDER BY id FOR UPDATE";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final CatalogVersionService catalogVersionService;
+    private final OutboxService outboxService;
+
+    @Value("${stock.sync.batch-size:1000}")
+    private int batchSize;
+
+    public enum Mode {
+        SNAPSHOT, DELTA
+    }
+
+    /**
+     * Applica le quantità ricevute dal magazzino
+     * @param quantities SKU -> quantità assoluta (SNAPSHOT) o variazione (DELTA)
+     */
+    public StockSyncResultDto sync(Mode mode, Map<String, Integer> quantities) {
+        long start = System.currentTimeMillis();
+        SyncSummary summary = new SyncSummary();
+        List<StockSyncResultDto.ChunkDto> chunks = new ArrayList<>();
+
+        // Ordine per SKU: blocchi deterministici e lock acquisiti sempre nello stesso ordine
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(new TreeMap<>(quantities).entrySet());
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+
+        int processed = 0;
+        boolean completed = true;
+        for (int from = 0; from < entries.size(); from += batchSize) {
+            List<Map.Entry<String, Integer>> chunk = entries.subList(from, Math.min(from + batchSize, entries.size()));
+            String firstSku = chunk.get(0).getKey();
+            String lastSku = chunk.get(chunk.size() - 1).getKey();
+            // I conteggi del blocco entrano nel totale solo dopo il commit
+            SyncSummary chunkSummary = new SyncSummary();
+            try {
+                template.executeWithoutResult(status -> syncChunk(mode, chunk, chunkSummary));
+            } catch (RuntimeException e) {
+                log.error("Sincronizzazione stock {}: blocco {} ({} - {}) fallito: {}",
+                        mode, chunks.size(), firstSku, lastSku, e.getMessage(), e);
+                chunks.add(new StockSyncResultDto.ChunkDto(chunks.size(), firstSku, lastSku, chunk.size(),
+                        "FAILED", 0, 0, 0, 0, e.getMessage()));
+                completed = false;
+                break;
+            }
+            summary.add(chunkSummary);
+            processed += chunk.size();
+            chunks.add(new StockSyncResultDto.ChunkDto(chunks.size(), firstSku, lastSku, chunk.size(), "COMMITTED",
+                    chunkSummary.updated, chunkSummary.unchanged, chunkSummary.unknown, chunkSummary.rejected, null));
+        }
+
+        long duration = System.currentTimeMillis() - start;
+        log.info("Sincronizzazione stock {}: {} SKU ricevuti, {} aggiornati, {} invariati, {} sconosciuti, {} scartati, " +
+                "{} non elaborati in {} ms", mode, entries.size(), summary.updated, summary.unchanged, summary.unknown,
+                summary.rejected, entries.size() - processed, duration);
+        return new StockSyncResultDto(mode.name(), completed, entries.size(), summary.updated, summary.unchanged,
+                summary.unknown, summary.rejected, entries.size() - processed, summary.unknownSkus, summary.rejectedSkus,
+                chunks, duration);
+    }
+
+    private void syncChunk(Mode mode, List<Map.Entry<String, Integer>> chunk, SyncSummary summary) {
+        Map<String, SkuStock> current = new TreeMap<>();
+        namedParameterJdbcTemplate.query(LOCK_STOCK_SQL,
+                Map.of("skus", chunk.stream().map(Map.Entry::getKey).toList()),
+                rs -> {
+                    SkuStock stock = new SkuStock(rs.getLong("id"), rs.getString("sku"), rs.getInt("stock_qty"));
+                    current.put(stock.sku(), stock);
+                });
+
+        // Solo le righe che cambiano davvero finiscono nel batch
+        List<StockChange> changes = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : chunk) {
+            SkuStock stock = current.get(entry.getKey());
+            Integer quantity = entry.getValue();
+            if (stock == null) {
+                summary.unknown++;
+                summary.reportUnknown(entry.getKey());
+            } else if (quantity == null
+                    || (mode == Mode.SNAPSHOT && quantity < 0)
+                    || (mode == Mode.DELTA && stock.stockQty() + quantity < 0)) {
+                summary.rejected++;
+                summary.reportRejected(entry.getKey());
+            } else if ((mode == Mode.SNAPSHOT && quantity.equals(stock.stockQty())) || (mode == Mode.DELTA && quantity == 0)) {
+                summary.unchanged++;
+            } else {
+                changes.add(new StockChange(stock.productId(), stock.sku(), quantity, stock.stockQty()));
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int[] results = jdbcTemplate.batchUpdate(mode == Mode.SNAPSHOT ? SET_STOCK_SQL : ADD_STOCK_SQL,
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement statement, int i) throws SQLException {
+                        StockChange change = changes.get(i);
+                        statement.setInt(1, change.value());
+                        statement.setTimestamp(2, now);
+                        statement.setLong(3, change.productId());
+                        statement.setInt(4, change.value());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return changes.size();
+                    }
+                });
+
+        Map<Long, Integer> deltas = new LinkedHashMap<>();
+        for (int i = 0; i < results.length; i++) {
+            // Con le righe bloccate ogni UPDATE del batch modifica la sua riga: SUCCESS_NO_INFO
+            // (rewriteBatchedStatements) è un aggiornamento, uno zero esplicito resta un'anomalia da segnalare
+            if (results[i] > 0 || results[i] == Statement.SUCCESS_NO_INFO) {
+                summary.updated++;
+                StockChange change = changes.get(i);
+                deltas.put(change.productId(), mode == Mode.SNAPSHOT ? change.value() - change.previousQty() : change.value());
+            } else if (mode == Mode.DELTA) {
+                summary.rejected++;
+                summary.reportRejected(changes.get(i).sku());
+            } else {
+                summary.unchanged++;
+            }
+        }
+
+        // Un evento per riga modificata, nella transazione del blocco; una sola invalidazione dopo il commit
+        outboxService.recordStockChanges(deltas, "WAREHOUSE_SYNC", null);
+        touchUpdatedAt(deltas.keySet());
+        catalogVersionService.bumpAfterCommit();
+    }
+
+    /**
+     * Riporta updated_at all'ora del commit: il feed di {@link CatalogChangeService} non restituisce
+     * le righe più recenti del suo margine di sicurezza, che deve coprire solo questa istruzione e il commit
+     * e non l'intera durata del blocco
+     */
+    private void touchUpdatedAt(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        namedParameterJdbcTemplate.update(TOUCH_UPDATED_AT_SQL, new MapSqlParameterSource()
+                .addValue("now", Timestamp.valueOf(LocalDateTime.now()))
+                .addValue("ids", productIds));
+    }
+
+    private record StockChange(Long productId, String sku, int value, int previousQty) {}
+
+    private static final class SyncSummary {
+        private int updated;
+        private int unchanged;
+        private int unknown;
+        private int rejected;
+        private final List<String> unknownSkus = new ArrayList<>();
+        private final List<String> rejectedSkus = new ArrayList<>();
+
+        void add(SyncSummary chunk) {
+            updated += chunk.updated;
+            unchanged += chunk.unchanged;
+            unknown += chunk.unknown;
+            rejected += chunk.rejected;
+            chunk.unknownSkus.forEach(this::reportUnknown);
+            chunk.rejectedSkus.forEach(this::reportRejected);
+        }
+
+        void reportUnknown(String sku) {
+            if (unknownSkus.size() < MAX_REPORTED_SKUS) {
+                unknownSkus.add(sku);
+            }
+        }
+
+        void reportRejected(String sku) {
+            if (rejectedSkus.size() < MAX_REPORTED_SKUS) {
+                rejectedSkus.add(sku);
+            }
+        }
+    }
+}
@@ -34,6 +34,8 @@ public class StripeService {
     private final PaymentRepository paymentRepository;
     private final OrderRepository orderRepository;
     private final UserRepository userRepository;
+    private final OutboxService outboxService;
+    private final OrderStateMachine orderStateMachine;
     
     /**
      * Crea un Payment Intent per un ordine
@@ -88,6 +90,7 @@ public class StripeService {
             payment.setRawResponse(paymentIntent.toJson());
             
             paymentRepository.save(payment);
+            outboxService.recordPaymentStatusChanged(payment.getId(), order.getId(), null, payment.getStatus());
             
             log.info("Payment Intent creato con successo: {}", paymentIntent.getId());
             
@@ -206,6 +209,7 @@ public class StripeService {
             Payment payment = paymentOpt.get();
             
             // Mappa lo status di Stripe al nostro enum
+            Payment.PaymentStatus previousStatus = payment.getStatus();
             Payment.PaymentStatus status = mapStripeStatus(paymentIntent.getStatus());
             payment.setStatus(status);
             
@@ -217,16 +221,24 @@ public class StripeService {
             payment.setRawResponse(paymentIntent.toJson());
             
             paymentRepository.save(payment);
+            if (previousStatus != status) {
+                outboxService.recordPaymentStatusChanged(payment.getId(), payment.getOrder().getId(), previousStatus, status);
+            }
             
             // Se il pagamento è riuscito, aggiorna lo stato dell'ordine
-            if (status == Payment.PaymentStatus.SUCCEEDED) {
-                Order order = payment.getOrder();
-                order.setStatus(Order.OrderStatus.PAID);
-                orderRepository.save(order);
-                log.info("Ordine {} marcato come pagato", order.getId());
+            Long paymentId = payment.getId();
+            if (status == Payment.PaymentStatus.SUCCEEDED && previousStatus != Payment.PaymentStatus.SUCCEEDED) {
+                Long orderId = payment.getOrder().getId();
+                // Passaggio condizionale: un ordine già pagato, spedito o cancellato non viene toccato
+                if (orderStateMachine.tryTransition(orderId, orderStateMachine.allowedSources(Order.OrderStatus.PAID),
+                        Order.OrderStatus.PAID, null, "Pagamento " + paymentId + " riuscito")) {
+                    log.info("Ordine {} marcato come pagato", orderId);
+                } else {
+                    log.warn("Pagamento {} riuscito ma l'ordine {} non può passare a PAID", paymentId, orderId);
+                }
             }
             
-            log.info("Payment aggiornato: {} -> {}", payment.getId(), status);
+            log.info("Payment aggiornato: {} -> {}", paymentId, status);
         }
     }
     
@@ -0,0 +1,42 @@
+package com.example.backend.util;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Costruzione di ETag deboli e timestamp Last-Modified per le richieste condizionali
+ */
+public final class EntityTags {
+
+    private EntityTags() {
+    }
+
+    /**
+     * ETag debole composto dalle parti indicate, ad esempio W/"product-12-1718000000000123"
+     */
+    public static String weak(String prefix, Object... parts) {
+        StringBuilder tag = new StringBuilder("W/\"").append(prefix);
+        for (Object part : parts) {
+            tag.append('-').append(part);
+        }
+        return tag.append('"').toString();
+    }
+
+    /**
+     * Converte un timestamp in microsecondi epoch (precisione piena delle colonne DATETIME(6)),
+     * da usare nell'ETag: due modifiche nello stesso secondo producono tag diversi
+     */
+    public static long epochMicros(LocalDateTime dateTime) {
+        Instant instant = dateTime.atZone(ZoneId.systemDefault()).toInstant();
+        return instant.getEpochSecond() * 1_000_000L + instant.getNano() / 1_000;
+    }
+
+    /**
+     * Converte un timestamp in millisecondi epoch (precisione al secondo, come l'header Last-Modified)
+     */
+    public static long epochMillis(LocalDateTime dateTime) {
+        long millis = dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return millis - Math.floorMod(millis, 1000L);
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.backend.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sketch HyperLogLog per la stima della cardinalità (visitatori unici).
+ * Con precisione 12 occupa 4096 registri da un byte (4 KB) indipendentemente
+ * dal numero di elementi osservati, con errore standard di circa l'1,6%.
+ * Il merge è idempotente (massimo registro per registro), quindi uno sketch
+ * può essere unito più volte allo stesso valore persistito senza alterarlo.
+ */
+public class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 12;
+
+    private static final byte FORMAT_DENSE = 0;
+    private static final byte FORMAT_SPARSE = 1;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("La precisione deve essere compresa tra 4 e 16");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Registra un elemento
+     * @return true se lo sketch è cambiato (utile per tracciare gli sketch da persistere)
+     */
+    public boolean offer(String value) {
+        return offerHash(hash64(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public synchronized boolean offerHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        long remaining = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Unisce un altro sketch in questo (unione degli insiemi)
+     */
+    public synchronized void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Impossibile unire sketch con precisione diversa");
+        }
+        byte[] otherRegisters = other.snapshotRegisters();
+        for (int i = 0; i < registers.length; i++) {
+            if (otherRegisters[i] > registers[i]) {
+                registers[i] = otherRegisters[i];
+            }
+        }
+    }
+
+    /**
+     * Stima il numero di elementi distinti osservati
+     */
+    public synchronized long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+
+        // Correzione per cardinalità basse (linear counting)
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Serializza lo sketch in forma compatta: sparsa se pochi registri sono valorizzati,
+     * densa (un byte per registro) altrimenti
+     */
+    public synchronized byte[] toBytes() {
+        int nonZero = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                nonZero++;
+            }
+        }
+
+        if (nonZero * 3 < registers.length) {
+            ByteBuffer buffer = ByteBuffer.allocate(2 + 4 + nonZero * 3);
+            buffer.put(FORMAT_SPARSE).put((byte) precision).putInt(nonZero);
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] != 0) {
+                    buffer.putShort((short) i).put(registers[i]);
+                }
+            }
+            return buffer.array();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(2 + registers.length);
+        buffer.put(FORMAT_DENSE).put((byte) precision).put(registers);
+        return buffer.array();
+    }
+
+    public static HyperLogLog fromBytes(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        byte format = buffer.get();
+        HyperLogLog sketch = new HyperLogLog(buffer.get());
+
+        if (format == FORMAT_SPARSE) {
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                int index = Short.toUnsignedInt(buffer.getShort());
+                sketch.registers[index] = buffer.get();
+            }
+        } else if (format == FORMAT_DENSE) {
+            buffer.get(sketch.registers);
+        } else {
+            throw new IllegalArgumentException("Formato sketch non riconosciuto: " + format);
+        }
+        return sketch;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    private synchronized byte[] snapshotRegisters() {
+        return registers.clone();
+    }
+
+    /**
+     * Hash a 64 bit (FNV-1a seguito dal finalizzatore di MurmurHash3 per una buona dispersione dei bit alti)
+     */
+    static long hash64(byte[] data) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : data) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
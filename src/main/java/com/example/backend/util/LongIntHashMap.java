@@ -0,0 +1,137 @@
+package com.example.backend.util;
+
+import java.util.Arrays;
+
+/**
+ * Mappa long → int a indirizzamento aperto (linear probing) senza boxing.
+ * Pensata per ID di entità: la chiave 0 è riservata come slot vuoto.
+ * Non è thread-safe: la sincronizzazione è a carico del chiamante.
+ */
+public class LongIntHashMap {
+
+    private static final long EMPTY_KEY = 0L;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int resizeThreshold;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int get(long key, int defaultValue) {
+        checkKey(key);
+        int slot = findSlot(keys, key);
+        return keys[slot] == key ? values[slot] : defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        checkKey(key);
+        return keys[findSlot(keys, key)] == key;
+    }
+
+    public void put(long key, int value) {
+        checkKey(key);
+        int slot = findSlot(keys, key);
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        if (size > resizeThreshold) {
+            resize(keys.length << 1);
+        }
+    }
+
+    /**
+     * Somma delta al valore associato alla chiave (0 se assente)
+     * @return il nuovo valore
+     */
+    public int addTo(long key, int delta) {
+        checkKey(key);
+        int slot = findSlot(keys, key);
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            values[slot] = delta;
+            size++;
+            if (size > resizeThreshold) {
+                resize(keys.length << 1);
+            }
+            return delta;
+        }
+        values[slot] += delta;
+        return values[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY_KEY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY_KEY);
+        size = 0;
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, int value);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void resize(int newCapacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY_KEY) {
+                int slot = findSlot(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int findSlot(long[] table, long key) {
+        int mask = table.length - 1;
+        int slot = mix(key) & mask;
+        while (table[slot] != EMPTY_KEY && table[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static void checkKey(long key) {
+        if (key == EMPTY_KEY) {
+            throw new IllegalArgumentException("La chiave 0 è riservata");
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.backend.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Conversione degli importi tra BigDecimal e unità minori (centesimi) in long,
+ * per somme e confronti senza allocazioni
+ */
+public final class MinorUnits {
+
+    private static final int SCALE = 2;
+
+    private MinorUnits() {
+    }
+
+    /**
+     * Importo in centesimi (arrotondato a due decimali)
+     * @throws ArithmeticException se l'importo non è rappresentabile in un long
+     */
+    public static long of(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Importo in centesimi convertito in BigDecimal con due decimali
+     */
+    public static BigDecimal toDecimal(long minor) {
+        return BigDecimal.valueOf(minor, SCALE);
+    }
+}
@@ -0,0 +1,475 @@
+package com.example.backend.util;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Archivio prodotti fuori heap a layout fisso.
+ * Ogni prodotto occupa un record di {@value #RECORD_SIZE} byte in un ByteBuffer diretto:
+ * prezzo in unità minori (long), date in millisecondi epoch (UTC locale, senza fuso), flag a bit e riferimenti (long)
+ * alle stringhe, salvate in una regione a pagine con dizionario condiviso per i valori brevi.
+ * Gli indici per ID e per hash dello slug sono tabelle primitive a indirizzamento aperto.
+ * L'istanza è immutabile dopo la costruzione ed è sicura in lettura da più thread;
+ * i record sono indirizzati con offset int, quindi il limite è di circa 22 milioni di prodotti.
+ * Record e pagine possono essere scritti su file e rimappati in sola lettura all'avvio
+ * ({@link #writeTo(FileChannel)}, {@link #map(FileChannel, long)}).
+ */
+public final class OffHeapProductStore {
+
+    public static final int RECORD_SIZE = 96;
+
+    // Layout del record
+    private static final int ID = 0;
+    private static final int PRICE_MINOR = 8;
+    private static final int CREATED_AT = 16;
+    private static final int UPDATED_AT = 24;
+    private static final int STOCK_QTY = 32;
+    private static final int FLAGS = 36;
+    private static final int CURRENCY_REF = 40;
+    private static final int NAME_REF = 48;
+    private static final int SLUG_REF = 56;
+    private static final int SKU_REF = 64;
+    private static final int DESCRIPTION_REF = 72;
+    private static final int IMAGE_URL_REF = 80;
+    private static final int CATEGORIES_REF = 88;
+
+    private static final int FLAG_ACTIVE = 1;
+
+    private static final long NULL_REF = -1L;
+    private static final long NULL_TIME = Long.MIN_VALUE;
+    private static final int PAGE_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_INTERNED_LENGTH = 64;
+    private static final int AMBIGUOUS_SLUG = -1;
+    private static final int FILE_MAGIC = 0x4F485053;
+    // Capacità massima della regione dei record: un multiplo di RECORD_SIZE indirizzabile con offset int
+    private static final int MAX_RECORDS_CAPACITY = (Integer.MAX_VALUE / RECORD_SIZE) * RECORD_SIZE;
+
+    private final ByteBuffer records;
+    private final int size;
+    private final List<ByteBuffer> pages;
+    private final int[] pageLengths;
+    private final LongIntHashMap idIndex;
+    private final LongIntHashMap slugIndex;
+    private final Map<String, Integer> slugCollisions;
+
+    private OffHeapProductStore(Builder builder) {
+        this.records = builder.records;
+        this.size = builder.size;
+        this.pages = builder.pages;
+        this.pageLengths = builder.pages.stream().mapToInt(ByteBuffer::position).toArray();
+        this.idIndex = builder.idIndex;
+        this.slugIndex = builder.slugIndex;
+        this.slugCollisions = builder.slugCollisions;
+    }
+
+    private OffHeapProductStore(ByteBuffer records, int size, List<ByteBuffer> pages) {
+        this.records = records;
+        this.size = size;
+        this.pages = pages;
+        this.pageLengths = pages.stream().mapToInt(ByteBuffer::capacity).toArray();
+        this.idIndex = new LongIntHashMap(size);
+        this.slugIndex = new LongIntHashMap(size);
+        this.slugCollisions = new HashMap<>();
+        // Gli indici vivono nell'heap e vanno ricostruiti scorrendo i record mappati
+        for (int i = 0; i < size; i++) {
+            idIndex.put(id(i), i);
+            indexSlug(slugIndex, slugCollisions, slug(i), i, this::slug);
+        }
+    }
+
+    public static Builder builder(int expectedProducts) {
+        return new Builder(expectedProducts);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Byte occupati fuori heap (record e pagine di stringhe)
+     */
+    public long offHeapBytes() {
+        long bytes = records.capacity();
+        for (ByteBuffer page : pages) {
+            bytes += page.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Scrive record e pagine di stringhe sul canale, a partire dalla posizione corrente
+     * @return numero di byte scritti
+     */
+    public long writeTo(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16 + pages.size() * 4);
+        header.putInt(FILE_MAGIC).putInt(RECORD_SIZE).putInt(size).putInt(pages.size());
+        for (int length : pageLengths) {
+            header.putInt(length);
+        }
+        long written = writeFully(channel, header.flip());
+        written += writeFully(channel, records.duplicate().clear().limit(size * RECORD_SIZE));
+        for (int i = 0; i < pages.size(); i++) {
+            written += writeFully(channel, pages.get(i).duplicate().clear().limit(pageLengths[i]));
+        }
+        return written;
+    }
+
+    /**
+     * Mappa in sola lettura un archivio scritto con {@link #writeTo(FileChannel)}:
+     * i dati restano nella page cache del sistema operativo, nell'heap vengono ricostruiti solo gli indici
+     * @throws IOException se il file non è leggibile o non ha il formato atteso
+     */
+    public static OffHeapProductStore map(FileChannel channel, long position) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(16);
+        readFully(channel, fixed, position);
+        fixed.flip();
+        if (fixed.getInt() != FILE_MAGIC || fixed.getInt() != RECORD_SIZE) {
+            throw new IOException("Formato dell'archivio prodotti non riconosciuto");
+        }
+        int size = fixed.getInt();
+        int pageCount = fixed.getInt();
+        ByteBuffer lengths = ByteBuffer.allocate(pageCount * 4);
+        readFully(channel, lengths, position + 16);
+        lengths.flip();
+
+        long offset = position + 16 + pageCount * 4L;
+        ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) size * RECORD_SIZE);
+        offset += (long) size * RECORD_SIZE;
+        List<ByteBuffer> pages = new ArrayList<>(pageCount);
+        for (int i = 0; i < pageCount; i++) {
+            int length = lengths.getInt();
+            pages.add(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+            offset += length;
+        }
+        return new OffHeapProductStore(records, size, pages);
+    }
+
+    /**
+     * Posizione del record del prodotto, -1 se assente
+     */
+    public int indexOfId(long id) {
+        return id == 0 ? -1 : idIndex.get(id, -1);
+    }
+
+    /**
+     * Posizione del primo record con ID maggiore di {@code id} ({@link #size()} se non ce ne sono).
+     * Richiede che i prodotti siano stati aggiunti in ordine crescente di ID.
+     */
+    public int firstIndexAfter(long id) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (id(mid) <= id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Posizione del record con lo slug indicato, -1 se assente
+     */
+    public int indexOfSlug(String slug) {
+        int index = slugIndex.get(slugHash(slug), -1);
+        if (index == AMBIGUOUS_SLUG) {
+            return slugCollisions.getOrDefault(slug, -1);
+        }
+        // L'hash coincide: si verifica lo slug per escludere falsi positivi
+        return index >= 0 && slug.equals(slug(index)) ? index : -1;
+    }
+
+    public long id(int index) {
+        return records.getLong(offset(index) + ID);
+    }
+
+    public BigDecimal price(int index) {
+        return MinorUnits.toDecimal(records.getLong(offset(index) + PRICE_MINOR));
+    }
+
+    public LocalDateTime createdAt(int index) {
+        return readTime(records.getLong(offset(index) + CREATED_AT));
+    }
+
+    public LocalDateTime updatedAt(int index) {
+        return readTime(records.getLong(offset(index) + UPDATED_AT));
+    }
+
+    public int stockQty(int index) {
+        return records.getInt(offset(index) + STOCK_QTY);
+    }
+
+    public boolean isActive(int index) {
+        return (records.getInt(offset(index) + FLAGS) & FLAG_ACTIVE) != 0;
+    }
+
+    public String currency(int index) {
+        return readString(records.getLong(offset(index) + CURRENCY_REF));
+    }
+
+    public String name(int index) {
+        return readString(records.getLong(offset(index) + NAME_REF));
+    }
+
+    public String slug(int index) {
+        return readString(records.getLong(offset(index) + SLUG_REF));
+    }
+
+    public String sku(int index) {
+        return readString(records.getLong(offset(index) + SKU_REF));
+    }
+
+    public String description(int index) {
+        return readString(records.getLong(offset(index) + DESCRIPTION_REF));
+    }
+
+    public String imageUrl(int index) {
+        return readString(records.getLong(offset(index) + IMAGE_URL_REF));
+    }
+
+    /**
+     * Nomi delle categorie (lista di riferimenti a stringhe nella regione condivisa)
+     */
+    public List<String> categoryNames(int index) {
+        long ref = records.getLong(offset(index) + CATEGORIES_REF);
+        if (ref == NULL_REF) {
+            return List.of();
+        }
+        ByteBuffer page = pages.get(page(ref));
+        int position = pageOffset(ref);
+        int count = page.getInt(position);
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(readString(page.getLong(position + 4 + i * 8)));
+        }
+        return names;
+    }
+
+    /**
+     * Hash a 64 bit dello slug (FNV-1a), mai 0 perché 0 è la chiave vuota degli indici
+     */
+    static long slugHash(String slug) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < slug.length(); i++) {
+            hash ^= slug.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Indicizza lo slug per hash; in caso di collisione gli slug coinvolti passano alla mappa di fallback
+     */
+    private static void indexSlug(LongIntHashMap slugIndex, Map<String, Integer> slugCollisions,
+                                  String slug, int index, IntFunction<String> slugAt) {
+        long hash = slugHash(slug);
+        int existing = slugIndex.get(hash, -2);
+        if (existing == -2 || existing == index) {
+            slugIndex.put(hash, index);
+            return;
+        }
+        if (existing != AMBIGUOUS_SLUG) {
+            slugCollisions.put(slugAt.apply(existing), existing);
+            slugIndex.put(hash, AMBIGUOUS_SLUG);
+        }
+        slugCollisions.put(slug, index);
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        return written;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Archivio prodotti troncato");
+            }
+        }
+    }
+
+    private static LocalDateTime readTime(long millis) {
+        if (millis == NULL_TIME) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), Math.floorMod(millis, 1000) * 1_000_000,
+                ZoneOffset.UTC);
+    }
+
+    private static long writeTime(LocalDateTime time) {
+        return time != null ? time.toInstant(ZoneOffset.UTC).toEpochMilli() : NULL_TIME;
+    }
+
+    private String readString(long ref) {
+        if (ref == NULL_REF) {
+            return null;
+        }
+        ByteBuffer page = pages.get(page(ref));
+        int position = pageOffset(ref);
+        byte[] bytes = new byte[page.getInt(position)];
+        page.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int offset(int index) {
+        return index * RECORD_SIZE;
+    }
+
+    private static int page(long ref) {
+        return (int) (ref >>> 32);
+    }
+
+    private static int pageOffset(long ref) {
+        return (int) ref;
+    }
+
+    /**
+     * Costruzione a thread singolo; il dizionario delle stringhe brevi esiste solo durante la costruzione
+     */
+    public static final class Builder {
+        private ByteBuffer records;
+        private int size;
+        private final List<ByteBuffer> pages = new ArrayList<>();
+        private final LongIntHashMap idIndex;
+        private final LongIntHashMap slugIndex;
+        private final Map<String, Integer> slugCollisions = new HashMap<>();
+        private final Map<String, Long> dictionary = new HashMap<>();
+
+        private Builder(int expectedProducts) {
+            int capacity = Math.min(Math.max(16, expectedProducts), MAX_RECORDS_CAPACITY / RECORD_SIZE);
+            records = ByteBuffer.allocateDirect(capacity * RECORD_SIZE);
+            idIndex = new LongIntHashMap(capacity);
+            slugIndex = new LongIntHashMap(capacity);
+            pages.add(ByteBuffer.allocateDirect(PAGE_SIZE));
+        }
+
+        /**
+         * Aggiunge un prodotto (gli ID duplicati sostituiscono il record esistente)
+         */
+        public Builder add(long id, String name, String slug, String sku, String description, BigDecimal price,
+                           String currency, int stockQty, boolean active, String imageUrl,
+                           LocalDateTime createdAt, LocalDateTime updatedAt, Collection<String> categoryNames) {
+            int index = idIndex.get(id, -1);
+            if (index < 0) {
+                ensureRecordCapacity();
+                index = size++;
+                idIndex.put(id, index);
+            }
+
+            int base = offset(index);
+            records.putLong(base + ID, id);
+            records.putLong(base + PRICE_MINOR, MinorUnits.of(price));
+            records.putLong(base + CREATED_AT, writeTime(createdAt));
+            records.putLong(base + UPDATED_AT, writeTime(updatedAt));
+            records.putInt(base + STOCK_QTY, stockQty);
+            records.putInt(base + FLAGS, active ? FLAG_ACTIVE : 0);
+            records.putLong(base + CURRENCY_REF, writeString(currency));
+            records.putLong(base + NAME_REF, writeString(name));
+            records.putLong(base + SLUG_REF, writeString(slug));
+            records.putLong(base + SKU_REF, writeString(sku));
+            records.putLong(base + DESCRIPTION_REF, writeString(description));
+            records.putLong(base + IMAGE_URL_REF, writeString(imageUrl));
+            records.putLong(base + CATEGORIES_REF, writeStringList(categoryNames));
+
+            indexSlug(slugIndex, slugCollisions, slug, index, this::readSlug);
+            return this;
+        }
+
+        public OffHeapProductStore build() {
+            dictionary.clear();
+            return new OffHeapProductStore(this);
+        }
+
+        private String readSlug(int index) {
+            long ref = records.getLong(offset(index) + SLUG_REF);
+            ByteBuffer page = pages.get(page(ref));
+            byte[] bytes = new byte[page.getInt(pageOffset(ref))];
+            page.get(pageOffset(ref) + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private void ensureRecordCapacity() {
+            long required = (long) (size + 1) * RECORD_SIZE;
+            if (required <= records.capacity()) {
+                return;
+            }
+            if (required > MAX_RECORDS_CAPACITY) {
+                throw new IllegalStateException("Archivio prodotti pieno: al massimo "
+                        + MAX_RECORDS_CAPACITY / RECORD_SIZE + " prodotti");
+            }
+            // Raddoppio limitato alla capacità massima indirizzabile
+            int capacity = (int) Math.min((long) records.capacity() * 2, MAX_RECORDS_CAPACITY);
+            ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+            grown.put(records.duplicate().clear().limit(size * RECORD_SIZE));
+            records = grown;
+        }
+
+        private long writeString(String value) {
+            if (value == null) {
+                return NULL_REF;
+            }
+            // Le stringhe brevi (valute, nomi di categoria, URL ripetuti) sono condivise
+            boolean intern = value.length() <= MAX_INTERNED_LENGTH;
+            if (intern) {
+                Long existing = dictionary.get(value);
+                if (existing != null) {
+                    return existing;
+                }
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            long ref = reserve(4 + bytes.length);
+            ByteBuffer page = pages.get(page(ref));
+            page.putInt(pageOffset(ref), bytes.length);
+            page.put(pageOffset(ref) + 4, bytes);
+            if (intern) {
+                dictionary.put(value, ref);
+            }
+            return ref;
+        }
+
+        private long writeStringList(Collection<String> values) {
+            if (values == null || values.isEmpty()) {
+                return NULL_REF;
+            }
+            long[] refs = values.stream().mapToLong(this::writeString).toArray();
+            long ref = reserve(4 + refs.length * 8);
+            ByteBuffer page = pages.get(page(ref));
+            int position = pageOffset(ref);
+            page.putInt(position, refs.length);
+            for (int i = 0; i < refs.length; i++) {
+                page.putLong(position + 4 + i * 8, refs[i]);
+            }
+            return ref;
+        }
+
+        /**
+         * Riserva spazio nell'ultima pagina (o in una nuova) e restituisce il riferimento
+         */
+        private long reserve(int length) {
+            ByteBuffer page = pages.get(pages.size() - 1);
+            if (page.position() + length > page.capacity()) {
+                page = ByteBuffer.allocateDirect(Math.max(PAGE_SIZE, length));
+                pages.add(page);
+            }
+            long ref = ((long) (pages.size() - 1) << 32) | page.position();
+            page.position(page.position() + length);
+            return ref;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.backend.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.withPercentage;
+
+import org.junit.jupiter.api.Test;
+
+class HyperLogLogTest {
+
+    // Errore standard con precisione 12 ≈ 1,04 / sqrt(4096) ≈ 1,6%: si tollerano circa tre deviazioni
+    private static final double TOLERANCE_PERCENT = 5;
+
+    @Test
+    void estimatesCardinalityWithinTolerance() {
+        for (int cardinality : new int[] {100, 1_000, 10_000, 100_000}) {
+            HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < cardinality; i++) {
+                sketch.offer("visitor-" + i);
+            }
+            assertThat((double) sketch.estimate()).isCloseTo(cardinality, withPercentage(TOLERANCE_PERCENT));
+        }
+    }
+
+    @Test
+    void repeatedValuesDoNotChangeTheSketch() {
+        HyperLogLog sketch = new HyperLogLog();
+        assertThat(sketch.offer("visitor-1")).isTrue();
+        assertThat(sketch.offer("visitor-1")).isFalse();
+        assertThat(sketch.estimate()).isEqualTo(1);
+    }
+
+    @Test
+    void mergeEstimatesTheUnion() {
+        HyperLogLog left = new HyperLogLog();
+        HyperLogLog right = new HyperLogLog();
+        for (int i = 0; i < 30_000; i++) {
+            left.offer("visitor-" + i);
+        }
+        for (int i = 20_000; i < 50_000; i++) {
+            right.offer("visitor-" + i);
+        }
+
+        left.merge(right);
+
+        assertThat((double) left.estimate()).isCloseTo(50_000, withPercentage(TOLERANCE_PERCENT));
+    }
+
+    @Test
+    void mergeIsIdempotent() {
+        HyperLogLog sketch = new HyperLogLog();
+        HyperLogLog other = new HyperLogLog();
+        for (int i = 0; i < 5_000; i++) {
+            sketch.offer("a-" + i);
+            other.offer("b-" + i);
+        }
+        sketch.merge(other);
+        byte[] once = sketch.toBytes();
+
+        sketch.merge(other);
+        sketch.merge(HyperLogLog.fromBytes(once));
+
+        assertThat(sketch.toBytes()).isEqualTo(once);
+    }
+
+    @Test
+    void mergeRejectsDifferentPrecision() {
+        assertThatThrownBy(() -> new HyperLogLog(12).merge(new HyperLogLog(10)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void sparseAndDenseEncodingsRoundTrip() {
+        HyperLogLog sparse = new HyperLogLog();
+        for (int i = 0; i < 50; i++) {
+            sparse.offer("visitor-" + i);
+        }
+        HyperLogLog dense = new HyperLogLog();
+        for (int i = 0; i < 50_000; i++) {
+            dense.offer("visitor-" + i);
+        }
+
+        byte[] sparseBytes = sparse.toBytes();
+        byte[] denseBytes = dense.toBytes();
+
+        assertThat(sparseBytes.length).isLessThan(2 + (1 << HyperLogLog.DEFAULT_PRECISION));
+        assertThat(denseBytes.length).isEqualTo(2 + (1 << HyperLogLog.DEFAULT_PRECISION));
+        assertThat(HyperLogLog.fromBytes(sparseBytes).toBytes()).isEqualTo(sparseBytes);
+        assertThat(HyperLogLog.fromBytes(denseBytes).estimate()).isEqualTo(dense.estimate());
+    }
+
+    @Test
+    void fromBytesRejectsUnknownFormat() {
+        assertThatThrownBy(() -> HyperLogLog.fromBytes(new byte[] {7, 12}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.backend.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class LongIntHashMapTest {
+
+    @Test
+    void putGetAndAddTo() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(42, 7);
+
+        assertThat(map.get(42, -1)).isEqualTo(7);
+        assertThat(map.get(43, -1)).isEqualTo(-1);
+        assertThat(map.addTo(42, 3)).isEqualTo(10);
+        assertThat(map.addTo(43, 5)).isEqualTo(5);
+        assertThat(map.containsKey(43)).isTrue();
+        assertThat(map.size()).isEqualTo(2);
+    }
+
+    @Test
+    void collidingKeysAreResolvedByProbing() {
+        // Chiavi che finiscono nello stesso slot di una tabella da 16: la ricerca prosegue sugli slot successivi
+        LongIntHashMap map = new LongIntHashMap(8);
+        int mask = 15;
+        int target = LongIntHashMap.mix(1) & mask;
+        long[] colliding = new long[5];
+        int found = 0;
+        for (long key = 1; found < colliding.length; key++) {
+            if ((LongIntHashMap.mix(key) & mask) == target) {
+                colliding[found++] = key;
+            }
+        }
+
+        for (int i = 0; i < colliding.length; i++) {
+            map.put(colliding[i], i);
+        }
+
+        for (int i = 0; i < colliding.length; i++) {
+            assertThat(map.get(colliding[i], -1)).isEqualTo(i);
+        }
+        assertThat(map.size()).isEqualTo(colliding.length);
+    }
+
+    @Test
+    void resizeKeepsAllEntries() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (long key = 1; key <= 100_000; key++) {
+            long id = key * 1_000_003L;
+            map.addTo(id, (int) key);
+            expected.merge(id, (int) key, Integer::sum);
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        expected.forEach((key, value) -> assertThat(map.get(key, -1)).isEqualTo(value));
+        Map<Long, Integer> iterated = new HashMap<>();
+        map.forEach(iterated::put);
+        assertThat(iterated).isEqualTo(expected);
+    }
+
+    @Test
+    void negativeKeysAreSupported() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(-1, 1);
+        map.put(Long.MIN_VALUE, 2);
+
+        assertThat(map.get(-1, 0)).isEqualTo(1);
+        assertThat(map.get(Long.MIN_VALUE, 0)).isEqualTo(2);
+    }
+
+    @Test
+    void zeroKeyIsRejected() {
+        LongIntHashMap map = new LongIntHashMap();
+
+        assertThatThrownBy(() -> map.put(0, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> map.addTo(0, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> map.get(0, -1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> map.containsKey(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test
+    void clearEmptiesTheMap() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(1, 1);
+        map.put(2, 2);
+
+        map.clear();
+
+        assertThat(map.isEmpty()).isTrue();
+        assertThat(map.containsKey(1)).isFalse();
+        map.put(1, 3);
+        assertThat(map.get(1, -1)).isEqualTo(3);
+    }
+}
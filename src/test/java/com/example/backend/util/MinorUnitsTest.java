@@ -0,0 +1,45 @@
+package com.example.backend.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+
+class MinorUnitsTest {
+
+    @Test
+    void convertsToCents() {
+        assertThat(MinorUnits.of(new BigDecimal("19.99"))).isEqualTo(1999);
+        assertThat(MinorUnits.of(new BigDecimal("5"))).isEqualTo(500);
+        assertThat(MinorUnits.of(BigDecimal.ZERO)).isZero();
+        assertThat(MinorUnits.of(new BigDecimal("-0.10"))).isEqualTo(-10);
+    }
+
+    @Test
+    void roundsHalfUpToTwoDecimals() {
+        assertThat(MinorUnits.of(new BigDecimal("0.005"))).isEqualTo(1);
+        assertThat(MinorUnits.of(new BigDecimal("0.0049"))).isZero();
+        assertThat(MinorUnits.of(new BigDecimal("2.675"))).isEqualTo(268);
+        assertThat(MinorUnits.of(new BigDecimal("-2.675"))).isEqualTo(-268);
+    }
+
+    @Test
+    void rejectsAmountsOutsideLongRange() {
+        BigDecimal maxCents = BigDecimal.valueOf(Long.MAX_VALUE, 2);
+
+        assertThat(MinorUnits.of(maxCents)).isEqualTo(Long.MAX_VALUE);
+        assertThatThrownBy(() -> MinorUnits.of(maxCents.add(new BigDecimal("0.01"))))
+                .isInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> MinorUnits.of(BigDecimal.valueOf(Long.MIN_VALUE, 2).subtract(new BigDecimal("0.01"))))
+                .isInstanceOf(ArithmeticException.class);
+    }
+
+    @Test
+    void toDecimalHasTwoDecimals() {
+        assertThat(MinorUnits.toDecimal(1999)).isEqualTo(new BigDecimal("19.99"));
+        assertThat(MinorUnits.toDecimal(5)).isEqualTo(new BigDecimal("0.05"));
+        assertThat(MinorUnits.toDecimal(MinorUnits.of(new BigDecimal("123.45")))).isEqualTo(new BigDecimal("123.45"));
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.backend.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OffHeapProductStoreTest {
+
+    // Slug distinti con lo stesso slugHash: entrambi hanno FNV-1a pari a 0 (trovati con una ricerca
+    // meet-in-the-middle), che slugHash riporta a 1
+    private static final String COLLIDING_SLUG_A = "ipqxjc\uace9]\uba04";
+    private static final String COLLIDING_SLUG_B = "qhxyze\uc5f2N\u9dbe";
+
+    private static final LocalDateTime CREATED_AT = LocalDateTime.of(2024, 3, 1, 10, 15, 30, 123_000_000);
+    private static final LocalDateTime UPDATED_AT = LocalDateTime.of(2024, 3, 2, 8, 0);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsBackEveryField() {
+        OffHeapProductStore store = OffHeapProductStore.builder(4)
+                .add(10, "Tazza", "tazza", "SKU-10", "Tazza in ceramica", new BigDecimal("12.50"), "EUR", 7, true,
+                        "https://img.example.com/tazza.jpg", CREATED_AT, UPDATED_AT, List.of("Cucina", "Regali"))
+                .add(20, "Piatto", "piatto", "SKU-20", null, new BigDecimal("3.999"), "EUR", 0, false,
+                        null, CREATED_AT, null, List.of())
+                .build();
+
+        int tazza = store.indexOfId(10);
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.name(tazza)).isEqualTo("Tazza");
+        assertThat(store.slug(tazza)).isEqualTo("tazza");
+        assertThat(store.sku(tazza)).isEqualTo("SKU-10");
+        assertThat(store.description(tazza)).isEqualTo("Tazza in ceramica");
+        assertThat(store.price(tazza)).isEqualTo(new BigDecimal("12.50"));
+        assertThat(store.currency(tazza)).isEqualTo("EUR");
+        assertThat(store.stockQty(tazza)).isEqualTo(7);
+        assertThat(store.isActive(tazza)).isTrue();
+        assertThat(store.imageUrl(tazza)).isEqualTo("https://img.example.com/tazza.jpg");
+        assertThat(store.createdAt(tazza)).isEqualTo(CREATED_AT);
+        assertThat(store.updatedAt(tazza)).isEqualTo(UPDATED_AT);
+        assertThat(store.categoryNames(tazza)).containsExactly("Cucina", "Regali");
+
+        int piatto = store.indexOfSlug("piatto");
+        assertThat(store.id(piatto)).isEqualTo(20);
+        assertThat(store.description(piatto)).isNull();
+        assertThat(store.imageUrl(piatto)).isNull();
+        assertThat(store.price(piatto)).isEqualTo(new BigDecimal("4.00"));
+        assertThat(store.isActive(piatto)).isFalse();
+        assertThat(store.updatedAt(piatto)).isNull();
+        assertThat(store.categoryNames(piatto)).isEmpty();
+
+        assertThat(store.indexOfId(30)).isEqualTo(-1);
+        assertThat(store.indexOfId(0)).isEqualTo(-1);
+        assertThat(store.indexOfSlug("bicchiere")).isEqualTo(-1);
+    }
+
+    @Test
+    void duplicateIdReplacesTheRecord() {
+        OffHeapProductStore store = OffHeapProductStore.builder(4)
+                .add(10, "Tazza", "tazza", "SKU-10", null, BigDecimal.ONE, "EUR", 1, true, null, null, null, null)
+                .add(10, "Tazza grande", "tazza-grande", "SKU-10", null, BigDecimal.TEN, "EUR", 2, true, null, null, null, null)
+                .build();
+
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.name(store.indexOfId(10))).isEqualTo("Tazza grande");
+        assertThat(store.indexOfSlug("tazza-grande")).isZero();
+    }
+
+    @Test
+    void growsBeyondTheExpectedSize() {
+        OffHeapProductStore.Builder builder = OffHeapProductStore.builder(1);
+        for (long id = 1; id <= 100; id++) {
+            builder.add(id, "Prodotto " + id, "prodotto-" + id, "SKU-" + id, null, BigDecimal.ONE, "EUR",
+                    (int) id, true, null, null, null, null);
+        }
+        OffHeapProductStore store = builder.build();
+
+        assertThat(store.size()).isEqualTo(100);
+        for (long id = 1; id <= 100; id++) {
+            int index = store.indexOfSlug("prodotto-" + id);
+            assertThat(store.id(index)).isEqualTo(id);
+            assertThat(store.stockQty(index)).isEqualTo((int) id);
+        }
+    }
+
+    @Test
+    void collidingSlugsAreResolvedByTheFallbackMap() {
+        assertThat(COLLIDING_SLUG_A).isNotEqualTo(COLLIDING_SLUG_B);
+        assertThat(OffHeapProductStore.slugHash(COLLIDING_SLUG_A)).isEqualTo(OffHeapProductStore.slugHash(COLLIDING_SLUG_B));
+
+        OffHeapProductStore store = OffHeapProductStore.builder(4)
+                .add(1, "A", COLLIDING_SLUG_A, "SKU-1", null, BigDecimal.ONE, "EUR", 1, true, null, null, null, null)
+                .add(2, "B", COLLIDING_SLUG_B, "SKU-2", null, BigDecimal.ONE, "EUR", 1, true, null, null, null, null)
+                .add(3, "C", "altro", "SKU-3", null, BigDecimal.ONE, "EUR", 1, true, null, null, null, null)
+                .build();
+
+        assertThat(store.id(store.indexOfSlug(COLLIDING_SLUG_A))).isEqualTo(1);
+        assertThat(store.id(store.indexOfSlug(COLLIDING_SLUG_B))).isEqualTo(2);
+        assertThat(store.id(store.indexOfSlug("altro"))).isEqualTo(3);
+    }
+
+    @Test
+    void firstIndexAfterFindsTheNextId() {
+        OffHeapProductStore.Builder builder = OffHeapProductStore.builder(8);
+        for (long id : new long[] {5, 10, 15, 20}) {
+            builder.add(id, "P" + id, "p-" + id, "SKU-" + id, null, BigDecimal.ONE, "EUR", 1, true, null, null, null, null);
+        }
+        OffHeapProductStore store = builder.build();
+
+        assertThat(store.firstIndexAfter(0)).isZero();
+        assertThat(store.firstIndexAfter(5)).isEqualTo(1);
+        assertThat(store.firstIndexAfter(7)).isEqualTo(1);
+        assertThat(store.firstIndexAfter(19)).isEqualTo(3);
+        assertThat(store.firstIndexAfter(20)).isEqualTo(4);
+        assertThat(store.firstIndexAfter(Long.MAX_VALUE)).isEqualTo(store.size());
+    }
+
+    @Test
+    void writeAndMapRoundTrip() throws IOException {
+        OffHeapProductStore store = OffHeapProductStore.builder(4)
+                .add(10, "Tazza", "tazza", "SKU-10", "Tazza in ceramica", new BigDecimal("12.50"), "EUR", 7, true,
+                        null, CREATED_AT, UPDATED_AT, List.of("Cucina"))
+                .add(20, "Piatto", "piatto", "SKU-20", null, new BigDecimal("4.00"), "EUR", 3, true,
+                        null, CREATED_AT, null, List.of("Cucina", "Tavola"))
+                .build();
+        Path file = tempDir.resolve("products.bin");
+
+        long offset = 128;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.position(offset);
+            store.writeTo(channel);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            OffHeapProductStore mapped = OffHeapProductStore.map(channel, offset);
+
+            assertThat(mapped.size()).isEqualTo(2);
+            int piatto = mapped.indexOfSlug("piatto");
+            assertThat(mapped.id(piatto)).isEqualTo(20);
+            assertThat(mapped.price(piatto)).isEqualTo(new BigDecimal("4.00"));
+            assertThat(mapped.categoryNames(piatto)).containsExactly("Cucina", "Tavola");
+            int tazza = mapped.indexOfId(10);
+            assertThat(mapped.description(tazza)).isEqualTo("Tazza in ceramica");
+            assertThat(mapped.createdAt(tazza)).isEqualTo(CREATED_AT);
+            assertThat(mapped.updatedAt(tazza)).isEqualTo(UPDATED_AT);
+            assertThat(mapped.firstIndexAfter(10)).isEqualTo(piatto);
+        }
+    }
+
+    @Test
+    void mapRejectsUnknownFormat() throws IOException {
+        Path file = tempDir.resolve("garbage.bin");
+        Files.write(file, new byte[64]);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertThatThrownBy(() -> OffHeapProductStore.map(channel, 0)).isInstanceOf(IOException.class);
+        }
+    }
+}